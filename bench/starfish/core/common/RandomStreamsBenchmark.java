@@ -0,0 +1,94 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.common;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the random number facade with 32 threads drawing at once.
+ * Compares the thread local streams, the chunk keyed streams bound by
+ * Starfish.parallelFor, and the single java.util.Random shared by all threads
+ * that the facade replaced. Each invocation draws CHUNK doubles, about the
+ * work of one particle block. Run with "ant bench -Djmh.lib=dir" where dir
+ * holds jmh-core, jmh-generator-annprocess and their dependencies.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class RandomStreamsBenchmark
+{
+    static final int CHUNK = 1024;
+
+    @Param({"xoshiro", "splittable", "counter"})
+    String rng;
+
+    final Random shared = new Random(0);
+    final AtomicLong next_chunk = new AtomicLong(0);
+    final long seed = 0x5eed;
+
+    @Setup
+    public void setup()
+    {
+	RandomStreams.init(RandomStreams.parseType(rng), seed);
+    }
+
+    /** per-thread stream obtained through the facade on every draw*/
+    @Benchmark
+    public double threadStream()
+    {
+	double sum = 0;
+	for (int i=0;i<CHUNK;i++)
+	    sum += RandomStreams.get().nextDouble();
+	return sum;
+    }
+
+    /** stream keyed by the chunk index, bound and restored as in parallelFor*/
+    @Benchmark
+    public double chunkStream()
+    {
+	long chunk = next_chunk.getAndIncrement();
+	Random old = RandomStreams.bind(RandomStreams.newGenerator(CounterRandom.streamKey(seed, chunk)));
+	try {
+	    double sum = 0;
+	    for (int i=0;i<CHUNK;i++)
+		sum += RandomStreams.get().nextDouble();
+	    return sum;
+	}
+	finally {
+	    RandomStreams.bind(old);
+	}
+    }
+
+    /** single generator shared by all threads, contended on its seed*/
+    @Benchmark
+    public double sharedRandom()
+    {
+	double sum = 0;
+	for (int i=0;i<CHUNK;i++)
+	    sum += shared.nextDouble();
+	return sum;
+    }
+}
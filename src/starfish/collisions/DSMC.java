@@ -7,12 +7,11 @@
 
 package starfish.collisions;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Random;
 import org.w3c.dom.Element;
 import starfish.core.common.Constants;
+import starfish.core.common.CounterRandom;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
 import starfish.core.domain.Field2D;
@@ -25,6 +24,7 @@ import starfish.core.interactions.VolumeInteraction;
 import starfish.core.io.InputParser;
 import starfish.core.materials.KineticMaterial;
 import starfish.core.materials.KineticMaterial.Particle;
+import starfish.core.materials.KineticMaterial.CellIndex;
 import starfish.core.common.Vector;
 
 /**
@@ -82,6 +82,8 @@ public class DSMC extends VolumeInteraction
 	
 	//initialize sigma parameters as needed
 	sigma.init(this.mat1, this.mat2);
+	sigma = InteractionsModule.tabulateSigma(sigma, element, mat1.mass*mat2.mass/(mat1.mass+mat2.mass),
+		"DSMC "+mat1.getName()+"-"+mat2.getName());
 	
 	/*add fields*/
 	fc_real_sum = Starfish.domain_module.getFieldManager().add("col-real-sum-"+tag, "#",null);
@@ -124,12 +126,10 @@ public class DSMC extends VolumeInteraction
     
     class CellInfo
     {
-	List<Particle> sp1_list = new ArrayList<Particle>();
-	List<Particle> sp2_list = new ArrayList<Particle>();
-	
 	double sig_cr_max;	/*TODO: this needs to be per species species pair*/
 	private double rem;
 	double cell_volume;
+	int num_cols;		//collisions performed by the last call
 	
 	CellInfo(double sig_cr, double cell_vol) {
 	    sig_cr_max=sig_cr;
@@ -189,89 +189,107 @@ public class DSMC extends VolumeInteraction
 	fc_nu.mult(1.0/(num_samples*frequency*Starfish.getDt()));	
     }
 
-    /** performs DSMC on a mesh*/
+    /** performs DSMC on a mesh, cells are distributed over the worker pool 
+     * in blocks of similar cost. Each cell draws random numbers from its own 
+     * stream so results do not depend on the number of threads*/
     void perform (Mesh mesh)
     {
-	CellInfo cell_info[][] = mesh_data.get(mesh).cell_info;
+	MeshData md = mesh_data.get(mesh);
+	CellInfo cell_info[][] = md.cell_info;
+	int nj1 = mesh.nj-1;
+	int num_cells = (mesh.ni-1)*nj1;
 	
-	/*cleanup*/
-	for (int i=0;i<mesh.ni-1;i++)
-	    for (int j=0;j<mesh.nj-1;j++)
-	    {
-		cell_info[i][j].sp1_list.clear();
-		cell_info[i][j].sp2_list.clear();
-	    }
-	
-	/*sort particles into cells
+	/*particles sorted into cells, shared with other interactions in this time step
 	 * TODO: add support for subcells per Bird*/
-	/*source*/
-	Iterator<Particle> src_iterator = mat1.getIterator(mesh);
-	while (src_iterator.hasNext())
+	CellIndex sp1 = mat1.getMeshData(mesh).getCellIndex();
+	CellIndex sp2 = (mat2==mat1)?sp1:mat2.getMeshData(mesh).getCellIndex();
+	
+	/*split cells into blocks of similar cost, the number of selections scales as np1*np2*/
+	int num_blocks = 4*Starfish.getNumProcessors();
+	double cost[] = new double[num_cells+1];
+	for (int c=0;c<num_cells;c++)
 	{
-	    Particle part = src_iterator.next();
-	    int i=(int)part.lc[0];
-	    int j=(int)part.lc[1];
-	    if (i>=mesh.ni-1 || j>=mesh.nj-1) continue;	//boundary source can create particles on mesh edge
-	    cell_info[i][j].sp1_list.add(part);
-	   
+	    double np1 = sp1.count(c);
+	    cost[c+1] = cost[c] + np1*sp2.count(c) + np1 + 1;
 	}
-
-	/*target*/
-	if (mat2!=mat1)
+	int bounds[] = new int[num_blocks+1];
+	int c = 0;
+	for (int b=1;b<num_blocks;b++)
 	{
-	    Iterator<Particle> tgt_iterator = mat2.getIterator(mesh);
-	    while (tgt_iterator.hasNext())
-	    {
-		Particle part = tgt_iterator.next();
-		int i=(int)part.lc[0];
-		int j=(int)part.lc[1];
-		if (i>=mesh.ni-1 || j>=mesh.nj-1) continue;   //boundary source can create particles on mesh edge
-		cell_info[i][j].sp2_list.add(part);
-	    }
+	    double target = cost[num_cells]*b/num_blocks;
+	    while (c<num_cells && cost[c+1]<target) c++;
+	    bounds[b] = c;
 	}
+	bounds[num_blocks] = num_cells;
 	
-	long nc_tot=0;
-
-	double sigma_cr_max=0;
-	    
+	long seed = (long)(Starfish.rnd()*Long.MAX_VALUE);
+	boolean ss = Starfish.steady_state();
 	Field2D real_sum = fc_real_sum.getField(mesh);
 	Field2D count_sum = fc_count_sum.getField(mesh);
 	
-	/*loop over cells*/
-	for (int i=0;i<mesh.ni-1;i++)
-	    for (int j=0;j<mesh.nj-1;j++)
+	/*largest squared speed after collisions, per chunk of blocks*/
+	double v2_max1[] = new double[num_blocks];
+	double v2_max2[] = new double[num_blocks];
+	
+	Starfish.parallelFor(num_blocks, 2, (b_min, b_max) -> {
+	    CounterRandom rnd = new CounterRandom();
+	    for (int cell=bounds[b_min];cell<bounds[b_max];cell++)
 	    {
-		double cell_cols[] = collideCell(cell_info[i][j]);	
+		int i = cell/nj1;
+		int j = cell%nj1;
+		rnd.setStream(CounterRandom.streamKey(seed, cell));
+		double cell_cols[] = collideCell(cell_info[i][j], sp1, sp2, cell, rnd);	
+		v2_max1[b_min] = Math.max(v2_max1[b_min], cell_cols[2]);
+		v2_max2[b_min] = Math.max(v2_max2[b_min], cell_cols[3]);
 		
 		/*start counting only at ss since dividing by time since ss*/
-		if (Starfish.steady_state())
+		if (ss)
 		{
 		    count_sum.add(i,j,cell_cols[0]);	    //cell data
 		    real_sum.add(i,j,cell_cols[1]);
 		}
-		nc_tot+=cell_cols[0];
+	    }
+	});
+
+	/*collisions change velocities in place, keep the speed bounds used by MCC valid*/
+	for (int b=0;b<num_blocks;b++)
+	{
+	    mat1.getMeshData(mesh).updateMaxSpeed(v2_max1[b]);
+	    mat2.getMeshData(mesh).updateMaxSpeed(v2_max2[b]);
+	}
+
+	/*reduce tallies*/
+	long nc_tot=0;
+	double sigma_cr_max=0;
+	for (int i=0;i<mesh.ni-1;i++)
+	    for (int j=0;j<nj1;j++)
+	    {
+		nc_tot+=cell_info[i][j].num_cols;
 		if (cell_info[i][j].sig_cr_max>sigma_cr_max) sigma_cr_max=cell_info[i][j].sig_cr_max;
 	    }
 
 	Log.log(String.format("DSMC %s-%s collision count: %d\t sig_cr_max: %.3g",mat1.getName(),mat2.getName(),nc_tot,sigma_cr_max));
 
     }
-
-    /**performs DSMC collisions for a single cell, uses Boyd 1996 algorithm for variable weight*/
-    double[] collideCell(CellInfo cell_info)
+    
+    /**performs DSMC collisions for a single cell, uses Boyd 1996 algorithm for variable weight
+     * @return number of collisions, sum of their weights, and the largest squared
+     * speed of the collided mat1 and mat2 particles*/
+    double[] collideCell(CellInfo cell_info, CellIndex index1, CellIndex index2, int cell, Random rnd)
     {	
 	double sig_cr_max=0;	/*used to obtain new value*/	
 	
 	double delta_t=frequency*Starfish.getDt();
-	double sums[] = {0,0};	//[0] is integer sum of collision events, [1] is sum of specific weight
+	double sums[] = {0,0,0,0};	//[0] is integer sum of collision events, [1] is sum of specific weight, [2],[3] max v^2
 
 	/*we have just one list if both materials the same*/
-	List<Particle>sp1_list = cell_info.sp1_list;
-	List<Particle>sp2_list = cell_info.sp2_list;
-	if (mat2==mat1) sp2_list = sp1_list;
+	Particle sp1[] = index1.part;
+	Particle sp2[] = index2.part;
+	int off1 = index1.start[cell];
+	int off2 = index2.start[cell];
 	
-	double np1 = sp1_list.size();
-	double np2 = sp2_list.size();
+	double np1 = index1.count(cell);
+	double np2 = index2.count(cell);
 	    
 	double spwt1=mat1.getSpwt0();
 	double spwt2=mat2.getSpwt0();
@@ -311,13 +329,13 @@ public class DSMC extends VolumeInteraction
 	{
 	    Particle part1,part2;
 	    int p1,p2;
-	    p1 = (int)(Starfish.rnd()*np1);
+	    p1 = (int)(rnd.nextDouble()*np1);
 		    
-	    do {p2 = (int)(Starfish.rnd()*np2);}
+	    do {p2 = (int)(rnd.nextDouble()*np2);}
 	    while (mat1==mat2 && p1 == p2);
 
-	    part1=sp1_list.get(p1);
-	    part2=sp2_list.get(p2);
+	    part1=sp1[off1+p1];
+	    part2=sp2[off2+p2];
 		    
 	    /*relative velocity*/
 	    for (int j=0;j<3;j++)
@@ -327,7 +345,7 @@ public class DSMC extends VolumeInteraction
 
 	    double mr = part1.mass*part2.mass/(part1.mass+part2.mass);	//reduced mass
 	    /*eval cross section*/
-	    double sigma_cr = cr_mag*sigma.eval(cr_mag, mr);
+	    double sigma_cr = sigma.evalSigmaG(cr_mag, mr);
 		
 	    if (sigma_cr>sig_cr_max)
 		sig_cr_max=sigma_cr;
@@ -335,9 +353,11 @@ public class DSMC extends VolumeInteraction
 	    /*eval prob*/
 	    double P=sigma_cr/cell_info.sig_cr_max;
 
-	    if (Starfish.rnd()<P)
+	    if (rnd.nextDouble()<P)
 	    {
-		model.perform(part1, part2,vss_inv);
+		model.perform(part1, part2,vss_inv,rnd);
+		sums[2] = Math.max(sums[2], Vector.dot3(part1.vel, part1.vel));
+		sums[3] = Math.max(sums[3], Vector.dot3(part2.vel, part2.vel));
 		
 		sums[0]+=1.0;
 		sums[1]+=0.5*(part1.mpw+part2.mpw);		
@@ -345,6 +365,7 @@ public class DSMC extends VolumeInteraction
 	}
 
 	if (sig_cr_max>0) cell_info.sig_cr_max = sig_cr_max;
+	cell_info.num_cols = (int)sums[0];
 	return sums;
     }
   
@@ -357,7 +378,7 @@ public class DSMC extends VolumeInteraction
     static abstract class DSMCModel 
     {
 	/**returns cross-section for the given relative velocity*/
-	public abstract void perform(Particle part1, Particle part2, double vss_inv);
+	public abstract void perform(Particle part1, Particle part2, double vss_inv, Random rnd);
 	protected double c[];
 
 	protected DSMCModel () { /*pass parameters*/}
@@ -369,7 +390,7 @@ public class DSMC extends VolumeInteraction
     static class ModelElastic extends DSMCModel
     {
 	@Override
-	public void perform(Particle part1, Particle part2, double vss_inv) 
+	public void perform(Particle part1, Particle part2, double vss_inv, Random rnd) 
 	{	
 	    double vr_cp[] = new double[3];	//post collision relative velocity
 	    double vc_cm[] = new double[3];	//centre of mass velocity
@@ -395,20 +416,20 @@ public class DSMC extends VolumeInteraction
 	    if (Math.abs(vss_inv-1.)<1.E-4) /*VHS logic if vss_inv ~ 1.0*/
 	    {
 		//use the VHS logic
-		B=2.*Starfish.rnd()-1.0;	//B is the cosine of a random elevation angle
+		B=2.*rnd.nextDouble()-1.0;	//B is the cosine of a random elevation angle
 		A=Math.sqrt(1.-B*B);
 		vr_cp[0]=B*g_mag;
-		C=2.*Constants.PI*Starfish.rnd(); //C is a random azimuth angle
+		C=2.*Constants.PI*rnd.nextDouble(); //C is a random azimuth angle
 		vr_cp[1]=A*Math.cos(C)*g_mag;
 		vr_cp[2]=A*Math.sin(C)*g_mag;		
 	    }
 	    else
 	    {
 		//use the VSS logic
-		B=2.*(Math.pow(Starfish.rnd(),vss_inv))-1.;
+		B=2.*(Math.pow(rnd.nextDouble(),vss_inv))-1.;
 		//B is the cosine of the deflection angle for the VSS model, eqn (11.8)
 		A=Math.sqrt(1.-B*B);
-		C=2.*Constants.PI*Starfish.rnd();
+		C=2.*Constants.PI*rnd.nextDouble();
 		OC=Math.cos(C);
 		SC=Math.sin(C);
 		D=Math.sqrt(g[1]*g[1]+g[2]*g[2]);
@@ -440,11 +461,11 @@ public class DSMC extends VolumeInteraction
 		double Pab = part2.mpw/part1.mpw;
 		double Pba = part1.mpw/part2.mpw;	     
 
-		if (Starfish.rnd()<Pab)
+		if (rnd.nextDouble()<Pab)
 		    for (int i=0;i<3;i++)
 			part1.vel[i] = vc_cm[i]+rm2*vr_cp[i];
 
-		if (Starfish.rnd()<Pba)
+		if (rnd.nextDouble()<Pba)
 		    for (int i=0;i<3;i++)
 			part2.vel[i] = vc_cm[i]-rm1*vr_cp[i];			     
 	    }			
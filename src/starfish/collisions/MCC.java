@@ -8,9 +8,11 @@
 package starfish.collisions;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.Random;
 import org.w3c.dom.Element;
 import starfish.core.common.Constants;
+import starfish.core.common.RandomStreams;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
 import starfish.core.common.Utils;
@@ -21,10 +23,12 @@ import starfish.core.domain.Mesh;
 import starfish.core.interactions.InteractionsModule;
 import starfish.core.interactions.InteractionsModule.InteractionFactory;
 import starfish.core.interactions.Sigma;
+import starfish.core.interactions.SigmaTabulated;
 import starfish.core.interactions.VolumeInteraction;
 import starfish.core.io.InputParser;
 import starfish.core.materials.KineticMaterial;
 import starfish.core.materials.KineticMaterial.Particle;
+import starfish.core.materials.KineticMaterial.ParticleBlock;
 import starfish.core.materials.Material;
 
 /**
@@ -33,13 +37,21 @@ import starfish.core.materials.Material;
  */
 public class MCC extends VolumeInteraction
 {
-    Sigma sigma;
+    SigmaTabulated sigma;
     MCCModel model;
     KineticMaterial source;
     Material target;
     Material product;
     int frequency;
     double max_T;
+    boolean null_collision;	    //select candidates using the majorant collision frequency
+    boolean combined;		    //perform together with other MCC interactions of the same source
+    String tag;
+    
+    /*interactions sharing the source are performed by the first one in a single pass*/
+    MCC leader = this;			//interaction performing the collisions
+    ArrayList<MCC> group = new ArrayList<>();	//processes performed by this leader, starting with itself
+    int same_target[];			//index of the first process with the same target
 
     MCC(Element element) 
     {	
@@ -48,7 +60,7 @@ public class MCC extends VolumeInteraction
 	int id = Starfish.interactions_module.getInteractionsList().size();
 		
 	/*for backward compatibility, there is no "-1" only "-2"*/
-	String tag = "";
+	tag = "";
 	if (id>1) tag="-"+id;
 		
 	/*parse data*/
@@ -58,7 +70,7 @@ public class MCC extends VolumeInteraction
 	String model_name = InputParser.getValue("model", element);
 	tag = InputParser.getValue("name",element,tag);
 
-	sigma = InteractionsModule.parseSigma(element);
+	Sigma sigma_base = InteractionsModule.parseSigma(element);
 	model = MCC.getModel(model_name);
 	    
 	/*number of time steps between mcc computations*/
@@ -67,6 +79,10 @@ public class MCC extends VolumeInteraction
 	    
 	//no limit by default
 	max_T = InputParser.getDouble("max_target_temp",element, -1);
+	
+	null_collision = InputParser.getBoolean("null_collision", element, true);
+	combined = InputParser.getBoolean("combined", element, true);
+	group.add(this);
 	    
 	/*make sure we have a kinetic source*/
 	if (!(Starfish.getMaterial(source_name) instanceof KineticMaterial))
@@ -84,7 +100,9 @@ public class MCC extends VolumeInteraction
 	}
 	
 	//initialize sigma parameters as needed
-	sigma.init(this.source, this.target);
+	sigma_base.init(this.source, this.target);
+	sigma = InteractionsModule.tabulateSigma(sigma_base, element, source.mass,
+		"MCC "+source.getName()+"-"+target.getName());
 	  	
 	/*add fields*/
 	fc_real_sum = Starfish.domain_module.getFieldManager().add("col-real-sum-"+tag, "#",null);
@@ -133,10 +151,14 @@ public class MCC extends VolumeInteraction
 	
 	num_samples++;
 	
-	Log.debug("performing MCC");
-	for (Mesh mesh:Starfish.getMeshList())
+	/*collisions of the entire group are performed by the leader*/
+	if (leader==this)
 	{
-	    perform(mesh);
+	    Log.debug("performing MCC");
+	    for (Mesh mesh:Starfish.getMeshList())
+	    {
+		perform(mesh);
+	    }
 	}
 	
 	/*update collision count - number of collisions per cell per call to perform*/
@@ -155,76 +177,400 @@ public class MCC extends VolumeInteraction
 	}
     }
 
-    /*performs collisions on a single mesh*/
+    /** collision data accumulated by a single particle block, merged into the
+     * global fields once all blocks complete*/
+    static class Tally
+    {
+	Random rnd = RandomStreams.newGenerator(0);	//random stream of this block, reseeded each call
+	Field2D S;			//target energy source
+	Field2D count;			//number of collisions
+	Field2D real;			//number of real collisions
+	double max_ratio;		//largest nu/nu_max encountered
+	double v2_max;			//largest squared source speed after a collision
+	ArrayList<Particle> secondaries = new ArrayList<>();	//added to the source particle list
+	ArrayList<double[]> product_pos = new ArrayList<>();	//product particles
+	ArrayList<double[]> product_vel = new ArrayList<>();
+	
+	Tally(Mesh mesh)
+	{
+	    S = new Field2D(mesh);
+	    count = new Field2D(mesh);
+	    real = new Field2D(mesh);
+	}
+	
+	/** adds a product particle to be inserted after all blocks complete*/
+	void addProduct(double pos[], double vel[])
+	{
+	    product_pos.add(pos);
+	    product_vel.add(vel);
+	}
+    }
+    HashMap<Mesh,Tally[]> tallies = new HashMap<>();
+    
+    /** @return cleared tallies for the particle blocks of this mesh, each with
+     * a new random stream seeded from the global generator*/
+    Tally[] getTallies(Mesh mesh, int num_blocks)
+    {
+	Tally tally[] = tallies.get(mesh);
+	if (tally==null || tally.length!=num_blocks)
+	{
+	    tally = new Tally[num_blocks];
+	    for (int b=0;b<num_blocks;b++) tally[b] = new Tally(mesh);
+	    tallies.put(mesh, tally);
+	}
+	
+	for (Tally t:tally)
+	{
+	    t.rnd.setSeed((long)(Starfish.rnd()*Long.MAX_VALUE));
+	    t.S.clear();
+	    t.count.clear();
+	    t.real.clear();
+	    t.max_ratio = 0;
+	    t.v2_max = 0;
+	    t.secondaries.clear();
+	    t.product_pos.clear();
+	    t.product_vel.clear();
+	}
+	return tally;
+    }
+    
+    /*performs collisions of all processes in the group on a single mesh, 
+    particle blocks are processed in parallel*/
     void perform(Mesh mesh)
     {
-	Iterator<Particle> iterator = source.getIterator(mesh);
-	Field2D target_den = target.getDen(mesh);
+	final double dt = frequency*Starfish.getDt();
+	KineticMaterial.MeshData md = source.getMeshData(mesh);
+	ParticleBlock blocks[] = md.particle_block;
+	int num_proc = group.size();
+	
+	/*majorant of each process*/
+	double nu_max[] = new double[num_proc];
+	if (null_collision) 
+	{
+	    double v_max = md.getMaxSpeed();
+	    double nu_tot = 0;
+	    for (int k=0;k<num_proc;k++)
+	    {
+		nu_max[k] = group.get(k).maxCollisionFrequency(mesh, v_max);
+		nu_tot += nu_max[k];
+	    }
+	    if (nu_tot<=0) return;
+	}
+	
+	Tally tally[][] = new Tally[num_proc][];
+	for (int k=0;k<num_proc;k++)
+	    tally[k] = group.get(k).getTallies(mesh, blocks.length);
+	
+	Starfish.parallelFor(blocks.length, 2, (b_min, b_max) -> {
+	    for (int b=b_min;b<b_max;b++)
+	    {
+		if (null_collision) 
+		    performNullCollision(mesh, blocks[b].particle_list, nu_max, dt, tally, b);
+		else
+		    performDirect(mesh, blocks[b].particle_list, dt, tally, b);
+	    }
+	});
+	
+	for (int k=0;k<num_proc;k++)
+	    group.get(k).mergeTallies(mesh, tally[k]);
+    }
+    
+    /** merges block tallies into the global fields and inserts new particles*/
+    void mergeTallies(Mesh mesh, Tally tally[])
+    {
+	double max_ratio = 0;
+	double v2_max = 0;
+	for (Tally t:tally)
+	{
+	    target.getS(mesh).add(t.S);
+	    fc_count_sum.getField(mesh).add(t.count);
+	    fc_real_sum.getField(mesh).add(t.real);
+	    
+	    for (Particle part:t.secondaries)
+		source.getParticleListSource().addParticle(part);
+	    
+	    for (int k=0;k<t.product_pos.size();k++)
+		((KineticMaterial)product).addParticle(t.product_pos.get(k), t.product_vel.get(k));
+	    
+	    max_ratio = Math.max(max_ratio, t.max_ratio);
+	    v2_max = Math.max(v2_max, t.v2_max);
+	}
 	
-	Field2D real_sum = fc_real_sum.getField(mesh);
-	Field2D count_sum = fc_count_sum.getField(mesh);
-	double dt = frequency*Starfish.getDt();
+	/*collisions change source velocities in place*/
+	source.getMeshData(mesh).updateMaxSpeed(v2_max);
 	
-	//loop over particles
-	while (iterator.hasNext())
+	if (max_ratio>1)
 	{
-	    Particle part = iterator.next();
-
-	    double den_a = target_den.gather(part.lc);
-	    if (den_a<=0) continue;
-
-	    /*create random target particle according to target T and stream velocity*/
-	   double target_vel[] = target.sampleVelocity(mesh, part.lc);
-
-	    double g_vec[] = new double[3];
-	    for (int i=0;i<3;i++) g_vec[i] = target_vel[i] - part.vel[i];				
-	    double g = Vector.mag3(g_vec);
+	    /*the bound was missed, the affected candidates were collided with
+	    probability 1, widen the margin for the next call*/
+	    String msg = String.format("MCC %s-%s collision frequency exceeded the majorant by %.3g, increasing margin",
+			source.getName(), target.getName(), max_ratio);
+	    if (!majorant_warned) Log.warning(msg);
+	    else Log.log(msg);
+	    majorant_warned = true;
+	    sg_margin *= max_ratio;
+	}
+    }
+    
+    /** tests every particle in the list for collision with any of the processes*/
+    void performDirect(Mesh mesh, ArrayList<Particle> list, double dt, Tally tally[][], int b)
+    {
+	Random rnd = tally[0][b].rnd;
+	double nu[] = new double[group.size()];
+	double den[] = new double[group.size()];
+	double g[] = new double[group.size()];
+	
+	for (Particle part:list)
+	{
+	    double nu_tot = collisionFrequencies(mesh, part, nu, den, g);
+	    if (nu_tot<=0) continue;
 
 	    /*collision probability*/
-	    /*TODO: implement multiple interactions*/
-	    double sig = sigma.eval(g,part.mass);
-	    double P = 1-Math.exp(-sig*g*dt*den_a);
-
-	    if (P<Starfish.rnd())
+	    double P = 1-Math.exp(-nu_tot*dt);
+	    if (P<rnd.nextDouble())
 		    continue;		/*no collision*/
 
-	    Particle virt_part = new Particle(part);
-	    //virt_part.vel = target_vel;
-	    virt_part.vel = target.sampleMaxwellianVelocity(mesh, part.lc, 0, max_T);
-	    virt_part.mass = target.mass;
-
-	    /*save pre-collision energy*/
-	    double E1 = 0.5*source.mass*Vector.mag3(part.vel);
-	    /*otherwise, perform collision*/
-	    model.perform(part,virt_part, this);
+	    int k = (nu.length==1)?0:selectProcess(nu, rnd.nextDouble()*nu_tot);
+	    group.get(k).collide(mesh, part, dt, tally[k][b]);
+	}
+    }
+    
+    /** null collision method, only particles selected with the maximum 
+     * collision probability are tested for a real collision. The process is
+     * chosen by the position of the same random number in the cumulative table 
+     * of the process frequencies*/
+    void performNullCollision(Mesh mesh, ArrayList<Particle> list, double nu_max[], double dt, Tally tally[][], int b)
+    {
+	int np = list.size();
+	if (np==0) return;
+	
+	Random rnd = tally[0][b].rnd;
+	double nu[] = new double[group.size()];
+	double den[] = new double[group.size()];
+	double g[] = new double[group.size()];
+	double nu_max_tot = 0;
+	for (double val:nu_max) nu_max_tot+=val;
+	
+	double P_max = 1-Math.exp(-nu_max_tot*dt);
+	int num_cand = (int)(np*P_max+rnd.nextDouble());
+	if (num_cand>np) num_cand=np;
+	
+	/*loop over the candidates in storage order*/
+	for (int c:selectCandidates(np, num_cand, rnd))
+	{
+	    Particle part = list.get(c);
+	    
+	    /*real or null collision?*/
+	    double nu_tot = collisionFrequencies(mesh, part, nu, den, g);
+	    if (nu_tot<=0) continue;
+	    
+	    double R;
+	    if (nu_tot>nu_max_tot)
+	    {
+		for (int k=0;k<nu.length;k++)
+		    if (nu[k]>nu_max[k]) 
+			tally[k][b].max_ratio = Math.max(tally[k][b].max_ratio, nu[k]/nu_max[k]);
+		R = rnd.nextDouble()*nu_tot;
+	    }
+	    else
+	    {
+		R = rnd.nextDouble()*nu_max_tot;
+		if (nu_tot<R) 
+		    continue;		/*null collision*/
+	    }
 	    
-	    /*update target material energy term*/
-	    double E2 = 0.5*source.mass*Vector.mag3(part.vel);
-	    double vol = mesh.nodeVol(part.lc[0], part.lc[1]);
-	    /*compute power density rate J/m^3/s*/
-	    double dS = part.mpw*(E1-E2)/(dt*vol);	// J/s/m^3
-	    target.getS(mesh).scatter(part.lc, dS);
+	    int k = selectProcess(nu, R);
+	    group.get(k).collide(mesh, part, dt, tally[k][b]);
+	}
+    }
+    
+    /** @return index of the process containing R in the cumulative table of nu*/
+    static int selectProcess(double nu[], double R)
+    {
+	double sum = 0;
+	for (int k=0;k<nu.length-1;k++)
+	{
+	    sum += nu[k];
+	    if (R<sum) return k;
+	}
+	return nu.length-1;
+    }
+    
+    /**
+     * Evaluates the collision frequency n*sigma(g)*g of each process in the 
+     * group, using the target stream velocity. Target data is gathered only 
+     * once for processes sharing the target material.
+     * 
+     * @param nu output, collision frequency of each process
+     * @param den work array, target density of each process
+     * @param g work array, relative speed of each process
+     * @return total collision frequency
+     */
+    double collisionFrequencies(Mesh mesh, Particle part, double nu[], double den[], double g[])
+    {
+	double nu_tot = 0;
+	for (int k=0;k<nu.length;k++)
+	{
+	    MCC mcc = group.get(k);
+	    int t = same_target[k];
+	    if (t==k)
+	    {
+		den[k] = mcc.target.getDen(mesh).gather(part.lc);
+		g[k] = 0;
+		if (den[k]>0)
+		{
+		    double target_vel[] = mcc.target.sampleVelocity(mesh, part.lc);
+		    double g_vec[] = new double[3];
+		    for (int i=0;i<3;i++) g_vec[i] = target_vel[i] - part.vel[i];				
+		    g[k] = Vector.mag3(g_vec);
+		}
+	    }
 	    
-	    int i = (int) part.lc[0];
-	    int j = (int) part.lc[1];
-	    count_sum.add(i,j,1);	    //cell data
-	    real_sum.add(i,j,part.mpw);
-	}	
+	    nu[k] = (den[t]>0)?mcc.sigma.evalSigmaG(g[t],part.mass)*den[t]:0;
+	    nu_tot += nu[k];
+	}
+	return nu_tot;
+    }
+    
+    /** performs collision of the given source particle with a sampled target*/
+    void collide(Mesh mesh, Particle part, double dt, Tally tally)
+    {
+	Particle virt_part = new Particle(part);
+	//virt_part.vel = target_vel;
+	virt_part.vel = target.sampleMaxwellianVelocity(mesh, part.lc, 0, max_T, tally.rnd);
+	virt_part.mass = target.mass;
+
+	/*save pre-collision energy*/
+	double E1 = 0.5*source.mass*Vector.mag3(part.vel);
+	/*otherwise, perform collision*/
+	model.perform(part,virt_part, this, tally);
+	tally.v2_max = Math.max(tally.v2_max, Vector.dot3(part.vel, part.vel));
+
+	/*update target material energy term*/
+	double E2 = 0.5*source.mass*Vector.mag3(part.vel);
+	double vol = mesh.nodeVol(part.lc[0], part.lc[1]);
+	/*compute power density rate J/m^3/s*/
+	double dS = part.mpw*(E1-E2)/(dt*vol);	// J/s/m^3
+	tally.S.scatter(part.lc, dS);
+
+	int i = (int) part.lc[0];
+	int j = (int) part.lc[1];
+	tally.count.add(i,j,1);	    //cell data
+	tally.real.add(i,j,part.mpw);
     }
     
     /**
-     *
+     * Returns the majorant collision frequency on this mesh. Since the target
+     * density and stream velocity are interpolated, their nodal maxima bound the
+     * values seen by any particle. The relative velocity is thus bounded by the 
+     * fastest source particle plus the fastest target stream.
+     * 
+     * @param v_max speed bound of the source particles, tracked by the mesh data
+     * @return upper bound for n*sigma(g)*g
+     */
+    double maxCollisionFrequency(Mesh mesh, double v_max)
+    {
+	double den[][] = target.getDen(mesh).getData();
+	double u[][] = target.getUAve(mesh).getData();
+	double v[][] = target.getVAve(mesh).getData();
+	double w[][] = target.getWAve(mesh).getData();
+	
+	double den_max = 0;
+	double u2_max = 0;
+	for (int i=0;i<mesh.ni;i++)
+	    for (int j=0;j<mesh.nj;j++)
+	    {
+		if (den[i][j]>den_max) den_max = den[i][j];
+		double u2 = u[i][j]*u[i][j]+v[i][j]*v[i][j]+w[i][j]*w[i][j];
+		if (u2>u2_max) u2_max = u2;
+	    }
+	if (den_max<=0) return 0;
+	
+	return den_max*maxSigmaG(v_max+Math.sqrt(u2_max));
+    }
+    
+    /**
+     * selects num distinct indexes from [0,n) using Floyd's algorithm, the
+     * selection is marked in a bitset that is then scanned in index order
+     * @param rnd random stream to use
+     * @return sorted array of indexes
+     */
+    static int[] selectCandidates(int n, int num, Random rnd)
+    {
+	long bits[] = new long[(n+63)>>>6];
+	for (int j=n-num;j<n;j++)
+	{
+	    int t = rnd.nextInt(j+1);
+	    if ((bits[t>>>6]&(1L<<t))!=0) t = j;
+	    bits[t>>>6] |= 1L<<t;
+	}
+	
+	int cand[] = new int[num];
+	int k = 0;
+	for (int w=0;w<bits.length;w++)
+	    for (long word=bits[w];word!=0;word&=word-1)
+		cand[k++] = (w<<6)+Long.numberOfTrailingZeros(word);
+	return cand;
+    }
+    
+    double sg_margin = 1.0;		//safety factor, increased if the majorant is exceeded
+    boolean majorant_warned = false;
+    
+    /**
+     * @param g_max maximum relative velocity
+     * @return upper bound of sigma(g)*g for g in [0,g_max]
+     */
+    double maxSigmaG(double g_max)
+    {
+	return sg_margin*sigma.maxSigmaG(g_max);
+    }
+    
+    /**
+     * Joins the group of an earlier MCC interaction with the same source and 
+     * sampling settings, all processes of a group are then performed in a single 
+     * pass over the source particles.
      */
     @Override
     public void init() 
     {
-	
+	if (combined)
+	{
+	    for (VolumeInteraction vint:Starfish.interactions_module.getInteractionsList())
+	    {
+		if (vint==this) break;
+		if (!(vint instanceof MCC)) continue;
+		MCC mcc = (MCC) vint;
+		if (mcc.leader==mcc && mcc.combined && mcc.source==source && 
+		    mcc.frequency==frequency && mcc.null_collision==null_collision)
+		{
+		    leader = mcc;
+		    group.clear();
+		    mcc.group.add(this);
+		    mcc.updateTargets();
+		    Log.log("MCC"+tag+" combined with MCC"+mcc.tag);
+		    break;
+		}
+	    }
+	}
+	updateTargets();
+    }
+    
+    /** finds processes sharing the target material*/
+    void updateTargets()
+    {
+	same_target = new int[group.size()];
+	for (int k=0;k<group.size();k++)
+	{
+	    same_target[k] = k;
+	    for (int l=0;l<k;l++)
+		if (group.get(l).target==group.get(k).target) {same_target[k]=l;break;}
+	}
     }
 	
     static abstract class MCCModel 
     {
 	/**returns cross-section for the given relative velocity*/
-	public abstract void perform(Particle source, Particle target, MCC mcc);
+	public abstract void perform(Particle source, Particle target, MCC mcc, Tally tally);
 	protected double c[];
 	
 	protected MCCModel() {}
@@ -233,7 +579,7 @@ public class MCC extends VolumeInteraction
     static class ModelMEX extends MCCModel
     {
 	@Override
-	public void perform(Particle source, Particle target, MCC mcc) 
+	public void perform(Particle source, Particle target, MCC mcc, Tally tally) 
 	{			
 	    //elastic model from DSMC
 	    double vr_cp[] = new double[3];	//post collision relative velocity
@@ -258,10 +604,10 @@ public class MCC extends VolumeInteraction
 	
 	    /*compute post collision velocity in CM coordinates*/
 	    //use the VHS logic
-	    B=2.*Starfish.rnd()-1.0;	//B is the cosine of a random elevation angle
+	    B=2.*tally.rnd.nextDouble()-1.0;	//B is the cosine of a random elevation angle
 	    A=Math.sqrt(1.-B*B);
 	    vr_cp[0]=B*g_mag;
-	    C=2.*Constants.PI*Starfish.rnd(); //C is a random azimuth angle
+	    C=2.*Constants.PI*tally.rnd.nextDouble(); //C is a random azimuth angle
 	    vr_cp[1]=A*Math.cos(C)*g_mag;
 	    vr_cp[2]=A*Math.sin(C)*g_mag;	
 	    
@@ -278,7 +624,7 @@ public class MCC extends VolumeInteraction
     static class ModelCEX extends MCCModel
     {
 	@Override
-	public void perform(Particle part, Particle target, MCC mcc) 
+	public void perform(Particle part, Particle target, MCC mcc, Tally tally) 
 	{
 	    /*simply replace velocities*/
 	    part.vel[0] = target.vel[0];
@@ -295,7 +641,7 @@ public class MCC extends VolumeInteraction
     static class ModelIonization extends MCCModel
     {
 	@Override
-	public void perform(Particle source, Particle target, MCC mcc) 
+	public void perform(Particle source, Particle target, MCC mcc, Tally tally) 
 	{
 	    /*reduce initial energy*/
 	    double e1 = 0.5*source.mass*Vector.dot3(source.vel,source.vel)/Constants.QE;
@@ -303,7 +649,7 @@ public class MCC extends VolumeInteraction
 	    if (e2<0) return;	//sanity check, should not happen
 	    
 	    //randomly redistribute the remaining energy to the two electrons
-	    double e2a = Starfish.rnd()*e2;
+	    double e2a = tally.rnd.nextDouble()*e2;
 	    double e2b = e2 - e2a;
 	    
 	    //speed reduced by the ionization energy
@@ -311,7 +657,7 @@ public class MCC extends VolumeInteraction
 	    double speed2b = Math.sqrt(e2b*Constants.QE*2/source.mass);
 	    	    
 	    /*give the source electron isotropic direction*/
-	    source.vel = Utils.isotropicVel(speed2a);
+	    source.vel = Utils.isotropicVel(speed2a, tally.rnd);
 
 	    //assume the new electron and ion are created at the neutral temperature
 	    double target_temp = mcc.target.getTempCollection().eval(source.pos,300);
@@ -322,19 +668,19 @@ public class MCC extends VolumeInteraction
 		target_temp = 100;
 	    	    
 	    /*create new ion and electron*/
-	    double vel2b[] = Utils.isotropicVel(speed2a);
-	    mcc.source.getParticleListSource().addParticle(new Particle(source.pos, vel2b, source.mpw, mcc.source));
+	    double vel2b[] = Utils.isotropicVel(speed2a, tally.rnd);
+	    tally.secondaries.add(new Particle(source.pos, vel2b, source.mpw, mcc.source));
 	    	    
 	    /*TODO: need to destroy the target particle, for now assuming den_target>>den_source*/
 	    if (mcc.product instanceof KineticMaterial)
 	    {
 		KineticMaterial prod = (KineticMaterial)mcc.product;
-		int mp_gen = (int)(mcc.source.getSpwt0()/prod.getSpwt0()+Starfish.rnd());
+		int mp_gen = (int)(mcc.source.getSpwt0()/prod.getSpwt0()+tally.rnd.nextDouble());
 		double v_th = Utils.computeVth(target_temp, prod.mass);
 		for (int i=0;i<mp_gen;i++)
 		{
-		    double vel3[] = Utils.SampleMaxw3D(v_th);
-		    prod.addParticle(source.pos, vel3);
+		    double vel3[] = Utils.SampleMaxw3D(v_th, tally.rnd);
+		    tally.addProduct(source.pos.clone(), vel3);
 		}
 	    	
 	    }
@@ -41,11 +41,13 @@ public class Boundary extends Spline {
 
 	/** boundary temperature in K */
 	protected LinearList temp_list;
+	protected LinearList.Cursor temp_cursor;
 	protected double temp; // last evaluated temperature, saved so we don't need to re-evaluate for every
 							// particles
 
 	/** Dirichlet value associated with this boundary */
 	protected LinearList value_list;
+	protected LinearList.Cursor value_cursor;
 	protected double value;
 
 	/**
@@ -57,8 +59,8 @@ public class Boundary extends Spline {
 	public Boundary(String name, BoundaryType type, Material mat) {
 		this.name = name;
 		this.type = type;
-		this.value_list = new LinearList();
-		this.temp_list = new LinearList();
+		setValues(new LinearList());
+		setTemperatures(new LinearList());
 		this.material = mat;
 	}
 
@@ -68,7 +70,7 @@ public class Boundary extends Spline {
 		String type_name = InputParser.getValue("type", element, "solid");
 
 		/* b.c. */
-		value_list = InputParser.getLinearList("value", "time", element, 0);
+		setValues(InputParser.getLinearList("value", "time", element, 0));
 
 		/* set boundary type */
 		if (type_name.equalsIgnoreCase("OPEN"))
@@ -100,7 +102,7 @@ public class Boundary extends Spline {
 		}
 
 		/* also try to grab temperature */
-		temp_list = InputParser.getLinearList("temperature", "time", element, 273.15);
+		setTemperatures(InputParser.getLinearList("temperature", "time", element, 273.15));
 
 		update(); // set current value and temperature
 
@@ -138,11 +140,13 @@ public class Boundary extends Spline {
 
 	void setValues(LinearList values) {
 		this.value_list = values;
+		this.value_cursor = values.cursor();
 	}
 
 	/* sets boundary temperature */
 	void setTemperatures(LinearList temp) {
 		this.temp_list = temp;
+		this.temp_cursor = temp.cursor();
 	}
 
 	/**
@@ -153,9 +157,9 @@ public class Boundary extends Spline {
 	 */
 	@Override
 	final boolean update() {
-		temp = temp_list.eval(Starfish.getTime());
+		temp = temp_cursor.eval(Starfish.getTime());
 		double value_old = value;
-		value = value_list.eval(Starfish.getTime());
+		value = value_cursor.eval(Starfish.getTime());
 		return !(value == value_old);
 	}
 
@@ -78,6 +78,35 @@ class LinearSegment extends Segment
 	return A;
     }
 
+    /*radial coordinates of the end points*/
+    double r_first, r_last;
+
+    @Override
+    protected void initInverseArea()
+    {
+	switch (Starfish.getDomainType()) {
+	    case RZ: r_first = x1[0]; r_last = x2[0]; break;
+	    case ZR: r_first = x1[1]; r_last = x2[1]; break;
+	    default: r_first = r_last = 0;
+	}
+    }
+
+    /** 
+     * Closed form inverse of the frustum area. The area up to t is proportional
+     * to t*(2*r1+(r2-r1)*t), the root of the quadratic is written in the form
+     * that remains accurate when r2-r1 is small
+     */
+    @Override
+    double inverseArea(double frac)
+    {
+	if (Starfish.getDomainType()==DomainType.XY) return frac;
+
+	double sum = r_first+r_last;
+	if (sum<=0) return frac;
+	double disc = r_first*r_first+(r_last-r_first)*frac*sum;
+	return frac*sum/(r_first+Math.sqrt(Math.max(disc,0)));
+    }
+
     @Override
     public double[] normal(double t) {return normal;}
 
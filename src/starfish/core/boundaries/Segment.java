@@ -9,7 +9,10 @@ package starfish.core.boundaries;
 
 import starfish.core.boundaries.Boundary.BoundaryType;
 import starfish.core.domain.Mesh;
+import starfish.core.common.InverseCDF;
+import starfish.core.common.Starfish;
 import starfish.core.common.Vector;
+import starfish.core.domain.DomainModule.DomainType;
 import static starfish.core.domain.Mesh.Face.RIGHT;
 import static starfish.core.domain.Mesh.Face.TOP;
 import static starfish.core.domain.Mesh.Face.LEFT;
@@ -118,6 +121,37 @@ public abstract class Segment {
 	/** hook to compute segment area */
 	final void computeArea() {
 		area = area(1.0);
+		initInverseArea();
+	}
+
+	/*inverse of area(t)/area, used on axisymmetric domains*/
+	protected InverseCDF area_table;
+
+	/**
+	 * tabulates the inverse of the area fraction, called once the domain type
+	 * is known. Segments with a closed form inverse override this and inverseArea
+	 */
+	protected void initInverseArea() {
+		area_table = null;
+		if (Starfish.getDomainType() == DomainType.XY || area <= 0)
+			return;
+
+		final int nf = 4097;
+		double cdf[] = new double[nf];
+		for (int k = 0; k < nf; k++)
+			cdf[k] = area((double) k / (nf - 1));
+
+		area_table = new InverseCDF(cdf, 0, 1.0 / (nf - 1), 1024);
+	}
+
+	/**
+	 * @param frac fraction of the segment area, in [0,1]
+	 * @return parametric position t such that area(t)=frac*area()
+	 */
+	double inverseArea(double frac) {
+		if (area_table == null)
+			return frac;
+		return area_table.eval(frac);
 	}
 
 	/**
@@ -578,113 +578,51 @@ public class Spline
 	return spline_area;
     }
 
-    /** @return random parametric position*/
+    /** @return random parametric position, uniformly distributed in area*/
     public double randomT() 
     {
-		/*sample uniformly from total spline area*/
-		double A1 = Starfish.rnd()*spline_area;
-		int i = Vector.binarySearch(cum_area, A1); //map distance to segment
+	/*sample uniformly from total spline area*/
+	return tAtArea(Starfish.rnd()*spline_area);
+    }
+
+    /** @return parametric position at which the area swept from t=0 equals A. 
+     * Uses a binary search for the segment and the segment's inverse area, which
+     * is in closed form for linear segments and tabulated otherwise*/
+    public double tAtArea(double A)
+    {
+	int i = Vector.binarySearch(cum_area, A); //map distance to segment
+	if (i<0) i=0;
+	if (i>numSegments()-1) i=numSegments()-1;
 		
-		/*compute parametric position along this segment*/
-		double seg_area = segments.get(i).area;
-		double frac = (A1-cum_area[i])/seg_area;
+	/*compute parametric position along this segment, a segment that sweeps
+	no area, such as one on the axis, maps to its start*/
+	Segment seg = segments.get(i);
+	if (seg.area<=0) return i;
+	double frac = (A-cum_area[i])/seg.area;
+	if (frac<0) frac=0;
+	if (frac>1) frac=1;
 		
-		//area of a conical frustrum 
+	if (Starfish.getDomainType()!=DomainType.XY)
+	    frac = seg.inverseArea(frac);
 		
-		if (Starfish.getDomainType()!=DomainType.XY)
-		{
-		    /*for axisymmetric domain we need to search for "t" that will produce
-		    the desired fractional area. My attempt for analytical solution has so far
-		    been unfruitful as this gives an ugly equation containing sqrt(t) terms
-		    */
-		    
-		    Segment seg = segments.get(i);
-		    	    
-		    /*
-		    this is my attempt at searching for the solution. This is probably the same
-		    as Newton's method.	    
-		    */
-		    final int max_steps = 10;
-		    final double tol = 1e-6;
-		    double x[] = new double[max_steps];
-		    double f[] = new double[max_steps];
-		    double f_goal = frac*seg_area;   //what we are looking
-		    
-		    //initialize. With assume that t ~ area fraction 
-		    x[0] = frac;
-		    f[0] = seg.area(x[0]);
-		    
-		    double diff = Math.abs(f[0]-f_goal)/seg_area;
-		    
-		    int k=1;
-		    //set x[1] since this is the final that is used if initial guess is right
-		    x[1] = x[0] + (f_goal-f[0]);    
-		    	
-		    if (diff>tol)
-		    	f[1] = seg.area(x[1]);		
-		    	    
-		    while (diff>tol && k<max_steps-1)
-		    {
-				x[k+1] = (x[k]-x[k-1])*(f_goal-f[k-1])/(f[k]-f[k-1]) + x[k-1];
-				f[k+1] = seg.area(x[k+1]);
-				diff = Math.abs(f[k+1]-f_goal)/seg_area;	 
-				k++;		
-		    }
-		    if (k==max_steps) Log.warning("Failed to find spline random position");
-		    
-		   frac = x[k];
-		}
-		
-		/*add random distance along the segment*/
-		return i+frac;
+	/*add random distance along the segment*/
+	return i+frac;
+    }
+
+    /** @return area swept by the spline between t=0 and t*/
+    public double areaAt(double t)
+    {
+	int i = (int)t;
+	if (i<0) return 0;
+	if (i>numSegments()-1) return spline_area;
+	return cum_area[i]+segments.get(i).area(t-i);
     }
 
-    /** @return random parametric position for uniform sampling on RZ mesh*/
+    /** @return random parametric position for uniform sampling on RZ mesh,
+     * same as randomT which now samples the swept area exactly*/
     protected double randomTforRZ()
     {
-	double t=-1;
-	double A;
-	double Atot = area();
-	double rp, rm;
-	
-	do {
-	    /*pick random segment*/
-	    int seg = 0;
-	    
-	    if (numSegments()>0) seg=(int)(numSegments()*Starfish.rnd());
-
-	    /*add random distance along the segment*/
-	    t = seg+Starfish.rnd();
-	    
-	    /*compute area of a strip centered around the sampled point*/
-	    double tp=t+0.01;
-	    double tm=t-0.01;
-	    if (tp>numSegments()) tp=numSegments();
-	    if (tm<0) tm=0;
-
-	    /*r compoment of position*/ 
-	    switch (Starfish.getDomainType())
-	    {
-	    	case RZ:
-		    rp = pos(tp)[0]; 		
-		    rm = pos(tm)[0];
-		    break;
-	    	case ZR:
-		    rp = pos(tp)[1];
-		    rm = pos(tm)[1];
-		    break;
-	    	default:
-		    throw new UnsupportedOperationException("Unknown domain type in RandomT");
-	    }
-	
-	    //swap if needed
-	    if (rm>rp) {double s=rp;rp=rm;rm=s;}
-	    /*note, A will be zero if source is parallel with r-axis*/
-	    A = Math.PI*(rp*rp-rm*rm);
-	  
-	} while (A>0 && (A/Atot)<Starfish.rnd());
-	
-	return t;
+	return randomT();
     }
     
     
@@ -0,0 +1,87 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.common;
+
+import java.util.Random;
+
+/**
+ * Counter-based random number generator. The n-th value of a stream is obtained
+ * by hashing key+n*gamma with the SplitMix64 finalizer, so a stream is fully
+ * defined by its key and streams for different keys are independent. This
+ * allows assigning a stream to each unit of work, such as a cell, and getting
+ * the same random sequence regardless of which thread processes it. Not thread
+ * safe, each thread needs its own instance.
+ */
+public class CounterRandom extends Random
+{
+    private static final long serialVersionUID = 1L;
+    static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+    protected long key;
+    protected long counter;
+
+    public CounterRandom()
+    {
+	super(0);
+    }
+
+    /**
+     * @param key stream key, see streamKey
+     */
+    public CounterRandom(long key)
+    {
+	super(0);
+	setStream(key);
+    }
+
+    /** restarts the generator on the stream with the given key*/
+    public final void setStream(long key)
+    {
+	this.key = mix(key);
+	this.counter = 0;
+    }
+
+    /** @return key of stream id derived from the given seed*/
+    public static long streamKey(long seed, long id)
+    {
+	return mix(seed+mix(id+GAMMA));
+    }
+
+    /** SplitMix64 finalizer*/
+    public static long mix(long z)
+    {
+	z = (z^(z>>>30))*0xbf58476d1ce4e5b9L;
+	z = (z^(z>>>27))*0x94d049bb133111ebL;
+	return z^(z>>>31);
+    }
+
+    @Override
+    public void setSeed(long seed)
+    {
+	/*called by the Random constructor*/
+	setStream(seed);
+    }
+
+    @Override
+    public long nextLong()
+    {
+	counter++;
+	return mix(key+counter*GAMMA);
+    }
+
+    @Override
+    protected int next(int bits)
+    {
+	return (int)(nextLong()>>>(64-bits));
+    }
+
+    @Override
+    public double nextDouble()
+    {
+	return (nextLong()>>>11)*0x1.0p-53;
+    }
+}
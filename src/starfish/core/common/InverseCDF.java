@@ -0,0 +1,128 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.common;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Samples a one dimensional distribution by inverting its cumulative
+ * distribution function. The CDF is integrated from the (not necessarily
+ * normalized) pdf on a fine grid and inverted at uniformly spaced values of the
+ * random number, so sampling is a table lookup with linear interpolation.
+ */
+public class InverseCDF
+{
+    protected double x[];	    //x at R=k/(n-1)
+    protected double scale;	    //n-1
+    protected double head[];	    //first interval, R in [0,1/(n-1)]
+    protected double tail[];	    //last interval, R in [(n-2)/(n-1),1]
+
+    /**
+     * @param pdf probability density, does not need to be normalized
+     * @param x_min lower bound of the distribution
+     * @param x_max upper bound of the distribution
+     * @param n number of table entries
+     */
+    public InverseCDF(DoubleUnaryOperator pdf, double x_min, double x_max, int n)
+    {
+	/*integrate with the trapezoidal rule on a grid finer than the table*/
+	int nf = 16*n;
+	double dx = (x_max-x_min)/(nf-1);
+	double cdf[] = new double[nf];
+	double f0 = pdf.applyAsDouble(x_min);
+	for (int i=1;i<nf;i++)
+	{
+	    double f1 = pdf.applyAsDouble(x_min+i*dx);
+	    cdf[i] = cdf[i-1]+0.5*(f0+f1)*dx;
+	    f0 = f1;
+	}
+	build(cdf, x_min, dx, n);
+    }
+
+    /**
+     * @param cdf cumulative distribution at x_min+i*dx, must be non-decreasing
+     * @param x_min position of the first entry
+     * @param dx spacing
+     * @param n number of table entries
+     */
+    public InverseCDF(double cdf[], double x_min, double dx, int n)
+    {
+	build(cdf, x_min, dx, n);
+    }
+
+    /** inverts cdf at uniformly spaced values, the first and last intervals,
+     * where the inverse is typically steepest, get their own tables*/
+    private void build(double cdf[], double x_min, double dx, int n)
+    {
+	int nf = cdf.length;
+	double c0 = cdf[0];
+	double total = cdf[nf-1]-c0;
+	scale = n-1;
+	if (total<=0)
+	{
+	    /*degenerate distribution, sample uniformly*/
+	    double x_max = x_min+(nf-1)*dx;
+	    double step = (x_max-x_min)/scale;
+	    x = invert(null, x_min, x_max, n, 0, 1);
+	    head = invert(null, x_min, x_min+step, n, 0, 1);
+	    tail = invert(null, x_max-step, x_max, n, 0, 1);
+	    return;
+	}
+
+	x = invert(cdf, x_min, dx, n, c0, c0+total);
+	head = invert(cdf, x_min, dx, n, c0, c0+total/scale);
+	tail = invert(cdf, x_min, dx, n, c0+total*(n-2)/scale, c0+total);
+    }
+
+    /** @return x at n uniformly spaced cdf values between c_lo and c_hi,
+     * linear ramp between x0 and x1 if cdf is null*/
+    private static double[] invert(double cdf[], double x0, double x1, int n, double c_lo, double c_hi)
+    {
+	double r[] = new double[n];
+	if (cdf==null)
+	{
+	    for (int k=0;k<n;k++) r[k] = x0+k*(x1-x0)/(n-1);
+	    return r;
+	}
+
+	/*x1 is the spacing*/
+	int nf = cdf.length;
+	int i = 0;
+	for (int k=0;k<n;k++)
+	{
+	    double target = c_lo+(c_hi-c_lo)*k/(n-1);
+	    while (i<nf-2 && cdf[i+1]<target) i++;
+	    double df = cdf[i+1]-cdf[i];
+	    double t = df>0?(target-cdf[i])/df:0;
+	    if (t<0) t=0;
+	    if (t>1) t=1;
+	    r[k] = x0+(i+t)*x1;
+	}
+	return r;
+    }
+
+    /** @param R random number in [0,1]
+     * @return x such that CDF(x)=R*/
+    public double eval(double R)
+    {
+	double f = R*scale;
+	int k = (int)f;
+	if (k<=0) return lookup(head, f);
+	if (k>=x.length-2) return lookup(tail, f-(x.length-2));
+	return x[k]+(f-k)*(x[k+1]-x[k]);
+    }
+
+    /** @return table value at fractional position f in [0,1]*/
+    private double lookup(double table[], double f)
+    {
+	if (f<0) f=0;
+	double g = f*scale;
+	int k = (int)g;
+	if (k>=table.length-1) return table[table.length-1];
+	return table[k]+(g-k)*(table[k+1]-table[k]);
+    }
+}
@@ -1,15 +1,20 @@
 /*
  * (c) 2012-2019 Particle In Cell Consulting LLC
- * 
- * This document is subject to the license specified in 
+ *
+ * This document is subject to the license specified in
  * Starfish.java and the LICENSE file
  */
 package starfish.core.common;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 
 /**
+ * Piecewise linear function defined by (x,y) pairs. Values below the first
+ * point or above the last one are clamped. Data is stored in primitive arrays
+ * sorted by x with precomputed slopes. Evaluation uses a direct index computation
+ * if the points are uniformly spaced and binary search otherwise. A Cursor
+ * remembers the last interval for callers evaluating in sequence.
  *
  * @author Lubos Brieda
  */
@@ -43,10 +48,15 @@ public class LinearList
 	    insert(x[i],y[i]);
 	}
     }
-    /**
-     *
-     */
-    public ArrayList<XYData> data = new ArrayList<XYData>();
+
+    protected double x[] = new double[4];
+    protected double y[] = new double[4];
+    protected double slope[];	    //slope of interval [i,i+1]
+    protected int n = 0;	    //number of points
+
+    /*uniform spacing*/
+    protected boolean uniform;
+    protected double inv_dx;
 
     /**
      *
@@ -55,17 +65,102 @@ public class LinearList
      */
     final public void insert(double x, double y)
     {
-	data.add(new XYData(x,y));
+	if (n==this.x.length)
+	{
+	    this.x = Arrays.copyOf(this.x, 2*n);
+	    this.y = Arrays.copyOf(this.y, 2*n);
+	}
+	this.x[n] = x;
+	this.y[n] = y;
+	n++;
 	dirty = true;
     }
 
-    private boolean dirty = true;
+    private volatile boolean dirty = true;
 
     /** @return True if empty list*/
     public boolean isEmpty()
     {
-	return data.isEmpty();
+	return n==0;
+    }
+
+    /** @return number of points*/
+    public int size() {return n;}
+
+    /** @return x coordinate of point i*/
+    public double getX(int i) {sort(); return x[i];}
+
+    /** @return value at point i*/
+    public double getY(int i) {sort(); return y[i];}
+
+    /** sorts data by x, points with the same x retain their insertion order,
+     * and computes slopes*/
+    protected synchronized void sort()
+    {
+	if (!dirty) return;
+
+	/*insertion sort, data is normally given in order*/
+	for (int i=1;i<n;i++)
+	{
+	    double xi = x[i], yi = y[i];
+	    int j = i-1;
+	    while (j>=0 && x[j]>xi)
+	    {
+		x[j+1] = x[j];
+		y[j+1] = y[j];
+		j--;
+	    }
+	    x[j+1] = xi;
+	    y[j+1] = yi;
+	}
+
+	double s[] = new double[Math.max(n-1,1)];
+	for (int i=0;i<n-1;i++)
+	{
+	    double dx = x[i+1]-x[i];
+	    s[i] = dx>0?(y[i+1]-y[i])/dx:0;
+	}
+
+	/*check for uniform spacing*/
+	uniform = false;
+	if (n>2)
+	{
+	    double dx = (x[n-1]-x[0])/(n-1);
+	    uniform = dx>0;
+	    for (int i=0;i<n-1 && uniform;i++)
+		if (Math.abs(x[i+1]-x[i]-dx)>1e-9*dx) uniform = false;
+	    inv_dx = 1/dx;
+	}
+
+	slope = s;
+	dirty = false;
+    }
+
+    /** @return interval i such that x[i]<v<=x[i+1], v must be inside the range*/
+    protected int search(double v)
+    {
+	if (uniform)
+	{
+	    int i = (int)((v-x[0])*inv_dx);
+	    if (i>n-2) i=n-2;
+
+	    /*correct for round off*/
+	    if (v>x[i+1]) i++;
+	    else if (i>0 && v<=x[i]) i--;
+	    return i;
+	}
+
+	/*first point with x>=v*/
+	int lo = 1, hi = n-1;
+	while (lo<hi)
+	{
+	    int mid = (lo+hi)>>>1;
+	    if (x[mid]<v) lo = mid+1;
+	    else hi = mid;
+	}
+	return lo-1;
     }
+
     /**
      *
      * @param x
@@ -73,59 +168,42 @@ public class LinearList
      */
     public double eval(double x)
     {
-	    if (data.isEmpty()) return 0;
-	    if (dirty) {
-		Collections.sort(data);
-		dirty=false;
-	    }
+	if (dirty) sort();
+	if (n==0) return 0;
+	if (x<=this.x[0]) return y[0];
+	if (x>this.x[n-1]) return y[n-1];
 
-	    int data_index = 0; /*this can be made a global if we know it will be called in sequence*/
-	    while(true)
-	    {
-		XYData current = data.get(data_index);
-		if (data_index<data.size()-1)
-		{
-		    XYData next = data.get(data_index+1);
-		    if (x>next.x)
-			data_index++;
-		    else
-		    {
-			double t = (x-current.x)/(next.x-current.x);
-			if (t<0) t=0;
-
-			/*interpolate*/
-			return current.y+t*(next.y-current.y);
-		    }			
-		}
-		else return current.y;	/*reached end of data*/
-	    }
+	int i = search(x);
+	return y[i]+(x-this.x[i])*slope[i];
+    }
+
+    /** @return new cursor for sequential evaluation*/
+    public Cursor cursor()
+    {
+	return new Cursor();
     }
 
     /**
-     *
+     * Evaluates the list starting from the previously used interval. Efficient
+     * when consecutive x values are close, such as time. Each caller thread
+     * needs its own cursor.
      */
-    public class XYData implements Comparable
+    public class Cursor
     {
-	/**
-	 *
-	 */
-	public double x;
-
-	/**
-	 *
-	 */
-	public double y;
-	XYData(double x, double y) {this.x = x; this.y=y;}
-
-	@Override
-	public int compareTo(Object o)
-	{
-	    XYData t2 = (XYData)o;
+	int index = 0;
 
-	    if (x<t2.x) return -1;
-	    else if (x==t2.x) return 0;
-	    else return 1;
+	public double eval(double v)
+	{
+	    if (dirty) sort();
+	    if (n==0) return 0;
+	    if (v<=x[0]) {index=0;return y[0];}
+	    if (v>x[n-1]) {index=Math.max(n-2,0);return y[n-1];}
+
+	    int i = Math.min(index, n-2);
+	    while (v>x[i+1]) i++;
+	    while (v<=x[i]) i--;
+	    index = i;
+	    return y[i]+(v-x[i])*slope[i];
 	}
     }
-
 }
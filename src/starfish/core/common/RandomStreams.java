@@ -0,0 +1,196 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.common;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Factory of independent random number streams. Stream n is seeded from the
+ * global seed and n, so any code that obtains its generator by stream id draws
+ * the same sequence regardless of thread scheduling. The generator type is
+ * selected with &lt;starfish rng="..."&gt;:
+ *	xoshiro	    xoshiro256++ (default)
+ *	splittable  java.util.SplittableRandom
+ *	counter	    CounterRandom, SplitMix64 hash of a counter
+ *	java	    java.util.Random, stream 0 matches the legacy Random(seed)
+ * All generators extend java.util.Random so they can be passed to existing
+ * sampling functions. Starfish.rnd() and friends draw from a per-thread stream,
+ * the thread that first uses the facade (normally the main thread) gets stream 0.
+ * Other threads get ids in the order of first use, so their streams are not
+ * repeatable. Starfish.parallelFor therefore binds a stream keyed by the chunk
+ * start index for the duration of each chunk, and tasks that need streams
+ * independent of the chunking bind one keyed by their own work unit.
+ */
+public class RandomStreams
+{
+    /**generator types*/
+    public enum Type {XOSHIRO, SPLITTABLE, COUNTER, JAVA};
+
+    static Type type = Type.XOSHIRO;
+    static long seed = 0;
+
+    /*stream ids for the thread local facade, explicit streams used by
+    tasks should use ids above THREAD_STREAMS*/
+    public static final long THREAD_STREAMS = 1L<<32;
+    static volatile AtomicLong next_thread_stream = new AtomicLong(0);
+    static volatile ThreadLocal<Random> thread_random = ThreadLocal.withInitial(
+		() -> create(next_thread_stream.getAndIncrement()));
+
+    /**
+     * Selects the generator and seed, discards existing per-thread streams
+     * @param type generator type
+     * @param seed global seed
+     */
+    public static synchronized void init(Type type, long seed)
+    {
+	RandomStreams.type = type;
+	RandomStreams.seed = seed;
+	next_thread_stream = new AtomicLong(0);
+	thread_random = ThreadLocal.withInitial(() -> create(next_thread_stream.getAndIncrement()));
+    }
+
+    /** @return generator type parsed from name*/
+    public static Type parseType(String name)
+    {
+	try {
+	    return Type.valueOf(name.toUpperCase());
+	}
+	catch (IllegalArgumentException e)
+	{
+	    throw new UnsupportedOperationException("Unknown random number generator "+name);
+	}
+    }
+
+    /** @return the calling thread's generator*/
+    public static Random get()
+    {
+	return thread_random.get();
+    }
+
+    /** @return selected generator type*/
+    public static Type getType() {return type;}
+
+    /**
+     * Replaces the calling thread's generator, used by tasks that need a
+     * deterministic stream while running code that draws from Starfish.rnd()
+     * @param rnd generator to use
+     * @return previous generator, to be restored with another bind call
+     */
+    public static Random bind(Random rnd)
+    {
+	Random old = thread_random.get();
+	thread_random.set(rnd);
+	return old;
+    }
+
+    /** @param stream_id stream id
+     * @return new generator for the given stream */
+    public static Random create(long stream_id)
+    {
+	if (type==Type.JAVA && stream_id==0) return new Random(seed);
+	return newGenerator(CounterRandom.streamKey(seed, stream_id));
+    }
+
+    /** @param key seed
+     * @return new generator of the selected type seeded with key*/
+    public static Random newGenerator(long key)
+    {
+	switch (type)
+	{
+	    case SPLITTABLE: return new SplittableAdapter(key);
+	    case COUNTER: return new CounterRandom(key);
+	    case JAVA: return new Random(key);
+	    default: return new Xoshiro256Random(key);
+	}
+    }
+
+    /**
+     * xoshiro256++ by Blackman and Vigna, state is initialized from the seed
+     * with SplitMix64. Not thread safe.
+     */
+    public static class Xoshiro256Random extends Random
+    {
+	private static final long serialVersionUID = 1L;
+	private long s0, s1, s2, s3;
+
+	public Xoshiro256Random(long seed)
+	{
+	    super(seed);    //calls setSeed
+	}
+
+	@Override
+	public final void setSeed(long seed)
+	{
+	    long z = seed;
+	    s0 = CounterRandom.mix(z+=CounterRandom.GAMMA);
+	    s1 = CounterRandom.mix(z+=CounterRandom.GAMMA);
+	    s2 = CounterRandom.mix(z+=CounterRandom.GAMMA);
+	    s3 = CounterRandom.mix(z+CounterRandom.GAMMA);
+	}
+
+	@Override
+	public long nextLong()
+	{
+	    long result = Long.rotateLeft(s0+s3, 23)+s0;
+	    long t = s1<<17;
+	    s2 ^= s0;
+	    s3 ^= s1;
+	    s1 ^= s2;
+	    s0 ^= s3;
+	    s2 ^= t;
+	    s3 = Long.rotateLeft(s3, 45);
+	    return result;
+	}
+
+	@Override
+	protected int next(int bits)
+	{
+	    return (int)(nextLong()>>>(64-bits));
+	}
+
+	@Override
+	public double nextDouble()
+	{
+	    return (nextLong()>>>11)*0x1.0p-53;
+	}
+    }
+
+    /** java.util.SplittableRandom exposed through the Random interface*/
+    public static class SplittableAdapter extends Random
+    {
+	private static final long serialVersionUID = 1L;
+	private SplittableRandom rnd;
+
+	public SplittableAdapter(long seed)
+	{
+	    super(seed);    //calls setSeed
+	}
+
+	@Override
+	public final void setSeed(long seed)
+	{
+	    rnd = new SplittableRandom(seed);
+	}
+
+	@Override
+	public long nextLong() {return rnd.nextLong();}
+
+	@Override
+	protected int next(int bits)
+	{
+	    return (int)(rnd.nextLong()>>>(64-bits));
+	}
+
+	@Override
+	public double nextDouble() {return rnd.nextDouble();}
+
+	@Override
+	public int nextInt(int bound) {return rnd.nextInt(bound);}
+    }
+}
@@ -7,14 +7,18 @@
 
 package starfish.core.common;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import org.w3c.dom.Element;
 import starfish.core.common.Starfish.Log;
+import starfish.core.domain.Mesh;
+import starfish.core.io.CheckpointManifest;
+import starfish.core.io.CheckpointReader;
+import starfish.core.io.CheckpointWriter;
+import starfish.core.io.CheckpointWriter.Codec;
+import starfish.core.io.CheckpointWriter.Task;
 import starfish.core.io.InputParser;
+import starfish.core.io.OutputService;
 import starfish.core.materials.Material;
 
 /**
@@ -30,6 +34,16 @@ public  class RestartModule extends CommandModule
 	
     int it_last_save;
     int it_last_load=-1;
+    
+    String file_name = "restart.bin";
+    Codec codec = Codec.NONE;		    /*compression of data sections*/
+    static final int BUFFER_SIZE = 8<<20;   /*size of the staging buffer*/
+    int keep = 1;			    /*number of checkpoints to retain*/
+    boolean async = false;		    /*write periodic checkpoints in the background*/
+    boolean incremental = false;	    /*write only sections that changed*/
+    int full_every = 10;		    /*a full checkpoint every full_every saves*/
+    CheckpointManifest last_manifest;	    /*previous checkpoint of the chain*/
+    OutputService service;		    /*checkpoint writer thread*/
 	
     @Override
     public void init()
@@ -45,6 +59,18 @@ public  class RestartModule extends CommandModule
 		
 	load_restart = InputParser.getBoolean("load",element,false);
 	save_restart = InputParser.getBoolean("save",element,false);
+	
+	String compression = InputParser.getValue("compression", element, "none");
+	try {
+	    codec = Codec.valueOf(compression.toUpperCase());
+	} catch (IllegalArgumentException e) {
+	    Log.error("Unrecognized restart compression "+compression+", expecting [NONE,DEFLATE]");
+	}
+	
+	keep = InputParser.getInt("keep", element, 1);
+	async = InputParser.getBoolean("async", element, false);
+	incremental = InputParser.getBoolean("incremental", element, false);
+	full_every = Math.max(InputParser.getInt("full_every", element, 10), 1);
     }
 
     @Override
@@ -55,7 +81,8 @@ public  class RestartModule extends CommandModule
     @Override
     public void exit() 
     {
-	/*call save to capture latest data*/
+	/*wait for a checkpoint in progress, then call save to capture latest data*/
+	if (service!=null) service.flush();
 	if (it_last_save != Starfish.getIt())
 	    save(true);
     }
@@ -69,8 +96,10 @@ public  class RestartModule extends CommandModule
     }
 	
     /**
-     *
-     * @param ignore_it
+     * Saves restart data. In the async mode, periodic checkpoints copy the data
+     * and are written by a background thread while the simulation continues. A
+     * checkpoint is skipped if the previous one is still being written.
+     * @param ignore_it if true, saves regardless of it_save, always synchronous
      */
     public void save(boolean ignore_it)
     {
@@ -78,15 +107,28 @@ public  class RestartModule extends CommandModule
 	    return;
 				
 	if (Starfish.getIt()%it_save!=0 && ignore_it==false) return;
+	
+	boolean background = async && !ignore_it;
+	if (background && service!=null && service.isBusy())
+	{
+	    Log.warning("Skipping restart save at it "+Starfish.getIt()+", previous checkpoint is still being written");
+	    return;
+	}
 		
 	Log.message("Saving restart data");
 	it_last_save=Starfish.getIt();
 		
 	try{
-	    saveRestartData();
+	    if (background)
+		saveRestartDataAsync();
+	    else
+	    {
+		if (service!=null) service.flush();
+		saveRestartData();
+	    }
 	} catch (IOException e) 
 	{
-	    Log.error("Failed to save restart data to restart.bin");
+	    Log.error("Failed to save restart data to "+file_name+": "+e.getMessage());
 	}
     }
 	
@@ -102,7 +144,7 @@ public  class RestartModule extends CommandModule
 		loadRestartData();
 	    } catch (IOException e) 
 	{
-	    Log.error("Failed to load restart data from restart.bin");
+	    Log.error("Failed to load restart data from "+file_name+": "+e.getMessage());
 	}
 		
 	/*update number of times steps*/
@@ -113,7 +155,7 @@ public  class RestartModule extends CommandModule
     }
 
     /**saves restart data
-    * At present only saves particle positions
+    * The file is written to a temporary file first and renamed once complete
     * TODO: add save for fields and fluid materials
     * @throws IOException 
     */
@@ -122,49 +164,167 @@ public  class RestartModule extends CommandModule
 	//prevent saving immediately after loading
 	if (Starfish.getIt()==it_last_load) return;
 	
-	DataOutputStream out=null;
-	out = new DataOutputStream(new FileOutputStream("restart.bin"));
+	writeCheckpoint(getCheckpointTasks(false));
+    }
+
+    /**copies restart data and queues it for writing on the checkpoint thread*/
+    protected void saveRestartDataAsync()
+    {
+	if (Starfish.getIt()==it_last_load) return;
+	
+	ArrayList<Task> tasks = getCheckpointTasks(true);
+	if (service==null)
+	{
+	    service = new OutputService("starfish-checkpoint");
+	    service.init(true, Long.MAX_VALUE);
+	}
 	
-	out.writeInt(Starfish.getIt());
-		
-	/*TODO: replace with a system checksum*/
-	out.writeInt(getCheckSum());	/*number of materials*/
-		
+	int it = Starfish.getIt();
+	service.execute(() -> {
+	    try {
+		writeCheckpoint(tasks);
+	    } catch (IOException e) {
+		Log.warning("Failed to save restart data for it "+it+" to "+file_name+": "+e.getMessage());
+	    }
+	});
+    }
+    
+    /*tasks writing the checkpoint, data is copied if copy is set*/
+    protected ArrayList<Task> getCheckpointTasks(boolean copy)
+    {
+	ArrayList<Task> tasks = new ArrayList<>();
+	tasks.add(getHeader());
 	for (Material mat:Starfish.getMaterialsList())
-	{
-	    mat.saveRestartData(out);		
+	    tasks.add(mat.getRestartData(copy));
+	return tasks;
+    }
+
+    /*writes the checkpoint file, previous file is kept if this fails. In the
+    incremental mode, a full base is written every full_every saves and delta
+    files holding only the changed sections in between*/
+    protected void writeCheckpoint(ArrayList<Task> tasks) throws IOException
+    {
+	boolean full = !incremental || last_manifest==null || last_manifest.seq+1>=full_every;
+	String name = full?file_name:CheckpointManifest.deltaName(file_name, last_manifest.seq+1);
+	
+	CheckpointWriter out = new CheckpointWriter(name, codec, BUFFER_SIZE);
+	if (full) out.setRetention(keep);
+	if (incremental) out.setIncremental(full?null:last_manifest);
+	try {
+	    for (Task task:tasks)
+		task.write(out);
+	    out.close();
+	} catch (IOException | RuntimeException e) {
+	    out.abort();
+	    throw e;
 	}
-	out.close();
+	
+	/*deltas of the previous chain are no longer valid*/
+	if (full) CheckpointManifest.deleteDeltas(file_name);
+	last_manifest = out.getManifest();
     }
 	
     /**loads restart data
-    * At present only loads particle positions
     * TODO: non-kinetic mats
     * @throws IOException 
     */
     protected void loadRestartData() throws IOException  
     {
-	DataInputStream in=null;
-	in = new DataInputStream(new FileInputStream("restart.bin"));
+	String latest = CheckpointReader.findLatest(file_name);
+	if (!latest.equals(file_name))
+	    Log.log("Loading incremental checkpoint "+latest);
 	
-	Starfish.time_module.setIt(in.readInt());
-		
-	/*TODO: replace with a system checksum*/
-	if (in.readInt() != getCheckSum())
-		Log.error("Incompatible restart file");
-		
-	for (Material mat:Starfish.getMaterialsList())
+	try (CheckpointReader in = new CheckpointReader(latest, BUFFER_SIZE))
+	{
+	    loadHeader(in);
+	    
+	    /*materials read their own sections, meshes are then loaded in parallel*/
+	    ArrayList<CheckpointReader.Task> tasks = new ArrayList<>();
+	    for (Material mat:Starfish.getMaterialsList())
+		mat.loadRestartData(in, tasks);
+	    
+	    IOException error[] = new IOException[1];
+	    Starfish.parallelFor(tasks.size(), 2, (i0,i1)->{
+		for (int i=i0;i<i1;i++)
+		{
+		    try {
+			tasks.get(i).run();
+		    } catch (IOException e) {
+			synchronized (error) {error[0] = e;}
+		    }
+		}
+	    });
+	    if (error[0]!=null) throw error[0];
+	}
+    }
+
+    /*header with the time step and the layout the data was saved with*/
+    protected Task getHeader()
+    {
+	int it = Starfish.getIt();
+	double dt = Starfish.getDt();
+	
+	ArrayList<String> mesh_names = new ArrayList<>();
+	ArrayList<int[]> mesh_dims = new ArrayList<>();
+	for (Mesh mesh:Starfish.getMeshList())
 	{
-	    mat.loadRestartData(in);
+	    mesh_names.add(mesh.getName());
+	    mesh_dims.add(new int[] {mesh.ni, mesh.nj});
 	}
 	
-	in.close();
+	ArrayList<String> mat_names = new ArrayList<>();
+	for (Material mat:Starfish.getMaterialsList())
+	    mat_names.add(mat.getName());
+
+	return out -> {
+	    out.beginSection("header", Codec.NONE);
+	    out.putInt(it);
+	    out.putDouble(dt);
+	    out.putInt(mesh_names.size());
+	    for (int m=0;m<mesh_names.size();m++)
+	    {
+		out.putString(mesh_names.get(m));
+		out.putInt(mesh_dims.get(m)[0]);
+		out.putInt(mesh_dims.get(m)[1]);
+	    }
+	    out.putInt(mat_names.size());
+	    for (String name:mat_names)
+		out.putString(name);
+	    out.endSection();
+	};
     }
 
-    /*system checksum*/
-    int getCheckSum()
+    /*reads the header and makes sure the file matches the current simulation*/
+    protected void loadHeader(CheckpointReader in) throws IOException
     {
-	/*TODO: implement a more rigorous checksum*/
-	return Starfish.getMaterialsList().size();
-    }	
+	in.openSection("header");
+	int it = in.getInt();
+	in.getDouble();	    /*dt, informative only*/
+	
+	ArrayList<Mesh> mesh_list = Starfish.getMeshList();
+	if (in.getInt()!=mesh_list.size())
+	    throw new IOException("Incompatible restart file, number of meshes changed");
+	for (Mesh mesh:mesh_list)
+	{
+	    String name = in.getString();
+	    int ni = in.getInt();
+	    int nj = in.getInt();
+	    if (!name.equals(mesh.getName()) || ni!=mesh.ni || nj!=mesh.nj)
+		throw new IOException("Incompatible restart file, mesh "+name+" ("+ni+"x"+nj+") does not match "+
+			mesh.getName()+" ("+mesh.ni+"x"+mesh.nj+")");
+	}
+	
+	ArrayList<Material> mat_list = Starfish.getMaterialsList();
+	if (in.getInt()!=mat_list.size())
+	    throw new IOException("Incompatible restart file, number of materials changed");
+	for (Material mat:mat_list)
+	{
+	    String name = in.getString();
+	    if (!name.equals(mat.getName()))
+		throw new IOException("Incompatible restart file, material "+name+" does not match "+mat.getName());
+	}
+	in.closeSection();
+	
+	Starfish.time_module.setIt(it);
+    }
 }
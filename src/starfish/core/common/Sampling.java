@@ -0,0 +1,148 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.common;
+
+import java.util.Random;
+
+/**
+ * Fast samplers for the normal distribution and velocity distributions
+ * derived from it. Normal deviates use the ziggurat method (Marsaglia and Tsang,
+ * with Doornik's ZIGNOR construction), which accepts about 98.8% of draws after
+ * a single table comparison and is exact, unlike the sum of uniform numbers
+ * used previously. Speed distributions that have no closed form inverse are
+ * sampled with tabulated inverse CDFs. All functions take the generator as an
+ * argument so callers with a private stream, such as collision tasks, remain
+ * deterministic; v_th is sqrt(2kT/m) as in Utils.computeVth.
+ */
+public class Sampling
+{
+    /*ziggurat with 128 layers*/
+    static final int ZIG_C = 128;
+    static final double ZIG_R = 3.442619855899;		    //start of the tail
+    static final double ZIG_V = 9.91256303526217e-3;	    //layer area
+    static final double zig_x[] = new double[ZIG_C+1];
+    static final double zig_r[] = new double[ZIG_C];
+
+    static
+    {
+	double f = Math.exp(-0.5*ZIG_R*ZIG_R);
+	zig_x[0] = ZIG_V/f;	    //bottom layer includes the tail
+	zig_x[1] = ZIG_R;
+	zig_x[ZIG_C] = 0;
+	for (int i=2;i<ZIG_C;i++)
+	{
+	    zig_x[i] = Math.sqrt(-2*Math.log(ZIG_V/zig_x[i-1]+f));
+	    f = Math.exp(-0.5*zig_x[i]*zig_x[i]);
+	}
+	for (int i=0;i<ZIG_C;i++)
+	    zig_r[i] = zig_x[i+1]/zig_x[i];
+    }
+
+    /** @return standard normal deviate, zero mean and unit variance*/
+    public static double gaussian(Random rnd)
+    {
+	while (true)
+	{
+	    /*top 53 bits give u in [-1,1), the low 7 bits select the layer*/
+	    long bits = rnd.nextLong();
+	    double u = 2*((bits>>>11)*0x1.0p-53)-1;
+	    int i = (int)bits&(ZIG_C-1);
+
+	    /*inside the rectangle fully under the curve*/
+	    if (Math.abs(u)<zig_r[i]) return u*zig_x[i];
+
+	    if (i==0) return gaussianTail(rnd, u<0);
+
+	    /*wedge, compare against the density*/
+	    double x = u*zig_x[i];
+	    double f0 = Math.exp(-0.5*(zig_x[i]*zig_x[i]-x*x));
+	    double f1 = Math.exp(-0.5*(zig_x[i+1]*zig_x[i+1]-x*x));
+	    if (f1+rnd.nextDouble()*(f0-f1)<1.0) return x;
+	}
+    }
+
+    /** samples the normal tail beyond ZIG_R, Marsaglia's method*/
+    static double gaussianTail(Random rnd, boolean negative)
+    {
+	double x, y;
+	do
+	{
+	    /*1-U is in (0,1], avoids log(0)*/
+	    x = Math.log(1-rnd.nextDouble())/ZIG_R;
+	    y = Math.log(1-rnd.nextDouble());
+	} while (-2*y<x*x);
+	return negative?x-ZIG_R:ZIG_R-x;
+    }
+
+    /** @return velocity component sampled from a Maxwellian with thermal speed v_th*/
+    public static double maxwellian1D(double v_th, Random rnd)
+    {
+	return SQRT_HALF*v_th*gaussian(rnd);
+    }
+
+    /** @return velocity vector sampled from an isotropic Maxwellian*/
+    public static double[] maxwellian3D(double v_th, Random rnd)
+    {
+	double sigma = SQRT_HALF*v_th;
+	return new double[] {sigma*gaussian(rnd), sigma*gaussian(rnd), sigma*gaussian(rnd)};
+    }
+
+    /**
+     * Fills a batch of velocities with samples from a drifting Maxwellian
+     * @param vel flat array of velocity vectors, vel[3*k+dim]
+     * @param first index of the first vector to sample
+     * @param count number of vectors to sample
+     * @param v_th thermal speed
+     * @param v_drift drift velocity with two or three components, may be null
+     * @param rnd generator
+     */
+    public static void fillMaxwellian(double vel[], int first, int count, double v_th, double v_drift[], Random rnd)
+    {
+	double sigma = SQRT_HALF*v_th;
+	double u = 0, v = 0, w = 0;
+	if (v_drift!=null) {u = v_drift[0]; v = v_drift[1]; w = v_drift.length>2?v_drift[2]:0;}
+
+	for (int k=0, o=3*first;k<count;k++, o+=3)
+	{
+	    vel[o] = u+sigma*gaussian(rnd);
+	    vel[o+1] = v+sigma*gaussian(rnd);
+	    vel[o+2] = w+sigma*gaussian(rnd);
+	}
+    }
+
+    /**
+     * Samples the velocity component normal to a surface crossed by a
+     * stationary Maxwellian, f(v)~v*exp(-v^2/v_th^2), by direct inversion
+     * @return normal speed, always positive
+     */
+    public static double halfMaxwellianFlux(double v_th, Random rnd)
+    {
+	return v_th*Math.sqrt(-Math.log(1-rnd.nextDouble()));
+    }
+
+    /** @return speed sampled from f(v)~v^2*exp(-v^2/v_th^2), truncated at 6 v_th*/
+    public static double maxwellianSpeed(double v_th, Random rnd)
+    {
+	return v_th*speed_table.eval(rnd.nextDouble());
+    }
+
+    /** @return speed of molecules crossing a surface, f(v)~v^3*exp(-v^2/v_th^2),
+     * truncated at 6 v_th*/
+    public static double fluxSpeed(double v_th, Random rnd)
+    {
+	return v_th*flux_speed_table.eval(rnd.nextDouble());
+    }
+
+    static final double SQRT_HALF = Math.sqrt(0.5);
+
+    /*inverse CDFs in units of v_th*/
+    static final int SPEED_TABLE_SIZE = 4096;
+    static final InverseCDF speed_table =
+	    new InverseCDF(x->x*x*Math.exp(-x*x), 0, 6, SPEED_TABLE_SIZE);
+    static final InverseCDF flux_speed_table =
+	    new InverseCDF(x->x*x*x*Math.exp(-x*x), 0, 6, SPEED_TABLE_SIZE);
+}
@@ -31,6 +31,11 @@ package starfish.core.common;
 
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.w3c.dom.Element;
 
@@ -287,15 +292,21 @@ public final class Starfish extends CommandModule implements UncaughtExceptionHa
 		modules.put(name, module);
 	}
 
-	/* random number generator */
-	static Random random = new Random(0);
+	/* random numbers are drawn from per-thread streams, see RandomStreams */
+
+	/**
+	 * @return random number generator of the calling thread
+	 */
+	static public Random getRandom() {
+		return RandomStreams.get();
+	}
 
 	/**
 	 *
 	 * @return random value in [0,1)
 	 */
 	static public double rnd() {
-		return random.nextDouble();
+		return RandomStreams.get().nextDouble();
 	} // [0,1)
 
 	/**
@@ -315,7 +326,7 @@ public final class Starfish extends CommandModule implements UncaughtExceptionHa
 	 * @return random value in [-1,1)
 	 */
 	static public double rnd2() {
-		return -1.0 + 2 * random.nextDouble();
+		return -1.0 + 2 * RandomStreams.get().nextDouble();
 	} // [-1,1)
 
 	/**
@@ -332,7 +343,7 @@ public final class Starfish extends CommandModule implements UncaughtExceptionHa
 	
 	//returns integer in [0,max)
 	static public int rndi(int max) {
-		return random.nextInt(max);
+		return RandomStreams.get().nextInt(max);
 	}
 
 	/* code version */
@@ -498,6 +509,76 @@ public final class Starfish extends CommandModule implements UncaughtExceptionHa
 		return num_processors;
 	}
 
+	/** shared pool of worker threads used by the parallel kernels */
+	protected static ExecutorService worker_pool = null;
+
+	/**
+	 * @return pool of num_processors daemon threads, created on first use
+	 */
+	public static synchronized ExecutorService getWorkerPool() {
+		if (worker_pool == null) {
+			worker_pool = Executors.newFixedThreadPool(num_processors, r -> {
+				Thread thread = new Thread(r, "Worker");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return worker_pool;
+	}
+
+	/** task evaluated on a range of indexes [i_min, i_max) */
+	public interface RangeTask {
+		void run(int i_min, int i_max);
+	}
+
+	/**
+	 * splits [0,n) into one chunk per processor and evaluates the chunks on the
+	 * worker pool, returns once all chunks have completed. Unless the legacy java
+	 * generator is selected, each chunk runs with a random stream keyed by its
+	 * first index so that draws from rnd() do not depend on which worker picks
+	 * up the chunk
+	 * 
+	 * @param n        number of items
+	 * @param min_size ranges with fewer items are evaluated on the calling thread
+	 * @param task     task to run on each chunk
+	 */
+	public static void parallelFor(int n, int min_size, RangeTask task) {
+		if (num_processors == 1 || n < min_size) {
+			task.run(0, n);
+			return;
+		}
+
+		boolean bind_streams = RandomStreams.getType() != RandomStreams.Type.JAVA;
+		final long seed = bind_streams ? (long) (rnd() * Long.MAX_VALUE) : 0;
+		int chunk_size = n / num_processors + 1;
+		Collection<Callable<Object>> workers = new ArrayList<>();
+		for (int i1 = 0; i1 < n; i1 += chunk_size) {
+			final int i_min = i1;
+			final int i_max = Math.min(i1 + chunk_size, n);
+			workers.add(() -> {
+				if (!bind_streams) {
+					task.run(i_min, i_max);
+					return null;
+				}
+				Random old = RandomStreams.bind(RandomStreams.newGenerator(CounterRandom.streamKey(seed, i_min)));
+				try {
+					task.run(i_min, i_max);
+				} finally {
+					RandomStreams.bind(old);
+				}
+				return null;
+			});
+		}
+
+		try {
+			List<Future<Object>> results = getWorkerPool().invokeAll(workers);
+			for (Future<Object> result : results)
+				result.get();
+		} catch (InterruptedException | ExecutionException ex) {
+			Log.error("Parallel evaluation failed: " + ex.getMessage());
+		}
+	}
+
 	/** convenience functions for logging */
 	public static class Log {
 
@@ -705,14 +786,25 @@ public final class Starfish extends CommandModule implements UncaughtExceptionHa
 	@Override
 	public void process(Element element) {
 		/* check for parameters */
+		long seed = InputParser.getLong("seed", element, 0);
 		if (InputParser.getBoolean("randomize", element, randomize))
-			random = new Random(); /* without the seed, will randomize */
+			seed = new Random().nextLong(); /* randomize */
+		RandomStreams.init(RandomStreams.parseType(InputParser.getValue("rng", element, "xoshiro")), seed);
 
 		/* read number of processors */
 		num_processors = InputParser.getInt("max_cores", element, max_cores);
 
+		/* background output, buffer size in MB */
+		output_module.getService().init(InputParser.getBoolean("async_output", element, true),
+				(long) (InputParser.getDouble("output_buffer", element, 256) * (1 << 20)));
+		/* threads writing the per-mesh files of multi-domain outputs */
+		output_module.getService().setThreads(
+				InputParser.getInt("output_threads", element, Math.min(4, num_processors)));
+
 		StartModules();
 		MainLoop();
+		/* finish writing output of the last time step */
+		output_module.getService().flush();
 		FinishModules();
 		status = SimStatus.READY;
 	}
@@ -723,7 +815,12 @@ public final class Starfish extends CommandModule implements UncaughtExceptionHa
 	
 	@Override
 	public void exit() {
-		/* do nothing */
+		/* release worker threads */
+		synchronized (Starfish.class) {
+			if (worker_pool != null)
+				worker_pool.shutdown();
+			worker_pool = null;
+		}
 	}
 
 	/** outputs code header */
@@ -9,78 +9,55 @@ package starfish.core.common;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Random;
 import starfish.core.common.Starfish.Log;
 
 /** Common utilities */
 public class Utils 
 {
     /**
-     * @param v_th * @return Samples 1D Maxwellian DF using Birdsall's method, needs be multiplied by v_th to get velocity
-    *
-    * fM = (R_1+R_2+...+R_M - M/2)*(M/12)^(-1/2)
-    * 
-    * for M=12, the second term drops out
-    * 
-    * Due to difference in Birdsall's v_th, need to multiply by sqrt(1/2)
-    */
-
+     * @param v_th thermal speed, sqrt(2kT/m)
+     * @return velocity component sampled from a 1D Maxwellian, uses the
+     * ziggurat normal sampler in Sampling and the calling thread's stream
+     */
     public static double SampleMaxw1D(double v_th)
     {
-	double sum=0;
-	final int M=12;
-	for (int i=0;i<M;i++)
-	    sum += Starfish.rnd();
-		
-	double fm = (sum - 0.5*M)*Math.sqrt(12.0/M);	/*M/12 = 1, so not included*/	
-	return Math.sqrt(0.5)*v_th*fm;
+	return Sampling.maxwellian1D(v_th, Starfish.getRandom());
     }
 
-    /*samples 3 1d maxwellians
-    * TODO: this works, but perhaps sampling from 1D speed and rotation works better */
+    /** @return velocity component sampled from a 1D Maxwellian using the given generator*/
+    public static double SampleMaxw1D(double v_th, Random rnd)
+    {
+	return Sampling.maxwellian1D(v_th, rnd);
+    }
 
     /**
-     *
-     * @param v_th
-     * @return
+     * @param v_th thermal speed
+     * @return velocity vector sampled from an isotropic Maxwellian
      */
-
     public static double[] SampleMaxw3D(double v_th) 
     {
-	double vel[] = new double[3];
-	vel[0] = SampleMaxw1D(v_th);
-	vel[1] = SampleMaxw1D(v_th);
-	vel[2] = SampleMaxw1D(v_th);
-	return vel;	
+	return Sampling.maxwellian3D(v_th, Starfish.getRandom());
+    }
+
+    /** @return velocity vector sampled from an isotropic Maxwellian using the given generator*/
+    public static double[] SampleMaxw3D(double v_th, Random rnd) 
+    {
+	return Sampling.maxwellian3D(v_th, rnd);
     }
     
     /*samples speed from Maxwellian
     f(v) = 4/(sqrt(pi)*v_th^3)*v^2*exp(-v^2/v_th^2)
+    truncated at 6 v_th, uses a tabulated inverse CDF instead of rejection
     */
 
     /**
-     *
-     * @param v_th
-     * @return
+     * @param v_th thermal speed
+     * @return speed sampled from the Maxwellian speed distribution
      */
-
     public static double SampleMaxwSpeed(double v_th)
     {
-	double bin_max = 6*v_th;
-
-	double a = 4/(Math.sqrt(Math.PI)*v_th*v_th*v_th);
-    
-	//this is fm(v_th)
-	double fm_max = 4/(Math.sqrt(Math.PI)*v_th)*Math.exp(-1);
-    
-	while(true)
-	{
-	    //pick random velocity between bin_min and bin_max
-	    double v = Starfish.rnd()*bin_max;	
-
-	    //compare against distribution function
-	    double fm = a * v*v * Math.exp(-v*v/(v_th*v_th));
-	    if ((fm/fm_max)>Starfish.rnd()) return v;
-	}
+	return Sampling.maxwellianSpeed(v_th, Starfish.getRandom());
     }
 
     /**
@@ -93,14 +70,12 @@ public class Utils
 
     public static double[] diffuseReflVel(double mag, double norm[], double tang1[])
     {
-	/*Bird uses RF(0) to generate (0,1), can't take log(0)*/
-	double v_norm = Math.sqrt(-Math.log(Starfish.rndEx0()))*mag;
-	  
-	/*based on REFLECT2 in DSMC2.f*/
-	double A = Math.sqrt(-Math.log(Starfish.rndEx0()));
-	double B = 2*Math.PI*Starfish.rnd();
-	double v_tang1 = A*Math.sin(B)*mag;
-	double v_tang2 = A*Math.cos(B)*mag;
+	/*based on REFLECT2 in DSMC2.f, flux weighted normal component and
+	Maxwellian tangential components*/
+	Random rnd = Starfish.getRandom();
+	double v_norm = Sampling.halfMaxwellianFlux(mag, rnd);
+	double v_tang1 = Sampling.maxwellian1D(mag, rnd);
+	double v_tang2 = Sampling.maxwellian1D(mag, rnd);
           
 	double tang2[] = {0,0,1};
 	    
@@ -116,12 +91,18 @@ public class Utils
      * @return
      */
     public static double[] isotropicVel(double mag)
+    {
+	return isotropicVel(mag, Starfish.getRandom());
+    }
+
+    /** @return vector of magnitude mag in a random direction drawn from rnd*/
+    public static double[] isotropicVel(double mag, Random rnd)
     {
 	/*pick a random angle*/
-	double theta = 2*Math.PI*Starfish.rnd();
+	double theta = 2*Math.PI*rnd.nextDouble();
  
 	/*pick a random direction for n[2]*/
-	double R = -1.0+2*Starfish.rnd();
+	double R = -1.0+2*rnd.nextDouble();
 	double a = Math.sqrt(1-R*R);
  
 	double amag = (mag>0)?mag:-mag;
@@ -251,6 +232,30 @@ public class Utils
 	return Math.sqrt(2*Math.PI)*Math.pow(t, x+0.5)*Math.exp(-t)*a;
     }
     
+    /** Fast exponential using range reduction exp(x)=2^k*exp(r) with |r|<=ln(2)/2
+     * and a degree 8 Taylor polynomial for exp(r). The relative error is below 1e-9,
+     * arguments below -708 (subnormal results) return zero and arguments above 709
+     * return infinity.
+     * 
+     * @param x argument
+     * @return approximation of e^x
+     */
+    public static double fastExp(double x)
+    {
+	if (x<-708) return 0;
+	if (x>709) return Double.POSITIVE_INFINITY;
+	if (Double.isNaN(x)) return x;
+	
+	double k = Math.rint(x*LOG2E);
+	double r = (x-k*LN2_HI)-k*LN2_LO;
+	double p = 1+r*(1+r*(1/2.0+r*(1/6.0+r*(1/24.0+r*(1/120.0+
+		   r*(1/720.0+r*(1/5040.0+r*(1/40320.0))))))));
+	return Math.scalb(p,(int)k);
+    }
+    static final double LOG2E = 1.4426950408889634;
+    static final double LN2_HI = 6.93147180369123816490e-01;	//ln(2) split into exactly representable
+    static final double LN2_LO = 1.90821492927058770002e-10;	//high part and a small correction
+    
     /**
      * @param kTe Electron temperature in eV
      * @param ne electron density
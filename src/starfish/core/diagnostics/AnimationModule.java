@@ -76,7 +76,7 @@ public class AnimationModule extends CommandModule
 	public void exit()
 	{
 	    for (Writer writer:writer_list)
-		writer.close();
+		writer.closeWhenDone();
 	}
     };	//animation
 
@@ -9,8 +9,8 @@ package starfish.core.diagnostics;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
 import org.w3c.dom.Element;
 import starfish.core.common.CommandModule;
 import starfish.core.common.Starfish;
@@ -20,6 +20,7 @@ import starfish.core.diagnostics.DiagnosticsModule.Diagnostic;
 import starfish.core.domain.Mesh;
 import starfish.core.io.InputParser;
 import starfish.core.materials.KineticMaterial;
+import starfish.core.materials.KineticMaterial.CellIndex;
 import starfish.core.materials.KineticMaterial.Particle;
 
 /** This class computes a velocity distribution histogram for particles of a given
@@ -77,6 +78,46 @@ public class SampleVDFModule extends CommandModule
 	    dirty = true;
 	}
 
+	static final byte OUTSIDE = 0;
+	static final byte PARTIAL = 1;
+	static final byte INSIDE = 2;
+	HashMap<Mesh,byte[]> overlap_map = new HashMap<>();
+	
+	/** classifies cells by overlap with the sampling region, cells are 
+	 * contained in the bounding box of their corner nodes*/
+	byte[] getOverlap(Mesh mesh, CellIndex index)
+	{
+	    byte overlap[] = overlap_map.get(mesh);
+	    if (overlap!=null) return overlap;
+	    
+	    overlap = new byte[index.num_cells];
+	    for (int c=0;c<index.num_cells;c++)
+	    {
+		int i = c/index.nj1;
+		int j = c%index.nj1;
+		double bmin[] = mesh.pos(i,j).clone();
+		double bmax[] = bmin.clone();
+		for (int k=1;k<4;k++)
+		{
+		    double x[] = mesh.pos(i+k%2,j+k/2);
+		    for (int d=0;d<2;d++)
+		    {
+			bmin[d] = Math.min(bmin[d], x[d]);
+			bmax[d] = Math.max(bmax[d], x[d]);
+		    }
+		}
+		
+		if (bmax[0]<xmin[0] || bmin[0]>xmax[0] || bmax[1]<xmin[1] || bmin[1]>xmax[1])
+		    overlap[c] = OUTSIDE;
+		else if (bmin[0]>=xmin[0] && bmax[0]<=xmax[0] && bmin[1]>=xmin[1] && bmax[1]<=xmax[1])
+		    overlap[c] = INSIDE;
+		else
+		    overlap[c] = PARTIAL;
+	    }
+	    overlap_map.put(mesh, overlap);
+	    return overlap;
+	}
+	
 	/**
 	 * samples particle data every skip_sample time steps and then outputs the 
 	 * sampled data every skip_output steps. Velocity/speed limits on the first sample
@@ -87,18 +128,25 @@ public class SampleVDFModule extends CommandModule
 	{
 	    if (force || (Starfish.getIt()>=start_it && Starfish.getIt()%skip_sample==0))
 	    {
-		LinkedList<Particle> particles = new LinkedList();
+		ArrayList<Particle> particles = new ArrayList<>();
 		
-		/*loop through all particles and get a list of those in bounds*/
+		/*get a list of particles in bounds, using the shared cell index to 
+		visit only the cells overlapping the sampling region*/
 		for (Mesh mesh:Starfish.getMeshList())
 		{
-		    Iterator<Particle> it = km.getIterator(mesh);
-		    while (it.hasNext())
+		    CellIndex index = km.getMeshData(mesh).getCellIndex();
+		    byte overlap[] = getOverlap(mesh, index);
+		    for (int c=0;c<index.num_cells;c++)
 		    {
-			Particle part = it.next();
-			if (part.pos[0]>=xmin[0] && part.pos[0]<=xmax[0] &&
-			    part.pos[1]>=xmin[1] && part.pos[1]<=xmax[1])
-			    particles.add(part);			
+			if (overlap[c]==OUTSIDE) continue;
+			for (int p=index.start[c];p<index.start[c+1];p++)
+			{
+			    Particle part = index.part[p];
+			    if (overlap[c]==INSIDE || 
+				(part.pos[0]>=xmin[0] && part.pos[0]<=xmax[0] &&
+				part.pos[1]>=xmin[1] && part.pos[1]<=xmax[1]))
+				particles.add(part);
+			}
 		    }
 		}
 		
@@ -107,7 +155,7 @@ public class SampleVDFModule extends CommandModule
 		{		
 		    for (int d=0;d<3;d++)
 		    {
-			vmin[d] = particles.getFirst().vel[d];
+			vmin[d] = particles.get(0).vel[d];
 			vmax[d] = vmin[d];
 		    }
 		    speed_min = Math.sqrt(vmin[0]*vmin[0] + vmin[1]*vmin[1] + vmin[2]*vmin[2]);
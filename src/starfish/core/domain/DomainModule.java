@@ -123,16 +123,27 @@ public class DomainModule extends CommandModule {
 	 * @return
 	 */
 	public Mesh getMesh(double x[]) {
-		for (Mesh mesh : mesh_list)
-			if (mesh.containsPosStrict(x))
-				return mesh;
+		int m = getMeshIndex(x);
+		return m >= 0 ? mesh_list.get(m) : null;
+	}
+
+	/**
+	 * returns index of the mesh containing the point x in the mesh list or -1
+	 * 
+	 * @param x position
+	 * @return mesh index
+	 */
+	public int getMeshIndex(double x[]) {
+		for (int m = 0; m < mesh_list.size(); m++)
+			if (mesh_list.get(m).containsPosStrict(x))
+				return m;
 
 		/* check for particle being on the boundary */
-		for (Mesh mesh : mesh_list)
-			if (mesh.containsPos(x))
-				return mesh;
+		for (int m = 0; m < mesh_list.size(); m++)
+			if (mesh_list.get(m).containsPos(x))
+				return m;
 
-		return null;
+		return -1;
 	}
 
 	/**
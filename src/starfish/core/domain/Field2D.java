@@ -10,6 +10,9 @@ package starfish.core.domain;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Random;
+import starfish.core.common.CounterRandom;
+import starfish.core.common.RandomStreams;
 import starfish.core.common.Starfish;
 import starfish.core.domain.DomainModule.DomainType;
 
@@ -544,6 +547,82 @@ public class Field2D
 	return out;		
     }
 
+    /**creates new fields on the mesh and interpolates data from several collections
+     * defined on the same source meshes. The source cell of each sample point is
+     * located once and used for all collections. Rows of the output mesh are processed
+     * in parallel, even rows first and odd rows second, so that concurrently sampled
+     * rows never scatter to the same nodes. Each row draws from its own random stream,
+     * so the result does not depend on the number of threads.
+     * @param mesh output field mesh
+     * @param field_collections input fields containing data to interpolate
+     * @return interpolated fields, in the order of the collections */
+    public static Field2D[] FromExisting(Mesh mesh, FieldCollection2D field_collections[]) 
+    {
+	final int samples = 10; //number of darts to throw per cell
+	int nv = field_collections.length;
+	
+	Field2D out[] = new Field2D[nv];
+	for (int v=0;v<nv;v++)
+	    out[v] = new Field2D(mesh);
+	
+	//generate blank field to hold scatter counts
+	Field2D count = new Field2D(mesh);
+	if (nv==0) return out;
+	
+	long seed = (long)(Starfish.rnd()*Long.MAX_VALUE);
+	
+	//loop over all meshes in the input collections
+	int m = 0;
+	for (Mesh in_mesh:field_collections[0].getMeshes())
+	{
+	    Field2D in[] = new Field2D[nv];
+	    for (int v=0;v<nv;v++)
+		in[v] = field_collections[v].getField(in_mesh);
+	    
+	    /*darts in the last row and column fall outside the mesh, skip them*/
+	    long row_id = (long)m*mesh.ni;
+	    for (int first=0;first<2;first++)
+	    {
+		final int i0 = first;
+		Starfish.parallelFor((mesh.ni-i0)/2, 2, (k0,k1)->{
+		    double lc[] = new double[2];
+		    for (int k=k0;k<k1;k++)
+		    {
+			int i = i0+2*k;
+			Random old = RandomStreams.bind(RandomStreams.newGenerator(CounterRandom.streamKey(seed, row_id+i)));
+			try {
+			    for (int j=0;j<mesh.nj-1;j++)
+				for (int s=0;s<samples;s++)
+				{
+				    //sample random point in output mesh cell
+				    double fi = i + Starfish.rnd();
+				    double fj = j + Starfish.rnd();
+				    
+				    //get logical coordinate for this point on source mesh
+				    if (!in_mesh.locate(mesh.pos(fi, fj), lc))
+					continue;
+				    
+				    for (int v=0;v<nv;v++)
+					out[v].scatter(fi, fj, in[v].gather(lc));
+				    count.scatter(fi, fj, 1);
+				}
+			}
+			finally {
+			    RandomStreams.bind(old);
+			}
+		    }
+		});
+	    }
+	    m++;
+	}
+	
+	//divide by count
+	for (int v=0;v<nv;v++)
+	    out[v].divideByField(count);
+		
+	return out;		
+    }
+
     /**
      *
      * @param src
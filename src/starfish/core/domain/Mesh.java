@@ -817,6 +817,23 @@ public abstract class Mesh {
 		return XtoL(x[0], x[1]);
 	}
 
+	/**
+	 * Evaluates the logical coordinate of x without modifying the mesh, so it
+	 * can be called concurrently as long as XtoL can
+	 *
+	 * @param x  physical coordinate
+	 * @param lc logical coordinate, set only if x is in the mesh
+	 * @return false if x is outside the mesh
+	 */
+	public boolean locate(double x[], double lc[]) {
+		double l[] = XtoL(x);
+		if (l[0] < 0 || l[1] < 0 || l[0] > ni || l[1] > nj)
+			return false;
+		lc[0] = l[0];
+		lc[1] = l[1];
+		return true;
+	}
+
 	/* returns integral logical coordinate at spatial location d1,d2 */
 
 	/**
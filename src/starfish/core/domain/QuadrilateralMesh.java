@@ -10,6 +10,7 @@
  * Topologically structured mesh (ni x nj) with quadrilateral cells
  */
 package starfish.core.domain;
+import java.util.Arrays;
 import starfish.core.common.Starfish.Log;
 import starfish.core.domain.DomainModule.DomainType;
 
@@ -100,6 +101,9 @@ public class QuadrilateralMesh extends Mesh
 	for (int i=0;i<ni-1-0;i++)
 	    for (int j=0;j<nj-1-0;j++)
 		ComputeCoeffs(i,j);
+
+	/*cell index is rebuilt on the next locate*/
+	bucket_start = null;
     }
     
     /**computes alphas and betas for interpolation, see
@@ -347,8 +351,172 @@ public class QuadrilateralMesh extends Mesh
 	}
     }
 
+    /*uniform grid of buckets over the mesh bounding box, each bucket lists the cells
+    whose bounding box overlaps it, built on the first call to locate*/
+    protected volatile int bucket_start[];	//offsets into bucket_cells, nb[0]*nb[1]+1 entries
+    protected int bucket_cells[];		//cell indexes i*(nj-1)+j
+    protected int nb[] = new int[2];
+    protected double bx0[] = new double[2];
+    protected double bdh[] = new double[2];
+
+    /**Finds the cell containing (x[0],x[1]) using the bucket index. Unlike XtoL,
+     * this method does not modify the mesh and can be called from multiple threads.
+     * Cells are tested in index order, so points on shared edges always resolve to
+     * the same cell.
+     * @param x physical coordinate
+     * @param lc logical coordinate, set only if found
+     * @return false if the point is not in any cell */
+    @Override
+    public boolean locate(double x[], double lc[])
+    {
+	if (bucket_start==null) buildIndex();
+
+	int bi = (int)Math.floor((x[0]-bx0[0])/bdh[0]);
+	int bj = (int)Math.floor((x[1]-bx0[1])/bdh[1]);
+
+	/*points just outside the bounding box may still be within tolerance of a cell*/
+	if (bi<-1 || bj<-1 || bi>nb[0] || bj>nb[1]) return false;
+	bi = Math.max(0, Math.min(bi, nb[0]-1));
+	bj = Math.max(0, Math.min(bj, nb[1]-1));
+
+	int b = bi*nb[1]+bj;
+	for (int k=bucket_start[b];k<bucket_start[b+1];k++)
+	{
+	    int c = bucket_cells[k];
+	    if (inCell(c/(nj-1), c%(nj-1), x[0], x[1], lc)) return true;
+	}
+	return false;
+    }
+
+    /*sorts cells into buckets by their bounding boxes*/
+    protected synchronized void buildIndex()
+    {
+	if (bucket_start!=null) return;
+
+	double x_min[] = {Double.MAX_VALUE, Double.MAX_VALUE};
+	double x_max[] = {-Double.MAX_VALUE, -Double.MAX_VALUE};
+	for (int i=0;i<ni;i++)
+	    for (int j=0;j<nj;j++)
+	    {
+		x_min[0] = Math.min(x_min[0], IPOS[i][j]);
+		x_min[1] = Math.min(x_min[1], JPOS[i][j]);
+		x_max[0] = Math.max(x_max[0], IPOS[i][j]);
+		x_max[1] = Math.max(x_max[1], JPOS[i][j]);
+	    }
+
+	/*roughly one cell per bucket with buckets as square as the bounding box allows*/
+	int num_cells = (ni-1)*(nj-1);
+	double w = Math.max(x_max[0]-x_min[0], 1e-30);
+	double h = Math.max(x_max[1]-x_min[1], 1e-30);
+	nb[0] = (int)Math.max(1, Math.min(num_cells, Math.round(Math.sqrt(num_cells*w/h))));
+	nb[1] = Math.max(1, (int)Math.ceil(num_cells/(double)nb[0]));
+	bx0[0] = x_min[0]; bx0[1] = x_min[1];
+	bdh[0] = w/nb[0]; bdh[1] = h/nb[1];
+
+	/*two passes, count the cells in each bucket and then fill the lists,
+	cells are visited in index order so the lists come out sorted*/
+	int start[] = new int[nb[0]*nb[1]+1];
+	int fill[] = null;
+	int range[] = new int[4];
+	for (int pass=0;pass<2;pass++)
+	{
+	    if (pass==1)
+	    {
+		for (int b=1;b<start.length;b++) start[b]+=start[b-1];
+		bucket_cells = new int[start[start.length-1]];
+		fill = Arrays.copyOf(start, start.length-1);
+	    }
+
+	    for (int i=0;i<ni-1;i++)
+		for (int j=0;j<nj-1;j++)
+		{
+		    bucketRange(i, j, range);
+		    for (int bi=range[0];bi<=range[2];bi++)
+			for (int bj=range[1];bj<=range[3];bj++)
+			{
+			    int b = bi*nb[1]+bj;
+			    if (pass==0) start[b+1]++;
+			    else bucket_cells[fill[b]++] = i*(nj-1)+j;
+			}
+		}
+	}
+	bucket_start = start;
+    }
+
+    /*sets range to the first and last bucket overlapped by cell (i,j)*/
+    void bucketRange(int i, int j, int range[])
+    {
+	double x_min = Math.min(Math.min(IPOS[i][j],IPOS[i+1][j]),Math.min(IPOS[i+1][j+1],IPOS[i][j+1]));
+	double x_max = Math.max(Math.max(IPOS[i][j],IPOS[i+1][j]),Math.max(IPOS[i+1][j+1],IPOS[i][j+1]));
+	double y_min = Math.min(Math.min(JPOS[i][j],JPOS[i+1][j]),Math.min(JPOS[i+1][j+1],JPOS[i][j+1]));
+	double y_max = Math.max(Math.max(JPOS[i][j],JPOS[i+1][j]),Math.max(JPOS[i+1][j+1],JPOS[i][j+1]));
+	range[0] = Math.max(0, Math.min(nb[0]-1, (int)Math.floor((x_min-bx0[0])/bdh[0])));
+	range[1] = Math.max(0, Math.min(nb[1]-1, (int)Math.floor((y_min-bx0[1])/bdh[1])));
+	range[2] = Math.max(0, Math.min(nb[0]-1, (int)Math.floor((x_max-bx0[0])/bdh[0])));
+	range[3] = Math.max(0, Math.min(nb[1]-1, (int)Math.floor((y_max-bx0[1])/bdh[1])));
+    }
+
+    /**inverts the bilinear map of cell (i,j), same as XtoLrecursive but without
+     * moving to neighboring cells. Both roots of the quadratic are tried so that
+     * skewed cells are handled.
+     * @return true if (xi,xj) is in the cell */
+    protected boolean inCell(int i, int j, double xi, double xj, double lc[])
+    {
+	final double TOL = 1e-7;
+	double a[] = alpha[i][j];
+	double b[] = beta[i][j];
+
+	/*quadratic equation coeffs, aa*mm^2+bb*m+cc=0*/
+	double aa = a[3]*b[2] - a[2]*b[3];
+	double bb = a[3]*b[0] -a[0]*b[3] + a[1]*b[2] - a[2]*b[1] + xi*b[3] - xj*a[3];
+	double cc = a[1]*b[0] -a[0]*b[1] + xi*b[1] - xj*a[1];
+
+	double roots[] = new double[2];
+	int num_roots;
+	if (Math.abs(aa)>1e-12)
+	{
+	    double det = bb*bb - 4*aa*cc;
+	    if (det<0 && det>-TOL) det=0;
+	    if (det<0) return false;
+	    roots[0] = (-bb+Math.sqrt(det))/(2*aa);
+	    roots[1] = (-bb-Math.sqrt(det))/(2*aa);
+	    num_roots = 2;
+	}
+	else if (bb!=0)
+	{
+	    roots[0] = -cc/bb;
+	    num_roots = 1;
+	}
+	else return false;
+
+	for (int r=0;r<num_roots;r++)
+	{
+	    double m = roots[r];
+	    if (m<-TOL || m>1+TOL) continue;
+
+	    /*compute l from whichever equation is not degenerate*/
+	    double l;
+	    double ld = a[1]+a[3]*m;
+	    double ld2 = b[1]+b[3]*m;
+	    if (Math.abs(ld)>=Math.abs(ld2) && ld!=0) l = (xi-a[0]-a[2]*m)/ld;
+	    else if (ld2!=0) l = (xj-b[0]-b[2]*m)/ld2;
+	    else continue;
+	    if (l<-TOL || l>1+TOL) continue;
+
+	    /*sanity check to make sure we got the right point*/
+	    double di = a[0]+a[1]*l+a[2]*m+a[3]*l*m - xi;
+	    double dj = b[0]+b[1]*l+b[2]*m+b[3]*l*m - xj;
+	    if (Math.sqrt(di*di + dj*dj)>TOL) continue;
+
+	    lc[0] = i+Math.max(0, Math.min(l, 1));
+	    lc[1] = j+Math.max(0, Math.min(m, 1));
+	    return true;
+	}
+	return false;
+    }
+
     @Override
-    public boolean containsPosStrict(double x[]) 
+    public boolean containsPosStrict(double x[])
     {
 	double lc[] = XtoL(x);
 	if (lc[0]<0 || lc[1]<0 || lc[0]>=ni-1 || lc[1]>=nj-1) 
@@ -137,6 +137,39 @@ public class InteractionsModule extends CommandModule
 	return getSigma(sigma_name,coeffs,element);
     }
     
+    /** wraps an initialized cross-section in a lookup table, options are 
+     * read from the interaction element
+     * @param sigma initialized cross-section
+     * @param element interaction element
+     * @param mass mass passed to sigma.eval
+     * @param name interaction name used in messages
+     * @return tabulated sigma*/
+    static public SigmaTabulated tabulateSigma(Sigma sigma, Element element, double mass, String name)
+    {
+	boolean lookup = InputParser.getBoolean("sigma_tabulate", element, true);
+	String grid = InputParser.getValue("sigma_grid", element, "log");
+	double tol = InputParser.getDouble("sigma_tolerance", element, 1e-4);
+	int max_nodes = InputParser.getInt("sigma_max_nodes", element, 1<<16);
+	
+	SigmaTabulated.GridType grid_type;
+	double g_min, g_max;
+	if (grid.equalsIgnoreCase("LOG"))
+	{
+	    grid_type = SigmaTabulated.GridType.LOG;
+	    g_min = InputParser.getDouble("sigma_g_min", element, 1e-2);
+	}
+	else if (grid.equalsIgnoreCase("UNIFORM"))
+	{
+	    grid_type = SigmaTabulated.GridType.UNIFORM;
+	    g_min = InputParser.getDouble("sigma_g_min", element, 0);
+	}
+	else
+	    throw new UnsupportedOperationException("Unknown sigma grid "+grid);
+	g_max = InputParser.getDouble("sigma_g_max", element, 1e9);
+	
+	return new SigmaTabulated(sigma, name, mass, grid_type, g_min, g_max, tol, max_nodes, lookup);
+    }
+    
     static HashMap<String,Sigma.SigmaFactory> sigma_list = new HashMap<String,Sigma.SigmaFactory>();
 
     /**
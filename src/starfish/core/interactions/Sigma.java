@@ -23,6 +23,12 @@ public abstract class Sigma
      * @return */
     public abstract double eval(double g, double mass);
 
+    /**returns the product of cross-section and relative velocity
+     * @param g relative velocity
+     * @param mass mass of colliding particle(s) for computing energy, if needed
+     * @return sigma(g)*g */
+    public double evalSigmaG(double g, double mass) {return eval(g,mass)*g;}
+
     /**
      *
      */
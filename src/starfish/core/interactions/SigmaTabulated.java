@@ -0,0 +1,243 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.interactions;
+
+import starfish.core.common.Starfish.Log;
+
+/**
+ * Cross-section tabulated on a grid of relative velocities. The wrapped sigma
+ * is evaluated at init on a grid that is refined until linear interpolation
+ * reproduces it to the given relative tolerance. Lookup is then O(1): a cell
+ * index followed by linear interpolation. The logarithmic grid divides each
+ * octave [2^e,2^(e+1)) into a power of two number of uniform cells, so the cell
+ * index and the interpolation weight are read directly from the exponent and
+ * mantissa bits of g. Refinement also stops once the next grid would exceed
+ * the node limit, as discontinuous cross-sections never meet the tolerance.
+ * Values outside the table range, or for a mass other than the one used to
+ * build the table, are passed to the wrapped sigma.
+ *
+ * The table also provides the running maximum of sigma*g used by the null
+ * collision and DSMC majorants.
+ */
+public class SigmaTabulated extends Sigma
+{
+    /**grid type*/
+    public enum GridType {LOG, UNIFORM};
+
+    static final int LOG_MIN_BITS = 3;		//8 cells per octave
+    static final int LOG_MAX_BITS = 12;		//4096 cells per octave
+    static final int UNIFORM_MIN_CELLS = 64;
+    static final int UNIFORM_MAX_CELLS = 1<<20;
+
+    protected Sigma base;	    //tabulated cross-section
+    protected String name;	    //interaction name used in messages
+    protected double mass;	    //mass used to build the table
+    protected boolean lookup;	    //if false, the table is used only for maxSigmaG
+    protected GridType grid_type;
+
+    protected double g_lo, g_hi;    //table range
+    protected int num_cells;
+    protected double sigma_table[];
+    protected double sigma_g_table[];
+    protected double sigma_g_max[];	//running maximum of sigma*g at the nodes
+
+    /*uniform grid*/
+    protected double inv_dg;
+
+    /*logarithmic grid*/
+    protected int e_min;	    //exponent of g_lo
+    protected int bits;		    //log2 of cells per octave
+    protected int shift;	    //mantissa bits below the cell index
+    protected long frac_mask;
+    protected double inv_frac;
+
+    /**
+     * @param base cross-section to tabulate, must already be initialized
+     * @param name interaction name, such as the material pair, used in messages
+     * @param mass mass passed to base.eval
+     * @param grid_type LOG or UNIFORM
+     * @param g_min smallest tabulated relative velocity
+     * @param g_max largest tabulated relative velocity
+     * @param tolerance maximum relative interpolation error
+     * @param max_nodes grids with more nodes are not tried, the smallest grid is always built
+     * @param lookup use the table in eval, otherwise the table only provides maxSigmaG
+     */
+    public SigmaTabulated(Sigma base, String name, double mass, GridType grid_type, double g_min, double g_max,
+	    double tolerance, int max_nodes, boolean lookup)
+    {
+	super(base.c);
+	this.base = base;
+	this.name = name;
+	this.mass = mass;
+	this.grid_type = grid_type;
+	this.lookup = lookup;
+
+	if (g_max<=g_min) Log.error("sigma table range must satisfy g_min<g_max");
+	if (grid_type==GridType.LOG && g_min<=0) Log.error("logarithmic sigma table requires g_min>0");
+
+	double error = 0;
+	if (grid_type==GridType.LOG)
+	{
+	    /*expand range to full octaves*/
+	    e_min = Math.getExponent(g_min);
+	    int e_max = Math.getExponent(g_max);
+	    if (Math.scalb(1.0,e_max)<g_max) e_max++;
+	    g_lo = Math.scalb(1.0, e_min);
+	    g_hi = Math.scalb(1.0, e_max);
+
+	    for (bits=LOG_MIN_BITS;;bits++)
+	    {
+		num_cells = (e_max-e_min)<<bits;
+		shift = 52-bits;
+		frac_mask = (1L<<shift)-1;
+		inv_frac = 1.0/(1L<<shift);
+		error = build();
+		if (error<=tolerance || bits==LOG_MAX_BITS ||
+		    2L*num_cells+1>max_nodes) break;
+	    }
+	}
+	else
+	{
+	    g_lo = g_min;
+	    g_hi = g_max;
+	    for (num_cells=UNIFORM_MIN_CELLS;;num_cells*=2)
+	    {
+		inv_dg = num_cells/(g_hi-g_lo);
+		error = build();
+		if (error<=tolerance || num_cells==UNIFORM_MAX_CELLS ||
+		    2L*num_cells+1>max_nodes) break;
+	    }
+	}
+
+	if (error>tolerance)
+	    Log.warning(String.format("Sigma table for %s: error %.3g exceeds tolerance %.3g with %d nodes",
+		    name,error,tolerance,num_cells+1));
+	Log.log(String.format("Tabulated sigma for %s on %d nodes in [%.3g, %.3g], max error %.3g",
+		    name,num_cells+1,g_lo,g_hi,error));
+    }
+
+    /** @return relative velocity at node i*/
+    protected double node(int i)
+    {
+	if (grid_type==GridType.UNIFORM)
+	    return g_lo+i/inv_dg;
+	int cells = 1<<bits;
+	return Math.scalb(1.0+(i&(cells-1))/(double)cells, e_min+(i>>bits));
+    }
+
+    /** fills the tables for the current grid
+     * @return maximum relative interpolation error of sigma and sigma*g*/
+    protected double build()
+    {
+	int nn = num_cells+1;
+	sigma_table = new double[nn];
+	sigma_g_table = new double[nn];
+	sigma_g_max = new double[nn];
+
+	double max_abs = 0;
+	for (int i=0;i<nn;i++)
+	{
+	    double g = node(i);
+	    sigma_table[i] = base.eval(g, mass);
+	    sigma_g_table[i] = sigma_table[i]*g;
+	    sigma_g_max[i] = Math.max(sigma_g_table[i], i>0?sigma_g_max[i-1]:0);
+	    max_abs = Math.max(max_abs, Math.abs(sigma_table[i]));
+	}
+
+	/*compare to the exact value inside each cell, tiny values are compared
+	against a fraction of the largest one to allow for zero crossings*/
+	double floor = 1e-3*max_abs;
+	double error = 0;
+	for (int i=0;i<num_cells;i++)
+	{
+	    double g0 = node(i);
+	    double g1 = node(i+1);
+	    for (int s=1;s<4;s++)
+	    {
+		double t = 0.25*s;
+		double g = g0+t*(g1-g0);
+		double exact = base.eval(g, mass);
+		double sig = sigma_table[i]+t*(sigma_table[i+1]-sigma_table[i]);
+		double sg = sigma_g_table[i]+t*(sigma_g_table[i+1]-sigma_g_table[i]);
+		double ref = Math.max(Math.abs(exact), floor);
+		if (ref<=0) continue;
+		error = Math.max(error, Math.abs(sig-exact)/ref);
+		error = Math.max(error, Math.abs(sg-exact*g)/(ref*g));
+	    }
+	}
+	return error;
+    }
+
+    /** linear interpolation from table data, g must be in [g_lo,g_hi)*/
+    protected double interp(double table[], double g)
+    {
+	int i;
+	double t;
+	if (grid_type==GridType.LOG)
+	{
+	    long b = Double.doubleToRawLongBits(g);
+	    i = ((int)(b>>>52)-1023-e_min)<<bits | (int)((b>>>shift)&((1<<bits)-1));
+	    t = (b&frac_mask)*inv_frac;
+	}
+	else
+	{
+	    double f = (g-g_lo)*inv_dg;
+	    i = (int)f;
+	    if (i>=num_cells) i=num_cells-1;
+	    t = f-i;
+	}
+	return table[i]+t*(table[i+1]-table[i]);
+    }
+
+    @Override
+    public double eval(double g, double mass)
+    {
+	if (!lookup || g<g_lo || g>=g_hi || mass!=this.mass) return base.eval(g, mass);
+	return interp(sigma_table, g);
+    }
+
+    @Override
+    public double evalSigmaG(double g, double mass)
+    {
+	if (!lookup || g<g_lo || g>=g_hi || mass!=this.mass) return base.eval(g, mass)*g;
+	return interp(sigma_g_table, g);
+    }
+
+    /** @return largest tabulated value of sigma*g*/
+    public double getMaxSigmaG()
+    {
+	return sigma_g_max[num_cells];
+    }
+
+    /**
+     * Upper bound of sigma*g for relative velocities up to g_max. Interpolated
+     * values never exceed the nodes of their cell, so the running maximum at the
+     * upper node of the cell containing g_max bounds the table lookup. Above
+     * the table range, the bound includes the exact value at g_max.
+     *
+     * @param g_max maximum relative velocity
+     * @return upper bound of sigma(g)*g for g in [g_lo,g_max]
+     */
+    public double maxSigmaG(double g_max)
+    {
+	if (g_max<g_lo) return sigma_g_max[0];
+	if (g_max>=g_hi) return Math.max(getMaxSigmaG(), base.eval(g_max, mass)*g_max);
+
+	int i;
+	if (grid_type==GridType.LOG)
+	{
+	    long b = Double.doubleToRawLongBits(g_max);
+	    i = ((int)(b>>>52)-1023-e_min)<<bits | (int)((b>>>shift)&((1<<bits)-1));
+	}
+	else
+	    i = Math.min((int)((g_max-g_lo)*inv_dg), num_cells-1);
+	return sigma_g_max[i+1];
+    }
+
+    /** @return the tabulated cross-section*/
+    public Sigma getBase() {return base;}
+}
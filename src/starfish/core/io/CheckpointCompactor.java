@@ -0,0 +1,77 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Merges an incremental checkpoint chain into a single full checkpoint.
+ *
+ * Usage: java -cp starfish.jar starfish.core.io.CheckpointCompactor base_file [output_file]
+ *
+ * The most recent valid checkpoint of the chain starting with base_file is
+ * read and all its sections are copied to output_file, which defaults to
+ * base_file. When the base is replaced, the delta files are removed. The
+ * output starts a new chain so later incremental saves can continue from it.
+ */
+public class CheckpointCompactor
+{
+    static final int BUFFER_SIZE = 8<<20;
+
+    /**
+     * @param base_file first file of the chain
+     * @param out_file file to write, may be the same as base_file
+     * @return name of the checkpoint that was compacted
+     * @throws IOException
+     */
+    public static String compact(String base_file, String out_file) throws IOException
+    {
+	String latest = CheckpointReader.findLatest(base_file);
+
+	CheckpointWriter out = new CheckpointWriter(out_file, CheckpointWriter.Codec.NONE, BUFFER_SIZE);
+	out.setIncremental(null);
+	try {
+	    try (CheckpointReader in = new CheckpointReader(latest, BUFFER_SIZE))
+	    {
+		for (String name:in.getSectionNames())
+		{
+		    try (CheckpointReader.Section section = in.section(name)) {
+			out.copySection(name, section, section.getCodec());
+		    }
+		}
+	    }
+	    out.close();
+	} catch (IOException | RuntimeException e) {
+	    out.abort();
+	    throw e;
+	}
+
+	if (Files.isSameFile(Paths.get(base_file), Paths.get(out_file)))
+	    CheckpointManifest.deleteDeltas(base_file);
+	return latest;
+    }
+
+    public static void main(String args[])
+    {
+	if (args.length<1 || args.length>2)
+	{
+	    System.err.println("Usage: CheckpointCompactor base_file [output_file]");
+	    System.exit(1);
+	}
+
+	String out_file = args.length>1?args[1]:args[0];
+	try {
+	    String latest = compact(args[0], out_file);
+	    System.out.println("Compacted "+latest+" into "+out_file);
+	} catch (IOException e) {
+	    System.err.println("Compaction failed: "+e.getMessage());
+	    System.exit(1);
+	}
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+
+/**
+ * Describes a checkpoint in an incremental chain. The chain starts with a full
+ * base file followed by delta files, base_name.d1, base_name.d2, ..., that
+ * store only the sections whose content changed since the previous
+ * checkpoint. The manifest of each file lists every section of the logical
+ * checkpoint, the file holding its data and its content hash (CRC32 and CRC32C
+ * of the uncompressed data).
+ */
+public class CheckpointManifest
+{
+    /** name of the section holding the manifest*/
+    public static final String SECTION = "chain";
+
+    public final long chain_id;	    //shared by all files of a chain
+    public final int seq;	    //0 for the base file
+    public final String base_name;  //file name of the base, without the directory
+    public final LinkedHashMap<String,Entry> entries = new LinkedHashMap<>();
+
+    /** location and hash of a section*/
+    public static class Entry
+    {
+	public final int seq;
+	public final int crc;
+	public final int crc32c;
+	public final long raw_length;
+
+	public Entry(int seq, int crc, int crc32c, long raw_length)
+	{
+	    this.seq = seq;
+	    this.crc = crc;
+	    this.crc32c = crc32c;
+	    this.raw_length = raw_length;
+	}
+
+	/** @return true if the section content is the same*/
+	public boolean sameContent(Entry other)
+	{
+	    return other!=null && crc==other.crc && crc32c==other.crc32c && raw_length==other.raw_length;
+	}
+    }
+
+    public CheckpointManifest(long chain_id, int seq, String base_name)
+    {
+	this.chain_id = chain_id;
+	this.seq = seq;
+	this.base_name = base_name;
+    }
+
+    /** @return path of the file with the given sequence number, in the directory of file*/
+    public Path fileFor(Path file, int seq)
+    {
+	Path dir = file.toAbsolutePath().getParent();
+	String name = seq==0?base_name:deltaName(base_name, seq);
+	return dir!=null?dir.resolve(name):Paths.get(name);
+    }
+
+    /** @return name of delta file seq of the chain starting with base_name*/
+    public static String deltaName(String base_name, int seq)
+    {
+	return base_name+".d"+seq;
+    }
+
+    /** @return delta files of the chain starting with base_file, by sequence number*/
+    public static TreeMap<Integer,Path> listDeltas(String base_file) throws IOException
+    {
+	Path base = Paths.get(base_file).toAbsolutePath();
+	String prefix = deltaName(base.getFileName().toString(), 0);
+	prefix = prefix.substring(0, prefix.length()-1);
+
+	TreeMap<Integer,Path> deltas = new TreeMap<>();
+	try (DirectoryStream<Path> dir = Files.newDirectoryStream(base.getParent(), prefix+"*"))
+	{
+	    for (Path path:dir)
+	    {
+		try {
+		    deltas.put(Integer.parseInt(path.getFileName().toString().substring(prefix.length())), path);
+		} catch (NumberFormatException e) {
+		    /*not a delta file*/
+		}
+	    }
+	}
+	return deltas;
+    }
+
+    /** removes all delta files of the chain starting with base_file*/
+    public static void deleteDeltas(String base_file) throws IOException
+    {
+	for (Path path:listDeltas(base_file).values())
+	    Files.deleteIfExists(path);
+    }
+
+    void write(CheckpointWriter out) throws IOException
+    {
+	out.beginSection(SECTION, CheckpointWriter.Codec.NONE);
+	out.putLong(chain_id);
+	out.putInt(seq);
+	out.putString(base_name);
+	out.putInt(entries.size());
+	for (String name:entries.keySet())
+	{
+	    Entry entry = entries.get(name);
+	    out.putString(name);
+	    out.putInt(entry.seq);
+	    out.putInt(entry.crc);
+	    out.putInt(entry.crc32c);
+	    out.putLong(entry.raw_length);
+	}
+	out.endSection();
+    }
+
+    static CheckpointManifest read(CheckpointReader.Section in) throws IOException
+    {
+	CheckpointManifest manifest = new CheckpointManifest(in.getLong(), in.getInt(), in.getString());
+	int n = in.getInt();
+	for (int i=0;i<n;i++)
+	{
+	    String name = in.getString();
+	    manifest.entries.put(name, new Entry(in.getInt(), in.getInt(), in.getInt(), in.getLong()));
+	}
+	in.close();
+	return manifest;
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import starfish.core.domain.Field2D;
+import starfish.core.io.CheckpointWriter.Codec;
+
+/**
+ * Reads checkpoints produced by CheckpointWriter. The section headers are
+ * indexed when the file is opened so sections can be read in any order. The
+ * openSection/get methods read one section at a time using a shared buffer,
+ * section() returns an independent reader so that sections can be loaded in
+ * parallel. The CRC32 of each section is verified when it is closed.
+ *
+ * Files of an incremental chain are resolved through their manifest, sections
+ * stored in earlier files of the chain are read from those files.
+ */
+public class CheckpointReader implements AutoCloseable
+{
+    protected final String file_name;
+    protected final FileChannel channel;
+    protected final int buffer_size;
+    protected final ByteBuffer buffer;	    //buffer of the sequential section
+    protected LinkedHashMap<String,SectionInfo> index;
+    protected Section current = null;
+    protected CheckpointManifest manifest;  //null if not part of an incremental chain
+    protected final ArrayList<FileChannel> chain_channels = new ArrayList<>();
+
+    /** part of a restart load that can run in parallel with others*/
+    public interface Task
+    {
+	void run() throws IOException;
+    }
+
+    /** location and size of a section in the file*/
+    protected static class SectionInfo
+    {
+	String name;
+	Codec codec;
+	long raw_length;
+	long stored_length;
+	int crc;
+	long data_pos;	    //file position of the first stored byte
+	FileChannel channel;
+    }
+
+    /**
+     * @param file_name checkpoint file
+     * @param buffer_size size of the read buffer in bytes
+     * @throws IOException if the file is not a checkpoint of a supported version
+     */
+    public CheckpointReader(String file_name, int buffer_size) throws IOException
+    {
+	this.file_name = file_name;
+	this.buffer_size = Math.max(buffer_size, 1<<16);
+	channel = FileChannel.open(Paths.get(file_name), StandardOpenOption.READ);
+	buffer = ByteBuffer.allocateDirect(this.buffer_size);
+	buffer.order(CheckpointWriter.BYTE_ORDER);
+
+	try {
+	    index = buildIndex(channel, file_name);
+	    if (index.containsKey(CheckpointManifest.SECTION))
+	    {
+		manifest = readManifest(index);
+		resolveChain();
+	    }
+	} catch (IOException e) {
+	    close();
+	    throw e;
+	}
+    }
+
+    /*checks the file signature and walks the section headers*/
+    protected LinkedHashMap<String,SectionInfo> buildIndex(FileChannel channel, String file_name) throws IOException
+    {
+	ByteBuffer sig = readFully(channel, 0, 2*Integer.BYTES);
+	if (sig.getInt()!=CheckpointWriter.MAGIC)
+	    throw new IOException(file_name+" is not a Starfish checkpoint");
+	int version = sig.getInt();
+	if (version!=CheckpointWriter.VERSION)
+	    throw new IOException("Unsupported checkpoint version "+version+" in "+file_name);
+
+	LinkedHashMap<String,SectionInfo> index = new LinkedHashMap<>();
+	long pos = 2*Integer.BYTES;
+	long size = channel.size();
+	while (pos<size)
+	{
+	    SectionInfo info = new SectionInfo();
+	    info.channel = channel;
+	    byte bytes[] = new byte[readFully(channel, pos, Short.BYTES).getShort()];
+	    readFully(channel, pos+Short.BYTES, bytes.length).get(bytes);
+	    info.name = new String(bytes, StandardCharsets.UTF_8);
+
+	    ByteBuffer bb = readFully(channel, pos+Short.BYTES+bytes.length, 1+2*Long.BYTES+Integer.BYTES);
+	    int codec = bb.get();
+	    if (codec<0 || codec>=Codec.values().length)
+		throw new IOException("Unknown codec in checkpoint section "+info.name);
+	    info.codec = Codec.values()[codec];
+	    info.raw_length = bb.getLong();
+	    info.stored_length = bb.getLong();
+	    info.crc = bb.getInt();
+	    info.data_pos = pos+CheckpointWriter.headerSize(info.name);
+
+	    pos = info.data_pos+info.stored_length;
+	    if (pos>size) throw new EOFException("Truncated checkpoint "+file_name);
+	    index.put(info.name, info);
+	}
+	return index;
+    }
+
+    protected CheckpointManifest readManifest(LinkedHashMap<String,SectionInfo> index) throws IOException
+    {
+	ByteBuffer bb = ByteBuffer.allocate((int)Math.max(index.get(CheckpointManifest.SECTION).raw_length, 1));
+	bb.order(CheckpointWriter.BYTE_ORDER);
+	return CheckpointManifest.read(new Section(index.get(CheckpointManifest.SECTION), bb));
+    }
+
+    /*points the index to the chain files holding each section*/
+    protected void resolveChain() throws IOException
+    {
+	HashMap<Integer,LinkedHashMap<String,SectionInfo>> files = new HashMap<>();
+	files.put(manifest.seq, index);
+
+	LinkedHashMap<String,SectionInfo> resolved = new LinkedHashMap<>();
+	for (String name:manifest.entries.keySet())
+	{
+	    CheckpointManifest.Entry entry = manifest.entries.get(name);
+	    LinkedHashMap<String,SectionInfo> file_index = files.get(entry.seq);
+	    if (file_index==null)
+	    {
+		file_index = openChainFile(entry.seq);
+		files.put(entry.seq, file_index);
+	    }
+
+	    SectionInfo info = file_index.get(name);
+	    if (info==null || info.crc!=entry.crc || info.raw_length!=entry.raw_length)
+		throw new IOException("Section "+name+" of "+file_name+" not found in the checkpoint chain");
+	    resolved.put(name, info);
+	}
+	resolved.put(CheckpointManifest.SECTION, index.get(CheckpointManifest.SECTION));
+	index = resolved;
+    }
+
+    /*opens an earlier file of the chain*/
+    protected LinkedHashMap<String,SectionInfo> openChainFile(int seq) throws IOException
+    {
+	Path path = manifest.fileFor(Paths.get(file_name), seq);
+	FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+	chain_channels.add(ch);
+
+	LinkedHashMap<String,SectionInfo> file_index = buildIndex(ch, path.toString());
+	if (!file_index.containsKey(CheckpointManifest.SECTION))
+	    throw new IOException(path+" is not part of an incremental checkpoint");
+	CheckpointManifest other = readManifest(file_index);
+	if (other.chain_id!=manifest.chain_id || other.seq!=seq)
+	    throw new IOException(path+" belongs to a different checkpoint chain");
+	return file_index;
+    }
+
+    /*reads n bytes at the given position*/
+    protected ByteBuffer readFully(FileChannel channel, long pos, int n) throws IOException
+    {
+	ByteBuffer bb = ByteBuffer.allocate(n);
+	bb.order(CheckpointWriter.BYTE_ORDER);
+	while (bb.hasRemaining())
+	{
+	    int r = channel.read(bb, pos+bb.position());
+	    if (r<0) throw new EOFException("Truncated checkpoint "+file_name);
+	}
+	bb.flip();
+	return bb;
+    }
+
+    /** @return name of the file being read*/
+    public String getFileName() {return file_name;}
+
+    /** @return manifest of an incremental checkpoint or null*/
+    public CheckpointManifest getManifest() {return manifest;}
+
+    /** @return names of all data sections*/
+    public ArrayList<String> getSectionNames()
+    {
+	ArrayList<String> names = new ArrayList<>(index.keySet());
+	names.remove(CheckpointManifest.SECTION);
+	return names;
+    }
+
+    /**
+     * @param file_name base checkpoint file
+     * @return the most recent valid file of the incremental chain starting with
+     * file_name, or file_name if there are no valid delta files
+     */
+    public static String findLatest(String file_name)
+    {
+	TreeMap<Integer,Path> deltas;
+	try {
+	    deltas = CheckpointManifest.listDeltas(file_name);
+	} catch (IOException e) {
+	    return file_name;
+	}
+
+	for (Path path:deltas.descendingMap().values())
+	{
+	    try (CheckpointReader in = new CheckpointReader(path.toString(), 1<<16)) {
+		/*delta files always carry a manifest*/
+		if (in.getManifest()!=null) return path.toString();
+	    } catch (IOException e) {
+		/*stale or incomplete, try the previous one*/
+	    }
+	}
+	return file_name;
+    }
+
+    /** @return true if the file contains section name*/
+    public boolean hasSection(String name) {return index.containsKey(name);}
+
+    /**
+     * @return independent reader for section name, must be closed to verify
+     * the checksum. Sections may be read concurrently by different threads.
+     */
+    public Section section(String name) throws IOException
+    {
+	SectionInfo info = getInfo(name);
+	int size = (int)Math.min(buffer_size, Math.max(info.raw_length, 1<<16));
+	ByteBuffer bb = ByteBuffer.allocateDirect(size);
+	bb.order(CheckpointWriter.BYTE_ORDER);
+	return new Section(info, bb);
+    }
+
+    protected SectionInfo getInfo(String name) throws IOException
+    {
+	SectionInfo info = index.get(name);
+	if (info==null) throw new IOException("Checkpoint section "+name+" not found in "+file_name);
+	return info;
+    }
+
+    /** opens section name for reading with the get methods*/
+    public void openSection(String name) throws IOException
+    {
+	closeSection();
+	current = new Section(getInfo(name), buffer);
+    }
+
+    /** skips unread data and verifies the section checksum*/
+    public void closeSection() throws IOException
+    {
+	if (current==null) return;
+	Section section = current;
+	current = null;
+	section.close();
+    }
+
+    protected Section current() throws IOException
+    {
+	if (current==null) throw new IOException("Checkpoint data read outside a section");
+	return current;
+    }
+
+    public int getInt() throws IOException {return current().getInt();}
+    public long getLong() throws IOException {return current().getLong();}
+    public double getDouble() throws IOException {return current().getDouble();}
+    public String getString() throws IOException {return current().getString();}
+    public void getDoubles(double data[], int off, int len) throws IOException {current().getDoubles(data, off, len);}
+    public void getField(Field2D field) throws IOException {current().getField(field);}
+
+    @Override
+    public void close() throws IOException
+    {
+	current = null;
+	channel.close();
+	for (FileChannel ch:chain_channels)
+	    ch.close();
+    }
+
+    /**
+     * Reader for a single section. Data is read with positional reads so
+     * sections do not share any state other than the file channel.
+     */
+    public class Section implements AutoCloseable
+    {
+	protected final SectionInfo info;
+	protected final ByteBuffer buffer;	//uncompressed data, in read mode
+	protected long pos;			//file position of the next stored byte
+	protected long raw_left;		//uncompressed bytes not yet in the buffer
+	protected long stored_left;		//stored bytes not yet read from the file
+	protected final CRC32 crc = new CRC32();
+	protected Inflater inflater;
+	protected byte chunk[];
+	protected byte zip_chunk[];
+
+	protected Section(SectionInfo info, ByteBuffer buffer)
+	{
+	    this.info = info;
+	    this.buffer = buffer;
+	    pos = info.data_pos;
+	    raw_left = info.raw_length;
+	    stored_left = info.stored_length;
+	    buffer.clear().limit(0);
+
+	    if (info.codec==Codec.DEFLATE)
+	    {
+		inflater = new Inflater();
+		chunk = new byte[1<<16];
+		zip_chunk = new byte[1<<16];
+	    }
+	}
+
+	/** @return number of uncompressed bytes in the section*/
+	public long length() {return info.raw_length;}
+
+	/** @return compression of the stored data*/
+	public Codec getCodec() {return info.codec;}
+
+	/** writes the unread data to the current section of out*/
+	public void transferTo(CheckpointWriter out) throws IOException
+	{
+	    while (true)
+	    {
+		if (!buffer.hasRemaining())
+		{
+		    if (raw_left==0) break;
+		    buffer.clear().limit(0);
+		    fill();
+		}
+		out.putBytes(buffer);
+	    }
+	}
+
+	/** skips unread data and verifies the section checksum*/
+	@Override
+	public void close() throws IOException
+	{
+	    try {
+		while (raw_left>0)
+		{
+		    buffer.clear().limit(0);
+		    fill();
+		}
+	    } finally {
+		buffer.clear().limit(0);
+		if (inflater!=null) inflater.end();
+		inflater = null;
+	    }
+
+	    if ((int)crc.getValue()!=info.crc)
+		throw new IOException("Checksum mismatch in checkpoint section "+info.name);
+	}
+
+	/*makes sure at least n bytes are available in the buffer*/
+	protected void ensure(int n) throws IOException
+	{
+	    while (buffer.remaining()<n)
+	    {
+		if (raw_left==0) throw new EOFException("Read past the end of checkpoint section "+info.name);
+		buffer.compact();
+		buffer.flip();
+		fill();
+	    }
+	}
+
+	/*appends more uncompressed data to the buffer*/
+	protected void fill() throws IOException
+	{
+	    int start = buffer.limit();
+	    buffer.position(start);
+	    buffer.limit((int)Math.min(buffer.capacity(), start+raw_left));
+
+	    if (info.codec==Codec.DEFLATE)
+	    {
+		try {
+		    while (buffer.hasRemaining())
+		    {
+			if (inflater.needsInput())
+			{
+			    if (stored_left==0) throw new EOFException("Truncated checkpoint section "+info.name);
+			    int n = (int)Math.min(zip_chunk.length, stored_left);
+			    read(ByteBuffer.wrap(zip_chunk, 0, n));
+			    inflater.setInput(zip_chunk, 0, n);
+			}
+			int n = inflater.inflate(chunk, 0, Math.min(chunk.length, buffer.remaining()));
+			if (n==0 && inflater.finished())
+			    throw new IOException("Corrupted checkpoint section "+info.name);
+			buffer.put(chunk, 0, n);
+		    }
+		} catch (DataFormatException e) {
+		    throw new IOException("Corrupted checkpoint section "+info.name);
+		}
+	    }
+	    else
+		read(buffer);
+
+	    raw_left -= buffer.position()-start;
+	    buffer.flip();
+	    buffer.position(start);
+	    crc.update(buffer.duplicate());
+	    buffer.position(0);
+	}
+
+	/*fills bb with stored data*/
+	protected void read(ByteBuffer bb) throws IOException
+	{
+	    while (bb.hasRemaining())
+	    {
+		int n = info.channel.read(bb, pos);
+		if (n<0) throw new EOFException("Truncated checkpoint "+file_name);
+		pos += n;
+		stored_left -= n;
+	    }
+	}
+
+	public int getInt() throws IOException {ensure(Integer.BYTES); return buffer.getInt();}
+	public long getLong() throws IOException {ensure(Long.BYTES); return buffer.getLong();}
+	public double getDouble() throws IOException {ensure(Double.BYTES); return buffer.getDouble();}
+
+	/** reads a length prefixed UTF-8 string*/
+	public String getString() throws IOException
+	{
+	    byte bytes[] = new byte[getInt()];
+	    for (int i=0;i<bytes.length;)
+	    {
+		ensure(1);
+		int n = Math.min(buffer.remaining(), bytes.length-i);
+		buffer.get(bytes, i, n);
+		i+=n;
+	    }
+	    return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/** reads len values into data[off:off+len] using bulk copies*/
+	public void getDoubles(double data[], int off, int len) throws IOException
+	{
+	    while (len>0)
+	    {
+		ensure(Double.BYTES);
+		int n = Math.min(buffer.remaining()/Double.BYTES, len);
+		buffer.asDoubleBuffer().get(data, off, n);
+		buffer.position(buffer.position()+n*Double.BYTES);
+		off+=n;
+		len-=n;
+	    }
+	}
+
+	/** reads field values written by CheckpointWriter.putField*/
+	public void getField(Field2D field) throws IOException
+	{
+	    for (int i=0;i<field.getNi();i++)
+		getDoubles(field.data[i], 0, field.getNj());
+	}
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+import starfish.core.domain.Field2D;
+
+/**
+ * Writes restart checkpoints. Data is staged in a large direct buffer and
+ * written through a FileChannel to a temporary file that replaces the
+ * destination only once it is complete, so a crash during a save leaves the
+ * previous checkpoint intact.
+ *
+ * File layout (little endian): magic, version, followed by named sections.
+ * Each section starts with its name, codec, uncompressed and stored length and
+ * the CRC32 of the uncompressed data. The header is reserved when the section
+ * is opened and filled in by endSection once the sizes are known.
+ *
+ * In the incremental mode the file also carries a CheckpointManifest. Sections
+ * with the same content as in the previous checkpoint of the chain are
+ * truncated away after they are written and the manifest points to the file
+ * that already holds them.
+ */
+public class CheckpointWriter implements AutoCloseable
+{
+    public static final int MAGIC = 0x53465253;	    //"SFRS"
+    public static final int VERSION = 2;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /** section compression*/
+    public enum Codec {NONE, DEFLATE};
+
+    /** writes a part of the checkpoint*/
+    public interface Task
+    {
+	void write(CheckpointWriter out) throws IOException;
+    }
+
+    protected final Path path;
+    protected final Path tmp_path;
+    protected final FileChannel channel;
+    protected final ByteBuffer buffer;
+    protected final Codec codec;
+    protected int keep = 1;		//number of checkpoints to retain
+
+    /*incremental mode*/
+    protected CheckpointManifest previous;	//previous checkpoint of the chain, null for a base
+    protected CheckpointManifest manifest;	//this checkpoint, null if not incremental
+
+    /*current section*/
+    protected String section = null;
+    protected Codec section_codec;
+    protected long section_start;	//file position of the section header
+    protected long raw_length;
+    protected long stored_length;
+    protected final CRC32 crc = new CRC32();
+    protected final CRC32C crc32c = new CRC32C();
+    protected Deflater deflater;
+    protected byte chunk[];
+    protected byte zip_chunk[];
+
+    /**
+     * @param file_name destination file
+     * @param codec compression applied to data sections
+     * @param buffer_size size of the staging buffer in bytes
+     * @throws IOException
+     */
+    public CheckpointWriter(String file_name, Codec codec, int buffer_size) throws IOException
+    {
+	path = Paths.get(file_name);
+	tmp_path = Paths.get(file_name+".tmp");
+	this.codec = codec;
+	buffer = ByteBuffer.allocateDirect(Math.max(buffer_size, 1<<16));
+	buffer.order(BYTE_ORDER);
+
+	channel = FileChannel.open(tmp_path, StandardOpenOption.CREATE,
+		StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+	buffer.putInt(MAGIC);
+	buffer.putInt(VERSION);
+	buffer.flip();
+	writeFully(buffer, -1);
+	buffer.clear();
+    }
+
+    /**
+     * Sets the number of checkpoints to retain. Older files are kept as
+     * file_name.1 (previous) to file_name.(keep-1) and rotated on close.
+     */
+    public void setRetention(int keep)
+    {
+	this.keep = Math.max(keep, 1);
+    }
+
+    /**
+     * Enables the incremental mode
+     * @param previous manifest of the previous checkpoint in the chain, or null
+     * to start a new chain with this file as the base
+     */
+    public void setIncremental(CheckpointManifest previous)
+    {
+	this.previous = previous;
+	if (previous==null)
+	    manifest = new CheckpointManifest(new Random().nextLong(), 0, path.getFileName().toString());
+	else
+	    manifest = new CheckpointManifest(previous.chain_id, previous.seq+1, previous.base_name);
+    }
+
+    /** @return manifest of this checkpoint, null if not incremental*/
+    public CheckpointManifest getManifest() {return manifest;}
+
+    /** starts a new section using the default codec*/
+    public void beginSection(String name) throws IOException
+    {
+	beginSection(name, codec);
+    }
+
+    /** starts a new section, sections are read back in the same order*/
+    public void beginSection(String name, Codec codec) throws IOException
+    {
+	if (section!=null) endSection();
+
+	section = name;
+	section_codec = codec;
+	section_start = channel.position();
+	raw_length = 0;
+	stored_length = 0;
+	crc.reset();
+	crc32c.reset();
+
+	/*reserve space for the header*/
+	channel.position(section_start+headerSize(name));
+
+	if (codec==Codec.DEFLATE)
+	{
+	    if (deflater==null)
+	    {
+		deflater = new Deflater(Deflater.BEST_SPEED);
+		chunk = new byte[1<<16];
+		zip_chunk = new byte[1<<16];
+	    }
+	    deflater.reset();
+	}
+    }
+
+    /** completes the current section and fills in its header*/
+    public void endSection() throws IOException
+    {
+	if (section==null) return;
+	flushBuffer();
+
+	if (section_codec==Codec.DEFLATE)
+	{
+	    deflater.finish();
+	    while (!deflater.finished())
+		writeCompressed(deflater.deflate(zip_chunk));
+	}
+
+	byte name[] = section.getBytes(StandardCharsets.UTF_8);
+	ByteBuffer header = ByteBuffer.allocate(headerSize(section));
+	header.order(BYTE_ORDER);
+	header.putShort((short)name.length);
+	header.put(name);
+	header.put((byte)section_codec.ordinal());
+	header.putLong(raw_length);
+	header.putLong(stored_length);
+	header.putInt((int)crc.getValue());
+	header.flip();
+	writeFully(header, section_start);
+
+	if (manifest!=null && !section.equals(CheckpointManifest.SECTION))
+	{
+	    CheckpointManifest.Entry entry = new CheckpointManifest.Entry(manifest.seq,
+		    (int)crc.getValue(), (int)crc32c.getValue(), raw_length);
+	    CheckpointManifest.Entry old = previous!=null?previous.entries.get(section):null;
+	    if (entry.sameContent(old))
+	    {
+		/*unchanged, drop the data and refer to the earlier copy*/
+		channel.truncate(section_start);
+		channel.position(section_start);
+		entry = old;
+	    }
+	    manifest.entries.put(section, entry);
+	}
+	section = null;
+    }
+
+    /** copies the remaining data of a section from another checkpoint*/
+    public void copySection(String name, CheckpointReader.Section src, Codec codec) throws IOException
+    {
+	beginSection(name, codec);
+	src.transferTo(this);
+	endSection();
+    }
+
+    /** @return bytes of section header preceding the data*/
+    static int headerSize(String name)
+    {
+	return Short.BYTES+name.getBytes(StandardCharsets.UTF_8).length+1+2*Long.BYTES+Integer.BYTES;
+    }
+
+    /*makes room for n bytes in the staging buffer*/
+    protected void ensure(int n) throws IOException
+    {
+	if (section==null) throw new IOException("Checkpoint data written outside a section");
+	if (buffer.remaining()<n) flushBuffer();
+    }
+
+    public void putInt(int v) throws IOException {ensure(Integer.BYTES); buffer.putInt(v);}
+    public void putLong(long v) throws IOException {ensure(Long.BYTES); buffer.putLong(v);}
+    public void putDouble(double v) throws IOException {ensure(Double.BYTES); buffer.putDouble(v);}
+
+    /** writes a length prefixed UTF-8 string*/
+    public void putString(String s) throws IOException
+    {
+	byte bytes[] = s.getBytes(StandardCharsets.UTF_8);
+	putInt(bytes.length);
+	for (int i=0;i<bytes.length;)
+	{
+	    ensure(1);
+	    int n = Math.min(buffer.remaining(), bytes.length-i);
+	    buffer.put(bytes, i, n);
+	    i+=n;
+	}
+    }
+
+    /** writes the remaining bytes of src*/
+    public void putBytes(ByteBuffer src) throws IOException
+    {
+	while (src.hasRemaining())
+	{
+	    ensure(1);
+	    int n = Math.min(buffer.remaining(), src.remaining());
+	    ByteBuffer slice = src.duplicate();
+	    slice.limit(slice.position()+n);
+	    buffer.put(slice);
+	    src.position(src.position()+n);
+	}
+    }
+
+    /** writes data[off:off+len] using bulk copies*/
+    public void putDoubles(double data[], int off, int len) throws IOException
+    {
+	while (len>0)
+	{
+	    ensure(Double.BYTES);
+	    int n = Math.min(buffer.remaining()/Double.BYTES, len);
+	    buffer.asDoubleBuffer().put(data, off, n);
+	    buffer.position(buffer.position()+n*Double.BYTES);
+	    off+=n;
+	    len-=n;
+	}
+    }
+
+    /** writes all field values in row order*/
+    public void putField(Field2D field) throws IOException
+    {
+	for (int i=0;i<field.getNi();i++)
+	    putDoubles(field.data[i], 0, field.getNj());
+    }
+
+    /*passes staged data to the file, compressing it if needed*/
+    protected void flushBuffer() throws IOException
+    {
+	buffer.flip();
+	raw_length += buffer.remaining();
+	crc.update(buffer.duplicate());
+	if (manifest!=null) crc32c.update(buffer.duplicate());
+
+	if (section_codec==Codec.DEFLATE)
+	{
+	    while (buffer.hasRemaining())
+	    {
+		int n = Math.min(buffer.remaining(), chunk.length);
+		buffer.get(chunk, 0, n);
+		deflater.setInput(chunk, 0, n);
+		while (!deflater.needsInput())
+		    writeCompressed(deflater.deflate(zip_chunk));
+	    }
+	}
+	else
+	{
+	    stored_length += buffer.remaining();
+	    writeFully(buffer, -1);
+	}
+	buffer.clear();
+    }
+
+    protected void writeCompressed(int n) throws IOException
+    {
+	stored_length += n;
+	writeFully(ByteBuffer.wrap(zip_chunk, 0, n), -1);
+    }
+
+    /* writes the entire buffer, at the current position if pos<0 */
+    protected void writeFully(ByteBuffer bb, long pos) throws IOException
+    {
+	while (bb.hasRemaining())
+	{
+	    if (pos<0) channel.write(bb);
+	    else pos += channel.write(bb, pos);
+	}
+    }
+
+    /** completes the file and moves it to the destination*/
+    @Override
+    public void close() throws IOException
+    {
+	endSection();
+	if (manifest!=null) manifest.write(this);
+	channel.force(true);
+	channel.close();
+	if (deflater!=null) deflater.end();
+
+	if (keep>1) rotate();
+
+	try {
+	    Files.move(tmp_path, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	} catch (AtomicMoveNotSupportedException e) {
+	    Files.move(tmp_path, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+    }
+
+    /*shifts retained checkpoints by one, the current file is hard linked if possible
+    so that it remains in place until replaced by the new one*/
+    protected void rotate() throws IOException
+    {
+	Files.deleteIfExists(Paths.get(path+"."+(keep-1)));
+	for (int k=keep-2;k>=1;k--)
+	{
+	    Path src = Paths.get(path+"."+k);
+	    if (Files.exists(src))
+		Files.move(src, Paths.get(path+"."+(k+1)), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	if (!Files.exists(path)) return;
+	Path prev = Paths.get(path+".1");
+	try {
+	    Files.createLink(prev, path);
+	} catch (IOException | UnsupportedOperationException e) {
+	    Files.move(path, prev, StandardCopyOption.REPLACE_EXISTING);
+	}
+    }
+
+    /** closes the file without replacing the destination*/
+    public void abort()
+    {
+	try {
+	    channel.close();
+	    Files.deleteIfExists(tmp_path);
+	} catch (IOException e) {
+	    /*nothing else to do*/
+	}
+	if (deflater!=null) deflater.end();
+    }
+}
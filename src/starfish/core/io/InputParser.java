@@ -303,6 +303,32 @@ public class InputParser implements Iterable {
 		return getInt(key, element);
 	}
 
+	/**
+	 * convenience method to parse a long integer. Returns a default value if key
+	 * not found.
+	 * 
+	 * @param key           key to search for
+	 * @param default_value default value
+	 * @param element       source element
+	 * @return key value, or default if key not found
+	 */
+	public static long getLong(String key, Element element, long default_value) {
+		String str;
+		try {
+			str = getValueInternal(key, element);
+		} catch (NoSuchElementException e) {
+			return default_value;
+		}
+
+		long l = 0;
+		try {
+			l = Long.parseLong(str.trim());
+		} catch (NumberFormatException e) {
+			Log.error("error parsing long integer value " + str);
+		}
+		return l;
+	}
+
 	/**
 	 *
 	 * @param name
@@ -9,9 +9,11 @@ package starfish.core.io;
 
 import org.w3c.dom.Element;
 import starfish.core.common.CommandModule;
+import starfish.core.common.RandomStreams;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
 import starfish.core.domain.Field2D;
+import starfish.core.domain.FieldCollection2D;
 import starfish.core.domain.FieldManager2D;
 import starfish.core.domain.Mesh;
 import starfish.core.io.Reader.ReaderFactory;
@@ -66,12 +68,20 @@ public class LoadFieldModule extends CommandModule {
 
 		FieldManager2D field_manager = Starfish.domain_module.getFieldManager();
 
-		for (Mesh mesh : Starfish.getMeshList())
+		/* the legacy java generator keeps the original per-variable sampling */
+		boolean legacy = RandomStreams.getType() == RandomStreams.Type.JAVA;
+		FieldCollection2D collections[] = new FieldCollection2D[field_vars.length];
+		for (int i = 0; i < field_vars.length; i++)
+			collections[i] = reader.getFieldCollection(field_vars[i]);
+
+		for (Mesh mesh : Starfish.getMeshList()) {
+			Field2D fields[] = legacy ? null : Field2D.FromExisting(mesh, collections);
 			for (int i = 0; i < field_vars.length; i++) {
-				Field2D field = Field2D.FromExisting(mesh, reader.getFieldCollection(field_vars[i]));
+				Field2D field = legacy ? Field2D.FromExisting(mesh, collections[i]) : fields[i];
 				field_manager.add(sim_vars[i], "", field, null);
 				Log.log("Added " + sim_vars[i]);
 			}
+		}
 	}
 
 	@Override
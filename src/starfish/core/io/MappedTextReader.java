@@ -0,0 +1,231 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Sequential reader of large ASCII data files. The file is memory mapped in
+ * windows of up to 256 MB and numbers are parsed directly from the mapped
+ * bytes without creating strings. Values with at most 15 significant digits
+ * and a decimal exponent within +-22 are converted with a single exactly
+ * rounded multiplication or division, all other values are passed to
+ * Double.parseDouble, so the results are identical to parsing the text.
+ * Spaces, tabs, line breaks, and commas separate tokens. Fortran style
+ * exponents (1.0D+00) are accepted.
+ */
+public class MappedTextReader implements AutoCloseable {
+	static final long WINDOW = 1L << 28;
+	static final double POW10[] = new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10;
+	}
+
+	protected final String file_name;
+	protected final FileChannel channel;
+	protected final long file_size;
+	protected MappedByteBuffer buf; // current window
+	protected long base; // file offset of the window
+	protected int pos, limit; // read position and size of the window
+
+	byte token[] = new byte[64]; // text of the current number
+
+	public MappedTextReader(String file_name) throws IOException {
+		this.file_name = file_name;
+		channel = FileChannel.open(Paths.get(file_name), StandardOpenOption.READ);
+		file_size = channel.size();
+	}
+
+	/** @return size of the file in bytes */
+	public long size() {
+		return file_size;
+	}
+
+	/** @return file offset of the next byte */
+	public long position() {
+		return base + pos;
+	}
+
+	/* maps the window starting at the current position, false at the end of the file */
+	protected boolean remap() throws IOException {
+		long next = base + pos;
+		if (next >= file_size)
+			return false;
+		long len = Math.min(WINDOW, file_size - next);
+		buf = channel.map(FileChannel.MapMode.READ_ONLY, next, len);
+		base = next;
+		pos = 0;
+		limit = (int) len;
+		return true;
+	}
+
+	/** @return next byte without consuming it, -1 at the end of the file */
+	public int peek() throws IOException {
+		if (pos >= limit && !remap())
+			return -1;
+		return buf.get(pos) & 0xff;
+	}
+
+	/** @return next byte, -1 at the end of the file */
+	public int read() throws IOException {
+		int c = peek();
+		if (c >= 0)
+			pos++;
+		return c;
+	}
+
+	static boolean isSeparator(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == ',';
+	}
+
+	/** @return the next line without the line break, null at the end of the file */
+	public String readLine() throws IOException {
+		if (peek() < 0)
+			return null;
+		int n = 0;
+		int c;
+		while ((c = read()) >= 0 && c != '\n') {
+			if (n == token.length)
+				token = Arrays.copyOf(token, 2 * n);
+			token[n++] = (byte) c;
+		}
+		if (n > 0 && token[n - 1] == '\r')
+			n--;
+		return new String(token, 0, n, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * skips separators
+	 *
+	 * @return first byte of the next token, -1 at the end of the file
+	 */
+	public int skipSeparators() throws IOException {
+		int c;
+		while ((c = peek()) >= 0 && isSeparator(c))
+			pos++;
+		return c;
+	}
+
+	/** skips the next token */
+	public void skipToken() throws IOException {
+		if (skipSeparators() < 0)
+			throw new EOFException("Unexpected end of file " + file_name);
+		int c;
+		while ((c = peek()) >= 0 && !isSeparator(c))
+			pos++;
+	}
+
+	/** @return value of the next token */
+	public double nextDouble() throws IOException {
+		if (skipSeparators() < 0)
+			throw new EOFException("Unexpected end of file " + file_name);
+
+		int n = 0; // token length
+		int c = peek();
+		boolean negative = c == '-';
+		if (c == '-' || c == '+') {
+			token[n++] = (byte) c;
+			pos++;
+		}
+
+		long mantissa = 0;
+		int digits = 0; // significant digits in the mantissa
+		int scale = 0; // decimal exponent of the mantissa
+		boolean dot = false, any = false;
+		while ((c = peek()) >= 0 && !isSeparator(c)) {
+			if (c >= '0' && c <= '9') {
+				any = true;
+				if (digits > 0 || c != '0') {
+					if (digits < 18)
+						mantissa = 10 * mantissa + (c - '0');
+					else if (!dot)
+						scale++;
+					digits++;
+				}
+				if (dot && digits <= 18)
+					scale--;
+			} else if (c == '.' && !dot)
+				dot = true;
+			else
+				break;
+			addToken(n++, c);
+			pos++;
+		}
+
+		boolean exact = any && digits <= 15;
+		if (any && (c == 'e' || c == 'E' || c == 'd' || c == 'D')) {
+			addToken(n++, 'e');
+			pos++;
+			c = peek();
+			boolean exp_negative = c == '-';
+			if (c == '-' || c == '+') {
+				addToken(n++, c);
+				pos++;
+			}
+			int exp = 0;
+			boolean exp_any = false;
+			while ((c = peek()) >= '0' && c <= '9') {
+				exp_any = true;
+				if (exp < 10000)
+					exp = 10 * exp + (c - '0');
+				addToken(n++, c);
+				pos++;
+			}
+			exact &= exp_any;
+			scale += exp_negative ? -exp : exp;
+		}
+
+		/* anything else, such as NaN or Infinity, is left to the library */
+		while ((c = peek()) >= 0 && !isSeparator(c)) {
+			exact = false;
+			addToken(n++, c);
+			pos++;
+		}
+
+		if (exact && scale >= -22 && scale <= 22) {
+			double v = scale >= 0 ? mantissa * POW10[scale] : mantissa / POW10[-scale];
+			return negative ? -v : v;
+		}
+
+		String text = new String(token, 0, n, StandardCharsets.ISO_8859_1);
+		try {
+			return Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid number " + text + " in " + file_name);
+		}
+	}
+
+	void addToken(int n, int c) {
+		if (n == token.length)
+			token = Arrays.copyOf(token, 2 * n);
+		token[n] = (byte) c;
+	}
+
+	/** @return CRC32C of the entire file, the read position is not changed */
+	public long checksum() throws IOException {
+		CRC32C crc = new CRC32C();
+		for (long off = 0; off < file_size; off += WINDOW)
+			crc.update(channel.map(FileChannel.MapMode.READ_ONLY, off, Math.min(WINDOW, file_size - off)));
+		return crc.getValue();
+	}
+
+	@Override
+	public void close() throws IOException {
+		buf = null;
+		channel.close();
+	}
+}
@@ -29,7 +29,15 @@ public class OutputModule extends CommandModule {
 
 		Writer writer = createWriter(element);
 		writer.write();
-		writer.close();
+		writer.closeWhenDone();
+	}
+
+	/* background writer shared by all outputs */
+	protected OutputService service = new OutputService();
+
+	/** @return service performing asynchronous writes */
+	public OutputService getService() {
+		return service;
 	}
 
 	/**
@@ -77,6 +85,8 @@ public class OutputModule extends CommandModule {
 			writer = new TecplotWriter(element);
 		else if (format.equalsIgnoreCase("VTK"))
 			writer = new VTKWriter(element);
+		else if (format.equalsIgnoreCase("SERIES"))
+			writer = new SeriesWriter(element);
 		else {
 			Log.error("Unknown output format " + format);
 			return null;
@@ -140,7 +150,8 @@ public class OutputModule extends CommandModule {
 
 	@Override
 	public void exit() {
-		/* close files? */
+		/* complete all pending writes */
+		service.flush();
 	}
 
 	@Override
@@ -0,0 +1,311 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import starfish.core.boundaries.Boundary;
+import starfish.core.boundaries.Field1D;
+import starfish.core.common.Starfish.Log;
+import starfish.core.domain.Field2D;
+import starfish.core.domain.Mesh;
+
+/**
+ * Background writer for output files. Writers copy the data they need into a
+ * Snapshot on the main thread and the actual formatting and file I/O runs on a
+ * single output thread, so jobs complete in the order they were submitted. The
+ * amount of snapshot data waiting to be written is limited by a memory budget,
+ * submit blocks until older jobs complete once the budget is exceeded. Snapshot
+ * buffers are pooled and reused by later snapshots of the same shape.
+ *
+ * Writers producing several independent files, such as one file per mesh, can
+ * hand them to writeAll to be encoded and written concurrently on a small pool
+ * of I/O threads.
+ */
+public class OutputService
+{
+    protected boolean async = false;
+    protected long budget = 256L<<20;	    //bytes of pending snapshot data
+    protected long pending_bytes = 0;
+    protected int pending_jobs = 0;
+
+    protected final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+    protected Thread thread;
+    protected final String thread_name;
+
+    /*pool writing independent files of a single output*/
+    protected int num_threads = 1;
+    protected ExecutorService io_pool;
+
+    public OutputService() {this("starfish-output");}
+
+    /** @param thread_name name of the background thread*/
+    public OutputService(String thread_name)
+    {
+	this.thread_name = thread_name;
+    }
+
+    /**
+     * @param async if false, all writes are performed synchronously
+     * @param budget maximum bytes of snapshot data waiting to be written
+     */
+    public void init(boolean async, long budget)
+    {
+	flush();
+	this.async = async;
+	this.budget = budget;
+    }
+
+    /** @return true if writes are performed in the background*/
+    public boolean isAsync() {return async;}
+
+    /** @param num_threads number of threads used by writeAll, 1 to write files sequentially*/
+    public synchronized void setThreads(int num_threads)
+    {
+	this.num_threads = Math.max(num_threads, 1);
+	if (io_pool!=null) {io_pool.shutdown(); io_pool=null;}
+    }
+
+    protected synchronized ExecutorService getPool()
+    {
+	if (io_pool==null)
+	{
+	    io_pool = Executors.newFixedThreadPool(num_threads, r -> {
+		Thread thread = new Thread(r, thread_name+"-io");
+		thread.setDaemon(true);
+		return thread;
+	    });
+	}
+	return io_pool;
+    }
+
+    /**
+     * Runs independent write jobs on the I/O pool and returns once all have
+     * completed. Jobs must not share any file or buffer. The first failure, in
+     * the order the jobs were given, is rethrown on the calling thread.
+     * @param jobs jobs to run
+     */
+    public void writeAll(List<Runnable> jobs)
+    {
+	if (num_threads==1 || jobs.size()<2)
+	{
+	    for (Runnable job:jobs) job.run();
+	    return;
+	}
+
+	ArrayList<Future<?>> results = new ArrayList<>();
+	ExecutorService pool = getPool();
+	for (Runnable job:jobs)
+	    results.add(pool.submit(job));
+
+	RuntimeException error = null;
+	for (Future<?> result:results)
+	{
+	    try {
+		result.get();
+	    } catch (ExecutionException e) {
+		if (error==null)
+		    error = e.getCause() instanceof RuntimeException?(RuntimeException)e.getCause():
+			    new RuntimeException(e.getCause());
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		if (error==null) error = new RuntimeException(e);
+	    }
+	}
+	if (error!=null) throw error;
+    }
+
+    /**
+     * Queues a job, blocks while the pending data exceeds the budget. A single
+     * job larger than the budget is accepted once the queue empties.
+     * @param job job to run on the output thread
+     * @param bytes size of data held by the job
+     */
+    public synchronized void submit(Runnable job, long bytes)
+    {
+	while (pending_jobs>0 && pending_bytes+bytes>budget)
+	{
+	    try {wait();}
+	    catch (InterruptedException e) {Thread.currentThread().interrupt(); break;}
+	}
+
+	pending_bytes += bytes;
+	pending_jobs++;
+	queue.add(() -> {
+	    try {job.run();}
+	    catch (RuntimeException e) {Log.warning("Output failed: "+e);}
+	    finally {complete(bytes);}
+	});
+
+	if (thread==null)
+	{
+	    thread = new Thread(this::run, thread_name);
+	    thread.setDaemon(true);
+	    thread.start();
+	}
+	notifyAll();
+    }
+
+    /** queues a job that does not hold any snapshot data*/
+    public void execute(Runnable job)
+    {
+	submit(job, 0);
+    }
+
+    /** @return true if any job is queued or running*/
+    public synchronized boolean isBusy()
+    {
+	return pending_jobs>0;
+    }
+
+    /** waits until all queued jobs complete*/
+    public synchronized void flush()
+    {
+	while (pending_jobs>0)
+	{
+	    try {wait();}
+	    catch (InterruptedException e) {Thread.currentThread().interrupt(); return;}
+	}
+    }
+
+    protected synchronized void complete(long bytes)
+    {
+	pending_bytes -= bytes;
+	pending_jobs--;
+	notifyAll();
+    }
+
+    /** output thread main loop*/
+    protected void run()
+    {
+	while (true)
+	{
+	    Runnable job;
+	    synchronized (this)
+	    {
+		while (queue.isEmpty())
+		{
+		    try {wait();}
+		    catch (InterruptedException e) {return;}
+		}
+		job = queue.poll();
+	    }
+	    job.run();
+	}
+    }
+
+    /*pool of snapshot buffers, keyed by mesh and shape*/
+    protected final HashMap<Mesh,HashMap<Long,ArrayDeque<Field2D>>> pool = new HashMap<>();
+
+    protected ArrayDeque<Field2D> poolList(Mesh mesh, int ni, int nj)
+    {
+	return pool.computeIfAbsent(mesh, m -> new HashMap<>()).
+		computeIfAbsent(((long)ni<<32)|nj, k -> new ArrayDeque<>());
+    }
+
+    /** @return copy of src, using a pooled buffer if available*/
+    protected Field2D copyOf(Field2D src)
+    {
+	Field2D dest;
+	synchronized (pool)
+	{
+	    dest = poolList(src.getMesh(), src.getNi(), src.getNj()).poll();
+	}
+
+	if (dest==null)
+	{
+	    if (src.getMesh()!=null)
+		dest = new Field2D(src.getMesh(), src.getNi()!=src.getMesh().ni);
+	    else
+		dest = new Field2D(src.getNi(), src.getNj());
+	}
+	dest.copy(src);
+	return dest;
+    }
+
+    /** returns buffer to the pool*/
+    protected void recycle(Field2D field)
+    {
+	synchronized (pool)
+	{
+	    poolList(field.getMesh(), field.getNi(), field.getNj()).add(field);
+	}
+    }
+
+    /**
+     * Copy of output data taken at a given time step. Writers look up fields
+     * in the snapshot instead of the live simulation data while it is set.
+     */
+    public class Snapshot
+    {
+	public final int it;
+	public final double time;
+	protected final HashMap<Mesh,HashMap<String,Field2D>> fields = new HashMap<>();
+	protected final HashMap<Boundary,HashMap<String,Field1D>> boundary_fields = new HashMap<>();
+	protected final ArrayList<Field2D> buffers = new ArrayList<>();
+	protected long bytes = 0;
+
+	public Snapshot(int it, double time)
+	{
+	    this.it = it;
+	    this.time = time;
+	}
+
+	/** copies field var on mesh*/
+	public void add(Mesh mesh, String var, Field2D field)
+	{
+	    HashMap<String,Field2D> map = fields.computeIfAbsent(mesh, m -> new HashMap<>());
+	    if (map.containsKey(var)) return;
+	    Field2D copy = copyOf(field);
+	    map.put(var, copy);
+	    buffers.add(copy);
+	    bytes += 8L*copy.getNi()*copy.getNj();
+	}
+
+	/** copies boundary field var*/
+	public void add(Boundary boundary, String var, Field1D field)
+	{
+	    HashMap<String,Field1D> map = boundary_fields.computeIfAbsent(boundary, b -> new HashMap<>());
+	    if (map.containsKey(var)) return;
+	    map.put(var, new Field1D(boundary, field.getData()));
+	    bytes += 8L*field.getData().length;
+	}
+
+	/** @return copy of field var on mesh or null if not in the snapshot*/
+	public Field2D getField(Mesh mesh, String var)
+	{
+	    HashMap<String,Field2D> map = fields.get(mesh);
+	    return map!=null?map.get(var):null;
+	}
+
+	/** @return copy of boundary field or null if not in the snapshot*/
+	public Field1D getField(Boundary boundary, String var)
+	{
+	    HashMap<String,Field1D> map = boundary_fields.get(boundary);
+	    return map!=null?map.get(var):null;
+	}
+
+	/** @return size of the copied data*/
+	public long bytes() {return bytes;}
+
+	/** returns buffers to the pool, the snapshot can no longer be used*/
+	public void release()
+	{
+	    for (Field2D field:buffers)
+		recycle(field);
+	    buffers.clear();
+	    fields.clear();
+	    boundary_fields.clear();
+	}
+    }
+}
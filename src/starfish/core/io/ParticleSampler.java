@@ -0,0 +1,225 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.util.Arrays;
+import java.util.Random;
+import starfish.core.common.Starfish;
+import starfish.core.domain.DomainModule.DomainType;
+import starfish.core.domain.Mesh;
+import starfish.core.materials.KineticMaterial;
+import starfish.core.materials.KineticMaterial.MeshData;
+import starfish.core.materials.KineticMaterial.Particle;
+
+/**
+ * Selects a random subset of particles for output in a single pass over the
+ * particle blocks using weighted reservoir sampling (Efraimidis and Spirakis,
+ * with exponential jumps). Each particle is given a key u^(1/w), where w is the
+ * macroparticle weight, and the particles with the largest keys are kept. Once
+ * a reservoir is full, the number of particles to skip before the next
+ * replacement is drawn directly, so only a few random numbers are needed per
+ * accepted particle.
+ *
+ * Sampled particles are written directly to the output columns (position,
+ * velocity, radius), one slot per particle. The sample can be restricted to a
+ * rectangular region or taken with a fixed quota per cell.
+ */
+public class ParticleSampler {
+	int count; // sample size, used when per_cell is zero
+	int per_cell; // particles to keep in each cell, 0 to sample the whole domain
+	boolean weighted; // selection probability proportional to macroparticle weight
+	boolean rotate; // revolve axisymmetric positions using the angle in pos[2]
+	double x0[], x1[]; // corners of the sampling region, null to sample everywhere
+
+	/* output columns, valid for slots [0,size) */
+	public int size;
+	public double pos[] = new double[0];
+	public double vel[] = new double[0];
+	public double radius[] = new double[0];
+	double key[] = new double[0]; // log of the sampling key
+
+	Random rnd;
+	DomainType domain_type;
+
+	/** particles competing for the same slots */
+	class Reservoir {
+		int heap[]; // slots ordered as a min-heap on key
+		int n = 0;
+		double skip; // weight to pass over before the next replacement
+
+		Reservoir(int capacity) {
+			heap = new int[capacity];
+		}
+
+		void add(Particle part, double w) {
+			if (n < heap.length) {
+				int s = newSlot();
+				key[s] = Math.log(1 - rnd.nextDouble()) / w;
+				store(s, part);
+
+				/* sift up */
+				int i = n++;
+				while (i > 0) {
+					int p = (i - 1) / 2;
+					if (key[heap[p]] <= key[s])
+						break;
+					heap[i] = heap[p];
+					i = p;
+				}
+				heap[i] = s;
+
+				if (n == heap.length)
+					setSkip();
+				return;
+			}
+
+			skip -= w;
+			if (skip > 0)
+				return;
+
+			/* replace the smallest key, new key is drawn from (t_w,1) */
+			int s = heap[0];
+			double t_w = Math.exp(w * key[s]);
+			key[s] = Math.log(t_w + (1 - t_w) * (1 - rnd.nextDouble())) / w;
+			store(s, part);
+
+			/* sift down */
+			int i = 0;
+			while (true) {
+				int c = 2 * i + 1;
+				if (c >= n)
+					break;
+				if (c + 1 < n && key[heap[c + 1]] < key[heap[c]])
+					c++;
+				if (key[s] <= key[heap[c]])
+					break;
+				heap[i] = heap[c];
+				i = c;
+			}
+			heap[i] = s;
+			setSkip();
+		}
+
+		/* exponential jump, log(r)/log(T_w) with T_w the smallest key */
+		void setSkip() {
+			skip = Math.log(1 - rnd.nextDouble()) / key[heap[0]];
+		}
+	}
+
+	/**
+	 * @param count    number of particles to select, ignored if per_cell is set
+	 * @param per_cell number of particles to select in each cell, or 0
+	 * @param weighted if true, particles are selected with probability
+	 *                 proportional to their macroparticle weight
+	 * @param rotate   if true, axisymmetric positions are revolved to 3D
+	 */
+	public ParticleSampler(int count, int per_cell, boolean weighted, boolean rotate) {
+		this.count = count;
+		this.per_cell = per_cell;
+		this.weighted = weighted;
+		this.rotate = rotate;
+	}
+
+	/** restricts sampling to the rectangle with corners x0 and x1 */
+	public void setRegion(double x0[], double x1[]) {
+		this.x0 = new double[] { Math.min(x0[0], x1[0]), Math.min(x0[1], x1[1]) };
+		this.x1 = new double[] { Math.max(x0[0], x1[0]), Math.max(x0[1], x1[1]) };
+	}
+
+	/**
+	 * samples particles of the material on all meshes, the columns are trimmed to
+	 * the number of selected particles
+	 */
+	public void sample(KineticMaterial mat) {
+		rnd = Starfish.getRandom();
+		domain_type = rotate ? Starfish.getDomainType() : DomainType.XY;
+		size = 0;
+
+		/* the sample can't be larger than the number of particles */
+		int capacity = (int) Math.max(Math.min(count, mat.getNp()), 0);
+		ensureCapacity(per_cell > 0 ? 1024 : capacity);
+
+		Reservoir global = per_cell > 0 ? null : new Reservoir(capacity);
+		for (Mesh mesh : Starfish.getMeshList()) {
+			int nj1 = mesh.nj - 1;
+			Reservoir cells[] = per_cell > 0 ? new Reservoir[(mesh.ni - 1) * nj1] : null;
+
+			MeshData md = mat.getMeshData(mesh);
+			for (int b = 0; b < md.particle_block.length; b++) {
+				for (Particle part : md.particle_block[b].particle_list) {
+					double w = weighted ? part.mpw : 1;
+					if (!(w > 0))
+						continue;
+					if (x0 != null && (part.pos[0] < x0[0] || part.pos[0] > x1[0] || part.pos[1] < x0[1]
+							|| part.pos[1] > x1[1]))
+						continue;
+
+					if (cells == null) {
+						if (global.heap.length > 0)
+							global.add(part, w);
+						continue;
+					}
+
+					double lc[] = part.lc != null ? part.lc : mesh.XtoL(part.pos);
+					int i = Math.min((int) lc[0], mesh.ni - 2);
+					int j = Math.min((int) lc[1], nj1 - 1);
+					int c = i * nj1 + j;
+					if (cells[c] == null)
+						cells[c] = new Reservoir(per_cell);
+					cells[c].add(part, w);
+				}
+			}
+		}
+
+		if (pos.length > 3 * size) {
+			pos = Arrays.copyOf(pos, 3 * size);
+			vel = Arrays.copyOf(vel, 3 * size);
+			radius = Arrays.copyOf(radius, size);
+		}
+		key = new double[0];
+	}
+
+	/* returns index of a new slot, growing the columns as needed */
+	int newSlot() {
+		if (size == key.length)
+			ensureCapacity(Math.max(2 * size, 1024));
+		return size++;
+	}
+
+	void ensureCapacity(int n) {
+		if (key.length >= n)
+			return;
+		pos = Arrays.copyOf(pos, 3 * n);
+		vel = Arrays.copyOf(vel, 3 * n);
+		radius = Arrays.copyOf(radius, n);
+		key = Arrays.copyOf(key, n);
+	}
+
+	/* writes particle data to slot s */
+	void store(int s, Particle part) {
+		int a = 3 * s;
+		double x = part.pos[0], y = part.pos[1];
+		if (domain_type == DomainType.RZ) {
+			pos[a] = x * Math.cos(part.pos[2]);
+			pos[a + 1] = y;
+			pos[a + 2] = x * Math.sin(part.pos[2]);
+		} else if (domain_type == DomainType.ZR) {
+			pos[a] = x;
+			pos[a + 1] = y * Math.cos(part.pos[2]);
+			pos[a + 2] = y * Math.sin(part.pos[2]);
+		} else {
+			pos[a] = x;
+			pos[a + 1] = y;
+			pos[a + 2] = 0;
+		}
+
+		vel[a] = part.vel[0];
+		vel[a + 1] = part.vel[1];
+		vel[a + 2] = part.vel[2];
+		radius[s] = part.radius;
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import starfish.core.io.SeriesReader.MeshInfo;
+
+/**
+ * Converts frames of a series file to VTK structured grid files (.vts) and a
+ * ParaView collection (.pvd). Arrays are stored in the raw appended format and
+ * copied directly from the mapped series file.
+ *
+ * Usage: java -cp starfish.jar starfish.core.io.SeriesExporter series_file
+ * [out=prefix] [frames=first:last:step] [vars=var1,var2,...]
+ *
+ * The prefix defaults to the series file name without the extension, frames
+ * are selected by index, last inclusive, and all frames and variables are
+ * exported by default. Files are named prefix_mesh_it.vts, as written by
+ * VTKWriter for animations.
+ */
+public class SeriesExporter {
+	protected final SeriesReader in;
+	protected boolean selected[]; // variables to export
+
+	public SeriesExporter(SeriesReader in) {
+		this.in = in;
+		selected = new boolean[in.getVariables().size()];
+		Arrays.fill(selected, true);
+	}
+
+	/**
+	 * limits the output to the given variables, both node and cell data of a
+	 * variable are selected and vectors are included if both components are
+	 */
+	public void selectVariables(String vars[]) {
+		Arrays.fill(selected, false);
+		for (String var : vars) {
+			boolean found = false;
+			for (int v = 0; v < selected.length; v++)
+				if (in.getVariables().get(v).equals(var.trim())) {
+					selected[v] = true;
+					found = true;
+				}
+			if (!found)
+				throw new IllegalArgumentException("Variable " + var + " is not in the series file");
+		}
+	}
+
+	/**
+	 * writes the given frames
+	 *
+	 * @param prefix output file prefix, may include a directory
+	 * @param frames frame indexes
+	 * @return number of files written, excluding the collection
+	 * @throws IOException
+	 */
+	public int export(String prefix, int frames[]) throws IOException {
+		Path pvd = Paths.get(prefix + "_anim.pvd");
+		if (pvd.toAbsolutePath().getParent() != null)
+			Files.createDirectories(pvd.toAbsolutePath().getParent());
+		String base = Paths.get(prefix).getFileName().toString();
+
+		StringBuilder collection = new StringBuilder();
+		collection.append("<?xml version=\"1.0\"?>\n");
+		collection.append("<VTKFile type=\"Collection\" version=\"0.1\">\n");
+		collection.append("<Collection>\n");
+
+		int count = 0;
+		for (int f : frames) {
+			for (int m = 0; m < in.getMeshes().size(); m++) {
+				String name = String.format("_%s_%06d.vts", in.getMeshes().get(m).name, in.getIt(f));
+				writeFrame(Paths.get(prefix + name), f, m);
+				collection.append(String.format("<DataSet timestep=\"%d\" group=\"\" part=\"%d\" file=\"%s\" />\n",
+						in.getIt(f), m, base + name));
+				count++;
+			}
+		}
+
+		collection.append("</Collection>\n");
+		collection.append("</VTKFile>\n");
+		Files.write(pvd, collection.toString().getBytes(StandardCharsets.UTF_8));
+		return count;
+	}
+
+	/* array written to the appended section */
+	class Array {
+		ByteBuffer data;
+		String name, type;
+		int num_comps;
+
+		Array(String name, String type, int num_comps, ByteBuffer data) {
+			this.name = name;
+			this.type = type;
+			this.num_comps = num_comps;
+			this.data = data;
+		}
+	}
+
+	/* writes mesh m of frame f */
+	protected void writeFrame(Path path, int f, int m) throws IOException {
+		MeshInfo mesh = in.getMeshes().get(m);
+		String float_type = in.getValueBytes() == Float.BYTES ? "Float32" : "Float64";
+		ArrayList<Array> points = new ArrayList<>();
+		ArrayList<Array> cell_data = new ArrayList<>();
+		ArrayList<Array> point_data = new ArrayList<>();
+
+		points.add(new Array("pos", "Float64", 3, in.getPositions(m)));
+		point_data.add(new Array("type", "Int32", 1, in.getTypes(m)));
+
+		for (int v = 0; v < selected.length; v++) {
+			if (!selected[v] || in.getKind(v) == SeriesWriter.COMPONENT)
+				continue;
+			Array array = new Array(in.getVariables().get(v), float_type, 1, in.getBlock(f, m, v));
+			if (in.getKind(v) == SeriesWriter.CELL)
+				cell_data.add(array);
+			else
+				point_data.add(array);
+		}
+
+		for (int pair[] : in.getVectors()) {
+			if (!selected[pair[0]] || !selected[pair[1]])
+				continue;
+			ByteBuffer vec = interleave(in.getBlock(f, m, pair[0]), in.getBlock(f, m, pair[1]));
+			String name = in.getVariables().get(pair[0]) + "_" + in.getVariables().get(pair[1]);
+			point_data.add(new Array(name, float_type, 3, vec));
+		}
+
+		/* arrays in the order they are stored in the appended section */
+		ArrayList<Array> arrays = new ArrayList<>(points);
+		arrays.addAll(cell_data);
+		arrays.addAll(point_data);
+
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw);
+		pw.println("<?xml version=\"1.0\"?>");
+		pw.println("<VTKFile type=\"StructuredGrid\" version=\"1.0\" byte_order=\"LittleEndian\" "
+				+ "header_type=\"UInt64\">");
+		pw.printf("<StructuredGrid WholeExtent=\"0 %d 0 %d 0 0\">\n", mesh.ni - 1, mesh.nj - 1);
+		pw.printf("<Piece Extent=\"0 %d 0 %d 0 0\">\n", mesh.ni - 1, mesh.nj - 1);
+		long offset = printArrays(pw, "Points", points, 0);
+		offset = printArrays(pw, "CellData", cell_data, offset);
+		printArrays(pw, "PointData", point_data, offset);
+		pw.println("</Piece>");
+		pw.println("</StructuredGrid>");
+		pw.print("<AppendedData encoding=\"raw\">\n_");
+		pw.flush();
+
+		try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			writeFully(out, ByteBuffer.wrap(sw.toString().getBytes(StandardCharsets.UTF_8)));
+
+			ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+			header.order(SeriesWriter.BYTE_ORDER);
+			for (Array array : arrays) {
+				header.clear();
+				header.putLong(array.data.remaining());
+				header.flip();
+				writeFully(out, header);
+				writeFully(out, array.data);
+			}
+			writeFully(out, ByteBuffer.wrap("\n</AppendedData>\n</VTKFile>\n".getBytes(StandardCharsets.UTF_8)));
+		}
+	}
+
+	/* prints the array tags, returns the appended data offset following the arrays */
+	static long printArrays(PrintWriter pw, String tag, ArrayList<Array> arrays, long offset) {
+		pw.println("<" + tag + ">");
+		for (Array array : arrays) {
+			pw.printf("<DataArray Name=\"%s\" type=\"%s\" NumberOfComponents=\"%d\" format=\"appended\" "
+					+ "offset=\"%d\"/>\n", array.name, array.type, array.num_comps, offset);
+			offset += Long.BYTES + array.data.remaining();
+		}
+		pw.println("</" + tag + ">");
+		return offset;
+	}
+
+	/* combines two components into a 3 component vector with zero z */
+	protected ByteBuffer interleave(ByteBuffer a, ByteBuffer b) {
+		int vb = in.getValueBytes();
+		int n = a.remaining() / vb;
+		ByteBuffer vec = ByteBuffer.allocate(3 * n * vb);
+		vec.order(SeriesWriter.BYTE_ORDER);
+		for (int i = 0; i < n; i++) {
+			if (vb == Float.BYTES) {
+				vec.putFloat(a.getFloat());
+				vec.putFloat(b.getFloat());
+				vec.putFloat(0);
+			} else {
+				vec.putDouble(a.getDouble());
+				vec.putDouble(b.getDouble());
+				vec.putDouble(0);
+			}
+		}
+		vec.flip();
+		return vec;
+	}
+
+	static void writeFully(FileChannel out, ByteBuffer bb) throws IOException {
+		while (bb.hasRemaining())
+			out.write(bb);
+	}
+
+	/** parses first:last:step, with last inclusive and negative values counted from the end */
+	static int[] parseFrames(String spec, int num_frames) {
+		String pieces[] = spec.split(":", -1);
+		int first = pieces[0].isEmpty() ? 0 : Integer.parseInt(pieces[0]);
+		int last = pieces.length > 1 && !pieces[1].isEmpty() ? Integer.parseInt(pieces[1]) : num_frames - 1;
+		int step = pieces.length > 2 ? Integer.parseInt(pieces[2]) : 1;
+		if (pieces.length == 1 && !pieces[0].isEmpty())
+			last = first;
+		if (first < 0)
+			first += num_frames;
+		if (last < 0)
+			last += num_frames;
+		if (step < 1)
+			throw new IllegalArgumentException("Frame step must be positive");
+
+		last = Math.min(last, num_frames - 1);
+		ArrayList<Integer> list = new ArrayList<>();
+		for (int f = Math.max(first, 0); f <= last; f += step)
+			list.add(f);
+		return list.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	public static void main(String args[]) {
+		if (args.length < 1) {
+			System.err.println("Usage: SeriesExporter series_file [out=prefix] [frames=first:last:step] "
+					+ "[vars=var1,var2,...]");
+			System.exit(1);
+		}
+
+		String prefix = args[0];
+		int dot = prefix.lastIndexOf('.');
+		if (dot > Math.max(prefix.lastIndexOf('/'), prefix.lastIndexOf('\\')))
+			prefix = prefix.substring(0, dot);
+		String frame_spec = ":";
+		String vars = null;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].startsWith("out="))
+				prefix = args[i].substring(4);
+			else if (args[i].startsWith("frames="))
+				frame_spec = args[i].substring(7);
+			else if (args[i].startsWith("vars="))
+				vars = args[i].substring(5);
+			else {
+				System.err.println("Unrecognized argument " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		try (SeriesReader in = new SeriesReader(args[0])) {
+			SeriesExporter exporter = new SeriesExporter(in);
+			if (vars != null)
+				exporter.selectVariables(vars.split(","));
+			int count = exporter.export(prefix, parseFrames(frame_spec, in.getNumFrames()));
+			System.out.println("Exported " + count + " files from " + in.getNumFrames() + " frames");
+		} catch (IOException | IllegalArgumentException e) {
+			System.err.println("Export failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Reads files written by SeriesWriter. The file is memory mapped and blocks
+ * are returned as views of the mapping, so only the frames and variables that
+ * are accessed are paged in. Files larger than 2 GB are mapped one block at a
+ * time. If the footer is missing, the frame index is rebuilt by scanning the
+ * frames.
+ */
+public class SeriesReader implements AutoCloseable {
+
+	/** mesh stored in the file */
+	public static class MeshInfo {
+		public final String name;
+		public final int ni, nj;
+		long pos_offset; // node positions, 3*ni*nj Float64
+		long type_offset; // node types, ni*nj Int32
+
+		MeshInfo(String name, int ni, int nj) {
+			this.name = name;
+			this.ni = ni;
+			this.nj = nj;
+		}
+
+		/** @return number of values of a variable of the given kind */
+		public int size(byte kind) {
+			return kind == SeriesWriter.CELL ? (ni - 1) * (nj - 1) : ni * nj;
+		}
+	}
+
+	protected final FileChannel channel;
+	protected final long file_size;
+	protected ByteBuffer mapped; // entire file, null if too large
+
+	protected int value_bytes;
+	protected ArrayList<MeshInfo> meshes = new ArrayList<>();
+	protected ArrayList<String> var_names = new ArrayList<>();
+	protected ArrayList<Byte> var_kinds = new ArrayList<>();
+	protected ArrayList<int[]> vectors = new ArrayList<>();
+
+	/* frame index */
+	protected ArrayList<Integer> frame_it = new ArrayList<>();
+	protected ArrayList<Double> frame_time = new ArrayList<>();
+	protected ArrayList<long[]> frame_blocks = new ArrayList<>();
+
+	/**
+	 * @param file_name series file
+	 * @throws IOException if the file is not a valid series file
+	 */
+	public SeriesReader(String file_name) throws IOException {
+		channel = FileChannel.open(Paths.get(file_name), StandardOpenOption.READ);
+		file_size = channel.size();
+		try {
+			if (file_size <= Integer.MAX_VALUE)
+				mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, file_size);
+			long header_end = readHeader();
+			if (!readFooter())
+				scanFrames(header_end);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e instanceof IOException ? (IOException) e
+					: new IOException("Corrupted series file " + file_name + ": " + e);
+		}
+	}
+
+	/** @return len bytes starting at pos */
+	protected ByteBuffer map(long pos, long len) throws IOException {
+		if (pos < 0 || len < 0 || pos + len > file_size)
+			throw new IOException("Read past the end of the series file");
+		ByteBuffer bb;
+		if (mapped != null) {
+			bb = mapped.duplicate();
+			bb.position((int) pos);
+			bb.limit((int) (pos + len));
+			bb = bb.slice();
+		} else
+			bb = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+		bb.order(SeriesWriter.BYTE_ORDER);
+		return bb;
+	}
+
+	/* parses the header, returns position of the first frame */
+	protected long readHeader() throws IOException {
+		ByteBuffer bb = map(0, Math.min(file_size, Integer.MAX_VALUE));
+		if (bb.getInt() != SeriesWriter.MAGIC)
+			throw new IOException("Not a series file");
+		int version = bb.getInt();
+		if (version != SeriesWriter.VERSION)
+			throw new IOException("Unsupported series file version " + version);
+		value_bytes = bb.get();
+
+		int num_meshes = bb.getInt();
+		for (int m = 0; m < num_meshes; m++) {
+			MeshInfo mesh = new MeshInfo(getString(bb), bb.getInt(), bb.getInt());
+			mesh.pos_offset = bb.position();
+			mesh.type_offset = mesh.pos_offset + 3L * Double.BYTES * mesh.ni * mesh.nj;
+			bb.position((int) (mesh.type_offset + (long) Integer.BYTES * mesh.ni * mesh.nj));
+			meshes.add(mesh);
+		}
+
+		int num_vars = bb.getInt();
+		for (int v = 0; v < num_vars; v++) {
+			var_names.add(getString(bb));
+			var_kinds.add(bb.get());
+		}
+
+		int num_vectors = bb.getInt();
+		for (int v = 0; v < num_vectors; v++)
+			vectors.add(new int[] { bb.getInt(), bb.getInt() });
+
+		return bb.position();
+	}
+
+	static String getString(ByteBuffer bb) {
+		byte bytes[] = new byte[bb.getInt()];
+		bb.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/* reads the frame index, returns false if the file has no valid footer */
+	protected boolean readFooter() throws IOException {
+		int tail = Long.BYTES + Integer.BYTES;
+		if (file_size < tail)
+			return false;
+		ByteBuffer bb = map(file_size - tail, tail);
+		long footer_start = bb.getLong();
+		if (bb.getInt() != SeriesWriter.FOOTER_MAGIC || footer_start < 0 || footer_start > file_size - tail)
+			return false;
+
+		bb = map(footer_start, file_size - tail - footer_start);
+		if (bb.getInt() != SeriesWriter.FOOTER_MAGIC)
+			return false;
+		int num_frames = bb.getInt();
+		int num_blocks = meshes.size() * var_names.size();
+		for (int f = 0; f < num_frames; f++) {
+			frame_it.add(bb.getInt());
+			frame_time.add(bb.getDouble());
+			long blocks[] = new long[num_blocks];
+			for (int b = 0; b < num_blocks; b++)
+				blocks[b] = bb.getLong();
+			frame_blocks.add(blocks);
+		}
+		return true;
+	}
+
+	/* rebuilds the index of a file that was not closed */
+	protected void scanFrames(long pos) throws IOException {
+		long frame_size = 2 * Integer.BYTES + Double.BYTES;
+		for (MeshInfo mesh : meshes)
+			for (byte kind : var_kinds)
+				frame_size += (long) value_bytes * mesh.size(kind);
+
+		while (pos + frame_size <= file_size) {
+			ByteBuffer bb = map(pos, 2 * Integer.BYTES + Double.BYTES);
+			if (bb.getInt() != SeriesWriter.FRAME_MAGIC)
+				break;
+			frame_it.add(bb.getInt());
+			frame_time.add(bb.getDouble());
+
+			long blocks[] = new long[meshes.size() * var_names.size()];
+			long offset = pos + bb.capacity();
+			int b = 0;
+			for (MeshInfo mesh : meshes)
+				for (byte kind : var_kinds) {
+					blocks[b++] = offset;
+					offset += (long) value_bytes * mesh.size(kind);
+				}
+			frame_blocks.add(blocks);
+			pos += frame_size;
+		}
+	}
+
+	public int getNumFrames() {
+		return frame_it.size();
+	}
+
+	/** @return time step of frame f */
+	public int getIt(int f) {
+		return frame_it.get(f);
+	}
+
+	/** @return simulation time of frame f */
+	public double getTime(int f) {
+		return frame_time.get(f);
+	}
+
+	/** @return size of stored values, 4 for float and 8 for double */
+	public int getValueBytes() {
+		return value_bytes;
+	}
+
+	public ArrayList<MeshInfo> getMeshes() {
+		return meshes;
+	}
+
+	public ArrayList<String> getVariables() {
+		return var_names;
+	}
+
+	/** @return NODE, CELL, or COMPONENT */
+	public byte getKind(int var) {
+		return var_kinds.get(var);
+	}
+
+	/** @return pairs of variable indexes forming vectors */
+	public ArrayList<int[]> getVectors() {
+		return vectors;
+	}
+
+	/** @return index of variable var, node data first, or -1 if not stored */
+	public int findVariable(String var) {
+		int index = -1;
+		for (int v = var_names.size() - 1; v >= 0; v--)
+			if (var_names.get(v).equals(var) && (index < 0 || var_kinds.get(v) != SeriesWriter.CELL))
+				index = v;
+		return index;
+	}
+
+	/** @return node positions of mesh m, Float64 x,y,z ordered with i varying fastest */
+	public ByteBuffer getPositions(int m) throws IOException {
+		MeshInfo mesh = meshes.get(m);
+		return map(mesh.pos_offset, 3L * Double.BYTES * mesh.ni * mesh.nj);
+	}
+
+	/** @return node types of mesh m as Int32 */
+	public ByteBuffer getTypes(int m) throws IOException {
+		MeshInfo mesh = meshes.get(m);
+		return map(mesh.type_offset, (long) Integer.BYTES * mesh.ni * mesh.nj);
+	}
+
+	/** @return raw values of variable var on mesh m in frame f */
+	public ByteBuffer getBlock(int f, int m, int var) throws IOException {
+		long offset = frame_blocks.get(f)[m * var_names.size() + var];
+		return map(offset, (long) value_bytes * meshes.get(m).size(var_kinds.get(var)));
+	}
+
+	/** @return values of variable var on mesh m in frame f, i varying fastest */
+	public double[] getData(int f, int m, int var) throws IOException {
+		ByteBuffer bb = getBlock(f, m, var);
+		double data[] = new double[bb.remaining() / value_bytes];
+		if (value_bytes == Float.BYTES) {
+			for (int i = 0; i < data.length; i++)
+				data[i] = bb.getFloat();
+		} else
+			bb.asDoubleBuffer().get(data);
+		return data;
+	}
+
+	@Override
+	public void close() throws IOException {
+		mapped = null;
+		channel.close();
+	}
+}
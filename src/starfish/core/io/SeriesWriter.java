@@ -0,0 +1,293 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import org.w3c.dom.Element;
+import starfish.core.common.Starfish;
+import starfish.core.common.Starfish.Log;
+import starfish.core.diagnostics.ParticleTraceModule.ParticleTrace;
+import starfish.core.domain.Mesh;
+
+/**
+ * Saves field data of all frames of an animation to a single binary file.
+ * Mesh geometry is stored once in the header, each frame is then appended as
+ * one block of float or double values per mesh and variable. An index of all
+ * frames and block offsets is written as a footer when the writer is closed.
+ * The file is read by SeriesReader and converted to VTK by SeriesExporter.
+ *
+ * File layout (little endian):
+ *   header: magic, version, value size (4 or 8), meshes (name, ni, nj, node
+ *	  positions as Float64 x,y,z, node types as Int32), variables (name,
+ *	  kind), vectors (pairs of variable indexes)
+ *   frame:  frame magic, time step, time, blocks ordered by mesh and variable
+ *   footer: footer magic, number of frames, for each frame the time step,
+ *	  time and offsets of its blocks, followed by the footer offset and magic
+ *
+ * Frames have a fixed size, so a file without a footer, such as one left by an
+ * interrupted run, can still be read by scanning the frames.
+ */
+public class SeriesWriter extends Writer {
+	public static final int MAGIC = 0x53465453; // "SFTS"
+	public static final int VERSION = 1;
+	public static final int FRAME_MAGIC = 0x46524d45; // "FRME"
+	public static final int FOOTER_MAGIC = 0x58444e49; // "INDX"
+	public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	/* variable kinds */
+	public static final byte NODE = 0; // node data
+	public static final byte CELL = 1; // cell data
+	public static final byte COMPONENT = 2; // node data used only as a vector component
+
+	static final int BUFFER_SIZE = 4 << 20;
+
+	int value_bytes; // 4 for float, 8 for double
+	ArrayList<String> var_names = new ArrayList<>();
+	ArrayList<Byte> var_kinds = new ArrayList<>();
+
+	FileChannel channel;
+	ByteBuffer buffer;
+
+	/* index of written frames */
+	ArrayList<Integer> frame_it = new ArrayList<>();
+	ArrayList<Double> frame_time = new ArrayList<>();
+	ArrayList<long[]> frame_blocks = new ArrayList<>();
+
+	public SeriesWriter(Element element) {
+		super(element);
+		String precision = InputParser.getValue("precision", element, "double");
+		if (precision.equalsIgnoreCase("float"))
+			value_bytes = Float.BYTES;
+		else if (precision.equalsIgnoreCase("double"))
+			value_bytes = Double.BYTES;
+		else
+			Log.error("Unrecognized <precision>, expecting [FLOAT,DOUBLE]");
+	}
+
+	@Override
+	protected void init2D(String[] scalars, ArrayList<String[]> vectors, String[] cell_data, Element element) {
+		super.init2D(scalars, vectors, cell_data, element);
+
+		/* vector components are stored as separate variables */
+		for (String var : this.scalars)
+			addVar(var, NODE);
+		for (String var : this.cell_data)
+			addVar(var, CELL);
+		for (String[] pair : this.vectors) {
+			addVar(pair[0], COMPONENT);
+			addVar(pair[1], COMPONENT);
+		}
+	}
+
+	/* node and cell data with the same name are stored separately */
+	void addVar(String var, byte kind) {
+		if (indexOf(var, kind == CELL) < 0) {
+			var_names.add(var);
+			var_kinds.add(kind);
+		}
+	}
+
+	/** @return index of the node or cell variable var, -1 if not stored */
+	int indexOf(String var, boolean cell) {
+		for (int v = 0; v < var_names.size(); v++)
+			if (var_names.get(v).equals(var) && (var_kinds.get(v) == CELL) == cell)
+				return v;
+		return -1;
+	}
+
+	/** appends a frame, the file is created by the first write */
+	@Override
+	protected void write2D(boolean animation) {
+		try {
+			if (channel == null)
+				writeHeader();
+
+			ArrayList<Mesh> mesh_list = Starfish.getMeshList();
+			long blocks[] = new long[mesh_list.size() * var_names.size()];
+
+			ensure(Integer.BYTES * 2 + Double.BYTES);
+			buffer.putInt(FRAME_MAGIC);
+			buffer.putInt(getIt());
+			buffer.putDouble(getTime());
+
+			int b = 0;
+			for (Mesh mesh : mesh_list) {
+				for (int v = 0; v < var_names.size(); v++) {
+					blocks[b++] = position();
+					double data[][] = getField(mesh, var_names.get(v)).getData();
+					int ni = mesh.ni, nj = mesh.nj;
+					if (var_kinds.get(v) == CELL) {
+						ni--;
+						nj--;
+					}
+					for (int j = 0; j < nj; j++)
+						for (int i = 0; i < ni; i++)
+							putValue(data[i][j]);
+				}
+			}
+			flushBuffer();
+
+			frame_it.add(getIt());
+			frame_time.add(getTime());
+			frame_blocks.add(blocks);
+		} catch (IOException e) {
+			Log.error("Error writing " + file_name + ": " + e.getMessage());
+		}
+	}
+
+	/* creates the file and writes the geometry and variable list */
+	void writeHeader() throws IOException {
+		Path path = Paths.get(Starfish.options.wd + file_name);
+		if (path.getParent() != null)
+			Files.createDirectories(path.getParent());
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		buffer.order(BYTE_ORDER);
+
+		ensure(2 * Integer.BYTES + 1);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.put((byte) value_bytes);
+
+		ensure(Integer.BYTES);
+		buffer.putInt(Starfish.getMeshList().size());
+		for (Mesh mesh : Starfish.getMeshList()) {
+			putString(mesh.getName());
+			ensure(2 * Integer.BYTES);
+			buffer.putInt(mesh.ni);
+			buffer.putInt(mesh.nj);
+			for (int j = 0; j < mesh.nj; j++)
+				for (int i = 0; i < mesh.ni; i++) {
+					double x[] = mesh.pos(i, j);
+					ensure(3 * Double.BYTES);
+					buffer.putDouble(x[0]);
+					buffer.putDouble(x[1]);
+					buffer.putDouble(0);
+				}
+			for (int j = 0; j < mesh.nj; j++)
+				for (int i = 0; i < mesh.ni; i++) {
+					ensure(Integer.BYTES);
+					buffer.putInt(mesh.getNode(i, j).type.value());
+				}
+		}
+
+		ensure(Integer.BYTES);
+		buffer.putInt(var_names.size());
+		for (int v = 0; v < var_names.size(); v++) {
+			putString(var_names.get(v));
+			ensure(1);
+			buffer.put(var_kinds.get(v));
+		}
+
+		ensure(Integer.BYTES);
+		buffer.putInt(vectors.size());
+		for (String[] pair : vectors) {
+			ensure(2 * Integer.BYTES);
+			buffer.putInt(indexOf(pair[0], false));
+			buffer.putInt(indexOf(pair[1], false));
+		}
+		flushBuffer();
+	}
+
+	/** writes the frame index and closes the file */
+	@Override
+	public void close() {
+		if (channel == null)
+			return;
+		try {
+			long footer_start = position();
+			ensure(2 * Integer.BYTES);
+			buffer.putInt(FOOTER_MAGIC);
+			buffer.putInt(frame_it.size());
+			for (int f = 0; f < frame_it.size(); f++) {
+				ensure(Integer.BYTES + Double.BYTES);
+				buffer.putInt(frame_it.get(f));
+				buffer.putDouble(frame_time.get(f));
+				for (long offset : frame_blocks.get(f)) {
+					ensure(Long.BYTES);
+					buffer.putLong(offset);
+				}
+			}
+			ensure(Long.BYTES + Integer.BYTES);
+			buffer.putLong(footer_start);
+			buffer.putInt(FOOTER_MAGIC);
+			flushBuffer();
+			channel.close();
+		} catch (IOException e) {
+			Log.warning("Error closing " + file_name + ": " + e.getMessage());
+		}
+		channel = null;
+		buffer = null;
+	}
+
+	/* file position of the next byte */
+	long position() throws IOException {
+		return channel.position() + buffer.position();
+	}
+
+	void ensure(int n) throws IOException {
+		if (buffer.remaining() < n)
+			flushBuffer();
+	}
+
+	void flushBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	void putValue(double value) throws IOException {
+		ensure(value_bytes);
+		if (value_bytes == Float.BYTES)
+			buffer.putFloat((float) value);
+		else
+			buffer.putDouble(value);
+	}
+
+	void putString(String s) throws IOException {
+		byte bytes[] = s.getBytes(StandardCharsets.UTF_8);
+		ensure(Integer.BYTES + bytes.length);
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+
+	@Override
+	protected void write1D(boolean animation) {
+		Log.warning("1D output is not supported by the series format");
+	}
+
+	@Override
+	protected void write3D(boolean animation) {
+		Log.warning("3D output is not supported by the series format");
+	}
+
+	@Override
+	protected void writeBoundaries(boolean animation) {
+		Log.warning("Boundary output is not supported by the series format");
+	}
+
+	@Override
+	protected void writeParticles(boolean animation) {
+		Log.warning("Particle output is not supported by the series format");
+	}
+
+	@Override
+	public void writeTraces(ParticleTrace[] traces) {
+		Log.warning("Trace output is not supported by the series format");
+	}
+}
@@ -7,9 +7,10 @@
 
 package starfish.core.io;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.w3c.dom.Element;
@@ -20,11 +21,19 @@ import starfish.core.domain.FieldManager2D;
 import starfish.core.domain.Mesh;
 import starfish.core.domain.QuadrilateralMesh;
 import starfish.core.domain.UniformMesh;
-import starfish.core.domain.DomainModule.DomainType;
 
-/** reader for simple ASCII Tecplot(r) - formatted files*/
+/** reader for simple ASCII Tecplot(r) - formatted files
+ *
+ * The file is read with MappedTextReader. Unless cache="false" is set, the
+ * coordinates and variables read from the file are saved to file_name.cache
+ * and loaded from there on later runs as long as the size, modification time,
+ * and CRC32C of the source file and the list of variables are unchanged.
+ * Values are cached before the dimension and variable scaling is applied.
+ */
 public class TecplotReader extends Reader
 {
+    static final int CACHE_VERSION = 1;
+    static final int BUFFER_SIZE = 8<<20;
 
     /**
      *
@@ -34,69 +43,135 @@ public class TecplotReader extends Reader
     public TecplotReader(String file_name, Element element)
     {
     	super(element);
-    	
+
     	uniform = InputParser.getBoolean("uniform", element, false);	//if true, will create Cartesian mesh for faster interpolation
-    	
+    	use_cache = InputParser.getBoolean("cache", element, true);	//reuse parsed data saved by an earlier run
+
 		this.file_name = file_name;
-		try {
-		    sc = new Scanner(new FileInputStream(file_name));
-		} catch (FileNotFoundException ex) {
+		if (!Files.isReadable(Paths.get(file_name)))
 		    Log.error("file not found "+file_name);
-		}		
     }
-    
+
     /**
      *
      */
     protected String file_name;
 
-    /**
-     *
-     */
-    protected Scanner sc = null;
     boolean uniform;		//use uniform mesh for interpolation?
-			
+    boolean use_cache;		//load and save file_name.cache?
+
+    /*data of the last zone, before scaling*/
+    protected int ni, nj;
+    protected double IPOS[][];
+    protected double JPOS[][];
+    protected double FVAR[][][];
+
     @Override
     public void parse(String coord_vars[], String field_vars[])
+    {
+	Path path = Paths.get(file_name);
+	String cache_file = file_name+".cache";
+	long size=0, mtime=0;
+	try {
+	    size = Files.size(path);
+	    mtime = Files.getLastModifiedTime(path).toMillis();
+	} catch (IOException e) {
+	    Log.error("Error reading "+file_name+": "+e.getMessage());
+	}
+
+	if (use_cache && readCache(cache_file, size, mtime, coord_vars, field_vars))
+	    Log.log("Reading "+file_name+" from "+cache_file);
+	else
+	{
+	    Log.log("Reading "+file_name);
+	    try (MappedTextReader in = new MappedTextReader(file_name)) {
+		parseText(in, coord_vars, field_vars);
+	    } catch (IOException e) {
+		Log.error("Error reading "+file_name+": "+e.getMessage());
+	    }
+
+	    if (IPOS==null)
+		Log.error("No ZONE found in "+file_name);
+
+	    if (use_cache)
+		writeCache(cache_file, size, mtime, coord_vars, field_vars);
+	}
+
+	/*scale coordinates*/
+	for (int i=0;i<ni;i++)
+	    for (int j=0;j<nj;j++)
+	    {
+		IPOS[i][j] *= dim_scale;
+		JPOS[i][j] *= dim_scale;
+	    }
+
+	/*create a new mesh*/
+	int nn[] = {ni,nj};
+	Mesh mesh;
+	if (!uniform) mesh = new QuadrilateralMesh(nn,IPOS,JPOS,"TecplotReaderMesh",Starfish.domain_module.getDomainType());
+	else
+	{
+		double x0[] = {IPOS[0][0],JPOS[0][0]};
+		double dh[] = {IPOS[1][0]-x0[0],JPOS[0][1]-x0[1]};
+
+		mesh = new UniformMesh(nn, x0, dh, "TecplotReaderMesh", Starfish.domain_module.getDomainType());
+	}
+
+	/*presently supporting only one mesh*/
+	field_manager = new FieldManager2D(mesh);
+
+	for (int v=0;v<field_vars.length;v++)
+	{
+	    Field2D field = new Field2D(mesh,FVAR[v]);
+	    field.mult(var_scale);
+	    field_manager.add(field_vars[v],"",field,null);
+	}
+    }
+
+    /*parses the text file, data of the last zone is kept*/
+    protected void parseText(MappedTextReader in, String coord_vars[], String field_vars[]) throws IOException
     {
 	/*fields*/
 	int vi=-1,vj=-1;
 	int fv_index[] = new int[field_vars.length];
-		
+	int num_vars = 0;
+
 	/*init fv_index to -1*/
 	for (int i=0;i<fv_index.length;i++)
 	    fv_index[i]=-1;
-		
-	/*open file*/
-	Log.log("Reading "+file_name);
-		
-	/*look for VARIABLES line*/
-	while (sc.hasNextLine())
-	{	
-	    Scanner line_sc = new Scanner(sc.nextLine().trim());
-			
-	    String cmd = line_sc.next();
+
+	String line;
+	while ((line=in.readLine())!=null)
+	{
+	    line = line.trim();
+	    if (line.isEmpty()) continue;
+
+	    /*command is the first word, may be followed directly by =*/
+	    String cmd = line.split("[\\s=]",2)[0];
 	    if (cmd.equalsIgnoreCase("VARIABLES"))
 	    {
-		/*process variables*/
-		line_sc.findInLine("=");
-				
+		/*process variables, names may continue on the following lines*/
+		int eq = line.indexOf('=');
+		String names = eq>=0?line.substring(eq+1):line.substring(cmd.length());
+		while (in.skipSeparators()=='"')
+		    names += " "+in.readLine();
+
 		int var_index=0;
-				
+
 		/*this regex will match whole strings in quotations marks with spaces
 		* and space-separated strings not in quotes*/
 		String regex = "\"([^\"]*)\"|(\\S+)";
-		Matcher m = Pattern.compile(regex).matcher(line_sc.nextLine().trim());
-		while (m.find()) 
+		Matcher m = Pattern.compile(regex).matcher(names.trim());
+		while (m.find())
 		{
 		    String name;
-		    if (m.group(1) != null) 
+		    if (m.group(1) != null)
 			name = m.group(1);
 		    else
 			name = m.group(2);
 
 		    /*the regex also matches commas, ignore these*/
-		    if (name.charAt(0)==',')
+		    if (name.isEmpty() || name.charAt(0)==',')
 			continue;
 
 		    /*strip unit name*/
@@ -120,6 +195,7 @@ public class TecplotReader extends Reader
 		    /*increment variable index*/
 		    var_index++;
 		}
+		num_vars = var_index;
 
 		/*make sure we found all the variables*/
 		for (int i=0;i<fv_index.length;i++)
@@ -135,68 +211,155 @@ public class TecplotReader extends Reader
 		if (vi<0)
 		    Log.error("VARIABLES line not found prior to the first ZONE");
 
-		int ni, nj;
-
-		String buff = line_sc.findInLine("[Ii]=\\d*");
-		if (buff==null)
+		Matcher m = Pattern.compile("[Ii]=\\d*").matcher(line);
+		if (!m.find())
 		    Log.error("Failed to find I=...");
-		
-		ni = Integer.parseInt(buff.substring(2));
+		ni = Integer.parseInt(m.group().substring(2));
+		int i_end = m.end();
 
-		buff = line_sc.findInLine("[Jj]=\\d*");
-		if (buff==null)
-		    Log.error("Failed to find J=...");	
-		nj = Integer.parseInt(buff.substring(2));
+		m = Pattern.compile("[Jj]=\\d*").matcher(line);
+		if (!m.find(i_end))
+		    Log.error("Failed to find J=...");
+		nj = Integer.parseInt(m.group().substring(2));
 
 		Log.debug(String.format("ni=%d, nj=%d", ni,nj));
 
 		/*allocate variables*/
-		double IPOS[][] = new double[ni][nj];
-		double JPOS[][] = new double[ni][nj];
-		double FVAR[][][] = new double[fv_index.length][ni][nj];
+		IPOS = new double[ni][nj];
+		JPOS = new double[ni][nj];
+		FVAR = new double[fv_index.length][][];
+
+		/*destination of each column, null to skip*/
+		double dest[][][] = new double[num_vars][][];
+		dest[vi] = IPOS;
+		dest[vj] = JPOS;
+		for (int v=0;v<fv_index.length;v++)
+		{
+		    if (dest[fv_index[v]]==null)
+			dest[fv_index[v]] = new double[ni][nj];
+		    FVAR[v] = dest[fv_index[v]];
+		}
+
+		/*skip any remaining zone header lines*/
+		int c;
+		while ((c=in.skipSeparators())>=0 && !(c>='0' && c<='9') && c!='-' && c!='+' && c!='.')
+		    in.readLine();
 
 		/*start parsing the file*/
 		for (int j=0;j<nj;j++)
 		    for (int i=0;i<ni;i++)
-		    {
-			String pieces[] = sc.nextLine().trim().split("\\s+");
+			for (int k=0;k<num_vars;k++)
+			{
+			    if (dest[k]!=null) dest[k][i][j] = in.nextDouble();
+			    else in.skipToken();
+			}
 
-			IPOS[i][j] = Double.parseDouble(pieces[vi])*dim_scale;
-			JPOS[i][j] = Double.parseDouble(pieces[vj])*dim_scale;
+		/*a field read from a coordinate column, or from the same column as
+		an earlier field, gets its own copy so scaling one does not change the other*/
+		for (int v=0;v<FVAR.length;v++)
+		{
+		    boolean shared = FVAR[v]==IPOS || FVAR[v]==JPOS;
+		    for (int u=0;u<v && !shared;u++)
+			shared = FVAR[u]==FVAR[v];
+		    if (!shared) continue;
+		    double copy[][] = new double[ni][];
+		    for (int i=0;i<ni;i++)
+			copy[i] = FVAR[v][i].clone();
+		    FVAR[v] = copy;
+		}
+	    } /*ZONE*/
+	}
+    }
 
-			for (int v=0;v<fv_index.length;v++)
-			    FVAR[v][i][j] = Double.parseDouble(pieces[fv_index[v]])*var_scale;
-		    }
+    /*loads zone data saved by an earlier run, returns false if the cache is missing or stale*/
+    protected boolean readCache(String cache_file, long size, long mtime, String coord_vars[], String field_vars[])
+    {
+	if (!Files.exists(Paths.get(cache_file))) return false;
 
-		/*create a new mesh*/
-		int nn[] = {ni,nj};
-		Mesh mesh;
-		if (!uniform) mesh = new QuadrilateralMesh(nn,IPOS,JPOS,"TecplotReaderMesh",Starfish.domain_module.getDomainType());	
-		else 
-		{
-			double x0[] = {IPOS[0][0],JPOS[0][0]};
-			double dh[] = {IPOS[1][0]-x0[0],JPOS[0][1]-x0[1]};
+	try (CheckpointReader in = new CheckpointReader(cache_file, BUFFER_SIZE))
+	{
+	    in.openSection("source");
+	    if (in.getInt()!=CACHE_VERSION || in.getLong()!=size || in.getLong()!=mtime)
+		return false;
+	    long crc = in.getLong();
 
-			mesh = new UniformMesh(nn, x0, dh, "TecplotReaderMesh", Starfish.domain_module.getDomainType());
-		}
-		
-		/*presently supporting only one mesh*/
-		field_manager = new FieldManager2D(mesh);
+	    String vars[] = new String[coord_vars.length+field_vars.length];
+	    System.arraycopy(coord_vars, 0, vars, 0, coord_vars.length);
+	    System.arraycopy(field_vars, 0, vars, coord_vars.length, field_vars.length);
+	    if (in.getInt()!=vars.length) return false;
+	    for (String var:vars)
+		if (!in.getString().equalsIgnoreCase(var)) return false;
+	    in.closeSection();
 
-		for (int v=0;v<fv_index.length;v++)
-		    field_manager.add(field_vars[v],"",new Field2D(mesh,FVAR[v]),null);
-	    } /*ZONE*/
+	    try (MappedTextReader src = new MappedTextReader(file_name)) {
+		if (src.checksum()!=crc) return false;
+	    }
+
+	    in.openSection("zone");
+	    ni = in.getInt();
+	    nj = in.getInt();
+	    IPOS = new double[ni][nj];
+	    JPOS = new double[ni][nj];
+	    FVAR = new double[field_vars.length][ni][nj];
+	    for (int i=0;i<ni;i++) in.getDoubles(IPOS[i], 0, nj);
+	    for (int i=0;i<ni;i++) in.getDoubles(JPOS[i], 0, nj);
+	    for (int v=0;v<field_vars.length;v++)
+		for (int i=0;i<ni;i++) in.getDoubles(FVAR[v][i], 0, nj);
+	    in.closeSection();
+	    return true;
+	}
+	catch (IOException e)
+	{
+	    Log.warning("Ignoring "+cache_file+": "+e.getMessage());
+	    IPOS = null;
+	    JPOS = null;
+	    FVAR = null;
+	    return false;
+	}
+    }
+
+    /*saves the unscaled zone data, failures only disable the cache*/
+    protected void writeCache(String cache_file, long size, long mtime, String coord_vars[], String field_vars[])
+    {
+	try {
+	    long crc;
+	    try (MappedTextReader src = new MappedTextReader(file_name)) {
+		crc = src.checksum();
+	    }
+
+	    CheckpointWriter out = new CheckpointWriter(cache_file, CheckpointWriter.Codec.NONE, BUFFER_SIZE);
+	    try {
+		out.beginSection("source");
+		out.putInt(CACHE_VERSION);
+		out.putLong(size);
+		out.putLong(mtime);
+		out.putLong(crc);
+		out.putInt(coord_vars.length+field_vars.length);
+		for (String var:coord_vars) out.putString(var);
+		for (String var:field_vars) out.putString(var);
+
+		out.beginSection("zone");
+		out.putInt(ni);
+		out.putInt(nj);
+		for (int i=0;i<ni;i++) out.putDoubles(IPOS[i], 0, nj);
+		for (int i=0;i<ni;i++) out.putDoubles(JPOS[i], 0, nj);
+		for (int v=0;v<field_vars.length;v++)
+		    for (int i=0;i<ni;i++) out.putDoubles(FVAR[v][i], 0, nj);
+		out.close();
+	    } catch (IOException | RuntimeException e) {
+		out.abort();
+		throw e;
+	    }
+	} catch (IOException e) {
+	    Log.warning("Failed to write "+cache_file+": "+e.getMessage());
 	}
     }
-    
+
     static ReaderFactory tecplotReaderFactory = new ReaderFactory() {
 	@Override
 	public Reader makeReader(String file_name, Element element)
 	{
-	    return new TecplotReader(file_name,element); 
+	    return new TecplotReader(file_name,element);
 	}
     };
 }
-
-
-
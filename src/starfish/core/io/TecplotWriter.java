@@ -99,13 +99,13 @@ public class TecplotWriter extends Writer
 	for (int m=0;m<Starfish.getMeshList().size();m++)
 	{
 	    Mesh mesh=Starfish.getMeshList().get(m);
-	    pw.printf("ZONE T=\"%s\" I=%d J=%d SOLUTIONTIME=%d STRANDID=%d\n",mesh.getName(),mesh.ni,mesh.nj,Starfish.getIt(),m+1);
+	    pw.printf("ZONE T=\"%s\" I=%d J=%d SOLUTIONTIME=%d STRANDID=%d\n",mesh.getName(),mesh.ni,mesh.nj,getIt(),m+1);
         
 	    /*save fields*/
 	    ArrayList<Field2D> field = new ArrayList<Field2D>();
 	    for (int v=0;v<scalars.length;v++)
 	    {
-		field.add(Starfish.getField(mesh, scalars[v]));
+		field.add(getField(mesh, scalars[v]));
 	    }
 			
 	    int nv = field.size();
@@ -165,7 +165,7 @@ public class TecplotWriter extends Writer
 	    int nv=scalars.length;
 	    Field2D field[] = new Field2D[nv];
 	    for (int v=0;v<nv;v++)
-		field[v] = Starfish.domain_module.getField(output_mesh, scalars[v]);
+		field[v] = getField(output_mesh, scalars[v]);
 
 	    for (int j=jm;j<jp;j++)
 		for (int i=im;i<ip;i++)
@@ -227,7 +227,7 @@ public class TecplotWriter extends Writer
 	    Field1D field[] = new Field1D[scalars.length];
 	    for (int v=0;v<scalars.length;v++)
 	    {
-		field[v] = Starfish.boundary_module.getField(boundary, scalars[v]);	
+		field[v] = getField(boundary, scalars[v]);	
 		if (field[v]!=null) nv++;
 		else Log.warning("Skipping unknown variable "+scalars[v]);
 	    }
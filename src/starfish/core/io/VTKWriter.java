@@ -13,9 +13,13 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.zip.Deflater;
 import org.w3c.dom.Element;
 import starfish.core.boundaries.Boundary;
 import starfish.core.common.Starfish;
@@ -27,30 +31,43 @@ import starfish.core.materials.KineticMaterial;
 import starfish.core.materials.KineticMaterial.Particle;
 
 /** writer for ASCII VTK files */
-public class VTKWriter extends Writer {
+public class VTKWriter extends Writer implements Cloneable {
 
 	ByteOrder byte_order = ByteOrder.LITTLE_ENDIAN;
 
 	enum OutputFormat {
-		ASCII, BINARY, APPENDED
+		ASCII, BINARY, APPENDED, RAW_COMPRESSED
 	};
 
 	OutputFormat output_format;
 	ByteArrayOutputStream appended_data;
 	String endianess; // for .xml header
 
+	/* raw_compressed output, arrays are split into zlib compressed blocks that are
+	 * streamed to a spill file as they are generated and copied into the appended
+	 * section once the xml part is complete, so only one block is held in memory */
+	static final int BLOCK_SIZE = 1 << 15; // uncompressed block size, multiple of 8
+	String full_name; // path of the file being written
+	FileChannel spill_channel;
+	Deflater deflater;
+	byte block[];
+	byte zip_block[];
+	int compression_level;
+	HashSet<String> float32_vars = new HashSet<>(); // variables written in single precision
+	boolean float32_all = false;
+
 	public VTKWriter(Element element) {
 		super(element);
 		String output_type_name = InputParser.getValue("output_format", element, "binary");
 		try {
 			this.output_format = OutputFormat.valueOf(output_type_name.toUpperCase());
 		} catch (IllegalArgumentException e) {
-			Log.error("Unrecognized <output_type>, expecting [ASCII,BINARY,APPENDED]");
+			Log.error("Unrecognized <output_type>, expecting [ASCII,BINARY,APPENDED,RAW_COMPRESSED]");
 
 		}
 
 		endianess = "";
-		if (output_format == OutputFormat.BINARY) {
+		if (output_format == OutputFormat.BINARY || output_format == OutputFormat.RAW_COMPRESSED) {
 			endianess = " byte_order=\"";
 			if (byte_order == ByteOrder.BIG_ENDIAN)
 				endianess += "BigEndian";
@@ -58,6 +75,25 @@ public class VTKWriter extends Writer {
 				endianess += "LittleEndian";
 			endianess += "\"";
 		}
+
+		if (output_format == OutputFormat.RAW_COMPRESSED) {
+			endianess += " header_type=\"UInt64\" compressor=\"vtkZLibDataCompressor\"";
+			compression_level = InputParser.getInt("compression_level", element, Deflater.DEFAULT_COMPRESSION);
+
+			/* list of variables to down-convert to Float32, or "all" */
+			for (String var : InputParser.getList("float32", element)) {
+				if (var.equalsIgnoreCase("all"))
+					float32_all = true;
+				else
+					float32_vars.add(var);
+			}
+		}
+	}
+
+	@Override
+	protected PrintWriter open(String file_name) {
+		full_name = Starfish.options.wd + file_name;
+		return super.open(file_name);
 	}
 
 	/** writes 3D data (2D data rotated to 3D) */
@@ -68,6 +104,7 @@ public class VTKWriter extends Writer {
 
 		String format_name = output_type.name().toLowerCase();
 
+		ArrayList<Runnable> pieces = new ArrayList<>();
 		int part = 0;
 		for (Mesh mesh : Starfish.getMeshList()) {
 			// split out extension from the file name
@@ -75,165 +112,171 @@ public class VTKWriter extends Writer {
 			String substr[] = splitFileName(file_name);
 			String name = substr[0] + "_" + mesh.getName();
 			if (animation)
-				name += String.format("_%06d", Starfish.getIt());
+				name += String.format("_%06d", getIt());
 			name += substr[1];
 
 			// add to collection but remove path since relative to pvd file
 			substr = splitFileName(name);
 			// collection.add(new CollectionData(time_step,part,substr[3]+substr[1]));
-			collection.add(new CollectionData(Starfish.getIt(), part, substr[3] + substr[1]));
+			collection.add(new CollectionData(getIt(), part, substr[3] + substr[1]));
 
-			PrintWriter pw = open(name);
-			appended_data = new ByteArrayOutputStream();
-
-			pw.println("<?xml version=\"1.0\"?>");
+			final String piece_name = name;
+			pieces.add(() -> newPiece().write3D(mesh, piece_name));
+			part++;
+		}
+		writePieces(pieces);
 
-			pw.println("<VTKFile type=\"UnstructuredGrid\"" + endianess + ">");
-			pw.println("<UnstructuredGrid>");
-			pw.printf("<Piece NumberOfPoints=\"%d\" NumberOfCells=\"%d\">\n", mesh.n_nodes * (resolution),
-					mesh.n_cells * (resolution - 1));
+		/* write the collection file */
+		writeCollection(animation);
 
-			pw.println("<Points>");
+	}
 
-			double pos[] = new double[mesh.ni * mesh.nj * resolution];
-			int a = 0;
+	/** writes the revolved data of a single mesh */
+	protected void write3D(Mesh mesh, String name) {
+		PrintWriter pw = open(name);
+		appended_data = new ByteArrayOutputStream();
 
-			for (int k = 0; k < resolution; k++) {
-				// first and last slice is duplicated to simplify cell writing, hopefully
-				// Paraview can deal with this fine
-				double theta = k * 2 * Math.PI / (resolution - 1);
-				for (int i = 0; i < mesh.ni; i++)
-					for (int j = 0; j < mesh.nj; j++) {
-						double x[] = mesh.pos(i, j);
-						if (Starfish.getDomainType() == DomainType.RZ) {
-							pos[a++] = Math.cos(theta) * x[0];
-							pos[a++] = x[1];
-							pos[a++] = Math.sin(theta) * x[0];
-						} else {
-							pos[a++] = x[0];
-							pos[a++] = Math.cos(theta) * x[1];
-							pos[a++] = Math.sin(theta) * x[1];
-						}
-						pw.println();
-					}
-			}
-			outputDataArrayVec(pw, "pos", pos);
+		pw.println("<?xml version=\"1.0\"?>");
 
-			// these get written out as ASCII for now
-			pw.println("<Cells>");
+		pw.println("<VTKFile type=\"UnstructuredGrid\"" + endianess + ">");
+		pw.println("<UnstructuredGrid>");
+		pw.printf("<Piece NumberOfPoints=\"%d\" NumberOfCells=\"%d\">\n", mesh.n_nodes * (resolution),
+				mesh.n_cells * (resolution - 1));
 
-			int con[] = new int[8 * (mesh.ni - 1) * (mesh.nj - 1) * (resolution - 1)];
-			a = 0;
-			for (int m = 0; m < resolution - 1; m++) {
-				for (int j = 0; j < mesh.nj - 1; j++)
-					for (int i = 0; i < mesh.ni - 1; i++) {
-						int d1 = m * mesh.n_nodes;
-						int d2 = (m + 1) * mesh.n_nodes;
-						con[a++] = d1 + mesh.IJtoN(i, j);
-						con[a++] = d1 + mesh.IJtoN(i + 1, j);
-						con[a++] = d1 + mesh.IJtoN(i + 1, j + 1);
-						con[a++] = d1 + mesh.IJtoN(i, j + 1);
-						con[a++] = d2 + mesh.IJtoN(i, j);
-						con[a++] = d2 + mesh.IJtoN(i + 1, j);
-						con[a++] = d2 + mesh.IJtoN(i + 1, j + 1);
-						con[a++] = d2 + mesh.IJtoN(i, j + 1);
-					}
-			}
-			outputDataArrayScalar(pw, "connectivity", con);
+		pw.println("<Points>");
 
-			int offsets[] = new int[(resolution - 1) * mesh.n_cells];
-			for (int c = 0; c < (resolution - 1) * mesh.n_cells; c++)
-				offsets[c] = (c + 1) * 8;
-			outputDataArrayScalar(pw, "offsets", offsets);
+		double pos[] = new double[mesh.ni * mesh.nj * resolution];
+		int a = 0;
 
-			int types[] = new int[(resolution - 1) * mesh.n_cells];
-			for (int c = 0; c < (resolution - 1) * mesh.n_cells; c++)
-				types[c] = 12; // VTK_HEXAHEDRON
-			outputDataArrayScalar(pw, "types", types);
+		for (int k = 0; k < resolution; k++) {
+			// first and last slice is duplicated to simplify cell writing, hopefully
+			// Paraview can deal with this fine
+			double theta = k * 2 * Math.PI / (resolution - 1);
+			for (int i = 0; i < mesh.ni; i++)
+				for (int j = 0; j < mesh.nj; j++) {
+					double x[] = mesh.pos(i, j);
+					if (Starfish.getDomainType() == DomainType.RZ) {
+						pos[a++] = Math.cos(theta) * x[0];
+						pos[a++] = x[1];
+						pos[a++] = Math.sin(theta) * x[0];
+					} else {
+						pos[a++] = x[0];
+						pos[a++] = Math.cos(theta) * x[1];
+						pos[a++] = Math.sin(theta) * x[1];
+					}
+					pw.println();
+				}
+		}
+		outputDataArrayVec(pw, "pos", pos);
 
-			pw.println("</Cells>");
+		// these get written out as ASCII for now
+		pw.println("<Cells>");
 
-			/*
-			 * hard coded for now until I get some more robust way to output cell and vector
-			 * data
-			 */
-			pw.println("<CellData>");
+		int con[] = new int[8 * (mesh.ni - 1) * (mesh.nj - 1) * (resolution - 1)];
+		a = 0;
+		for (int m = 0; m < resolution - 1; m++) {
+			for (int j = 0; j < mesh.nj - 1; j++)
+				for (int i = 0; i < mesh.ni - 1; i++) {
+					int d1 = m * mesh.n_nodes;
+					int d2 = (m + 1) * mesh.n_nodes;
+					con[a++] = d1 + mesh.IJtoN(i, j);
+					con[a++] = d1 + mesh.IJtoN(i + 1, j);
+					con[a++] = d1 + mesh.IJtoN(i + 1, j + 1);
+					con[a++] = d1 + mesh.IJtoN(i, j + 1);
+					con[a++] = d2 + mesh.IJtoN(i, j);
+					con[a++] = d2 + mesh.IJtoN(i + 1, j);
+					con[a++] = d2 + mesh.IJtoN(i + 1, j + 1);
+					con[a++] = d2 + mesh.IJtoN(i, j + 1);
+				}
+		}
+		outputDataArrayScalar(pw, "connectivity", con);
 
-			for (String var : cell_data) {
-				double data[][] = Starfish.domain_module.getField(mesh, var).getData();
+		int offsets[] = new int[(resolution - 1) * mesh.n_cells];
+		for (int c = 0; c < (resolution - 1) * mesh.n_cells; c++)
+			offsets[c] = (c + 1) * 8;
+		outputDataArrayScalar(pw, "offsets", offsets);
 
-				double data3c[] = new double[(resolution - 1) * (mesh.nj - 1) * (mesh.ni - 1)];
+		int types[] = new int[(resolution - 1) * mesh.n_cells];
+		for (int c = 0; c < (resolution - 1) * mesh.n_cells; c++)
+			types[c] = 12; // VTK_HEXAHEDRON
+		outputDataArrayScalar(pw, "types", types);
 
-				for (int m = 0; m < resolution - 1; m++)
-					for (int j = 0; j < mesh.nj - 1; j++)
-						for (int i = 0; i < mesh.ni - 1; i++)
-							data3c[a++] = data[i][j];
+		pw.println("</Cells>");
 
-				outputDataArrayScalar(pw, var, data3c);
-			}
-			pw.println("</CellData>");
+		/*
+		 * hard coded for now until I get some more robust way to output cell and vector
+		 * data
+		 */
+		pw.println("<CellData>");
 
-			// ***********
-			pw.println("<PointData>");
+		for (String var : cell_data) {
+			double data[][] = getField(mesh, var).getData();
 
-			int data3i[] = new int[mesh.ni * mesh.nj * resolution];
-			a = 0;
-			for (int m = 0; m < resolution; m++)
-				for (int j = 0; j < mesh.nj; j++)
-					for (int i = 0; i < mesh.ni; i++)
-						data3i[a++] = mesh.getNode(i, j).type.value();
-			outputDataArrayScalar(pw, "type", data3i);
+			double data3c[] = new double[(resolution - 1) * (mesh.nj - 1) * (mesh.ni - 1)];
 
-			for (String var : scalars) {
-				/* make sure we have this variable */
-				// if (!Starfish.output_module.validateVar(var)) continue;
-				double data[][] = Starfish.domain_module.getField(mesh, var).getData();
+			for (int m = 0; m < resolution - 1; m++)
+				for (int j = 0; j < mesh.nj - 1; j++)
+					for (int i = 0; i < mesh.ni - 1; i++)
+						data3c[a++] = data[i][j];
 
-				double data3[] = new double[mesh.ni * mesh.nj * resolution];
-				a = 0;
+			outputDataArrayScalar(pw, var, data3c);
+		}
+		pw.println("</CellData>");
 
-				for (int m = 0; m < resolution; m++)
-					for (int j = 0; j < mesh.nj; j++)
-						for (int i = 0; i < mesh.ni; i++)
-							data3[a++] = data[i][j];
+		// ***********
+		pw.println("<PointData>");
 
-				outputDataArrayScalar(pw, var, data3);
-			}
+		int data3i[] = new int[mesh.ni * mesh.nj * resolution];
+		a = 0;
+		for (int m = 0; m < resolution; m++)
+			for (int j = 0; j < mesh.nj; j++)
+				for (int i = 0; i < mesh.ni; i++)
+					data3i[a++] = mesh.getNode(i, j).type.value();
+		outputDataArrayScalar(pw, "type", data3i);
 
-			for (String[] vars : vectors) {
-				/* make sure we have this variable */
-				// if (!Starfish.output_module.validateVar(var)) continue;
-				double data1[][] = Starfish.domain_module.getField(mesh, vars[0]).getData();
-				double data2[][] = Starfish.domain_module.getField(mesh, vars[1]).getData();
-				double vec3[] = new double[mesh.ni * mesh.nj * resolution * 3];
-				a = 0;
+		for (String var : scalars) {
+			/* make sure we have this variable */
+			// if (!Starfish.output_module.validateVar(var)) continue;
+			double data[][] = getField(mesh, var).getData();
 
-				for (int m = 0; m < resolution; m++)
-					for (int j = 0; j < mesh.nj; j++)
-						for (int i = 0; i < mesh.ni; i++) {
-							vec3[a++] = data1[i][j];
-							vec3[a++] = data2[i][j];
-							vec3[a++] = 0;
-						}
-				outputDataArrayVec(pw, "" + vars[0] + "_" + vars[1] + "", vec3);
-			}
+			double data3[] = new double[mesh.ni * mesh.nj * resolution];
+			a = 0;
 
-			pw.println("</PointData>");
+			for (int m = 0; m < resolution; m++)
+				for (int j = 0; j < mesh.nj; j++)
+					for (int i = 0; i < mesh.ni; i++)
+						data3[a++] = data[i][j];
 
-			pw.println("</Piece>");
+			outputDataArrayScalar(pw, var, data3);
+		}
 
-			pw.println("</UnstructuredGrid>");
-			outputAppendedData(pw);
-			pw.println("</VTKFile>");
-			/* save output file */
-			pw.close();
+		for (String[] vars : vectors) {
+			/* make sure we have this variable */
+			// if (!Starfish.output_module.validateVar(var)) continue;
+			double data1[][] = getField(mesh, vars[0]).getData();
+			double data2[][] = getField(mesh, vars[1]).getData();
+			double vec3[] = new double[mesh.ni * mesh.nj * resolution * 3];
+			a = 0;
 
-			part++;
+			for (int m = 0; m < resolution; m++)
+				for (int j = 0; j < mesh.nj; j++)
+					for (int i = 0; i < mesh.ni; i++) {
+						vec3[a++] = data1[i][j];
+						vec3[a++] = data2[i][j];
+						vec3[a++] = 0;
+					}
+			outputDataArrayVec(pw, "" + vars[0] + "_" + vars[1] + "", vec3);
 		}
 
-		/* write the collection file */
-		writeCollection(animation);
+		pw.println("</PointData>");
+
+		pw.println("</Piece>");
 
+		pw.println("</UnstructuredGrid>");
+		outputAppendedData(pw);
+		pw.println("</VTKFile>");
+		/* save output file */
+		pw.close();
 	}
 
 	protected enum VTK_Type {
@@ -248,6 +291,7 @@ public class VTKWriter extends Writer {
 	@Override
 	public void write2D(boolean animation) {
 
+		ArrayList<Runnable> pieces = new ArrayList<>();
 		int part = 0;
 
 		for (Mesh mesh : Starfish.getMeshList()) {
@@ -256,7 +300,7 @@ public class VTKWriter extends Writer {
 			String substr[] = splitFileName(file_name);
 			String name = substr[0] + "_" + mesh.getName();
 			if (animation)
-				name += String.format("_%06d", Starfish.getIt());
+				name += String.format("_%06d", getIt());
 			name += substr[1];
 
 			VTK_Type vtk_type;
@@ -273,128 +317,166 @@ public class VTKWriter extends Writer {
 			// add to collection but remove path since relative to pvd file
 			substr = splitFileName(name);
 			// collection.add(new CollectionData(time_step,part,substr[3]+substr[1]));
-			collection.add(new CollectionData(Starfish.getIt(), part, substr[3] + substr[1]));
+			collection.add(new CollectionData(getIt(), part, substr[3] + substr[1]));
 
-			PrintWriter pw = open(name);
+			final String piece_name = name;
+			final VTK_Type piece_type = vtk_type;
+			pieces.add(() -> newPiece().write2D(mesh, piece_name, piece_type));
+			part++;
+		}
+		writePieces(pieces);
 
-			appended_data = new ByteArrayOutputStream();
+		/* write the collection file */
+		writeCollection(animation);
+	}
 
-			pw.println("<?xml version=\"1.0\"?>");
+	/** writes data of a single mesh */
+	protected void write2D(Mesh mesh, String name, VTK_Type vtk_type) {
+		PrintWriter pw = open(name);
 
-			String close_tag = "";
-
-			if (vtk_type == VTK_Type.STRUCT) {
-				pw.println("<VTKFile type=\"StructuredGrid\"" + endianess + ">");
-				pw.printf("<StructuredGrid WholeExtent=\"0 %d 0 %d 0 0\">\n", mesh.ni - 1, mesh.nj - 1);
-				pw.printf("<Piece Extent=\"0 %d 0 %d 0 0\">\n", mesh.ni - 1, mesh.nj - 1);
-				close_tag = "</StructuredGrid>";
-			} else if (vtk_type == VTK_Type.RECT) {
-				pw.println("<VTKFile type=\"RectilinearGrid\"" + endianess + ">");
-				pw.printf("<RectilinearGrid WholeExtent=\"0 %d 0 %d 0 0\">\n", mesh.ni - 1, mesh.nj - 1);
-				pw.printf("<Piece Extent=\"0 %d 0 %d 0 0\">\n", mesh.ni - 1, mesh.nj - 1);
-				close_tag = "</RectilinearGrid>";
-			}
+		appended_data = new ByteArrayOutputStream();
 
-			int a = 0;
+		pw.println("<?xml version=\"1.0\"?>");
 
-			if (vtk_type == VTK_Type.STRUCT) {
-				pw.println("<Points>");
+		String close_tag = "";
 
-				double pos[] = new double[mesh.ni * mesh.nj * 3];
-				a = 0;
-				for (int j = 0; j < mesh.nj; j++)
-					for (int i = 0; i < mesh.ni; i++) {
-						double x[] = mesh.pos(i, j);
-						pos[a++] = x[0];
-						pos[a++] = x[1];
-						pos[a++] = 0;
-					}
-				outputDataArrayVec(pw, "pos", pos);
-				pw.println("</Points>");
-			} else if (vtk_type == VTK_Type.RECT) {
-				pw.println("<Coordinates>");
-				double pos_x[] = new double[mesh.ni];
-				double pos_y[] = new double[mesh.nj];
-				double pos_z[] = new double[1];
-				for (int i = 0; i < mesh.ni; i++)
-					pos_x[i] = mesh.pos1(i, 0);
-				for (int j = 0; j < mesh.nj; j++)
-					pos_y[j] = mesh.pos1(j, 0);
-				pos_z[0] = 0;
-				outputDataArrayScalar(pw, "x", pos_x);
-				outputDataArrayScalar(pw, "y", pos_y);
-				outputDataArrayScalar(pw, "z", pos_z);
-				pw.println("</Coordinates>");
-			}
+		if (vtk_type == VTK_Type.STRUCT) {
+			pw.println("<VTKFile type=\"StructuredGrid\"" + endianess + ">");
+			pw.printf("<StructuredGrid WholeExtent=\"0 %d 0 %d 0 0\">\n", mesh.ni - 1, mesh.nj - 1);
+			pw.printf("<Piece Extent=\"0 %d 0 %d 0 0\">\n", mesh.ni - 1, mesh.nj - 1);
+			close_tag = "</StructuredGrid>";
+		} else if (vtk_type == VTK_Type.RECT) {
+			pw.println("<VTKFile type=\"RectilinearGrid\"" + endianess + ">");
+			pw.printf("<RectilinearGrid WholeExtent=\"0 %d 0 %d 0 0\">\n", mesh.ni - 1, mesh.nj - 1);
+			pw.printf("<Piece Extent=\"0 %d 0 %d 0 0\">\n", mesh.ni - 1, mesh.nj - 1);
+			close_tag = "</RectilinearGrid>";
+		}
 
-			/*
-			 * hard coded for now until I get some more robust way to output cell and vector
-			 * data
-			 */
-			pw.println("<CellData>");
+		int a = 0;
 
-			for (String var : cell_data) {
-				double data[][] = Starfish.domain_module.getField(mesh, var).getData();
-				double data_c[] = new double[(mesh.nj - 1) * (mesh.ni - 1)];
-				a = 0;
-				for (int j = 0; j < mesh.nj - 1; j++)
-					for (int i = 0; i < mesh.ni - 1; i++)
-						data_c[a++] = data[i][j];
-				outputDataArrayScalar(pw, var, data_c);
-			}
-			pw.println("</CellData>");
+		if (vtk_type == VTK_Type.STRUCT) {
+			pw.println("<Points>");
 
-			pw.println("<PointData>");
-			int type[] = new int[mesh.ni * mesh.nj];
+			double pos[] = new double[mesh.ni * mesh.nj * 3];
 			a = 0;
+			for (int j = 0; j < mesh.nj; j++)
+				for (int i = 0; i < mesh.ni; i++) {
+					double x[] = mesh.pos(i, j);
+					pos[a++] = x[0];
+					pos[a++] = x[1];
+					pos[a++] = 0;
+				}
+			outputDataArrayVec(pw, "pos", pos);
+			pw.println("</Points>");
+		} else if (vtk_type == VTK_Type.RECT) {
+			pw.println("<Coordinates>");
+			double pos_x[] = new double[mesh.ni];
+			double pos_y[] = new double[mesh.nj];
+			double pos_z[] = new double[1];
+			for (int i = 0; i < mesh.ni; i++)
+				pos_x[i] = mesh.pos1(i, 0);
+			for (int j = 0; j < mesh.nj; j++)
+				pos_y[j] = mesh.pos1(j, 0);
+			pos_z[0] = 0;
+			outputDataArrayScalar(pw, "x", pos_x);
+			outputDataArrayScalar(pw, "y", pos_y);
+			outputDataArrayScalar(pw, "z", pos_z);
+			pw.println("</Coordinates>");
+		}
+
+		/*
+		 * hard coded for now until I get some more robust way to output cell and vector
+		 * data
+		 */
+		pw.println("<CellData>");
+
+		for (String var : cell_data) {
+			double data[][] = getField(mesh, var).getData();
+			double data_c[] = new double[(mesh.nj - 1) * (mesh.ni - 1)];
+			a = 0;
+			for (int j = 0; j < mesh.nj - 1; j++)
+				for (int i = 0; i < mesh.ni - 1; i++)
+					data_c[a++] = data[i][j];
+			outputDataArrayScalar(pw, var, data_c);
+		}
+		pw.println("</CellData>");
+
+		pw.println("<PointData>");
+		int type[] = new int[mesh.ni * mesh.nj];
+		a = 0;
+		for (int j = 0; j < mesh.nj; j++)
+			for (int i = 0; i < mesh.ni; i++)
+				type[a++] = mesh.getNode(i, j).type.value();
+		outputDataArrayScalar(pw, "type", type);
+
+		for (String var : scalars) {
+			/* make sure we have this variable */
+			double data3[] = new double[mesh.ni * mesh.nj];
+			a = 0;
+			double data[][] = getField(mesh, var).getData();
 			for (int j = 0; j < mesh.nj; j++)
 				for (int i = 0; i < mesh.ni; i++)
-					type[a++] = mesh.getNode(i, j).type.value();
-			outputDataArrayScalar(pw, "type", type);
+					data3[a++] = data[i][j];
+			outputDataArrayScalar(pw, var, data3);
+		}
 
-			for (String var : scalars) {
-				/* make sure we have this variable */
-				double data3[] = new double[mesh.ni * mesh.nj];
-				a = 0;
-				double data[][] = Starfish.domain_module.getField(mesh, var).getData();
-				for (int j = 0; j < mesh.nj; j++)
-					for (int i = 0; i < mesh.ni; i++)
-						data3[a++] = data[i][j];
-				outputDataArrayScalar(pw, var, data3);
-			}
+		for (String[] vars : vectors) {
+			double data1[][] = getField(mesh, vars[0]).getData();
+			double data2[][] = getField(mesh, vars[1]).getData();
+			double vec[] = new double[mesh.ni * mesh.nj * 3];
+			a = 0;
+			for (int j = 0; j < mesh.nj; j++)
+				for (int i = 0; i < mesh.ni; i++) {
+					vec[a++] = data1[i][j];
+					vec[a++] = data2[i][j];
+					vec[a++] = 0;
+				}
 
-			for (String[] vars : vectors) {
-				double data1[][] = Starfish.domain_module.getField(mesh, vars[0]).getData();
-				double data2[][] = Starfish.domain_module.getField(mesh, vars[1]).getData();
-				double vec[] = new double[mesh.ni * mesh.nj * 3];
-				a = 0;
-				for (int j = 0; j < mesh.nj; j++)
-					for (int i = 0; i < mesh.ni; i++) {
-						vec[a++] = data1[i][j];
-						vec[a++] = data2[i][j];
-						vec[a++] = 0;
-					}
+			outputDataArrayVec(pw, "" + vars[0] + "_" + vars[1] + "", vec);
+		}
 
-				outputDataArrayVec(pw, "" + vars[0] + "_" + vars[1] + "", vec);
-			}
+		pw.println("</PointData>");
 
-			pw.println("</PointData>");
+		pw.println("</Piece>");
 
-			pw.println("</Piece>");
+		pw.println(close_tag);
 
-			pw.println(close_tag);
+		outputAppendedData(pw);
 
-			outputAppendedData(pw);
+		pw.println("</VTKFile>");
+		/* save output file */
+		pw.close();
+	}
 
-			pw.println("</VTKFile>");
-			/* save output file */
-			pw.close();
+	/**
+	 * Writes the per-mesh files, concurrently if the output service has more than
+	 * one I/O thread. Each file is written by its own copy of this writer so the
+	 * output is identical to writing the meshes in order.
+	 */
+	protected void writePieces(ArrayList<Runnable> pieces) {
+		OutputService service = getService();
+		if (service != null)
+			service.writeAll(pieces);
+		else
+			for (Runnable piece : pieces)
+				piece.run();
+	}
 
-			part++;
+	/** @return copy of this writer with its own per-file state */
+	protected VTKWriter newPiece() {
+		try {
+			VTKWriter piece = (VTKWriter) clone();
+			piece.output_stream = null;
+			piece.appended_data = null;
+			piece.full_name = null;
+			piece.spill_channel = null;
+			piece.deflater = null;
+			piece.block = null;
+			piece.zip_block = null;
+			return piece;
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
 		}
-
-		/* write the collection file */
-		writeCollection(animation);
 	}
 
 	/* colletor for generated files to add to collection */
@@ -461,7 +543,7 @@ public class VTKWriter extends Writer {
 		if (file_name_1d == null || !animation || (animation && time_data_current_line == 0)) {
 			String substr[] = splitFileName(file_name);
 			file_name_1d = substr[0];
-			time_data_it0 = Starfish.getIt();
+			time_data_it0 = getIt();
 			if (animation)
 				file_name_1d += String.format("_%06d", time_data_it0);
 			file_name_1d += substr[1];
@@ -615,7 +697,7 @@ public class VTKWriter extends Writer {
 		int var = 0;
 
 		double line[][] = time_data[l];
-		time_data_time[l] = Starfish.time_module.getTime();
+		time_data_time[l] = getTime();
 		/* fill future time with our best estimate */
 		if (l > 1) {
 			double dt = time_data_time[l] - time_data_time[l - 1];
@@ -624,7 +706,7 @@ public class VTKWriter extends Writer {
 		}
 
 		for (String var_name : cell_data) {
-			double data[][] = Starfish.domain_module.getField(mesh, var_name).getData();
+			double data[][] = getField(mesh, var_name).getData();
 
 			if (dim == Dim.I) {
 				for (int j = 0; j < mesh.nj - 1; j++) {
@@ -656,7 +738,7 @@ public class VTKWriter extends Writer {
 		/* point data */
 		for (String var_name : scalars) {
 			/* make sure we have this variable */
-			double data[][] = Starfish.domain_module.getField(mesh, var_name).getData();
+			double data[][] = getField(mesh, var_name).getData();
 			if (dim == Dim.I) {
 				for (int j = 0; j < mesh.nj; j++) {
 					double val = data[index][j];
@@ -686,8 +768,8 @@ public class VTKWriter extends Writer {
 
 		for (String[] vars : vectors) {
 			/* make sure we have this variable */
-			double data1[][] = Starfish.domain_module.getField(mesh, vars[0]).getData();
-			double data2[][] = Starfish.domain_module.getField(mesh, vars[1]).getData();
+			double data1[][] = getField(mesh, vars[0]).getData();
+			double data2[][] = getField(mesh, vars[1]).getData();
 
 			if (dim == Dim.I) {
 				for (int j = 0; j < mesh.nj; j++) {
@@ -839,7 +921,7 @@ public class VTKWriter extends Writer {
 			a = 0;
 
 			for (Boundary boundary : bl) {
-				double bdata[] = Starfish.boundary_module.getField(boundary, var).getData();
+				double bdata[] = getField(boundary, var).getData();
 				for (int i = 0; i < boundary.numPoints(); i++)
 					data[a++] = bdata[i];
 			}
@@ -863,27 +945,19 @@ public class VTKWriter extends Writer {
 	 */
 	@Override
 	protected void writeParticles(boolean animation) {
-		ArrayList<Particle> parts = new ArrayList();
 		KineticMaterial mat = Starfish.getKineticMaterial(mat_name);
 		if (mat == null) {
 			Log.warning("Material " + mat_name + " is not a kinetic material");
 			return;
 		}
 
-		double prob = (double) particle_count / mat.getNp();
-		for (Mesh mesh : Starfish.getMeshList()) {
-			Iterator<Particle> it = mat.getIterator(mesh);
-			while (it.hasNext()) {
-				Particle part = it.next();
-				if (prob >= 1.0 || Starfish.rnd() < prob)
-					parts.add(part);
-			}
-		}
+		/* single pass over the particles, fills the output columns */
+		sampler.sample(mat);
 
 		String substr[] = splitFileName(file_name);
 		String name = substr[0];
 		if (animation)
-			name += String.format("_%06d", Starfish.getIt());
+			name += String.format("_%06d", getIt());
 		name += substr[1];
 		PrintWriter pw = open(name);
 		appended_data = new ByteArrayOutputStream();
@@ -892,60 +966,16 @@ public class VTKWriter extends Writer {
 		pw.println("<VTKFile type=\"PolyData\"" + endianess + ">");
 		pw.println("<PolyData>");
 		pw.printf("<Piece NumberOfPoints=\"%d\" NumberOfVerts=\"0\" "
-				+ "NumberOfLines=\"0\" NumberOfStrips=\"0\" NumberOfPolys=\"0\">\n", parts.size());
+				+ "NumberOfLines=\"0\" NumberOfStrips=\"0\" NumberOfPolys=\"0\">\n", sampler.size);
 
 		pw.println("<Points>");
-		double vec[] = new double[parts.size() * 3];
-		int a = 0;
-
-		for (int i = 0; i < parts.size(); i++) {
-			Particle part = parts.get(i);
-			double pos[] = { part.pos[0], part.pos[1], 0 };
-
-			if (rotate) {
-				switch (Starfish.getDomainType()) {
-				case RZ:
-					pos[0] = part.pos[0] * Math.cos(part.pos[2]);
-					pos[1] = part.pos[1];
-					pos[2] = part.pos[0] * Math.sin(part.pos[2]);
-					break;
-				case ZR:
-					pos[0] = part.pos[0];
-					pos[1] = part.pos[1] * Math.cos(part.pos[2]);
-					pos[2] = part.pos[1] * Math.sin(part.pos[2]);
-					break;
-				default:
-					break;
-				}
-			}
-			vec[a++] = pos[0];
-			vec[a++] = pos[1];
-			vec[a++] = pos[2];
-		}
-		outputDataArrayVec(pw, "pos", vec);
-
+		outputDataArrayVec(pw, "pos", sampler.pos);
 		pw.println("</Points>");
 
 		/* data */
 		pw.println("<PointData>");
-		a = 0;
-		/* save particle velocities */
-		for (int i = 0; i < parts.size(); i++) {
-			Particle part = parts.get(i);
-			vec[a++] = part.vel[0];
-			vec[a++] = part.vel[1];
-			vec[a++] = part.vel[2];
-		}
-		outputDataArrayVec(pw, "velocity", vec);
-
-		double s[] = new double[parts.size()];
-		a = 0;
-		for (int i = 0; i < parts.size(); i++) {
-			Particle part = parts.get(i);
-			s[a++] = part.radius;
-		}
-		outputDataArrayScalar(pw, "radius", s);
-
+		outputDataArrayVec(pw, "velocity", sampler.vel);
+		outputDataArrayScalar(pw, "radius", sampler.radius);
 		pw.println("</PointData>");
 
 		pw.println("</Piece>");
@@ -1075,6 +1105,16 @@ public class VTKWriter extends Writer {
 		int ni = data.length;
 		String nc_string = "NumberOfComponents=\"" + num_comps + "\"";
 
+		if (output_format == OutputFormat.RAW_COMPRESSED) {
+			if (float32_all || float32_vars.contains(var_name))
+				outputCompressedArray(pw, var_name, "Float32", num_comps, ni, Float.BYTES,
+						(bb, i) -> bb.putFloat((float) data[i]));
+			else
+				outputCompressedArray(pw, var_name, "Float64", num_comps, ni, Double.BYTES,
+						(bb, i) -> bb.putDouble(data[i]));
+			return;
+		}
+
 		if (output_format == OutputFormat.BINARY || output_format == OutputFormat.APPENDED) {
 			int num_bytes = Double.BYTES * ni;
 			ByteBuffer bb = ByteBuffer.allocate(num_bytes + Long.BYTES);
@@ -1091,7 +1131,7 @@ public class VTKWriter extends Writer {
 				pw.println("</DataArray>");
 			} else { // save raw bites in appended section
 				pw.println("<DataArray Name=\"" + var_name + "\" type=\"Float64\" " + nc_string
-						+ " format=\"appeneded\" offset=\"" + appended_data.size() + "\">");
+						+ " format=\"appended\" offset=\"" + appended_data.size() + "\">");
 
 				try {
 					appended_data.write(bb.array());
@@ -1113,6 +1153,11 @@ public class VTKWriter extends Writer {
 		int ni = data.length;
 		String nc_string = "NumberOfComponents=\"" + num_comps + "\"";
 
+		if (output_format == OutputFormat.RAW_COMPRESSED) {
+			outputCompressedArray(pw, var_name, "Int32", num_comps, ni, Integer.BYTES, (bb, i) -> bb.putInt(data[i]));
+			return;
+		}
+
 		if (output_format == OutputFormat.BINARY || output_format == OutputFormat.APPENDED) {
 			int num_bytes = Integer.BYTES * ni;
 			ByteBuffer bb = ByteBuffer.allocate(num_bytes + Long.BYTES);
@@ -1128,7 +1173,7 @@ public class VTKWriter extends Writer {
 				pw.println("</DataArray>");
 			} else { // save raw bites in appended section
 				pw.println("<DataArray Name=\"" + var_name + "\" type=\"Int32\" " + nc_string
-						+ " format=\"appeneded\" offset=\"" + appended_data.size() + "\">");
+						+ " format=\"appended\" offset=\"" + appended_data.size() + "\">");
 
 				try {
 					appended_data.write(bb.array());
@@ -1145,6 +1190,88 @@ public class VTKWriter extends Writer {
 		}
 	}
 
+	/* writes a single array value into the block buffer */
+	interface ElementWriter {
+		void put(ByteBuffer bb, int i);
+	}
+
+	/*
+	 * streams array in the vtkZLibDataCompressor layout: UInt64 header with the
+	 * number of blocks, block size, size of the partial last block (0 if full),
+	 * compressed size of each block, followed by the compressed blocks. The header
+	 * is reserved first and patched once the compressed sizes are known
+	 */
+	void outputCompressedArray(PrintWriter pw, String var_name, String type, int num_comps, int ni, int elem_bytes,
+			ElementWriter writer) {
+		try {
+			FileChannel channel = spillChannel();
+			long offset = channel.position();
+			long num_bytes = (long) ni * elem_bytes;
+			int num_blocks = (int) ((num_bytes + BLOCK_SIZE - 1) / BLOCK_SIZE);
+
+			ByteBuffer header = ByteBuffer.allocate(Long.BYTES * (3 + num_blocks));
+			header.order(byte_order);
+			header.putLong(num_blocks);
+			header.putLong(BLOCK_SIZE);
+			header.putLong(num_bytes % BLOCK_SIZE);
+			channel.position(offset + header.capacity());
+
+			ByteBuffer bb = ByteBuffer.wrap(block);
+			bb.order(byte_order);
+			int i = 0;
+			for (int b = 0; b < num_blocks; b++) {
+				bb.clear();
+				while (i < ni && bb.remaining() >= elem_bytes)
+					writer.put(bb, i++);
+
+				deflater.reset();
+				deflater.setInput(block, 0, bb.position());
+				deflater.finish();
+				long compressed_bytes = 0;
+				while (!deflater.finished()) {
+					int n = deflater.deflate(zip_block);
+					writeFully(channel, ByteBuffer.wrap(zip_block, 0, n), -1);
+					compressed_bytes += n;
+				}
+				header.putLong(compressed_bytes);
+			}
+
+			header.flip();
+			writeFully(channel, header, offset);
+
+			pw.println("<DataArray Name=\"" + var_name + "\" type=\"" + type + "\" NumberOfComponents=\"" + num_comps
+					+ "\" format=\"appended\" offset=\"" + offset + "\">");
+			pw.println("</DataArray>");
+		} catch (IOException ex) {
+			Log.error("Error writing compressed data to " + full_name + ".tmp");
+		}
+	}
+
+	/* writes the entire buffer, at the current position if pos<0 */
+	static void writeFully(FileChannel channel, ByteBuffer bb, long pos) throws IOException {
+		while (bb.hasRemaining()) {
+			if (pos < 0)
+				channel.write(bb);
+			else
+				pos += channel.write(bb, pos);
+		}
+	}
+
+	/* opens the spill file for the current output file on first use */
+	FileChannel spillChannel() throws IOException {
+		if (spill_channel == null) {
+			spill_channel = FileChannel.open(Paths.get(full_name + ".tmp"), StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE);
+			deflater = new Deflater(compression_level);
+			if (block == null) {
+				block = new byte[BLOCK_SIZE];
+				zip_block = new byte[BLOCK_SIZE];
+			}
+		}
+		return spill_channel;
+	}
+
 	/* convenience functions */
 	void outputDataArrayScalar(PrintWriter pw, String var_name, double data[]) {
 		outputDataArray(pw, var_name, data, 1);
@@ -1174,6 +1301,30 @@ public class VTKWriter extends Writer {
 			} catch (IOException ex) {
 				Log.warning("Error writing binary data to the output file");
 			}
+		} else if (output_format == OutputFormat.RAW_COMPRESSED && spill_channel != null) {
+			try {
+				pw.println("<AppendedData encoding=\"raw\">");
+				pw.flush();
+				output_stream.write('_');
+
+				/* copy the compressed arrays from the spill file */
+				FileChannel out = output_stream.getChannel();
+				long size = spill_channel.size();
+				for (long pos = 0; pos < size;)
+					pos += spill_channel.transferTo(pos, size - pos, out);
+				pw.println("\n</AppendedData>");
+			} catch (IOException ex) {
+				Log.warning("Error writing compressed data to the output file");
+			} finally {
+				try {
+					spill_channel.close();
+				} catch (IOException ex) {
+					Log.warning("Error closing " + full_name + ".tmp");
+				}
+				spill_channel = null;
+				deflater.end();
+				deflater = null;
+			}
 		}
 	}
 
@@ -15,10 +15,13 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import org.w3c.dom.Element;
+import starfish.core.boundaries.Boundary;
+import starfish.core.boundaries.Field1D;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
 import starfish.core.diagnostics.ParticleTraceModule.ParticleTrace;
 import starfish.core.domain.DomainModule.DomainType;
+import starfish.core.domain.Field2D;
 import starfish.core.domain.Mesh;
 import starfish.core.materials.KineticMaterial.Particle;
 
@@ -62,6 +65,7 @@ public abstract class Writer {
 	int particle_count;
 	boolean rotate;
 	String mat_name;
+	ParticleSampler sampler;
 
 	/* general constructor */
 	public Writer(Element element) {
@@ -273,6 +277,19 @@ public abstract class Writer {
 		mat_name = InputParser.getValue("material", element);
 		rotate = InputParser.getBoolean("rotate", element, true);
 
+		/* particles are selected with probability proportional to their weight */
+		sampler = new ParticleSampler(particle_count, InputParser.getInt("per_cell", element, 0),
+				InputParser.getBoolean("weighted", element, true), rotate);
+
+		/* optional sampling region */
+		double x0[] = InputParser.getDoubleList("x0", element);
+		double x1[] = InputParser.getDoubleList("x1", element);
+		if (x0.length > 0 || x1.length > 0) {
+			if (x0.length < 2 || x1.length < 2)
+				Log.error("x0/x1 need to specify two values");
+			sampler.setRegion(x0, x1);
+		}
+
 		/* save vars */
 		scalars = new String[5];
 
@@ -315,7 +332,8 @@ public abstract class Writer {
 	}
 
 	/**
-	 * Writes latest data to a file
+	 * Writes latest data to a file. With asynchronous output, field data is
+	 * copied to a snapshot and the file is written by the output thread.
 	 *
 	 * @param animation
 	 */
@@ -327,6 +345,112 @@ public abstract class Writer {
 		 */
 		// Starfish.averaging_module.sample(true);
 
+		OutputService service = getService();
+		if (service != null && service.isAsync()) {
+			final OutputService.Snapshot snap = takeSnapshot(service);
+			if (snap != null) {
+				service.submit(() -> {
+					snapshot = snap;
+					try {
+						writeData(animation);
+					} finally {
+						snapshot = null;
+						snap.release();
+					}
+				}, snap.bytes());
+				return;
+			}
+		}
+
+		writeData(animation);
+	}
+
+	/** closes the writer once all of its queued writes complete */
+	public final void closeWhenDone() {
+		OutputService service = getService();
+		if (service != null && service.isAsync())
+			service.execute(this::close);
+		else
+			close();
+	}
+
+	/** @return output service or null if not running in a simulation */
+	protected static OutputService getService() {
+		return Starfish.output_module != null ? Starfish.output_module.getService() : null;
+	}
+
+	/* data being written by the output thread, null if writing live data */
+	protected OutputService.Snapshot snapshot;
+
+	/**
+	 * copies the field data used by this writer
+	 * 
+	 * @return snapshot or null if this output type is written synchronously
+	 */
+	protected OutputService.Snapshot takeSnapshot(OutputService service) {
+		OutputService.Snapshot snap = service.new Snapshot(Starfish.getIt(), Starfish.time_module.getTime());
+
+		switch (output_type) {
+		case FIELD:
+		case THREED:
+			for (Mesh mesh : Starfish.getMeshList())
+				addFields(snap, mesh);
+			break;
+		case ONED:
+			addFields(snap, output_mesh);
+			break;
+		case BOUNDARIES:
+			for (Boundary boundary : Starfish.getBoundaryList())
+				for (String var : scalars)
+					if (Starfish.output_module.validateVar(var))
+						snap.add(boundary, var, Starfish.boundary_module.getField(boundary, var));
+			break;
+		default:
+			/* particle data is not copied */
+			snap.release();
+			return null;
+		}
+		return snap;
+	}
+
+	/** adds all field variables on the mesh to the snapshot */
+	private void addFields(OutputService.Snapshot snap, Mesh mesh) {
+		for (String var : scalars)
+			snap.add(mesh, var, Starfish.domain_module.getField(mesh, var));
+		for (String var : cell_data)
+			snap.add(mesh, var, Starfish.domain_module.getField(mesh, var));
+		for (String[] pair : vectors) {
+			snap.add(mesh, pair[0], Starfish.domain_module.getField(mesh, pair[0]));
+			snap.add(mesh, pair[1], Starfish.domain_module.getField(mesh, pair[1]));
+		}
+	}
+
+	/** @return field to output, from the snapshot if one is being written */
+	protected Field2D getField(Mesh mesh, String var) {
+		if (snapshot != null)
+			return snapshot.getField(mesh, var);
+		return Starfish.domain_module.getField(mesh, var);
+	}
+
+	/** @return boundary field to output, from the snapshot if one is being written */
+	protected Field1D getField(Boundary boundary, String var) {
+		if (snapshot != null)
+			return snapshot.getField(boundary, var);
+		return Starfish.boundary_module.getField(boundary, var);
+	}
+
+	/** @return time step of the data being written */
+	protected int getIt() {
+		return snapshot != null ? snapshot.it : Starfish.getIt();
+	}
+
+	/** @return simulation time of the data being written */
+	protected double getTime() {
+		return snapshot != null ? snapshot.time : Starfish.time_module.getTime();
+	}
+
+	/** writes data of the given output type */
+	protected void writeData(boolean animation) {
 		switch (output_type) {
 		case FIELD:
 			write2D(animation);
@@ -398,7 +522,7 @@ public abstract class Writer {
 	public final void saveMesh(String[] scalars, ArrayList<String[]> vectors, String[] cell_data) {
 		init2D(scalars, vectors, cell_data, null);
 		write();
-		close();
+		closeWhenDone();
 	}
 
 	/**
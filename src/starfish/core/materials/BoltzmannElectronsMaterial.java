@@ -72,6 +72,7 @@ public class BoltzmannElectronsMaterial extends Material
 	    PotentialSolver ps = (PotentialSolver) solver;
 	    this.getDenCollection().setValue(ps.den0);
 	    this.getTempCollection().setValue(ps.kTe0/Constants.KtoEV);
+	    if (model==electronModelBoltzmann) ps.requestBoltzmannDensity();
 	}
     }
 	
@@ -194,6 +195,8 @@ public class BoltzmannElectronsMaterial extends Material
 		if (kTe0<=0)
 		    Log.error("Non zero temperature <kTe0> needs to be specified for QN electron fluid");
 	    }
+	    
+	    Solver solver = Starfish.solver_module.getSolver();
 	    	
 	    for (Mesh mesh:Starfish.getMeshList())
 	    {
@@ -201,11 +204,17 @@ public class BoltzmannElectronsMaterial extends Material
 		material.getDen(mesh).clear();
 		double den[][] = material.getDen(mesh).getData();
 
+		/*use density evaluated by the nonlinear solver if available*/
+		double ne[] = null;
+		if (solver instanceof PotentialSolver)
+		    ne = ((PotentialSolver)solver).getBoltzmannDensity(mesh, phi0, den0, kTe0);
+		
 		double phi[][] = Starfish.domain_module.getPhi(mesh).getData();
 		for (int i=0;i<mesh.ni;i++)
 		    for (int j=0;j<mesh.nj;j++)
 		    {
-			den[i][j]=den0*Math.exp((phi[i][j]-phi0)/kTe0);			
+			if (ne!=null) den[i][j] = ne[mesh.IJtoN(i,j)];
+			else den[i][j]=den0*Math.exp((phi[i][j]-phi0)/kTe0);			
 			if (den[i][j]<1) den[i][j] = 1;	    //the exponential model can give tiny numbers
 		    }
 		
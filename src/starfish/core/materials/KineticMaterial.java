@@ -6,19 +6,22 @@
  * *****************************************************/
 package starfish.core.materials;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import org.w3c.dom.Element;
 import starfish.core.boundaries.Boundary;
 import starfish.core.boundaries.Boundary.BoundaryType;
 import starfish.core.boundaries.Segment;
 import starfish.core.common.Constants;
+import starfish.core.common.CounterRandom;
+import starfish.core.common.RandomStreams;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
 import starfish.core.domain.Field2D;
@@ -27,6 +30,8 @@ import starfish.core.domain.Mesh.MeshBoundaryData;
 import starfish.core.domain.Mesh.Face;
 import starfish.core.domain.Mesh.Node;
 import starfish.core.domain.UniformMesh;
+import starfish.core.io.CheckpointReader;
+import starfish.core.io.CheckpointWriter;
 import starfish.core.io.InputParser;
 import starfish.core.materials.MaterialsModule.MaterialParser;
 import starfish.core.common.Vector;
@@ -37,7 +42,6 @@ public class KineticMaterial extends Material {
 
 	int particle_merge_skip; // number of time steps between particle merges, on -1 to disable
 	int vel_grid_dims[]; // number of velocity bins in (u,v,w) spanning the min/max of each
-	int last_sort_to_cell_it; // time step of the last sort to cells
 
 	public KineticMaterial(String name, Element element) {
 		super(name, element);
@@ -198,12 +202,25 @@ public class KineticMaterial extends Material {
 
 	/* updates field on a single mesh */
 	void moveParticles(boolean particle_transfer) {
+		/* invalidate cell index */
+		for (MeshData md : mesh_data)
+			md.mod_count++;
+
 		/* allocate iterators */
 		ArrayList<ParticleMover> movers = new ArrayList<>();
 
+		/*
+		 * mover threads are created every step, so each gets a stream keyed by the
+		 * step and its block instead of the next free thread stream, the legacy
+		 * java generator keeps the thread streams
+		 */
+		boolean bind_streams = RandomStreams.getType() != RandomStreams.Type.JAVA;
+		long seed = bind_streams ? CounterRandom.streamKey((long) (Starfish.rnd() * Long.MAX_VALUE), Starfish.getIt()) : 0;
+
 		if (!particle_transfer)
 		{
-			for (MeshData md : mesh_data) 
+			for (int m = 0; m < mesh_data.length; m++) {
+				MeshData md = mesh_data[m];
 				for (int block = 0; block < md.particle_block.length; block++) {
 					Iterator<Particle> iterator = md.getIterator(block);
 				
@@ -211,20 +228,26 @@ public class KineticMaterial extends Material {
 					if (iterator.hasNext()) {
 						
 						ParticleMover mover = new ParticleMover(md, this,  iterator, particle_transfer, "PartMover" + block);
+						if (bind_streams)
+							mover.rnd = RandomStreams.newGenerator(CounterRandom.streamKey(seed, (long) m * md.particle_block.length + block));
 						movers.add(mover);
 					}
 				} //block
+			}
 		}
 		else  //particle transfer
 		{
-			for (MeshData md : mesh_data) 
+			for (int m = 0; m < mesh_data.length; m++) 
 			{
+				MeshData md = mesh_data[m];
 				if (md.transfer_particles.isEmpty()) continue;
 				
 				//make a local copy so that we can add particles as needed without invalidating iterator
 				ArrayList<Particle> tp_copy = new ArrayList<>(md.transfer_particles);				
 				md.transfer_particles.clear();	//clear out the original list (this does not touch tp_copy - checked				
 				ParticleMover mover = new ParticleMover(md, this, tp_copy.iterator(), particle_transfer, "PartMover_tp" );
+				if (bind_streams)
+					mover.rnd = RandomStreams.newGenerator(CounterRandom.streamKey(seed, m));
 				movers.add(mover);				
 			}
 			
@@ -249,7 +272,12 @@ public class KineticMaterial extends Material {
 			Vector.set(momentum_sum, 0);
 			energy_sum = 0;
 
+			for (MeshData md : mesh_data)
+				md.v2_max = 0;
+
 			for (ParticleMover mover : movers) {
+				if (mover.v2_max > mover.md.v2_max)
+					mover.md.v2_max = mover.v2_max;
 				mass_sum += mover.N_sum * mass;
 				momentum_sum[0] += mover.P_sum[0] * mass;
 				momentum_sum[1] += mover.P_sum[1] * mass;
@@ -281,6 +309,8 @@ public class KineticMaterial extends Material {
 		double N_sum; // total number of physical particles
 		double P_sum[] = new double[3]; // total momentum
 		double E_sum; // total energy
+		double v2_max; // largest squared speed
+		Random rnd; // stream bound to the thread, null to use the thread stream
 		protected KineticMaterial km;	// the associated km
 
 		private ParticleMover(MeshData md, KineticMaterial km, Iterator<Particle> iterator, boolean particle_transfer, String thread_name) {
@@ -293,10 +323,15 @@ public class KineticMaterial extends Material {
 			N_sum = 0; // clear sums
 			Vector.set(P_sum, 0);
 			E_sum = 0;
+			v2_max = 0;
 		}
 
 		@Override
 		public void run() {
+			/* the thread ends with the push, no need to restore the old stream */
+			if (rnd != null)
+				RandomStreams.bind(rnd);
+
 			final int max_bounces = 10; /* maximum number of surface bounces per step */
 			double old[] = new double[2]; /* old physical coordinate */
 			double old_lc[] = new double[2]; /* old logical coordinate */
@@ -396,6 +431,10 @@ public class KineticMaterial extends Material {
 					P_sum[1] += part.mpw * part.vel[1];
 					P_sum[2] += part.mpw * part.vel[2];
 					E_sum += part.mpw * Vector.mag3(part.vel);
+
+					double v2 = Vector.dot3(part.vel, part.vel);
+					if (v2 > v2_max)
+						v2_max = v2;
 				}
 
 				//add the particle to the main population if it is in the particle_transfer list
@@ -743,6 +782,27 @@ public class KineticMaterial extends Material {
 	 * @return
 	 */
 	public boolean addParticle(MeshData md, Particle part) {
+		prepareParticle(md, part);
+
+		part.id = part_id_counter++;
+
+		/* add particle trace, returns false if not traced */
+		part.has_trace = Starfish.particle_trace_module.addTrace(this,part);
+
+		md.addParticle(part);
+		return true;
+	}
+
+	/**
+	 * computes logical coordinates if not set and rewinds velocity by -0.5dt,
+	 * does not modify any shared data
+	 */
+	protected void prepareParticle(MeshData md, Particle part) {
+		prepareParticle(md, part, new double[3], new double[3]);
+	}
+
+	/* same as above with caller provided buffers for the gathered fields */
+	protected void prepareParticle(MeshData md, Particle part, double ef[], double bf[]) {
 		if (part.lc == null) {
 			Mesh mesh = md.mesh;
 			part.lc = mesh.XtoL(part.pos);
@@ -762,9 +822,6 @@ public class KineticMaterial extends Material {
 		/* rewind velocity by -0.5dt */
 		part.dt = -0.5 * Starfish.getDt();
 
-		double ef[] = new double[3];
-		double bf[] = new double[3];
-
 		ef[0] = md.Efi.gather(part.lc);
 		ef[1] = md.Efj.gather(part.lc);
 
@@ -780,13 +837,68 @@ public class KineticMaterial extends Material {
 		}
 
 		part.dt = 0;
-		part.id = part_id_counter++;
+	}
 
-		/* add particle trace, returns false if not traced */
-		part.has_trace = Starfish.particle_trace_module.addTrace(this,part);
+	/**
+	 * Adds all particles in the batch. Particles are located and their velocity
+	 * rewound in parallel, ids are then assigned in batch order and each mesh
+	 * distributes its new particles among blocks in a single pass. The result is
+	 * identical to calling addParticle for each entry in order.
+	 * 
+	 * @param batch particles to add, batch.isAdded(k) is false for entries
+	 *              located outside the domain
+	 * @return number of particles added
+	 */
+	public int addParticles(ParticleBatch batch) {
+		final int n = batch.size();
+		final Particle parts[] = new Particle[n];
 
-		md.addParticle(part);
-		return true;
+		Starfish.parallelFor(n, 1000, (k0, k1) -> {
+			double x[] = new double[3];
+			double ef[] = new double[3];
+			double bf[] = new double[3];
+			for (int k = k0; k < k1; k++) {
+				x[0] = batch.pos[3 * k];
+				x[1] = batch.pos[3 * k + 1];
+				x[2] = batch.pos[3 * k + 2];
+				int m = Starfish.domain_module.getMeshIndex(x);
+				batch.mesh_index[k] = m;
+				if (m < 0)
+					continue;
+
+				/* the particle keeps its own arrays, filled directly from the batch */
+				Particle part = new Particle(batch.mpw[k], this);
+				System.arraycopy(batch.pos, 3 * k, part.pos, 0, 3);
+				System.arraycopy(batch.vel, 3 * k, part.vel, 0, 3);
+				if (!Double.isNaN(batch.lc[2 * k]))
+					part.lc = new double[] { batch.lc[2 * k], batch.lc[2 * k + 1] };
+
+				prepareParticle(mesh_data[m], part, ef, bf);
+				parts[k] = part;
+			}
+		});
+
+		/* ids and traces in batch order, then sort by mesh keeping the order */
+		ArrayList<ArrayList<Particle>> new_parts = new ArrayList<>();
+		for (int m = 0; m < mesh_data.length; m++)
+			new_parts.add(new ArrayList<>());
+
+		int count = 0;
+		for (int k = 0; k < n; k++) {
+			Particle part = parts[k];
+			if (part == null)
+				continue;
+			part.id = part_id_counter++;
+			part.has_trace = Starfish.particle_trace_module.addTrace(this, part);
+			new_parts.get(batch.mesh_index[k]).add(part);
+			count++;
+		}
+
+		for (int m = 0; m < mesh_data.length; m++)
+			if (!new_parts.get(m).isEmpty())
+				mesh_data[m].addParticles(new_parts.get(m));
+
+		return count;
 	}
 
 	/**
@@ -889,101 +1001,247 @@ public class KineticMaterial extends Material {
 	 */
 
 	@Override
-	public void saveRestartData(DataOutputStream out) throws IOException {
-		out.writeInt(num_samples);
+	public void saveRestartData(CheckpointWriter out) throws IOException {
+		out.beginSection(name);
+		out.putInt(num_samples);
 
 		for (Mesh mesh : Starfish.getMeshList()) {
 			/* save particles */
 			Iterator<KineticMaterial.Particle> iter = getIterator(mesh);
-			out.writeLong(getMeshData(mesh).getNp());
+			out.beginSection(name + "/" + mesh.getName() + "/particles");
+			out.putLong(getMeshData(mesh).getNp());
 
 			while (iter.hasNext()) {
 				Particle part = iter.next();
-				for (int i = 0; i < 3; i++) {
-					out.writeDouble(part.pos[i]);
-					out.writeDouble(part.vel[i]);
-				}
+				out.putDoubles(part.pos, 0, 3);
+				out.putDoubles(part.vel, 0, 3);
+				out.putDoubles(part.lc, 0, 2);
+				out.putDouble(part.dt);
+				out.putDouble(part.mpw);
+				out.putDouble(part.mass);
+				out.putInt(part.born_it);
+				out.putInt(part.id);
+			}
+
+			/* next save fields */
+			out.beginSection(name + "/" + mesh.getName() + "/fields");
+			out.putField(getDen(mesh));
+			out.putField(getDenAve(mesh));
+			out.putField(getT(mesh));
+			out.putField(getU(mesh));
+			out.putField(getV(mesh));
+			out.putField(getW(mesh));
+			out.putField(getUAve(mesh));
+			out.putField(getVAve(mesh));
+			out.putField(getWAve(mesh));
+		}
+		out.endSection();
+	}
 
-				for (int i = 0; i < 2; i++)
-					out.writeDouble(part.lc[i]);
+	/* buffers reused by consecutive restart snapshots */
+	RestartSnapshot restart_snapshot;
+
+	@Override
+	public CheckpointWriter.Task getRestartData(boolean copy) {
+		if (!copy)
+			return this::saveRestartData;
+
+		if (restart_snapshot == null)
+			restart_snapshot = new RestartSnapshot();
+		restart_snapshot.copy();
+		return restart_snapshot;
+	}
 
-				out.writeDouble(part.dt);
-				out.writeDouble(part.mpw);
-				out.writeDouble(part.mass);
-				out.writeInt(part.born_it);
-				out.writeInt(part.id);
+	/**
+	 * Copy of the particles and sampled fields written in the same layout as
+	 * saveRestartData. Particle data is packed into flat arrays, 11 doubles (pos,
+	 * vel, lc, dt, mpw, mass) and 2 ints (born_it, id) per particle.
+	 */
+	class RestartSnapshot implements CheckpointWriter.Task {
+		int samples;
+		int np[];
+		double part_data[][];
+		int part_ints[][];
+		double fields[][][][]; // [mesh][field][i][j]
+
+		/* copies current data, reusing buffers from the previous snapshot */
+		void copy() {
+			ArrayList<Mesh> mesh_list = Starfish.getMeshList();
+			int num_meshes = mesh_list.size();
+			if (np == null || np.length != num_meshes) {
+				np = new int[num_meshes];
+				part_data = new double[num_meshes][0];
+				part_ints = new int[num_meshes][0];
+				fields = new double[num_meshes][][][];
 			}
 
-			/* next save fields */
-			getDen(mesh).binaryWrite(out);
-			getDenAve(mesh).binaryWrite(out);
-			getT(mesh).binaryWrite(out);
-			getU(mesh).binaryWrite(out);
-			getV(mesh).binaryWrite(out);
-			getW(mesh).binaryWrite(out);
-			getUAve(mesh).binaryWrite(out);
-			getVAve(mesh).binaryWrite(out);
-			getWAve(mesh).binaryWrite(out);
+			samples = num_samples;
+			for (int m = 0; m < num_meshes; m++) {
+				Mesh mesh = mesh_list.get(m);
+				long count = getMeshData(mesh).getNp();
+				if (11 * count > Integer.MAX_VALUE - 8)
+					Log.error("Too many particles in " + name + " to snapshot restart data");
+				if (part_ints[m].length < 2 * count) {
+					part_data[m] = new double[(int) (11 * count)];
+					part_ints[m] = new int[(int) (2 * count)];
+				}
 
+				double data[] = part_data[m];
+				int ints[] = part_ints[m];
+				int n = 0;
+				Iterator<Particle> iter = getIterator(mesh);
+				while (iter.hasNext()) {
+					Particle part = iter.next();
+					int o = 11 * n;
+					System.arraycopy(part.pos, 0, data, o, 3);
+					System.arraycopy(part.vel, 0, data, o + 3, 3);
+					System.arraycopy(part.lc, 0, data, o + 6, 2);
+					data[o + 8] = part.dt;
+					data[o + 9] = part.mpw;
+					data[o + 10] = part.mass;
+					ints[2 * n] = part.born_it;
+					ints[2 * n + 1] = part.id;
+					n++;
+				}
+				np[m] = n;
+
+				Field2D src[] = { getDen(mesh), getDenAve(mesh), getT(mesh), getU(mesh), getV(mesh), getW(mesh),
+						getUAve(mesh), getVAve(mesh), getWAve(mesh) };
+				if (fields[m] == null)
+					fields[m] = new double[src.length][][];
+				for (int f = 0; f < src.length; f++) {
+					if (fields[m][f] == null)
+						fields[m][f] = new double[src[f].getNi()][src[f].getNj()];
+					for (int i = 0; i < src[f].getNi(); i++)
+						System.arraycopy(src[f].data[i], 0, fields[m][f][i], 0, src[f].getNj());
+				}
+			}
+		}
+
+		@Override
+		public void write(CheckpointWriter out) throws IOException {
+			out.beginSection(name);
+			out.putInt(samples);
+
+			ArrayList<Mesh> mesh_list = Starfish.getMeshList();
+			for (int m = 0; m < np.length; m++) {
+				String mesh_name = mesh_list.get(m).getName();
+				out.beginSection(name + "/" + mesh_name + "/particles");
+				out.putLong(np[m]);
+				for (int n = 0; n < np[m]; n++) {
+					out.putDoubles(part_data[m], 11 * n, 11);
+					out.putInt(part_ints[m][2 * n]);
+					out.putInt(part_ints[m][2 * n + 1]);
+				}
+
+				out.beginSection(name + "/" + mesh_name + "/fields");
+				for (double field[][] : fields[m])
+					for (double row[] : field)
+						out.putDoubles(row, 0, row.length);
+			}
+			out.endSection();
 		}
 	}
 
 	/* saves restart data */
 
 	/**
-	 * reads data from restart file TODO: currently this will crash if mesh size has
-	 * changed due to the read of the sums
+	 * reads data from restart file, the restart module verifies that the meshes
+	 * have not changed
 	 * 
 	 * @param in
 	 * @throws IOException
 	 */
 	@Override
-	public void loadRestartData(DataInputStream in) throws IOException {
-		num_samples = in.readInt();
+	public void loadRestartData(CheckpointReader in) throws IOException {
+		ArrayList<CheckpointReader.Task> tasks = new ArrayList<>();
+		loadRestartData(in, tasks);
+		for (CheckpointReader.Task task : tasks)
+			task.run();
+	}
 
-		/* load in particles */
-		for (Mesh mesh : Starfish.getMeshList()) {
-			long np = in.readLong();
-			MeshData md = getMeshData(mesh);
+	/**
+	 * reads the material data and adds a task loading each mesh
+	 * 
+	 * @param in
+	 * @param tasks
+	 * @throws IOException
+	 */
+	@Override
+	public void loadRestartData(CheckpointReader in, ArrayList<CheckpointReader.Task> tasks) throws IOException {
+		in.openSection(name);
+		num_samples = in.getInt();
+		in.closeSection();
 
-			for (long p = 0; p < np; p++) {
-				Particle part = new Particle(this);
-				for (int i = 0; i < 3; i++) {
-					part.pos[i] = in.readDouble();
-					part.vel[i] = in.readDouble();
-				}
+		for (Mesh mesh : Starfish.getMeshList())
+			tasks.add(() -> loadRestartData(in, getMeshData(mesh)));
+	}
 
-				part.lc = new double[2];
-				for (int i = 0; i < 2; i++)
-					part.lc[i] = in.readDouble();
+	/**
+	 * Restores particles and fields on a single mesh. Particles are placed in
+	 * the particle store as saved, the velocity is not rewound again and ids
+	 * are kept. New particles get ids past the largest restored one.
+	 */
+	protected void loadRestartData(CheckpointReader in, MeshData md) throws IOException {
+		Mesh mesh = md.mesh;
+		String prefix = name + "/" + mesh.getName();
+		Particle parts[];
+		int n = 0;
+		int max_id = -1;
 
-				part.dt = in.readDouble();
-				part.mpw = in.readDouble();
-				part.mass = in.readDouble();
-				part.born_it = in.readInt();
-				part.id = in.readInt();
+		try (CheckpointReader.Section section = in.section(prefix + "/particles")) {
+			long np = section.getLong();
+			if (np > Integer.MAX_VALUE - 8)
+				throw new IOException("Too many particles in " + prefix);
+			parts = new Particle[(int) np];
 
-				addParticle(md, part);
+			for (long p = 0; p < np; p++) {
+				Particle part = new Particle(this);
+				section.getDoubles(part.pos, 0, 3);
+				section.getDoubles(part.vel, 0, 3);
+				part.lc = new double[2];
+				section.getDoubles(part.lc, 0, 2);
+				part.dt = section.getDouble();
+				part.mpw = section.getDouble();
+				part.mass = section.getDouble();
+				part.born_it = section.getInt();
+				part.id = section.getInt();
+
+				if (!Vector.isFinite(part.vel)) {
+					Log.warning("Infinite vel");
+					continue;
+				}
+				if (part.id > max_id)
+					max_id = part.id;
+				part.has_trace = Starfish.particle_trace_module.addTrace(this, part);
+				parts[n++] = part;
 			}
+		}
+		md.addParticles(parts, n);
+
+		/* next load fields */
+		try (CheckpointReader.Section section = in.section(prefix + "/fields")) {
+			section.getField(getDen(mesh));
+			section.getField(getDenAve(mesh));
+			section.getField(getT(mesh));
+			section.getField(getU(mesh));
+			section.getField(getV(mesh));
+			section.getField(getW(mesh));
+			section.getField(getUAve(mesh));
+			section.getField(getVAve(mesh));
+			section.getField(getWAve(mesh));
+		}
+
+		/* set pressure */
+		Field2D p = getP(mesh);
+		Field2D nd_ave = getDenAve(mesh);
+		Field2D T = getT(mesh);
+		for (int i = 0; i < mesh.ni; i++)
+			for (int j = 0; j < mesh.nj; j++)
+				p.data[i][j] = nd_ave.at(i, j) * Constants.K * T.at(i, j);
 
-			/* next load fields */
-			getDen(mesh).binaryRead(in);
-			getDenAve(mesh).binaryRead(in);
-			getT(mesh).binaryRead(in);
-			getU(mesh).binaryRead(in);
-			getV(mesh).binaryRead(in);
-			getW(mesh).binaryRead(in);
-			getUAve(mesh).binaryRead(in);
-			getVAve(mesh).binaryRead(in);
-			getWAve(mesh).binaryRead(in);
-
-			/* set pressure */
-			Field2D p = getP(mesh);
-			Field2D nd_ave = getDenAve(mesh);
-			Field2D T = getT(mesh);
-			for (int i = 0; i < md.mesh.ni; i++)
-				for (int j = 0; j < md.mesh.nj; j++)
-					p.data[i][j] = nd_ave.at(i, j) * Constants.K * T.at(i, j);
+		synchronized (this) {
+			part_id_counter = Math.max(part_id_counter, max_id + 1);
 		}
 	}
 
@@ -995,32 +1253,27 @@ public class KineticMaterial extends Material {
 	 */
 	void mergeParticles(MeshData md) {
 		/* first sort particles to physical cells */
-		sortParticlesToCells(md);
-		for (int i = 0; i < md.mesh.ni; i++)
-			for (int j = 0; j < md.mesh.nj; j++) {
-				/* don't sort if less than 10 particles */
-				if (md.cell_data[i][j].parts_in_cell.size() >= 10)
-					mergeParticlesInCell(md, i, j);
-			}
-
-		// invalidate sort since now have new particles
-		last_sort_to_cell_it = -1;
-
+		CellIndex index = md.getCellIndex();
+		for (int c = 0; c < index.num_cells; c++) {
+			/* don't sort if less than 10 particles */
+			if (index.count(c) >= 10)
+				mergeParticlesInCell(md, index, c);
+		}
 	}
 
 	/**
 	 * performs the actual merge in a single physical cell
 	 * 
-	 * @param md mesh to apply the merge to
-	 * @param i  cell i-index
-	 * @param j  cell j-index
+	 * @param md    mesh to apply the merge to
+	 * @param index particles sorted to cells
+	 * @param c     cell index
 	 */
-	void mergeParticlesInCell(MeshData md, int i, int j) {
+	void mergeParticlesInCell(MeshData md, CellIndex index, int c) {
 		/* create velocity grid */
 		Mesh mesh = md.mesh;
 
 		/* don't do anything if we have fewer than 10 particles */
-		LinkedList<Particle> parts_in_cell = md.cell_data[i][j].parts_in_cell;
+		List<Particle> parts_in_cell = Arrays.asList(index.part).subList(index.start[c], index.start[c + 1]);
 
 		double vel_min[] = new double[3];
 		double vel_max[] = new double[3];
@@ -1128,38 +1381,99 @@ public class KineticMaterial extends Material {
 	}
 
 	/**
-	 * sorts particles to cell
-	 * 
-	 * @param md mesh to apply to
+	 * Particles of a single mesh sorted by cell, particles in cell c=i*(nj-1)+j
+	 * are stored in part[start[c]] to part[start[c+1]-1]. Particles in a cell
+	 * are ordered by block and then by their position in the block as with the
+	 * serial iterator. The index is built on demand and shared by all consumers
+	 * (DSMC, merge, diagnostics) until the next time step or until particles
+	 * are added or removed.
 	 */
-	public void sortParticlesToCells(MeshData md) {
-		Mesh mesh = md.mesh;
-		last_sort_to_cell_it = Starfish.getIt();
+	public static class CellIndex {
+		public Particle part[] = new Particle[0];
+		public int start[];
+		public final int num_cells;
+		public final int nj1; // number of cells along j
+		int block_count[][] = new int[0][]; // per block counts, reused between builds
+
+		/* version */
+		int it = -1;
+		long mod_count = -1;
+
+		CellIndex(Mesh mesh) {
+			nj1 = mesh.nj - 1;
+			num_cells = (mesh.ni - 1) * nj1;
+			start = new int[num_cells + 1];
+		}
 
-		/* allocate data structure on first call */
-		if (md.cell_data == null) {
-			md.cell_data = new CellData[mesh.ni][mesh.nj];
-			for (int i = 0; i < mesh.ni; i++)
-				for (int j = 0; j < mesh.nj; j++)
-					md.cell_data[i][j] = new CellData();
+		/** @return number of particles in cell c */
+		public int count(int c) {
+			return start[c + 1] - start[c];
 		}
 
-		/* cleanup */
-		for (int i = 0; i < md.mesh.ni - 1; i++)
-			for (int j = 0; j < mesh.nj - 1; j++) {
-				md.cell_data[i][j].parts_in_cell.clear();
-			}
+		/** @return cell containing logical coordinate lc, or -1 if on the mesh edge */
+		int cell(Mesh mesh, double lc[]) {
+			int i = (int) lc[0];
+			int j = (int) lc[1];
+			if (i >= mesh.ni - 1 || j >= nj1)
+				return -1; // boundary source can create particles on mesh edge
+			return i * nj1 + j;
+		}
 
-		/* sort particles into cell */
-		Iterator<Particle> src_iterator = getIterator(mesh);
-		while (src_iterator.hasNext()) {
-			Particle part = src_iterator.next();
-			int i = (int) part.lc[0];
-			int j = (int) part.lc[1];
-			if (i >= mesh.ni - 1 || j >= mesh.nj - 1)
-				continue; // boundary source can create particles on mesh edge
-			md.cell_data[i][j].parts_in_cell.add(part);
+		/**
+		 * counting sort of particles into cells, blocks are counted and scattered
+		 * in parallel
+		 */
+		void build(MeshData md) {
+			Mesh mesh = md.mesh;
+			ParticleBlock blocks[] = md.particle_block;
+			int nb = blocks.length;
+
+			if (block_count.length != nb)
+				block_count = new int[nb][num_cells];
+			int count[][] = block_count;
+
+			Starfish.parallelFor(nb, 2, (b_min, b_max) -> {
+				for (int b = b_min; b < b_max; b++) {
+					int cb[] = count[b];
+					Arrays.fill(cb, 0);
+					for (Particle part : blocks[b].particle_list) {
+						int c = cell(mesh, part.lc);
+						if (c >= 0)
+							cb[c]++;
+					}
+				}
+			});
+
+			/* convert counts to offsets */
+			int offset = 0;
+			for (int c = 0; c < num_cells; c++) {
+				start[c] = offset;
+				for (int b = 0; b < nb; b++) {
+					int n = count[b][c];
+					count[b][c] = offset;
+					offset += n;
+				}
+			}
+			start[num_cells] = offset;
+			if (part.length < offset)
+				part = new Particle[offset + offset / 10];
+			else
+				Arrays.fill(part, offset, part.length, null); // don't hold on to removed particles
+
+			Particle sorted[] = part;
+			Starfish.parallelFor(nb, 2, (b_min, b_max) -> {
+				for (int b = b_min; b < b_max; b++) {
+					int cb[] = count[b];
+					for (Particle p : blocks[b].particle_list) {
+						int c = cell(mesh, p.lc);
+						if (c >= 0)
+							sorted[cb[c]++] = p;
+					}
+				}
+			});
 
+			it = Starfish.getIt();
+			mod_count = md.mod_count;
 		}
 	}
 
@@ -1326,7 +1640,43 @@ public class KineticMaterial extends Material {
 		public Field2D Efi, Efj;
 		public Field2D Bfi, Bfj;
 
-		public CellData[][] cell_data;
+		/* incremented whenever particles are moved, added or removed */
+		public long mod_count = 0;
+
+		/* largest squared particle speed, set by the push and raised by added particles */
+		protected double v2_max = 0;
+
+		/**
+		 * @return speed bound of the particles on this mesh, exact after the push.
+		 *         Velocities changed in place by collisions are included only if
+		 *         reported with updateMaxSpeed.
+		 */
+		public double getMaxSpeed() {
+			return Math.sqrt(v2_max);
+		}
+
+		/**
+		 * raises the speed bound to include a particle with the given speed
+		 * 
+		 * @param v2 squared particle speed
+		 */
+		public void updateMaxSpeed(double v2) {
+			if (v2 > v2_max)
+				v2_max = v2;
+		}
+		protected CellIndex cell_index;
+
+		/**
+		 * @return particles sorted to cells, rebuilt if particles changed since the
+		 *         last call
+		 */
+		public synchronized CellIndex getCellIndex() {
+			if (cell_index == null)
+				cell_index = new CellIndex(mesh);
+			if (cell_index.it != Starfish.getIt() || cell_index.mod_count != mod_count)
+				cell_index.build(this);
+			return cell_index;
+		}
 
 		public ParticleBlock particle_block[];
 		public ArrayList<Particle> transfer_particles; /*
@@ -1357,6 +1707,101 @@ public class KineticMaterial extends Material {
 				}
 
 			particle_block[block].particle_list.add(part);
+			updateMaxSpeed(Vector.dot3(part.vel, part.vel));
+			mod_count++;
+		}
+
+		/**
+		 * adds particles in order, blocks receive the same particles as with
+		 * repeated addParticle calls but the emptiest block is found once per
+		 * fill level instead of once per particle
+		 * 
+		 * @param parts particles to add
+		 */
+		public void addParticles(List<Particle> parts) {
+			int nb = particle_block.length;
+			int size[] = new int[nb];
+			for (int b = 0; b < nb; b++) {
+				size[b] = particle_block[b].particle_list.size();
+				particle_block[b].particle_list.ensureCapacity(size[b] + parts.size() / nb + 1);
+			}
+
+			int k = 0, n = parts.size();
+			while (k < n) {
+				int min_count = size[0];
+				for (int b = 1; b < nb; b++)
+					if (size[b] < min_count)
+						min_count = size[b];
+
+				/* one particle to each block at this level, in block order */
+				for (int b = 0; b < nb && k < n; b++) {
+					if (size[b] != min_count)
+						continue;
+
+					while (k < n && !Vector.isFinite(parts.get(k).vel)) {
+						Log.warning("Infinite vel");
+						k++;
+					}
+					if (k >= n)
+						break;
+
+					updateMaxSpeed(Vector.dot3(parts.get(k).vel, parts.get(k).vel));
+					particle_block[b].particle_list.add(parts.get(k++));
+					size[b]++;
+					mod_count++;
+				}
+			}
+		}
+
+		/**
+		 * Adds parts[0:n] in contiguous runs so that the block sizes become as
+		 * equal as possible. The fill level is found once by raising the smallest
+		 * blocks, then each block receives its share with a single bulk copy.
+		 * 
+		 * @param parts particles to add
+		 * @param n     number of particles
+		 */
+		public void addParticles(Particle parts[], int n) {
+			int nb = particle_block.length;
+			Integer order[] = new Integer[nb];
+			int size[] = new int[nb];
+			for (int b = 0; b < nb; b++) {
+				order[b] = b;
+				size[b] = particle_block[b].particle_list.size();
+			}
+			Arrays.sort(order, (b1, b2) -> Integer.compare(size[b1], size[b2]));
+
+			/* raise the k smallest blocks to the next size until particles run out */
+			long left = n;
+			long level = size[order[0]];
+			int k = 1;
+			while (true) {
+				while (k < nb && size[order[k]] == level)
+					k++;
+				long cost = k < nb ? (size[order[k]] - level) * k : Long.MAX_VALUE;
+				if (cost > left)
+					break;
+				left -= cost;
+				level = size[order[k]];
+			}
+			level += left / k;
+			left = left % k;
+
+			int quota[] = new int[nb];
+			for (int i = 0; i < k; i++)
+				quota[order[i]] = (int) (level - size[order[i]]) + (i < left ? 1 : 0);
+
+			List<Particle> list = Arrays.asList(parts);
+			int start = 0;
+			for (int b = 0; b < nb; b++) {
+				if (quota[b] == 0)
+					continue;
+				particle_block[b].particle_list.addAll(list.subList(start, start + quota[b]));
+				start += quota[b];
+			}
+			for (int i = 0; i < n; i++)
+				updateMaxSpeed(Vector.dot3(parts[i].vel, parts[i].vel));
+			mod_count += n;
 		}
 
 		/** add particle to the transfers list, attempting to keep block sizes equal */
@@ -1398,7 +1843,7 @@ public class KineticMaterial extends Material {
 		 * @return s
 		 */
 		public Iterator<Particle> getIterator() {
-			return new BlockIterator(particle_block);
+			return new BlockIterator(this);
 		}
 
 		/**
@@ -1430,6 +1875,7 @@ public class KineticMaterial extends Material {
 	 */
 	public class BlockIterator implements Iterator<Particle> {
 
+		MeshData md;
 		ParticleBlock blocks[];
 		int b = 0;
 		final int num_blocks;
@@ -1439,8 +1885,9 @@ public class KineticMaterial extends Material {
 		 */
 		protected Iterator<Particle> iterator;
 
-		BlockIterator(ParticleBlock blocks[]) {
-			this.blocks = blocks;
+		BlockIterator(MeshData md) {
+			this.md = md;
+			this.blocks = md.particle_block;
 			num_blocks = blocks.length;
 			iterator = blocks[b].particle_list.iterator();
 		}
@@ -1468,6 +1915,7 @@ public class KineticMaterial extends Material {
 		@Override
 		public void remove() {
 			iterator.remove();
+			md.mod_count++;
 		}
 
 	}
@@ -6,10 +6,9 @@
  * *****************************************************/
 package starfish.core.materials;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Random;
 import org.w3c.dom.Element;
 import starfish.core.boundaries.Boundary;
 import starfish.core.boundaries.Field1D;
@@ -26,6 +25,8 @@ import starfish.core.domain.FieldManager2D;
 import starfish.core.domain.Mesh;
 import starfish.core.interactions.MaterialInteraction;
 import starfish.core.common.Vector;
+import starfish.core.io.CheckpointReader;
+import starfish.core.io.CheckpointWriter;
 import starfish.core.io.InputParser;
 import starfish.core.source.ParticleListSource;
 
@@ -664,7 +665,7 @@ public abstract class Material
      * @throws IOException
      */
 
-    public void saveRestartData(DataOutputStream out)throws IOException {Log.warning("saveRestartData not yet implemented for "+name);}
+    public void saveRestartData(CheckpointWriter out)throws IOException {Log.warning("saveRestartData not yet implemented for "+name);}
 
     /*saves data to file, should be reimplemented by derived classes*/
 
@@ -674,7 +675,23 @@ public abstract class Material
      * @throws IOException
      */
 
-    public void loadRestartData(DataInputStream in)throws IOException {Log.warning("loadRestartData not yet implemented for "+name);}
+    public void loadRestartData(CheckpointReader in)throws IOException {Log.warning("loadRestartData not yet implemented for "+name);}
+
+    /**
+     * Reads restart data, parts that are independent of each other may be
+     * added to tasks instead, these are run in parallel by the restart module
+     * @param in
+     * @param tasks
+     * @throws IOException
+     */
+    public void loadRestartData(CheckpointReader in, ArrayList<CheckpointReader.Task> tasks)throws IOException {loadRestartData(in);}
+
+    /**
+     * @param copy if true, the data is copied so that the task can run on another
+     * thread while the simulation continues
+     * @return task that saves the restart data
+     */
+    public CheckpointWriter.Task getRestartData(boolean copy) {return this::saveRestartData;}
 
     /**
      * initializes material interactions
@@ -874,6 +891,12 @@ public abstract class Material
      */
 
     public double[] sampleMaxwellianVelocity(Mesh mesh, double[] lc, double T_min, double T_max)
+    {
+	return sampleMaxwellianVelocity(mesh, lc, T_min, T_max, Starfish.getRandom());
+    }
+
+    /** same as above but draws from the given generator*/
+    public double[] sampleMaxwellianVelocity(Mesh mesh, double[] lc, double T_min, double T_max, Random rnd)
     {
 	//stream velocity
 	double vel[] = sampleVelocity(mesh, lc);
@@ -885,7 +908,7 @@ public abstract class Material
 	if (T_max>0 && T>T_max) T=T_max;
 	
 	double v_th = Utils.computeVth(T, getMass());
-	double v_max[] = Utils.SampleMaxw3D(v_th);
+	double v_max[] = Utils.SampleMaxw3D(v_th, rnd);
 	for (int i=0;i<3;i++) vel[i] += v_max[i];
 
 	return vel;
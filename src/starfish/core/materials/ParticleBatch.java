@@ -0,0 +1,76 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.materials;
+
+import java.util.Arrays;
+import starfish.core.materials.KineticMaterial.Particle;
+
+/**
+ * Buffer of particles waiting to be added to a kinetic material. Data is kept
+ * in flat primitive arrays, vector k occupies [3k,3k+2], so sources can fill a
+ * batch without synchronization and KineticMaterial.addParticles can process it
+ * in bulk. Buffers grow as needed and are reused between time steps.
+ */
+public class ParticleBatch
+{
+    public double pos[] = new double[3*64];
+    public double vel[] = new double[3*64];
+    public double lc[] = new double[2*64];	    //NaN if not known
+    public double mpw[] = new double[64];
+    protected int count = 0;
+
+    /*set by KineticMaterial.addParticles, index into the mesh list or -1 if the
+    particle was not inside any mesh*/
+    protected int mesh_index[] = new int[64];
+
+    /** @return number of particles in the batch*/
+    public int size() {return count;}
+
+    /** empties the batch, keeps the buffers*/
+    public void clear() {count = 0;}
+
+    /** @return true if particle k was added to the simulation by the last addParticles call*/
+    public boolean isAdded(int k) {return mesh_index[k]>=0;}
+
+    /** makes sure the batch can hold n particles*/
+    public void ensureCapacity(int n)
+    {
+	if (n<=mpw.length) return;
+	int cap = Math.max(n, 2*mpw.length);
+	pos = Arrays.copyOf(pos, 3*cap);
+	vel = Arrays.copyOf(vel, 3*cap);
+	lc = Arrays.copyOf(lc, 2*cap);
+	mpw = Arrays.copyOf(mpw, cap);
+	mesh_index = Arrays.copyOf(mesh_index, cap);
+    }
+
+    /** appends a particle with unknown logical coordinates
+     * @return index of the new entry*/
+    public int add(double x[], double v[], double w)
+    {
+	ensureCapacity(count+1);
+	int k = count++;
+	pos[3*k] = x[0]; pos[3*k+1] = x[1]; pos[3*k+2] = x[2];
+	vel[3*k] = v[0]; vel[3*k+1] = v[1]; vel[3*k+2] = v[2];
+	lc[2*k] = Double.NaN; lc[2*k+1] = Double.NaN;
+	mpw[k] = w;
+	return k;
+    }
+
+    /** appends a sampled particle, logical coordinates are kept if set
+     * @return index of the new entry*/
+    public int add(Particle part)
+    {
+	int k = add(part.pos, part.vel, part.mpw);
+	if (part.lc!=null)
+	{
+	    lc[2*k] = part.lc[0];
+	    lc[2*k+1] = part.lc[1];
+	}
+	return k;
+    }
+}
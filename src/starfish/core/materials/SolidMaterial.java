@@ -7,10 +7,10 @@
 
 package starfish.core.materials;
 
-import java.io.DataInputStream;
 import java.io.IOException;
 import org.w3c.dom.Element;
 import starfish.core.common.Starfish;
+import starfish.core.io.CheckpointReader;
 import starfish.core.materials.MaterialsModule.MaterialParser;
 
 /** solid material, does not change in density*/
@@ -51,6 +51,6 @@ public class SolidMaterial extends Material
      * @throws IOException
      */
     @Override 
-    public void loadRestartData(DataInputStream in)throws IOException {}
+    public void loadRestartData(CheckpointReader in)throws IOException {}
 
 }
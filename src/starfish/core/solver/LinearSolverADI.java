@@ -1,21 +1,18 @@
 /*
  * (c) 2012-2018 Particle In Cell Consulting LLC
- * 
- * implements the ADI method
- * multidomain not currently supported
+ *
+ * implements the Peaceman-Rachford ADI method
  */
 package starfish.core.solver;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
 import starfish.core.domain.FieldCollection2D;
+import starfish.core.domain.Mesh;
 import starfish.core.solver.Solver.LinearSolver;
 import starfish.core.solver.Solver.MeshData;
 
@@ -25,165 +22,421 @@ import starfish.core.solver.Solver.MeshData;
  */
 public class LinearSolverADI implements LinearSolver
 {
-    class ParLinearGS<K> implements Callable
+    /*coefficients of each mesh, reused while only the diagonal of A changes*/
+    protected WeakHashMap<MeshData,ADIData> cache = new WeakHashMap<>();
+
+    /**
+     * Coefficients of a single mesh split into the i-direction (H) and j-direction
+     * (V) parts. Two point rows, such as the first order Neumann boundaries, are
+     * first eliminated by substituting them into the rows that reference them. This
+     * folds the boundary condition into the neighbor's stencil, otherwise the H and
+     * V operators no longer commute at the boundaries and the shift cycle becomes
+     * unstable. Rows are then scaled by their diagonal and the diagonal is split
+     * between H and V in proportion to the magnitude of the couplings in each
+     * direction. Rows that still couple in only one direction are solved in that
+     * direction only and held fixed by the other sweep. Remaining off-diagonal
+     * terms, such as those from the 9-point stencil of non-uniform meshes, are
+     * lagged into the right hand side.
+     */
+    class ADIData
     {
-	int i_min,i_max;
-	Matrix A;
-	double x[],b[];
-	double Ax_neigh[];
-	protected int id;
-	
-	ParLinearGS(int id, int i_min, int i_max, MeshData md)
+	int ni, nj, nu;
+	double s[];		/*row scaling, 1/diagonal of the reduced matrix*/
+	double hd[];		/*part of the scaled diagonal assigned to H, V gets 1-hd*/
+	boolean has_h[];	/*does the row couple along i*/
+	boolean has_v[];	/*does the row couple along j*/
+	double hw[], he[];	/*H couplings to u-1 and u+1*/
+	double vs[], vn[];	/*V couplings to u-ni and u+ni*/
+	int rem_ptr[];		/*remaining terms in compressed row storage*/
+	int rem_col[];
+	double rem_val[];
+
+	boolean elim[];		/*was the row eliminated*/
+	int sub_ptr[];		/*right hand side of eliminated rows substituted into other rows*/
+	int sub_col[];
+	double sub_val[];
+	double g[];		/*scaled right hand side of the reduced system*/
+
+	/*copy of A in compressed row storage, used to detect changes*/
+	int a_ptr[], a_col[];
+	double a_val[];
+
+	/*reduced matrix, entries point to the value in A they start from (or -1)*/
+	int r_ptr[], r_col[], r_src[];
+	byte r_kind[];
+	double r_val[];
+
+	/*substitution of eliminated row u into row w, indexes of A(w,u), A(u,u), A(u,p)
+	in a_val and of the reduced entry (w,p)*/
+	int sub_wu[], sub_uu[], sub_up[], sub_slot[];
+	double sub_k[];
+
+	static final byte DIAG=0, HW=1, HE=2, VS=3, VN=4, REM=5;
+
+	/*work vectors for the batched tridiagonal solver*/
+	double ta[], tb[], tc[], td[], work[];
+
+	@SuppressWarnings("unchecked")
+	ADIData(MeshData md)
 	{
-	    this.id=id;
-	    this.A=md.A;
-	    this.x=md.x;
-	    this.b=md.b;
-	    this.Ax_neigh = md.Ax_neigh;
-	    this.i_min=i_min;
-	    this.i_max=i_max<A.nr?i_max:A.nr;
+	    Mesh mesh = md.mesh;
+	    ni = mesh.ni;
+	    nj = mesh.nj;
+	    nu = ni*nj;
+	    s = new double[nu];
+	    hd = new double[nu];
+	    has_h = new boolean[nu];
+	    has_v = new boolean[nu];
+	    hw = new double[nu]; he = new double[nu];
+	    vs = new double[nu]; vn = new double[nu];
+	    ta = new double[nu]; tb = new double[nu]; tc = new double[nu];
+	    td = new double[nu]; work = new double[nu];
+	    g = new double[nu];
+	    elim = new boolean[nu];
+
+	    Matrix A = md.A;
+
+	    /*flatten A*/
+	    a_ptr = new int[nu+1];
+	    for (int u=0;u<nu;u++)
+		a_ptr[u+1] = a_ptr[u]+A.data.get(u).size();
+	    a_col = new int[a_ptr[nu]];
+	    a_val = new double[a_ptr[nu]];
+	    for (int u=0;u<nu;u++)
+	    {
+		int k = a_ptr[u];
+		for (Map.Entry<Integer,Double> it:A.data.get(u).entrySet())
+		{
+		    a_col[k] = it.getKey();
+		    a_val[k] = it.getValue();
+		    k++;
+		}
+	    }
+
+	    /*eliminate rows with a single off-diagonal term, unless it references
+	     another such row*/
+	    for (int u=0;u<nu;u++)
+		elim[u] = rowSize(u)==2 && A.get(u,u)!=0 && rowSize(elimTarget(u))!=2;
+
+	    /*substitute x[u] = (b[u] - A[u][p]*x[p])/A[u][u] into the rows referencing u,
+	    the reduced rows are built with the same maps as the matrix so the entries
+	    come out in the same order*/
+	    ArrayList<HashMap<Integer,Double>> rows = new ArrayList<>();
+	    ArrayList<int[]> subs = new ArrayList<>();
+	    sub_ptr = new int[nu+1];
+	    for (int w=0;w<nu;w++)
+	    {
+		sub_ptr[w] = subs.size();
+		HashMap<Integer,Double> row = (HashMap<Integer,Double>)A.data.get(w).clone();
+		rows.add(row);
+		if (elim[w]) continue;
+
+		for (int k=a_ptr[w];k<a_ptr[w+1];k++)
+		{
+		    int u = a_col[k];
+		    if (u==w || !elim[u]) continue;
+		    int p = elimTarget(u);
+		    row.remove(u);
+		    if (!row.containsKey(p)) row.put(p, 0.0);
+		    subs.add(new int[]{u, k, find(u,u), find(u,p), p});
+		}
+	    }
+	    sub_ptr[nu] = subs.size();
+
+	    /*reduced matrix*/
+	    r_ptr = new int[nu+1];
+	    for (int u=0;u<nu;u++)
+		r_ptr[u+1] = r_ptr[u]+rows.get(u).size();
+	    r_col = new int[r_ptr[nu]];
+	    r_src = new int[r_ptr[nu]];
+	    r_kind = new byte[r_ptr[nu]];
+	    r_val = new double[r_ptr[nu]];
+	    int nr = 0;
+	    for (int u=0;u<nu;u++)
+	    {
+		int k = r_ptr[u];
+		for (Integer c:rows.get(u).keySet())
+		{
+		    r_col[k] = c;
+		    r_src[k] = find(u,c);
+		    if (c==u) r_kind[k] = DIAG;
+		    else if (elim[u] || !isStencilEntry(u,c)) {r_kind[k] = REM; nr++;}
+		    else if (c==u-1) r_kind[k] = HW;
+		    else if (c==u+1) r_kind[k] = HE;
+		    else if (c==u-ni) r_kind[k] = VS;
+		    else r_kind[k] = VN;
+		    k++;
+		}
+	    }
+
+	    int ns = subs.size();
+	    sub_col = new int[ns];
+	    sub_val = new double[ns];
+	    sub_k = new double[ns];
+	    sub_wu = new int[ns]; sub_uu = new int[ns]; sub_up = new int[ns];
+	    sub_slot = new int[ns];
+	    for (int w=0;w<nu;w++)
+		for (int l=sub_ptr[w];l<sub_ptr[w+1];l++)
+		{
+		    int sub[] = subs.get(l);
+		    sub_col[l] = sub[0];
+		    sub_wu[l] = sub[1];
+		    sub_uu[l] = sub[2];
+		    sub_up[l] = sub[3];
+		    for (int k=r_ptr[w];k<r_ptr[w+1];k++)
+			if (r_col[k]==sub[4]) sub_slot[l] = k;
+		}
+
+	    rem_ptr = new int[nu+1];
+	    rem_col = new int[nr];
+	    rem_val = new double[nr];
+
+	    computeValues();
 	}
-	
-	@Override
-	public String call() throws Exception
+
+	/**
+	 * Updates the coefficients if A differs from the matrix this data was built
+	 * from only in the diagonal, as the Newton Jacobian A-diag(P) does.
+	 *
+	 * @return false if the structure or off-diagonal terms changed and the data
+	 * needs to be rebuilt
+	 */
+	boolean update(Matrix A)
 	{
-	    for (int u=i_min;u<i_max;u++)
-	    {		
-		/* tau = [A-D]x */
-		double tau = A.multRowNonDiag(x, u);
-		double g = (b[u] - Ax_neigh[u] - tau) / A.get(u,u);
+	    boolean changed = false;
+	    for (int u=0;u<nu;u++)
+	    {
+		HashMap<Integer,Double> row = A.data.get(u);
+		if (row.size()!=rowSize(u)) return false;
+		for (Map.Entry<Integer,Double> it:row.entrySet())
+		{
+		    int c = it.getKey();
+		    int k = find(u,c);
+		    if (k<0) return false;
+		    double val = it.getValue();
+		    if (val==a_val[k]) continue;
+		    if (c!=u) return false;
 
-		 x[u] = x[u] + 1.4*(g-x[u]); /*SOR*/
+		    /*a zero diagonal changes which rows are eliminated*/
+		    if (rowSize(u)==2 && (val==0)!=(a_val[k]==0)) return false;
+		    changed = true;
+		}
 	    }
-	    
-	    return "OK";
+
+	    if (changed)
+	    {
+		for (int u=0;u<nu;u++)
+		{
+		    int k = find(u,u);
+		    if (k>=0) a_val[k] = A.get(u,u);
+		}
+		computeValues();
+	    }
+	    return true;
+	}
+
+	/*evaluates the reduced and scaled coefficients from a_val*/
+	final void computeValues()
+	{
+	    for (int k=0;k<r_val.length;k++)
+		r_val[k] = r_src[k]>=0?a_val[r_src[k]]:0;
+
+	    for (int l=0;l<sub_k.length;l++)
+	    {
+		sub_k[l] = a_val[sub_wu[l]]/a_val[sub_uu[l]];
+		r_val[sub_slot[l]] += -sub_k[l]*a_val[sub_up[l]];
+	    }
+
+	    int n = 0;
+	    boolean zero_diag = false;
+	    for (int u=0;u<nu;u++)
+	    {
+		double diag = 0;
+		for (int k=r_ptr[u];k<r_ptr[u+1];k++)
+		    if (r_kind[k]==DIAG) diag = r_val[k];
+		if (diag==0) {zero_diag = true; diag = 1;}
+		s[u] = 1/diag;
+
+		for (int l=sub_ptr[u];l<sub_ptr[u+1];l++)
+		    sub_val[l] = sub_k[l]*s[u];
+
+		hw[u] = he[u] = vs[u] = vn[u] = 0;
+		rem_ptr[u] = n;
+		for (int k=r_ptr[u];k<r_ptr[u+1];k++)
+		{
+		    double val = r_val[k]*s[u];
+		    switch (r_kind[k])
+		    {
+			case HW: hw[u] = val; break;
+			case HE: he[u] = val; break;
+			case VS: vs[u] = val; break;
+			case VN: vn[u] = val; break;
+			case REM: rem_col[n] = r_col[k]; rem_val[n] = val; n++; break;
+			default: break;
+		    }
+		}
+
+		double sum_h = Math.abs(hw[u])+Math.abs(he[u]);
+		double sum_v = Math.abs(vs[u])+Math.abs(vn[u]);
+		hd[u] = (sum_h+sum_v>0)?sum_h/(sum_h+sum_v):0.5;
+		has_h[u] = sum_h>0;
+		has_v[u] = sum_v>0;
+	    }
+	    rem_ptr[nu] = n;
+
+	    if (zero_diag)
+		Log.warning("ADI: matrix contains rows with zero diagonal, convergence not guaranteed");
+	}
+
+	final int rowSize(int u) {return a_ptr[u+1]-a_ptr[u];}
+
+	/** @return index of A(u,c) in a_val, or -1 */
+	final int find(int u, int c)
+	{
+	    for (int k=a_ptr[u];k<a_ptr[u+1];k++)
+		if (a_col[k]==c) return k;
+	    return -1;
+	}
+
+	/** @return column of the single off-diagonal term of row u */
+	final int elimTarget(int u)
+	{
+	    for (int k=a_ptr[u];k<a_ptr[u+1];k++)
+		if (a_col[k]!=u) return a_col[k];
+	    return u;
+	}
+
+	/** @return true if column c of row u is handled by the H or V operators */
+	final boolean isStencilEntry(int u, int c)
+	{
+	    return c==u || (c==u-1 && u%ni>0) || (c==u+1 && u%ni<ni-1) || c==u-ni || c==u+ni;
+	}
+
+	/** @return sum of the lagged terms for row u */
+	final double remainder(int u, double x[])
+	{
+	    double sum = 0;
+	    for (int k=rem_ptr[u];k<rem_ptr[u+1];k++)
+		sum += rem_val[k]*x[rem_col[k]];
+	    return sum;
+	}
+
+	/** updates the scaled right hand side of the reduced system */
+	void updateRHS(MeshData md)
+	{
+	    for (int u=0;u<nu;u++)
+	    {
+		double sum = 0;
+		for (int k=sub_ptr[u];k<sub_ptr[u+1];k++)
+		{
+		    int c = sub_col[k];
+		    sum += sub_val[k]*(md.b[c]-md.Ax_neigh[c]);
+		}
+		g[u] = s[u]*(md.b[u]-md.Ax_neigh[u]) - sum;
+	    }
+	}
+
+	/** recovers the eliminated unknowns */
+	void updateEliminated(double x[])
+	{
+	    for (int u=0;u<nu;u++)
+		if (elim[u]) x[u] = g[u] - remainder(u,x);
 	}
-	
     }
 
     /**
-     * solves Ax=b for x using the ADI method
-     * multidomain support not implemented since not really clear where to add the neighbor data
-     * 
-     * Given a 5 point stencil, we can rewrite a A*phi=b as
-     * X*phi + Y*phi = b 
-     * where X is d^2/dx^2 
-     * Then, using some initial guess for phi, we can write
-     * Y*phi1 = b-X*phi0 
-     * which can be solved with a tri-diag algorithm
-     * We then use this solution into
-     * X*phi2 = b-Y*phi1
-     * and so in. This is iterated until convergence
-     * 
+     * Returns the Peaceman-Rachford shift parameters. With rows scaled by the
+     * diagonal, the eigenvalues of H and V fall roughly in [sin^2(pi/2n),1]. The
+     * parameters are spaced geometrically over this range.
+     *
+     * @param n largest number of nodes along a grid line
+     * @return sequence of shift parameters
+     */
+    static double[] makeShifts(int n)
+    {
+	double r_min = Math.pow(Math.sin(0.5*Math.PI/n),2);
+	double r_max = 1.0;
+	int num = (int)Math.ceil(Math.log(r_max/r_min)/Math.log(4));
+	if (num<1) num = 1;
+
+	double shifts[] = new double[num];
+	for (int k=0;k<num;k++)
+	    shifts[k] = r_min*Math.pow(r_max/r_min,(k+0.5)/num);
+	return shifts;
+    }
+
+    /**
+     * solves Ax=b for x using the Peaceman-Rachford ADI method
+     *
+     * The scaled matrix is split into A = H + V + R, where H contains the couplings
+     * along i and its share of the diagonal, V the couplings along j and the rest,
+     * and R everything else. Each iteration with shift r performs two sweeps
+     * (H + r)*x' = b - R*x - (V - r)*x
+     * (V + r)*x = b - R*x' - (H - r)*x'
+     * in which all grid lines are solved in parallel by the batched tridiagonal
+     * solver. Contribution from neighbor meshes is included through Ax_neigh, which
+     * is updated once per iteration.
+     *
      * @param mesh_data
-     * @return 
+     * @return
      */
+    @Override
     public int solve(MeshData mesh_data[], FieldCollection2D fc, int max_it, double tolerance)
     {
-	if (mesh_data.length>1)
-	    Log.error("ADI multi-domain support not yet implemented");
-	
-	MeshData md = mesh_data[0];
-	
-	/* construct the X and Y vectors*/
-	int nu = md.x.length;
-	int ni = md.mesh.ni;
-	double x[] = md.x;
-	double Xa[] = new double[nu];
-	double Xb[] = new double[nu];
-	double Xc[] = new double[nu];
-	double Ya[] = new double[nu];
-	double Yb[] = new double[nu];
-	double Yc[] = new double[nu];
-	double d[] = new double[nu];
-	
+	ADIData adi[] = new ADIData[mesh_data.length];
+	int n_max = 0;
+	for (int m=0;m<mesh_data.length;m++)
+	{
+	    adi[m] = cache.get(mesh_data[m]);
+	    if (adi[m]==null || !adi[m].update(mesh_data[m].A))
+	    {
+		adi[m] = new ADIData(mesh_data[m]);
+		cache.put(mesh_data[m], adi[m]);
+	    }
+	    n_max = Math.max(n_max, Math.max(adi[m].ni,adi[m].nj));
+	}
+
+	double shifts[] = makeShifts(n_max);
+
 	/* SOLVER */
 	int it = 1;			/*start with one so we don't compute residue on first run*/
 	double norm=1e66;
 	while (it <= max_it)
 	{
-	    /*** update boundaries**/	    
+	    /*** update boundaries**/
 	    Solver.updateGhostVector(mesh_data, fc);
 
-	    //reset diagonals
-	    for (int u=0;u<nu;u++)
-	    {
-		Xb[u] = md.A.get(u, u);
-		Yb[u] = Xb[u];
-		d[u] = md.b[u];
-
-		if (u>=1)
-		    Xa[u] = md.A.get(u,u-1);
-		if (u<nu-1)
-		    Xc[u] = md.A.get(u,u+1);
-		if (u>=ni)
-		    Ya[u] = md.A.get(u,u-ni);
-		if (u<nu-ni)
-		    Yc[u] = md.A.get(u,u+ni);	    
-	    }
-	
-	    //compute RHS = b-X*phi or b-Y*phi
-	    if (it%2==0)
-	    {
-		//RHS = b-X*phi
-		for (int u=0;u<nu;u++)
-		    d[u] = md.b[u] - Xa[u]*(u>0?x[u-1]:0) 
-			    -Xb[u]*x[u] - Xc[u]*(u<nu-1?x[u+1]:0);
-		
-		//solve Y*phi = RHS with Thomas alg
-		Yc[0] = Yc[0]/Yb[0];
-		d[0] = d[0]/Yb[0];
-		for (int u=1;u<nu;u++)
-		{
-		    Yc[u] = Yc[u]/(Yb[u]-Ya[u]*Yc[u-1]);
-		    d[u] = (d[u]-Ya[u]*d[u-1])/(Yb[u]-Ya[u]*Yc[u-1]);
-		}
-		    
-		x[nu-1] = d[nu-1];
-		for (int u=nu-2;u>=0;u--)
-		    x[u] = d[u] - Yc[u]*x[u+1];
-	    }
-	    else
+	    double r = shifts[(it-1)%shifts.length];
+
+	    for (int m=0;m<mesh_data.length;m++)
 	    {
-		//RHS = b-Y*phi
-		for (int u=0;u<nu;u++)
-		    d[u] = md.b[u] - Ya[u]*(u>ni-1?x[u-ni]:0) 
-			    -Yb[u]*x[u] - Yc[u]*(u<nu-ni?x[u+ni]:0);	
-		
-		//solve X*phi = RHS with Thomas alg
-		Xc[0] = Xc[0]/Xb[0];
-		d[0] = d[0]/Xb[0];
-		for (int u=1;u<nu;u++)
-		{
-		    Xc[u] = Xc[u]/(Xb[u]-Xa[u]*Xc[u-1]);
-		    d[u] = (d[u]-Xa[u]*d[u-1])/(Xb[u]-Xa[u]*Yc[u-1]);
-		}
-		    
-		x[nu-1] = d[nu-1];
-		for (int u=nu-2;u>=0;u--)
-		    x[u] = d[u] - Xc[u]*x[u+1];
+		adi[m].updateRHS(mesh_data[m]);
+		sweepI(mesh_data[m], adi[m], r);
+		sweepJ(mesh_data[m], adi[m], r);
+		adi[m].updateEliminated(mesh_data[m].x);
 	    }
-	    
-	    
+
 	    /* check convergence */
-	    if (it % 25 == 0)
+	    if (it % 5 == 0)
 	    {
 		norm=0;
 		int nn=0;
-		
-		norm += Solver.calculateResidue(md.A, md.Ax_neigh, md.x, md.b);
-		nn += md.x.length;
-		
+
+		for (MeshData md:mesh_data)
+		{
+		    norm += Solver.calculateResidue(md.A, md.Ax_neigh, md.x, md.b);
+		    nn += md.x.length;
+		}
+
 		norm/=nn;
-		
-		//System.out.println(norm);
+
 		if (norm < tolerance)
 		{
 		    Log.debug(String.format("ADI converged in %d iterations with norm=%g",it,norm));
 		    break;
 		}
 	    }
-		    
+
 	    it++;
 	}
  	it--;
@@ -195,5 +448,72 @@ public class LinearSolverADI implements LinearSolver
 	return it;
     }
 
-    
+    /** implicit sweep along i lines, (H + r)*x' = b - R*x - (V - r)*x */
+    void sweepI(MeshData md, ADIData adi, double r)
+    {
+	int ni = adi.ni, nu = adi.nu;
+	double x[] = md.x;
+
+	for (int u=0;u<nu;u++)
+	{
+	    if (!adi.has_h[u])
+	    {
+		holdRow(md, adi, u);
+		continue;
+	    }
+
+	    double vx = (1-adi.hd[u]-r)*x[u];
+	    if (u>=ni) vx += adi.vs[u]*x[u-ni];
+	    if (u<nu-ni) vx += adi.vn[u]*x[u+ni];
+
+	    adi.td[u] = adi.g[u] - adi.remainder(u,x) - vx;
+	    adi.ta[u] = adi.hw[u];
+	    adi.tb[u] = adi.hd[u]+r;
+	    adi.tc[u] = adi.he[u];
+	}
+
+	TridiagonalSolver.solve(adi.ta, adi.tb, adi.tc, adi.td, x, adi.work, adi.nj, ni, ni, 1);
+    }
+
+    /** implicit sweep along j lines, (V + r)*x = b - R*x' - (H - r)*x' */
+    void sweepJ(MeshData md, ADIData adi, double r)
+    {
+	int ni = adi.ni, nu = adi.nu;
+	double x[] = md.x;
+
+	for (int u=0;u<nu;u++)
+	{
+	    if (!adi.has_v[u])
+	    {
+		holdRow(md, adi, u);
+		continue;
+	    }
+
+	    int i = u%ni;
+	    double hx = (adi.hd[u]-r)*x[u];
+	    if (i>0) hx += adi.hw[u]*x[u-1];
+	    if (i<ni-1) hx += adi.he[u]*x[u+1];
+
+	    adi.td[u] = adi.g[u] - adi.remainder(u,x) - hx;
+	    adi.ta[u] = adi.vs[u];
+	    adi.tb[u] = 1-adi.hd[u]+r;
+	    adi.tc[u] = adi.vn[u];
+	}
+
+	TridiagonalSolver.solve(adi.ta, adi.tb, adi.tc, adi.td, x, adi.work, ni, adi.nj, 1, ni);
+    }
+
+    /** sets row u of the tridiagonal system to either keep the current value, if
+     * the row is solved by the other sweep, or to the diagonal solve for rows that
+     * do not couple in either direction */
+    void holdRow(MeshData md, ADIData adi, int u)
+    {
+	adi.ta[u] = 0;
+	adi.tb[u] = 1;
+	adi.tc[u] = 0;
+	if (adi.has_h[u] || adi.has_v[u])
+	    adi.td[u] = md.x[u];
+	else
+	    adi.td[u] = adi.g[u] - adi.remainder(u,md.x);
+    }
 }
@@ -1,18 +1,21 @@
 /*
  * (c) 2012-2018 Particle In Cell Consulting LLC
- * 
- * Implements a 1D solver in which data along the minor dimension is averaged
- * this should be general to support either dimension but for now hardoded for "i" since
- * no clear way how to pass this information to the solver
  *
- * This document is subject to the license specified in 
+ * Implements a 1D solver in which data along the minor dimension is averaged.
+ * The solve direction is selectable. Multiple meshes are supported by merging
+ * their grid lines into a single 1D profile ordered by position along the
+ * solve direction, nodes shared by neighboring meshes are collapsed into one.
+ *
+ * This document is subject to the license specified in
  * Starfish.java and the LICENSE file
  */
 package starfish.core.solver;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import starfish.core.common.Constants;
 import starfish.core.common.Starfish;
-import starfish.core.common.Starfish.Log;
 import starfish.core.domain.FieldCollection2D;
 import starfish.core.domain.Mesh;
 import starfish.core.solver.Solver.LinearSolver;
@@ -24,95 +27,155 @@ import starfish.core.solver.Solver.MeshData;
  */
 public class LinearSolverDirect1D implements LinearSolver
 {
-    
+    /**direction of the 1D solve*/
+    public enum Direction {I, J};
+
+    protected Direction dir;
+    protected int num_smooth;	    //number of smoothing passes applied to the RHS
+
+    public LinearSolverDirect1D()
+    {
+	this(Direction.I, 10);
+    }
+
+    /**
+     * @param dir direction along which the solution varies
+     * @param num_smooth number of smoothing passes, 0 to disable filtering
+     */
+    public LinearSolverDirect1D(Direction dir, int num_smooth)
+    {
+	this.dir = dir;
+	this.num_smooth = num_smooth;
+    }
+
+    /** grid line of a single mesh, identified by its index along the solve direction*/
+    class MeshLine
+    {
+	MeshData md;
+	int index;	    //i for Direction.I, j for Direction.J
+	double pos;	    //position along the solve direction
+	double d;	    //RHS averaged over the transverse direction
+	boolean dirichlet;  //is the line midpoint a fixed node
+	int node;	    //index into the merged 1D profile
+    }
+
     @Override
     public int solve(Solver.MeshData[] mesh_data, FieldCollection2D fc, int max_it, double tolerance)
     {
-	/*supports only mesh*/
-	if (mesh_data.length>1 && Starfish.getIt()==0)
-	    Log.warning("LinearSolverDirect1D not yet implemented for multiple domains");
-	
-	MeshData md = mesh_data[0];
-	Mesh mesh = md.mesh;
-	
-	double a[] = new double[mesh.ni];
-	double b[] = new double[mesh.ni];
-	double c[] = new double[mesh.ni];
-	double d[] = new double[mesh.ni];
-	double w[] = new double[mesh.ni];
-	double x[] = new double[mesh.ni];
-	
-	for (int i=0;i<mesh.ni;i++)
+	/*collect grid lines from all meshes*/
+	ArrayList<MeshLine> lines = new ArrayList<>();
+	for (MeshData md:mesh_data)
+	{
+	    Mesh mesh = md.mesh;
+	    int nl = (dir==Direction.I)?mesh.ni:mesh.nj;
+	    int nt = (dir==Direction.I)?mesh.nj:mesh.ni;
+	    int t_half = (int)(0.5*nt);
+
+	    for (int l=0;l<nl;l++)
+	    {
+		MeshLine line = new MeshLine();
+		line.md = md;
+		line.index = l;
+		line.pos = (dir==Direction.I)?mesh.pos1(l,t_half):mesh.pos2(t_half,l);
+		line.dirichlet = (dir==Direction.I)?mesh.isDirichletNode(l,t_half):mesh.isDirichletNode(t_half,l);
+
+		/*average RHS data*/
+		line.d = 0;
+		for (int t=0;t<nt;t++)
+		    line.d += md.b[lineIJtoN(mesh,l,t)];
+		line.d /= nt;
+		lines.add(line);
+	    }
+	}
+
+	/*sort by position and merge lines located at the same position*/
+	Collections.sort(lines, Comparator.comparingDouble(line -> line.pos));
+	double range = lines.get(lines.size()-1).pos - lines.get(0).pos;
+	double eps = 1e-8*range;
+
+	ArrayList<Double> pos_list = new ArrayList<>();
+	ArrayList<Double> d_list = new ArrayList<>();
+	ArrayList<Boolean> fixed_list = new ArrayList<>();
+	int count = 0;
+	for (MeshLine line:lines)
 	{
-	    d[i] = 0;
-	    /*average RHS data*/
-	    for (int j=0;j<mesh.nj;j++)
+	    int n = pos_list.size()-1;
+	    if (n>=0 && line.pos-pos_list.get(n)<eps)
 	    {
-		int u = mesh.IJtoN(i, j);
-		d[i] += md.b[u];		
+		/*shared node, average the RHS*/
+		count++;
+		d_list.set(n, d_list.get(n)+(line.d-d_list.get(n))/count);
+		fixed_list.set(n, fixed_list.get(n) || line.dirichlet);
 	    }
-	    d[i] /= mesh.nj;
+	    else
+	    {
+		count = 1;
+		pos_list.add(line.pos);
+		d_list.add(line.d);
+		fixed_list.add(line.dirichlet);
+	    }
+	    line.node = pos_list.size()-1;
+	}
+
+	int nn = pos_list.size();
+	double pos[] = new double[nn];
+	double d[] = new double[nn];
+	boolean fixed[] = new boolean[nn];
+	for (int n=0;n<nn;n++)
+	{
+	    pos[n] = pos_list.get(n);
+	    d[n] = d_list.get(n);
+	    fixed[n] = fixed_list.get(n);
 	}
-	
+
 	/*apply filtering*/
-	boolean filtering = true;
-	if (filtering)
+	if (num_smooth>0)
 	{
-	    double alpha = 0.7;	//large value to keep tight corners
-	    int nn = d.length;
-	    
-	    for (int s=0;s<10;s++)  //repeat smoothing 10 times
-	    {	    
-		//forward
-		double df[] = new double[nn];
-		df[1] = d[1];   //skip first node as b.c.
-		for (int i=2;i<nn-1;i++)
-		    df[i] = (1-alpha)*df[i-1] + alpha*d[i];
-
-		//backward
-		double db[] = new double[nn];
-		db[nn-2] = d[nn-2];
-		for (int i=nn-2;i>=1;i--)
-		    db[i] = (1-alpha)*db[i+1]+alpha*d[i];
-
-		for (int i=1;i<nn-1;i++) //skip boundaries
+	    smooth(d, fixed);
+
+	    /*set global data*/
+	    for (MeshLine line:lines)
+	    {
+		Mesh mesh = line.md.mesh;
+		double rho[][] = Starfish.domain_module.getRho(mesh).getData();
+		int nt = (dir==Direction.I)?mesh.nj:mesh.ni;
+		for (int t=0;t<nt;t++)
 		{
-		    int nj_half = (int)(0.5*mesh.nj);
-		    if (!mesh.isDirichletNode(i,nj_half))
-			d[i] = 0.5*(df[i]+db[i]);	//average
+		    int i = (dir==Direction.I)?line.index:t;
+		    int j = (dir==Direction.I)?t:line.index;
+		    if (!mesh.isDirichletNode(i,j))
+			rho[i][j] = d[line.node]*Constants.EPS0;
 		}
 	    }
-	    
-	    /*set global data*/
-	    double rho[][] = Starfish.domain_module.getRho(mesh).getData();
-	    for (int i=0;i<mesh.ni;i++)
-		for (int j=0;j<mesh.nj;j++)
-		    if (!mesh.isDirichletNode(i,j))
-			rho[i][j] = d[i]*Constants.EPS0;
-	    
 	}
-	
-	/*initialize coefficients to those along midpoint*/
-	int nj_half = (int)(0.5*mesh.nj);
-	double dx = mesh.pos1(1,0) - mesh.pos1(0,0);
-	for (int i=1;i<mesh.ni-1;i++)
+
+	double a[] = new double[nn];
+	double b[] = new double[nn];
+	double c[] = new double[nn];
+	double x[] = new double[nn];
+	double work[] = new double[nn];
+
+	/*3 point stencil on the (possibly non-uniform) merged nodes*/
+	for (int n=1;n<nn-1;n++)
 	{
-	   if (mesh.isDirichletNode(i,nj_half))
+	   if (fixed[n])
 	   {
-	       a[i] = 0;
-	       b[i] = 1;
-	       c[i] = 0;
+	       a[n] = 0;
+	       b[n] = 1;
+	       c[n] = 0;
 	   }
 	   else
 	   {
-		a[i] = 1/(dx*dx);
-		b[i] = -2/(dx*dx);
-		c[i] = 1/(dx*dx);
+		double hl = pos[n]-pos[n-1];
+		double hr = pos[n+1]-pos[n];
+		a[n] = 2/(hl*(hl+hr));
+		c[n] = 2/(hr*(hl+hr));
+		b[n] = -(a[n]+c[n]);
 	   }
 	}
-	
+
 	/*boundaries*/
-	if (mesh.isDirichletNode(0,nj_half))
+	if (fixed[0])
 	{
 	    a[0] = 0;
 	    b[0] = 1;
@@ -124,41 +187,70 @@ public class LinearSolverDirect1D implements LinearSolver
 	    b[0] = 1;
 	    c[0] = -1;
 	}
-	
-	if (mesh.isDirichletNode(mesh.ni-1,nj_half))
+
+	if (fixed[nn-1])
 	{
-	    a[mesh.ni-1] = 0;
-	    b[mesh.ni-1] = 1;
-	    c[mesh.ni-1] = 1;
+	    a[nn-1] = 0;
+	    b[nn-1] = 1;
+	    c[nn-1] = 0;
 	}
 	else
 	{
-	    a[mesh.ni-1] = -1;
-	    b[mesh.ni-1] = 1;
-	    c[mesh.ni-1] = 0;
+	    a[nn-1] = -1;
+	    b[nn-1] = 1;
+	    c[nn-1] = 0;
 	}
-	 
-	/*forward sweep, non-coefficient preserving method from wikipedia*/
-	for (int i=1;i<mesh.ni;i++)
+
+	TridiagonalSolver.solve(a, b, c, d, x, work, 1, nn, nn, 1);
+
+	/*now populate the 1D solution to the 2D arrays*/
+	for (MeshLine line:lines)
 	{
-	    w[i] = a[i]/b[i-1];
-	    b[i] -= w[i]*c[i-1];
-	    d[i] -= w[i]*d[i-1];
+	    Mesh mesh = line.md.mesh;
+	    int nt = (dir==Direction.I)?mesh.nj:mesh.ni;
+	    for (int t=0;t<nt;t++)
+		line.md.x[lineIJtoN(mesh,line.index,t)] = x[line.node];
 	}
-	
-	/*back substitution*/
-	x[mesh.ni-1] = d[mesh.ni-1]/b[mesh.ni-1];
-	for (int i=mesh.ni-2;i>=0;i--)
-	    x[i] = (d[i]-c[i]*x[i+1])/b[i];
-	
-	/*now populate the 1D solution to the 2D array*/
-	for (int i=0;i<mesh.ni;i++)
-	    for (int j=0;j<mesh.nj;j++)
+	return 0;
+    }
+
+    /**@return unknown index of node t on line l*/
+    int lineIJtoN(Mesh mesh, int l, int t)
+    {
+	return (dir==Direction.I)?mesh.IJtoN(l,t):mesh.IJtoN(t,l);
+    }
+
+    /**forward-backward exponential filter applied num_smooth times,
+     * end nodes and fixed nodes are not modified
+     * @param d data to smooth
+     * @param fixed fixed node flags
+     */
+    void smooth(double d[], boolean fixed[])
+    {
+	double alpha = 0.7;	//large value to keep tight corners
+	int nn = d.length;
+	if (nn<4) return;
+
+	double df[] = new double[nn];
+	double db[] = new double[nn];
+
+	for (int s=0;s<num_smooth;s++)
+	{
+	    //forward
+	    df[1] = d[1];   //skip first node as b.c.
+	    for (int i=2;i<nn-1;i++)
+		df[i] = (1-alpha)*df[i-1] + alpha*d[i];
+
+	    //backward
+	    db[nn-2] = d[nn-2];
+	    for (int i=nn-2;i>=1;i--)
+		db[i] = (1-alpha)*db[i+1]+alpha*d[i];
+
+	    for (int i=1;i<nn-1;i++) //skip boundaries
 	    {
-		int u = mesh.IJtoN(i,j);
-		md.x[u] = x[i];
+		if (!fixed[i])
+		    d[i] = 0.5*(df[i]+db[i]);	//average
 	    }
-	return 0;
+	}
     }
-    
 }
@@ -8,6 +8,13 @@ package starfish.core.solver;
 
 import starfish.core.common.Vector;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import starfish.core.common.Constants;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
@@ -131,6 +138,32 @@ public abstract class Solver {
 		public NeighborData A_neigh[];
 		public NeighborData Gi_neigh[];
 		public NeighborData Gj_neigh[];
+
+		// flattened Gi/Gj rows and neighbor contributions used by evaluateGradient
+		public GradientStencil G;
+	}
+
+	/**
+	 * Gradient coefficients flattened into compressed row storage. Row u holds
+	 * entries row_ptr[u] to row_ptr[u+1]-1. Contributions from neighbor meshes are
+	 * expanded into the (up to) four nodes used by the bilinear gather, so that
+	 * the gradient can be evaluated without the hash map lookups of Matrix or the
+	 * boxed NeighborData lists.
+	 */
+	public static class GradientStencil {
+		int ni; // number of nodes in the i direction, used to map u to (i,j)
+		int nu; // number of rows
+
+		// local nodes
+		int row_ptr[];
+		int col_i[], col_j[];
+		double wi[], wj[];
+
+		// nodes on neighbor meshes, mesh given by index into Starfish.getMeshList()
+		int neigh_ptr[];
+		int neigh_mesh[];
+		int neigh_i[], neigh_j[];
+		double neigh_wi[], neigh_wj[];
 	}
 
 	public MeshData mesh_data[];
@@ -148,6 +181,7 @@ public abstract class Solver {
 	}
 
 	public LinearSolver lin_solver;
+	protected MeshData md_nl[]; /* Newton system of solveNonLinearNR */
 	/* init */
 
 	public void init() {
@@ -245,6 +279,8 @@ public abstract class Solver {
 				}
 			}
 
+		md.G = makeGradientStencil(md);
+
 		/***** 2) set coefficients for potential solver **************/
 		for (i = 0; i < ni; i++)
 			for (j = 0; j < nj; j++) {
@@ -278,6 +314,21 @@ public abstract class Solver {
 		 * @return
 		 */
 		public double[] eval_bx_prime(double x[], boolean fixed[]);
+
+		/**
+		 * evaluates b(x) and db/dx into preallocated buffers. Implementations should
+		 * override this to compute both terms in a single pass, the default calls
+		 * eval_bx and eval_bx_prime.
+		 * 
+		 * @param x       solution vector
+		 * @param fixed   fixed node flags
+		 * @param b_x     output for b(x)
+		 * @param b_prime output for db/dx
+		 */
+		public default void eval(double x[], boolean fixed[], double b_x[], double b_prime[]) {
+			System.arraycopy(eval_bx(x, fixed), 0, b_x, 0, x.length);
+			System.arraycopy(eval_bx_prime(x, fixed), 0, b_prime, 0, x.length);
+		}
 	}
 
 	/**
@@ -294,12 +345,26 @@ public abstract class Solver {
 		int it;
 		double norm = -1;
 
-		MeshData md_nl[] = new MeshData[mesh_data.length];
+		/* the Newton system is kept between calls so that the linear solver can reuse its setup */
+		if (md_nl == null || md_nl.length != mesh_data.length)
+			md_nl = new MeshData[mesh_data.length];
 		for (int k = 0; k < mesh_data.length; k++) {
-			md_nl[k] = new MeshData();
-			md_nl[k].mesh = mesh_data[k].mesh;
-			md_nl[k].x = new double[mesh_data[k].x.length];
-			md_nl[k].Ax_neigh = new double[mesh_data[k].x.length];
+			if (md_nl[k] == null || md_nl[k].mesh != mesh_data[k].mesh) {
+				md_nl[k] = new MeshData();
+				md_nl[k].mesh = mesh_data[k].mesh;
+				md_nl[k].x = new double[mesh_data[k].x.length];
+				md_nl[k].Ax_neigh = new double[mesh_data[k].x.length];
+			}
+			Arrays.fill(md_nl[k].x, 0);
+			Arrays.fill(md_nl[k].Ax_neigh, 0);
+		}
+
+		/* buffers for b(x) and P(x), reused by all iterations */
+		double b_buf[][] = new double[mesh_data.length][];
+		double P_buf[][] = new double[mesh_data.length][];
+		for (int k = 0; k < mesh_data.length; k++) {
+			b_buf[k] = new double[mesh_data[k].x.length];
+			P_buf[k] = new double[mesh_data[k].x.length];
 		}
 
 		/* create a new field collection to store y */
@@ -313,14 +378,15 @@ public abstract class Solver {
 			for (int k = 0; k < mesh_data.length; k++) {
 				Mesh mesh = md_nl[k].mesh;
 
-				/* calculate b(x) */
-				double b_x[] = nl_eval.eval_bx(mesh_data[k].x, mesh_data[k].fixed_node);
+				/* calculate b(x) and P(x) = db/dx */
+				double b[] = b_buf[k];
+				double P[] = P_buf[k];
+				nl_eval.eval(mesh_data[k].x, mesh_data[k].fixed_node, b, P);
 
 				/* rhs: b=b0+b_x */
-				double b[] = Vector.add(mesh_data[k].b, b_x);
-
-				/* calculate P(x) = db/dx */
-				double P[] = nl_eval.eval_bx_prime(mesh_data[k].x, mesh_data[k].fixed_node);
+				double b0[] = mesh_data[k].b;
+				for (int n = 0; n < b.length; n++)
+					b[n] = b0[n] + b[n];
 
 				for (int i = 0; i < mesh.ni; i++)
 					for (int j = 0; j < mesh.nj; j++) {
@@ -771,6 +837,124 @@ public abstract class Solver {
 	 */
 	public abstract void updateGradientField();
 
+	/**
+	 * flattens the Gi and Gj matrices and the Gi_neigh/Gj_neigh data of a mesh
+	 * into a GradientStencil
+	 * 
+	 * @param md mesh data with initialized gradient coefficients
+	 * @return gradient stencil
+	 */
+	static GradientStencil makeGradientStencil(MeshData md) {
+		Mesh mesh = md.mesh;
+		GradientStencil G = new GradientStencil();
+		G.ni = mesh.ni;
+		G.nu = md.Gi.nr;
+
+		/* local nodes, union of the non-zero columns of Gi and Gj */
+		int nnz = 0;
+		for (int u = 0; u < G.nu; u++) {
+			nnz += md.Gi.data.get(u).size();
+			for (Integer c : md.Gj.data.get(u).keySet())
+				if (!md.Gi.data.get(u).containsKey(c))
+					nnz++;
+		}
+
+		G.row_ptr = new int[G.nu + 1];
+		G.col_i = new int[nnz];
+		G.col_j = new int[nnz];
+		G.wi = new double[nnz];
+		G.wj = new double[nnz];
+
+		int k = 0;
+		for (int u = 0; u < G.nu; u++) {
+			G.row_ptr[u] = k;
+			for (Map.Entry<Integer, Double> it : md.Gi.data.get(u).entrySet()) {
+				int c = it.getKey();
+				G.col_i[k] = c % G.ni;
+				G.col_j[k] = c / G.ni;
+				G.wi[k] = it.getValue();
+				G.wj[k] = md.Gj.get(u, c);
+				k++;
+			}
+			for (Map.Entry<Integer, Double> it : md.Gj.data.get(u).entrySet()) {
+				int c = it.getKey();
+				if (md.Gi.data.get(u).containsKey(c))
+					continue;
+				G.col_i[k] = c % G.ni;
+				G.col_j[k] = c / G.ni;
+				G.wi[k] = 0;
+				G.wj[k] = it.getValue();
+				k++;
+			}
+		}
+		G.row_ptr[G.nu] = k;
+
+		/* neighbor nodes, up to four interpolation nodes per neighbor point */
+		ArrayList<Mesh> mesh_list = Starfish.getMeshList();
+		ArrayList<double[]> entries = new ArrayList<>();
+		G.neigh_ptr = new int[G.nu + 1];
+		for (int u = 0; u < G.nu; u++) {
+			G.neigh_ptr[u] = entries.size();
+			addNeighborEntries(entries, md.Gi_neigh[u], mesh_list, true);
+			addNeighborEntries(entries, md.Gj_neigh[u], mesh_list, false);
+		}
+		G.neigh_ptr[G.nu] = entries.size();
+
+		int nn = entries.size();
+		G.neigh_mesh = new int[nn];
+		G.neigh_i = new int[nn];
+		G.neigh_j = new int[nn];
+		G.neigh_wi = new double[nn];
+		G.neigh_wj = new double[nn];
+		for (int n = 0; n < nn; n++) {
+			double e[] = entries.get(n);
+			G.neigh_mesh[n] = (int) e[0];
+			G.neigh_i[n] = (int) e[1];
+			G.neigh_j[n] = (int) e[2];
+			G.neigh_wi[n] = e[3];
+			G.neigh_wj[n] = e[4];
+		}
+
+		return G;
+	}
+
+	/**
+	 * expands neighbor data into {mesh index, i, j, wi, wj} entries using the same
+	 * weights as Field2D.gather_safe
+	 */
+	private static void addNeighborEntries(ArrayList<double[]> entries, NeighborData nd, ArrayList<Mesh> mesh_list,
+			boolean is_i) {
+		if (nd == null)
+			return;
+
+		for (int k = 0; k < nd.coeff.size(); k++) {
+			Mesh mesh = nd.mesh.get(k);
+			double lc[] = nd.lc.get(k);
+			double coeff = nd.coeff.get(k);
+
+			int i = (int) lc[0];
+			int j = (int) lc[1];
+			double di = lc[0] - i;
+			double dj = lc[1] - j;
+			if (i < 0) {i = 0; di = 0;}
+			if (j < 0) {j = 0; dj = 0;}
+			if (i >= mesh.ni - 1) {i = mesh.ni - 1; di = 0;}
+			if (j >= mesh.nj - 1) {j = mesh.nj - 1; dj = 0;}
+
+			double w[] = { (1 - di) * (1 - dj), di * (1 - dj), di * dj, (1 - di) * dj };
+			int ii[] = { i, i + 1, i + 1, i };
+			int jj[] = { j, j, j + 1, j + 1 };
+			double m = mesh_list.indexOf(mesh);
+
+			for (int n = 0; n < 4; n++) {
+				if (w[n] == 0)
+					continue;
+				double val = coeff * w[n];
+				entries.add(new double[] { m, ii[n], jj[n], is_i ? val : 0, is_i ? 0 : val });
+			}
+		}
+	}
+
 	/**
 	 * evaluates gradient of flattened data "x" times scale and stores it into fi
 	 * and fj
@@ -784,28 +968,99 @@ public abstract class Solver {
 	 */
 	protected void evaluateGradient(double x[], double gi[], double gj[], MeshData md, double scale,
 			FieldCollection2D fc) {
-		md.Gi.mult(x, gi); /* gi = Gi*x */
-		md.Gj.mult(x, gj);
-
-		/* add contribution for mesh neighbors */
-		for (int u = 0; u < md.Gi_neigh.length; u++) {
-			if (md.Gi_neigh[u] != null) {
-				NeighborData nd = md.Gi_neigh[u];
-				for (int k = 0; k < nd.coeff.size(); k++)
-					gi[u] += nd.coeff.get(k) * fc.gather(nd.mesh.get(k), nd.lc.get(k));
+		evaluateGradient(x, null, gi, gj, null, null, md, scale, fc);
+	}
+
+	/**
+	 * evaluates gradient of field "x" times scale and stores it directly into the
+	 * fi and fj fields, without going through flattened vectors
+	 *
+	 * @param x     field to differentiate, defined on md.mesh
+	 * @param fi    field to store the i component into
+	 * @param fj    field to store the j component into
+	 * @param md
+	 * @param scale
+	 * @param fc    field collection for interpolation of neighbor data
+	 */
+	protected void evaluateGradient(Field2D x, Field2D fi, Field2D fj, MeshData md, double scale,
+			FieldCollection2D fc) {
+		evaluateGradient(null, x.getData(), null, null, fi.getData(), fj.getData(), md, scale, fc);
+	}
+
+	/**
+	 * evaluates the gradient in parallel row chunks, input is taken from either x1
+	 * (flat) or x2 (2D) and output is written to either gi/gj or fi/fj
+	 */
+	private void evaluateGradient(double x1[], double x2[][], double gi[], double gj[], double fi[][],
+			double fj[][], MeshData md, double scale, FieldCollection2D fc) {
+		GradientStencil G = md.G;
+
+		/* data on neighbor meshes, indexed the same way as the mesh list */
+		ArrayList<Mesh> mesh_list = Starfish.getMeshList();
+		double neigh_data[][][] = new double[mesh_list.size()][][];
+		if (G.neigh_ptr[G.nu] > 0)
+			for (int m = 0; m < mesh_list.size(); m++)
+				neigh_data[m] = fc.getField(mesh_list.get(m)).getData();
+
+		/* not worth splitting small meshes */
+		int np = Starfish.getNumProcessors();
+		if (np == 1 || G.nu < 1000) {
+			evaluateGradientRows(0, G.nu, x1, x2, gi, gj, fi, fj, G, neigh_data, scale);
+			return;
+		}
+
+		int chunk_size = G.nu / np + 1;
+		Collection<Callable<Object>> workers = new ArrayList<>();
+		for (int u1 = 0; u1 < G.nu; u1 += chunk_size) {
+			final int u_min = u1;
+			final int u_max = Math.min(u1 + chunk_size, G.nu);
+			workers.add(() -> {
+				evaluateGradientRows(u_min, u_max, x1, x2, gi, gj, fi, fj, G, neigh_data, scale);
+				return null;
+			});
+		}
+
+		try {
+			List<Future<Object>> results = Starfish.getWorkerPool().invokeAll(workers);
+			for (Future<Object> result : results)
+				result.get();
+		} catch (InterruptedException | ExecutionException ex) {
+			Log.error("Gradient evaluation failed: " + ex.getMessage());
+		}
+	}
+
+	/** evaluates gradient on rows [u_min, u_max) */
+	private static void evaluateGradientRows(int u_min, int u_max, double x1[], double x2[][], double gi[],
+			double gj[], double fi[][], double fj[][], GradientStencil G, double neigh_data[][][], double scale) {
+		final int ni = G.ni;
+
+		for (int u = u_min; u < u_max; u++) {
+			double sum_i = 0;
+			double sum_j = 0;
+
+			/* local nodes */
+			for (int k = G.row_ptr[u]; k < G.row_ptr[u + 1]; k++) {
+				double val = (x1 != null) ? x1[G.col_j[k] * ni + G.col_i[k]] : x2[G.col_i[k]][G.col_j[k]];
+				sum_i += G.wi[k] * val;
+				sum_j += G.wj[k] * val;
 			}
 
-			if (md.Gj_neigh[u] != null) {
-				NeighborData nd = md.Gj_neigh[u];
-				for (int k = 0; k < nd.coeff.size(); k++)
-					gj[u] += nd.coeff.get(k) * fc.gather(nd.mesh.get(k), nd.lc.get(k));
+			/* add contribution for mesh neighbors */
+			for (int k = G.neigh_ptr[u]; k < G.neigh_ptr[u + 1]; k++) {
+				double val = neigh_data[G.neigh_mesh[k]][G.neigh_i[k]][G.neigh_j[k]];
+				sum_i += G.neigh_wi[k] * val;
+				sum_j += G.neigh_wj[k] * val;
 			}
-		}
 
-		if (scale != 1.0) /* scale data */
-		{
-			Vector.mult(gi, scale, gi);
-			Vector.mult(gj, scale, gj);
+			if (gi != null) {
+				gi[u] = sum_i * scale;
+				gj[u] = sum_j * scale;
+			} else {
+				int i = u % ni;
+				int j = u / ni;
+				fi[i][j] = sum_i * scale;
+				fj[i][j] = sum_j * scale;
+			}
 		}
 	}
 
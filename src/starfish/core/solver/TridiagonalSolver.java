@@ -0,0 +1,124 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.solver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import starfish.core.common.Starfish;
+import starfish.core.common.Starfish.Log;
+
+/**
+ * Batched tridiagonal solver for all grid lines of a flattened (u=j*ni+i) mesh
+ * vector. Line l starts at l*line_offset and its k-th element is located at
+ * l*line_offset+k*stride, so both i lines (line_offset=ni, stride=1) and j lines
+ * (line_offset=1, stride=ni) are solved in place without transposing the data.
+ * Lines are processed in blocks of adjacent lines with the Thomas algorithm
+ * vectorized over the block. For j lines, this makes the inner loop run over
+ * contiguous memory. Blocks are distributed over the worker pool.
+ */
+public class TridiagonalSolver
+{
+    /**number of lines solved together by a single sweep*/
+    static final int BLOCK_SIZE = 16;
+
+    /**don't bother with threads for systems smaller than this*/
+    static final int MIN_PARALLEL_SIZE = 4096;
+
+    /** solves a[u]*x[u-stride] + b[u]*x[u] + c[u]*x[u+stride] = d[u] on all lines
+     *
+     * @param a sub-diagonal, a[first element of line] is ignored
+     * @param b diagonal
+     * @param c super-diagonal, c[last element of line] is ignored
+     * @param d right hand side, overwritten
+     * @param x solution vector
+     * @param work scratch space of the same size as x
+     * @param num_lines number of lines
+     * @param len number of elements on each line
+     * @param line_offset distance between the first elements of consecutive lines
+     * @param stride distance between consecutive elements on a line
+     */
+    public static void solve(double a[], double b[], double c[], double d[], double x[], double work[],
+	    int num_lines, int len, int line_offset, int stride)
+    {
+	int np = Starfish.getNumProcessors();
+
+	if (np==1 || num_lines*len<MIN_PARALLEL_SIZE)
+	{
+	    solveLines(a,b,c,d,x,work,0,num_lines,len,line_offset,stride);
+	    return;
+	}
+
+	/*split lines into chunks that are a multiple of the block size*/
+	int chunk_size = (num_lines/np+1+BLOCK_SIZE-1)/BLOCK_SIZE*BLOCK_SIZE;
+	Collection<Callable<Object>> workers = new ArrayList<>();
+	for (int l1=0;l1<num_lines;l1+=chunk_size)
+	{
+	    final int l_min = l1;
+	    final int l_max = Math.min(l1+chunk_size, num_lines);
+	    workers.add(() -> {
+		solveLines(a,b,c,d,x,work,l_min,l_max,len,line_offset,stride);
+		return null;
+	    });
+	}
+
+	try
+	{
+	    List<Future<Object>> results = Starfish.getWorkerPool().invokeAll(workers);
+	    for (Future<Object> result:results)
+		result.get();
+	} catch (InterruptedException | ExecutionException ex)
+	{
+	    Log.error("Tridiagonal solve failed: "+ex.getMessage());
+	}
+    }
+
+    /** solves lines [l_min, l_max) block by block*/
+    static void solveLines(double a[], double b[], double c[], double d[], double x[], double cp[],
+	    int l_min, int l_max, int len, int line_offset, int stride)
+    {
+	for (int l0=l_min;l0<l_max;l0+=BLOCK_SIZE)
+	{
+	    int l1 = Math.min(l0+BLOCK_SIZE, l_max);
+
+	    /*forward sweep, cp holds the modified super-diagonal and d the modified rhs*/
+	    for (int l=l0;l<l1;l++)
+	    {
+		int u = l*line_offset;
+		cp[u] = c[u]/b[u];
+		d[u] = d[u]/b[u];
+	    }
+
+	    for (int k=1;k<len;k++)
+		for (int l=l0;l<l1;l++)
+		{
+		    int u = l*line_offset+k*stride;
+		    int v = u-stride;
+		    double m = 1.0/(b[u]-a[u]*cp[v]);
+		    cp[u] = c[u]*m;
+		    d[u] = (d[u]-a[u]*d[v])*m;
+		}
+
+	    /*back substitution*/
+	    for (int l=l0;l<l1;l++)
+	    {
+		int u = l*line_offset+(len-1)*stride;
+		x[u] = d[u];
+	    }
+
+	    for (int k=len-2;k>=0;k--)
+		for (int l=l0;l<l1;l++)
+		{
+		    int u = l*line_offset+k*stride;
+		    x[u] = d[u]-cp[u]*x[u+stride];
+		}
+	}
+    }
+}
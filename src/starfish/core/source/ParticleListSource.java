@@ -7,6 +7,7 @@
 package starfish.core.source;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import starfish.core.boundaries.Segment;
 import starfish.core.common.Starfish;
 import starfish.core.common.Vector;
@@ -15,12 +16,30 @@ import starfish.core.materials.KineticMaterial.Particle;
 import starfish.core.materials.Material;
 
 /**
- * Source which can accumulate a list of particles which it then samples
+ * Source which can accumulate a list of particles which it then samples.
+ * Particles may be added concurrently by the particle movers, the list is sorted
+ * by position and velocity before sampling so that the order does not depend on
+ * the threads.
  */
 public class ParticleListSource extends VolumeSource
 {
 
     ArrayList<Particle> particle_list = new ArrayList<Particle>();
+    boolean sorted = true;
+
+    static final Comparator<Particle> ORDER = (p1, p2) -> {
+	for (int i=0;i<3;i++)
+	{
+	    int c = Double.compare(p1.pos[i], p2.pos[i]);
+	    if (c!=0) return c;
+	}
+	for (int i=0;i<3;i++)
+	{
+	    int c = Double.compare(p1.vel[i], p2.vel[i]);
+	    if (c!=0) return c;
+	}
+	return Double.compare(p1.mpw, p2.mpw);
+    };
 
     /**
      *
@@ -34,6 +53,11 @@ public class ParticleListSource extends VolumeSource
     @Override
     public Particle sampleParticle()
     {
+	if (!sorted)
+	{
+	    particle_list.sort(ORDER);
+	    sorted = true;
+	}
 	Particle part = particle_list.get(particle_list.size() - 1);
 	particle_list.remove(particle_list.size() - 1);
 	return part;
@@ -43,9 +67,10 @@ public class ParticleListSource extends VolumeSource
      * adds a new particle to the list
      * @param part
      */
-    public void addParticle(Particle part)
+    public synchronized void addParticle(Particle part)
     {
 	particle_list.add(part);
+	sorted = false;
     }
 
     @Override
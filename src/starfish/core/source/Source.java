@@ -15,6 +15,7 @@ import starfish.core.materials.FluidMaterial;
 import starfish.core.materials.KineticMaterial;
 import starfish.core.materials.KineticMaterial.Particle;
 import starfish.core.materials.Material;
+import starfish.core.materials.ParticleBatch;
 import starfish.core.materials.SolidMaterial;
 
 /** Base class for particle sources */
@@ -165,34 +166,61 @@ public abstract class Source {
 	 * override (instead should override sampleParticle and hasParticle)
 	 */
 	final void sampleKinetic() {
-		/* source material */
-		KineticMaterial ks = (KineticMaterial) source_mat;
+		sampleBatch();
+		addBatch();
+	}
 
-		/* do we have any particles? */
-		if (hasParticles() == false) {
-			return;
-		}
+	/** buffer of particles sampled this time step */
+	protected ParticleBatch batch = new ParticleBatch();
+
+	/**
+	 * samples all particles into the batch without adding them to the material.
+	 * Only modifies the state of this source so different sources can be sampled
+	 * concurrently.
+	 */
+	final void sampleBatch() {
+		batch.clear();
+		fillBatch(batch);
+
+		/*
+		 * push particle slightly off the surface this is needed to avoid particles
+		 * getting injected inside the surface if strong external retarding field
+		 */
+		double dt = 1e-6 * Starfish.getDt();
+		for (int k = 0; k < 3 * batch.size(); k++)
+			batch.pos[k] += batch.vel[k] * dt;
+	}
 
-		int count = 0;
+	/**
+	 * appends the particles sampled this time step to the batch, sources that
+	 * can sample in bulk override this
+	 * 
+	 * @param batch batch to fill
+	 */
+	protected void fillBatch(ParticleBatch batch) {
 		while (hasParticles()) {
 			Particle part = sampleParticle();
 
 			if (part == null) // sampleParticle may return null on internal particles
 				continue;
 
-			/*
-			 * push particle slightly off the surface this is needed to avoid particles
-			 * getting injected inside the surface if strong external retarding field
-			 */
-			for (int i = 0; i < 3; i++)
-				part.pos[i] += part.vel[i] * 1e-6 * Starfish.getDt();
-
-			/* only add particles located within our domain */
-			if (part != null && ks.addParticle(part)) {
-				count++;
-				mass_generated_inst += part.mpw * source_mat.mass;
-			}
+			batch.add(part);
 		}
+	}
+
+	/** adds particles sampled by sampleBatch to the material */
+	final void addBatch() {
+		/* source material */
+		KineticMaterial ks = (KineticMaterial) source_mat;
+		if (batch.size() == 0)
+			return;
+
+		/* only particles located within our domain are added */
+		int count = ks.addParticles(batch);
+		for (int k = 0; k < batch.size(); k++)
+			if (batch.isAdded(k))
+				mass_generated_inst += batch.mpw[k] * source_mat.mass;
+		batch.clear();
 
 		Log.log_low("Added " + count + " " + ks.getName() + " particles from " + getName());
 	}
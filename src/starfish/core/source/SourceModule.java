@@ -20,9 +20,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Random;
 import org.w3c.dom.Element;
 import starfish.core.boundaries.Boundary;
 import starfish.core.common.CommandModule;
+import starfish.core.common.CounterRandom;
+import starfish.core.common.RandomStreams;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
 import starfish.core.io.InputParser;
@@ -230,6 +233,8 @@ public class SourceModule extends CommandModule
      */
     public void sampleSources()
     {
+	ArrayList<Source> kinetic_sources = new ArrayList<>();
+	
 	/*surface sources*/
 	for (Boundary boundary : Starfish.getBoundaryList())
 	{
@@ -264,8 +269,10 @@ public class SourceModule extends CommandModule
 		//part of the above circuit model
 		source.num_mp += num_mp_delta;
 		
-		source.sampleAll();
-		
+		if (source.source_mat instanceof KineticMaterial)
+		    kinetic_sources.add(source);
+		else
+		    source.sampleAll();
 		
 	    }/*for source*/
 	}
@@ -277,9 +284,47 @@ public class SourceModule extends CommandModule
 
 	    source.update();
 	    source.regenerate();
-	    source.sampleAll();
+	    if (source.source_mat instanceof KineticMaterial)
+		kinetic_sources.add(source);
+	    else
+		source.sampleAll();
 	}/*for volume source*/
 
+	sampleKinetic(kinetic_sources);
+    }
+
+    /**
+     * Samples kinetic sources. Each source fills its own particle batch as a
+     * separate task drawing from a random stream keyed by the source index, so
+     * the sampled particles do not depend on the number of threads. The batches
+     * are then added to the materials in source order. The legacy java
+     * generator keeps the original serial sequence.
+     */
+    protected void sampleKinetic(ArrayList<Source> sources)
+    {
+	if (RandomStreams.getType()==RandomStreams.Type.JAVA)
+	{
+	    for (Source source:sources)
+		source.sampleKinetic();
+	    return;
+	}
+	
+	long seed = (long)(Starfish.rnd()*Long.MAX_VALUE);
+	Starfish.parallelFor(sources.size(), 2, (i0,i1)->{
+	    for (int i=i0;i<i1;i++)
+	    {
+		Random old = RandomStreams.bind(RandomStreams.newGenerator(CounterRandom.streamKey(seed, i)));
+		try {
+		    sources.get(i).sampleBatch();
+		}
+		finally {
+		    RandomStreams.bind(old);
+		}
+	    }
+	});
+	
+	for (Source source:sources)
+	    source.addBatch();
     }
 
     /**
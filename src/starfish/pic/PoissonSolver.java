@@ -7,6 +7,7 @@
 
 package starfish.pic;
 
+import java.util.LinkedList;
 import org.w3c.dom.Element;
 import starfish.core.common.Constants;
 import starfish.core.common.Starfish;
@@ -39,8 +40,38 @@ public class PoissonSolver extends PotentialSolver
     enum Method {DIRECT, GS, PCG, MULTIGRID, ADI};
     Method method;
     int skip;
+    boolean fast_exp;	    //use the range-reduced exponential for the Boltzmann terms
     boolean qn_switch;	    //nodes with dh>lambda_d fixed per Boltzmann inversion
     double qn_den0,qn_kTe0,qn_phi0;
+    
+    /*adaptive scheduling*/
+    boolean adaptive;	    //skip or loosen solves based on the change in rho
+    double rho_tol;	    //relative change in RHS below which the solve is skipped
+    int max_skip;	    //maximum number of consecutive skipped solves
+    double tol_factor;	    //fraction of the initial residual change the solve needs to remove
+    double max_tol_scale;   //limit on how much lin_tol and nl_tol can be loosened
+    int extrapolation;	    //order of the warm start extrapolation, 0 to start from previous phi
+    double b_ref[][];	    //RHS at the last solve, per mesh
+    int num_skipped = 0;    //number of consecutive skipped solves
+    LinkedList<PhiSample> phi_history = new LinkedList<>();
+    SolveStats stats = new SolveStats();
+    
+    /**potential solution saved for the warm start extrapolation*/
+    static class PhiSample
+    {
+	int it;
+	double x[][];	    //solution vector for each mesh
+    }
+    
+    /**solve statistics, reported on exit*/
+    static class SolveStats
+    {
+	int num_calls;	    //number of times solve was requested
+	int num_solves;	    //number of solves performed
+	int num_skips;	    //number of solves skipped by the adaptive mode
+	long lin_its;	    //total number of linear (or NR) iterations
+	long time_ns;	    //total time spent in the solver
+    }
 	
     /**
      * @param element
@@ -60,6 +91,9 @@ public class PoissonSolver extends PotentialSolver
 	    Log.log("> n0: " + den0 + " (#/m^3)");
 	    Log.log("> T0: " + kTe0 + " (eV)");
 	    Log.log("> phi0: " + phi0 + " (V)");
+	    
+	    fast_exp = InputParser.getBoolean("fast_exp", element, false);
+	    if (fast_exp) Log.log("> fast_exp: true");
 	}
 	else
 	{
@@ -92,13 +126,36 @@ public class PoissonSolver extends PotentialSolver
 	else if (sm.equals("PCG")) lin_solver = new LinearSolverPCG();
 	else if (sm.equals("MULTIGRID")) lin_solver = new LinearSolverMG();
 	else if (sm.equals("ADI")) lin_solver = new LinearSolverADI();
-	else if (sm.equals("DIRECT1D")) lin_solver = new LinearSolverDirect1D();
+	else if (sm.equals("DIRECT1D")) 
+	{
+	    String dir = InputParser.getValue("direction", element, "I").toUpperCase();
+	    int num_smooth = InputParser.getInt("num_smooth", element, 10);
+	    lin_solver = new LinearSolverDirect1D(dir.equals("J")?LinearSolverDirect1D.Direction.J:
+						  LinearSolverDirect1D.Direction.I, num_smooth);
+	    Log.log("> direction: "+dir+", num_smooth: "+num_smooth);
+	}
 	else Log.error("Unknown method "+sm);
 	Log.log("> method: "+sm);
 	   
 	//frequency
 	skip = InputParser.getInt("skip",element,1);
 	
+	//adaptive scheduling
+	adaptive = InputParser.getBoolean("adaptive",element,false);
+	rho_tol = InputParser.getDouble("rho_tol",element,1e-3);
+	max_skip = InputParser.getInt("max_skip",element,10);
+	tol_factor = InputParser.getDouble("tol_factor",element,0.1);
+	max_tol_scale = InputParser.getDouble("max_tol_scale",element,100);
+	extrapolation = InputParser.getInt("extrapolation",element,adaptive?1:0);
+	if (extrapolation<0 || extrapolation>2) 
+	    Log.error("extrapolation order must be 0, 1, or 2");
+	if (adaptive)
+	{
+	    Log.log("> adaptive: rho_tol="+rho_tol+", max_skip="+max_skip+
+		    ", tol_factor="+tol_factor+", max_tol_scale="+max_tol_scale);
+	}
+	Log.log("> extrapolation: "+extrapolation);
+	
 	/*output debye length*/
 	double lambda_d = Math.sqrt(eps*kTe0/(Constants.QE*den0));
 	Log.log(String.format("> Debye length: %.3g (m)",lambda_d));
@@ -147,6 +204,23 @@ public class PoissonSolver extends PotentialSolver
 	    /*add objects*/
 	     md.b = Vector.mergeBC(md.fixed_node, mesh, md.b);
 	}
+	
+	stats.num_calls++;
+	
+	/*adaptive mode, skip the solve if the RHS did not change much*/
+	double tol_scale = 1;
+	if (adaptive)
+	{
+	    tol_scale = adaptTolerance();
+	    if (tol_scale<0) 
+	    {
+		stats.num_skips++;
+		return;
+	    }
+	}
+	
+	/*warm start from extrapolated potential*/
+	extrapolatePhi();
 		
 	MeshData md_bu[] = mesh_data.clone();   //back up
 	/*apply QN switch, if enabled*/
@@ -184,10 +258,21 @@ public class PoissonSolver extends PotentialSolver
 	}
 		
 	/* solve potential */	
+	double lin_tol0 = lin_tol;
+	double nl_tol0 = nl_tol;
+	lin_tol *= tol_scale;
+	nl_tol *= tol_scale;
+	long time_start = System.nanoTime();
+	
 	if (linear_mode)
-		lin_solver.solve(mesh_data, Starfish.domain_module.getPhi(), lin_max_it, lin_tol);
+		stats.lin_its += lin_solver.solve(mesh_data, Starfish.domain_module.getPhi(), lin_max_it, lin_tol);
 	else
-		solvePotentialNL();
+		stats.lin_its += solvePotentialNL()+1;
+	
+	stats.time_ns += System.nanoTime()-time_start;
+	stats.num_solves++;
+	lin_tol = lin_tol0;
+	nl_tol = nl_tol0;
 	  
 	/*restore matrix if QN switch is used*/
 	if (qn_switch)	{
@@ -202,6 +287,139 @@ public class PoissonSolver extends PotentialSolver
 	for (MeshData md:mesh_data)
 	    Vector.inflate(md.x, md.mesh.ni, md.mesh.nj, Starfish.domain_module.getPhi(md.mesh).getData());
 	
+	/*save solution for the extrapolation*/
+	savePhi();
+    }
+    
+    /** Compares the current RHS to the one used in the last solve. The solve is
+     * skipped if the relative change is below rho_tol, otherwise the tolerances
+     * are loosened so that the solver only removes tol_factor of the residual
+     * introduced by the change in rho. There is no point in converging below this
+     * level since the step to step particle noise is of the same order.
+     * 
+     * @return scaling factor for lin_tol and nl_tol, or -1 to skip this solve
+     */
+    protected double adaptTolerance()
+    {
+	double db = 0, b = 0, res = 0;
+	int nn = 0;
+	
+	if (b_ref!=null)
+	{
+	    for (int m=0;m<mesh_data.length;m++)
+	    {
+		double diff[] = Vector.subtract(mesh_data[m].b, b_ref[m]);
+		db += Vector.dot(diff, diff);
+		b += Vector.dot(b_ref[m], b_ref[m]);
+		res += Vector.norm(diff);	//same norm as used by the linear solvers
+		nn += diff.length;
+	    }
+	}
+	
+	/*always solve on the first call or if the reference is zero*/
+	if (b_ref==null || b==0)
+	{
+	    saveRHS();
+	    return 1;
+	}
+	
+	double rel_change = Math.sqrt(db/b);
+	if (rel_change<rho_tol && num_skipped<max_skip)
+	{
+	    num_skipped++;
+	    return -1;
+	}
+	
+	num_skipped = 0;
+	saveRHS();
+	
+	double tol = tol_factor*res/nn;
+	double scale = tol/lin_tol;
+	if (scale<1) scale = 1;
+	if (scale>max_tol_scale) scale = max_tol_scale;
+	return scale;
+    }
+    
+    /** saves RHS used for the current solve*/
+    void saveRHS()
+    {
+	if (b_ref==null) b_ref = new double[mesh_data.length][];
+	for (int m=0;m<mesh_data.length;m++)
+	    b_ref[m] = mesh_data[m].b.clone();
+    }
+    
+    /** adds the current solution to the history used for the extrapolation*/
+    void savePhi()
+    {
+	if (extrapolation<=0) return;
+	
+	/*overwrite if solving again on the same time step, otherwise reuse 
+	the oldest entry if history is full*/
+	PhiSample sample;
+	if (!phi_history.isEmpty() && phi_history.getLast().it==Starfish.getIt()) 
+	    sample = phi_history.removeLast();
+	else if (phi_history.size()>extrapolation) sample = phi_history.removeFirst();
+	else {
+	    sample = new PhiSample();
+	    sample.x = new double[mesh_data.length][];
+	}
+	
+	sample.it = Starfish.getIt();
+	for (int m=0;m<mesh_data.length;m++)
+	{
+	    if (sample.x[m]==null) sample.x[m] = new double[mesh_data[m].x.length];
+	    System.arraycopy(mesh_data[m].x, 0, sample.x[m], 0, mesh_data[m].x.length);
+	}
+	phi_history.addLast(sample);
+    }
+    
+    /** sets the initial guess md.x to a Lagrange polynomial extrapolation of the 
+     * last one to three solutions. Fixed nodes are not modified.
+     */
+    void extrapolatePhi()
+    {
+	int n = Math.min(extrapolation+1, phi_history.size());
+	if (n<2) return;
+	
+	/*use the most recent n samples*/
+	PhiSample samples[] = new PhiSample[n];
+	for (int k=0;k<n;k++)
+	    samples[k] = phi_history.get(phi_history.size()-n+k);
+
+	/*Lagrange weights evaluated at the current time step*/
+	double t = Starfish.getIt();
+	double w[] = new double[n];
+	for (int k=0;k<n;k++)
+	{
+	    w[k] = 1;
+	    for (int l=0;l<n;l++)
+		if (l!=k) w[k] *= (t-samples[l].it)/(double)(samples[k].it-samples[l].it);
+	}
+	
+	for (int m=0;m<mesh_data.length;m++)
+	{
+	    double x[] = mesh_data[m].x;
+	    boolean fixed[] = mesh_data[m].fixed_node;
+	    for (int u=0;u<x.length;u++)
+	    {
+		if (fixed[u]) continue;
+		double val = 0;
+		for (int k=0;k<n;k++) val += w[k]*samples[k].x[m][u];
+		x[u] = val;
+	    }
+	}
+    }
+    
+    @Override
+    public void exit()
+    {
+	super.exit();
+	
+	if (stats.num_calls==0) return;
+	Log.message(String.format("Poisson solver statistics: %d solves, %d skipped, %.3g iterations/solve, %.3g ms/solve",
+		stats.num_solves, stats.num_skips, 
+		stats.num_solves>0?stats.lin_its/(double)stats.num_solves:0,
+		stats.num_solves>0?1e-6*stats.time_ns/stats.num_solves:0));
     }
         
     
@@ -211,7 +429,14 @@ public class PoissonSolver extends PotentialSolver
      */
     protected int solvePotentialNL() 
     {
-	final double C=Constants.QE/eps;
+	/*the electron density is written by every b/b' evaluation, so it is left
+	from the last Newton iteration, which is within nl_tol of the solution*/
+	if (ne_requested)
+	{
+	    if (ne==null || ne.length!=mesh_data.length) ne = new double[mesh_data.length][];
+	    for (int m=0;m<mesh_data.length;m++)
+		if (ne[m]==null || ne[m].length!=mesh_data[m].x.length) ne[m] = new double[mesh_data[m].x.length];
+	}
 	
 	/*non linear part*/
 	NL_Eval pot_boltzmann = new NL_Eval() 
@@ -219,29 +444,80 @@ public class PoissonSolver extends PotentialSolver
 	    @Override
 	    public double[] eval_bx(double[] x, boolean fixed[]) 
 	    {
-		    double b[] = new double[x.length];
-		    for (int i=0;i<x.length;i++) 
-			b[i] = fixed[i] ? 0 : C * den0*Math.exp((x[i]-phi0)/kTe0);
-		    return b;
+		double b[] = new double[x.length];
+		evalBoltzmann(x, fixed, b, null, null);
+		return b;
 	    }
 
 	    @Override
 	    public double[] eval_bx_prime(double x[], boolean fixed[]) 
 	    {
-		    double b_prime[] = new double[x.length];
-		    for (int i=0;i<x.length;i++) 
-			b_prime[i] = fixed[i] ? 0 : C * den0*Math.exp((x[i]-phi0)/kTe0)/kTe0;
-		    return b_prime;
+		double b_prime[] = new double[x.length];
+		evalBoltzmann(x, fixed, null, b_prime, null);
+		return b_prime;
 	    }
 
+	    @Override
+	    public void eval(double x[], boolean fixed[], double b_x[], double b_prime[])
+	    {
+		evalBoltzmann(x, fixed, b_x, b_prime, densityFor(x));
+	    }
 	};
 
 	/*call nonlinear solver*/
+	ne_ref = null;
 	int it = solveNonLinearNR(mesh_data, pot_boltzmann, Starfish.domain_module.getPhi());
-
+	if (ne_requested) ne_ref = new double[]{phi0, den0, kTe0};
+	
 	return it;
     }
     
+    /** @return density buffer of the mesh data with solution vector x, or null if not requested*/
+    double[] densityFor(double x[])
+    {
+	if (!ne_requested) return null;
+	for (int m=0;m<mesh_data.length;m++)
+	    if (mesh_data[m].x==x) return ne[m];
+	return null;
+    }
+    
+    /** Evaluates the Boltzmann electron terms for the given potential in a single
+     * parallel pass, the exponential is computed once per node and used for all 
+     * requested outputs. The RHS terms are zero on fixed nodes.
+     * 
+     * @param x potential
+     * @param fixed fixed node flags
+     * @param b_x if not null, set to the electron term of the RHS, (QE/eps)*ne
+     * @param b_prime if not null, set to the derivative of b_x with respect to x
+     * @param den if not null, set to the electron density
+     */
+    void evalBoltzmann(double x[], boolean fixed[], double b_x[], double b_prime[], double den[])
+    {
+	final double C = Constants.QE/eps;
+	final double Cn = C*den0;
+	final double phi0 = this.phi0;
+	final double kTe0 = this.kTe0;
+	final double den0 = this.den0;
+	
+	Starfish.parallelFor(x.length, 10000, (u_min, u_max) -> {
+	    for (int u=u_min;u<u_max;u++)
+	    {
+		if (fixed[u] && den==null)
+		{
+		    if (b_x!=null) b_x[u] = 0;
+		    if (b_prime!=null) b_prime[u] = 0;
+		    continue;
+		}
+		
+		double arg = (x[u]-phi0)/kTe0;
+		double e = fast_exp?Utils.fastExp(arg):Math.exp(arg);
+		if (den!=null) den[u] = den0*e;
+		if (b_x!=null) b_x[u] = fixed[u]?0:Cn*e;
+		if (b_prime!=null) b_prime[u] = fixed[u]?0:Cn*e/kTe0;
+	    }
+	});
+    }
+    
     /**tests the linear solver by loading a sinusoidal form for charge density and
      * comparing results with theory
      */
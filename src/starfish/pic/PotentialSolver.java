@@ -7,8 +7,8 @@ package starfish.pic;
 import java.util.ArrayList;
 import starfish.core.common.Constants;
 import starfish.core.common.Starfish;
-import starfish.core.common.Vector;
 import starfish.core.domain.FieldCollection2D;
+import starfish.core.domain.Mesh;
 import starfish.core.solver.Solver;
 
 /**
@@ -50,22 +50,41 @@ abstract public class PotentialSolver extends Solver
      *
      */
     public double phi0 = 0; /* reference values of potential along bottom edge */
+    
+    /*Boltzmann electron density evaluated by the solver at the current potential*/
+    protected boolean ne_requested = false;
+    protected double ne[][] = null;	    //flattened density for each mesh data
+    protected double ne_ref[] = null;	    //phi0, den0, kTe0 used to compute ne, null if not valid
+    
+    /** requests the solver to evaluate the Boltzmann electron density along with the potential*/
+    public void requestBoltzmannDensity() {ne_requested = true;}
+    
+    /**
+     * @param mesh mesh
+     * @param phi0 reference potential
+     * @param den0 reference density
+     * @param kTe0 reference temperature in eV
+     * @return flattened electron density den0*exp((phi-phi0)/kTe0) at the last Newton
+     * iterate of the potential, or null if not evaluated for these reference values
+     */
+    public double[] getBoltzmannDensity(Mesh mesh, double phi0, double den0, double kTe0)
+    {
+	if (ne_ref==null || ne_ref[0]!=phi0 || ne_ref[1]!=den0 || ne_ref[2]!=kTe0) return null;
+	for (int m=0;m<mesh_data.length;m++)
+	    if (mesh_data[m].mesh==mesh) return ne[m];
+	return null;
+    }
+    
     /** Computes E=-grad(phi)
      */
     @Override
     public void updateGradientField()
     {
-	/*inflate and update electric field*/
+	/*evaluate electric field directly into the efi/efj fields*/
 	for (Solver.MeshData md:mesh_data)
 	{
-	    double efi[] = new double[md.mesh.n_nodes];
-	    double efj[] = new double[md.mesh.n_nodes];
-	    double phi1[] = Vector.deflate(Starfish.domain_module.getPhi(md.mesh).getData());
-	    
-	    evaluateGradient(phi1, efi, efj,md, -1, Starfish.domain_module.getPhi());
-	    
-	    Vector.inflate(efi, md.mesh.ni, md.mesh.nj, Starfish.domain_module.getEfi(md.mesh).getData());
-	    Vector.inflate(efj, md.mesh.ni, md.mesh.nj, Starfish.domain_module.getEfj(md.mesh).getData());
+	    evaluateGradient(Starfish.domain_module.getPhi(md.mesh), Starfish.domain_module.getEfi(md.mesh),
+			     Starfish.domain_module.getEfj(md.mesh), md, -1, Starfish.domain_module.getPhi());
 	}
     }   
 }
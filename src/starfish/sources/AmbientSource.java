@@ -157,6 +157,12 @@ public class AmbientSource extends Source
 		cells.get(cells.size()-1).t2=t;  //increment t2
 	    }
 	}
+	
+	for (Cell cell:cells)
+	{
+	    cell.a1 = boundary.areaAt(cell.t1);
+	    cell.a2 = boundary.areaAt(cell.t2);
+	}
 	Log.log(">Ambient source "+name+" number of cells = "+cells.size());
     }
 
@@ -176,6 +182,7 @@ public class AmbientSource extends Source
 	double volume;
 	Spline spline;
 	double t1, t2;	    //min and max coord on the spline in the cell
+	double a1, a2;	    //swept area of the spline at t1 and t2
 	
 	Cell (int i,int j,Mesh mesh,Spline spline,double t) 
 	{
@@ -292,7 +299,7 @@ public class AmbientSource extends Source
 	}
 	
 	/*this returns external point*/
-	double t = randomT(cell.t1, cell.t2);
+	double t = randomT(cell);
 	double x[] = cell.spline.pos(t);
 	double norm[] = boundary.normal(t);
 	double tang[] = boundary.tangent(t);
@@ -322,52 +329,22 @@ public class AmbientSource extends Source
     /**
      * @param t1
      * @param t2 *  @return random parametric position taking into account radial weighing*/
-    //TODO: need to test if this works and syncs up properly with stripArea
     public double randomT(double t1, double t2) 
     {
-	DomainType type = Starfish.getDomainType();
-	
 	/*sample from uniform distribution on XY*/
-	if (type==DomainModule.DomainType.XY) return t1 + (t2-t1)*Starfish.rnd();
+	if (Starfish.getDomainType()==DomainModule.DomainType.XY) return t1 + (t2-t1)*Starfish.rnd();
 	
-	/*otherwise, need to weigh by radius*/
-		
-	double t=-1;
-	double A;
-	double Atot = boundary.stripArea(t1, t2);
-	double dt = t2-t1;
-	
-	double rp, rm;
-	
-	do {
-	    /*add random distance along the segment*/
-	    t = t1 + Starfish.rnd()*dt;
-	    
-	    /*compute area of a strip centered around the sampled point*/
-	    double tp = t+0.01*dt;
-	    double tm = t-0.01*dt;
-	    if (tp>t2) tp=t2;
-	    if (tm<t1) tm=t1;
-	    
-	    /*r compoment of position*/
-	    if (type==DomainModule.DomainType.RZ)
-	    {
-		rp = boundary.pos(tp)[0];
-		rm = boundary.pos(tm)[0]; 
-	    }
-	    else if (Starfish.getDomainType()==DomainModule.DomainType.ZR)
-	    {
-		rp = boundary.pos(tp)[1];
-		rm = boundary.pos(tm)[1]; 
-	    }
-	    else throw new UnsupportedOperationException("Unknown domain type in RandomT");
-			 
-	    /*note, A will be zero if source is parallel with r-axis*/
-	    A = Math.PI*(rp*rp-rm*rm);
-	  
-	} while (A>0 && (A/Atot)<Starfish.rnd());
-	
-	return t;
+	/*otherwise, sample uniformly in swept area*/
+	double a1 = boundary.areaAt(t1);
+	double a2 = boundary.areaAt(t2);
+	return boundary.tAtArea(a1+(a2-a1)*Starfish.rnd());
+    }
+    
+    /** same as above using the areas cached by start*/
+    protected double randomT(Cell cell) 
+    {
+	if (Starfish.getDomainType()==DomainModule.DomainType.XY) return cell.t1 + (cell.t2-cell.t1)*Starfish.rnd();
+	return boundary.tAtArea(cell.a1+(cell.a2-cell.a1)*Starfish.rnd());
     }
     
     @Override
@@ -11,9 +11,9 @@ package starfish.sources;
 import org.w3c.dom.Element;
 import starfish.core.boundaries.Boundary;
 import starfish.core.common.Constants;
+import starfish.core.common.Sampling;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
-import starfish.core.common.Utils;
 import starfish.core.common.Vector;
 import starfish.core.domain.Mesh;
 import starfish.core.io.InputParser;
@@ -87,18 +87,13 @@ public class ThermionicEmissionSource extends Source
 	part.pos[1] = x[1];
 	part.pos[2] = 0;
 	
-	double v_mag = Utils.SampleMaxwSpeed(v_th);
+	/*speed of electrons crossing the surface, directions follow the cosine law*/
+	double v_mag = Sampling.fluxSpeed(v_th, Starfish.getRandom());
 	
 	/*push off surface*/
 	//Vector.addInclusive(part.pos, Vector.mult(normal,v_mag*.01*Starfish.getDt()));
 
-	
-	/*TODO: Move this to a wrapper!*/
-	do
-	{    
-	    part.vel = Utils.diffuseReflVel(v_mag, normal,tang);
-
-	} while (Vector.dot2(normal, part.vel) <= 0);
+	part.vel = Vector.mult(Vector.lambertianVector(normal, tang), v_mag);
 	
 	part.dt=Starfish.rnd()*Starfish.getDt();
 	num_mp--;
@@ -8,6 +8,7 @@
 package starfish.sources;
 
 import org.w3c.dom.Element;
+import starfish.core.common.Sampling;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
 import starfish.core.common.Utils;
@@ -15,6 +16,7 @@ import starfish.core.domain.DomainModule.DomainType;
 import starfish.core.io.InputParser;
 import starfish.core.materials.KineticMaterial;
 import starfish.core.materials.Material;
+import starfish.core.materials.ParticleBatch;
 import starfish.core.source.SourceModule;
 import starfish.core.source.VolumeSource;
 
@@ -66,8 +68,8 @@ public class VolumeMaxwellianSource extends VolumeSource {
 
 		/* drift velocity and temperature */
 		v_drift = InputParser.getDoubleList("v_drift", element, new double[] { 0.0, 0.0 });
-		if (v_drift.length != 2)
-			Log.error("v_drift needs to be a 2D list");
+		if (v_drift.length != 2 && v_drift.length != 3)
+			Log.error("v_drift needs to be a 2D or 3D list");
 
 		double T = Double.parseDouble(InputParser.getValue("temperature", element));
 		start_it = InputParser.getInt("start_it", element, 0);
@@ -243,12 +245,34 @@ public class VolumeMaxwellianSource extends VolumeSource {
 		/* add drifting velocity */
 		part.vel[0] += v_drift[0];
 		part.vel[1] += v_drift[1];
+		if (v_drift.length > 2)
+			part.vel[2] += v_drift[2];
 
 		num_mp -= 1;
 
 		return part;
 	}
 
+	/* positions are sampled first, velocities then fill the batch in one pass */
+	@Override
+	protected void fillBatch(ParticleBatch batch) {
+		int first = batch.size();
+		int count = num_mp;
+		double spwt = ((KineticMaterial) source_mat).getSpwt0();
+		double x[] = new double[3];
+		double v[] = new double[3];
+
+		batch.ensureCapacity(first + count);
+		for (int k = 0; k < count; k++) {
+			double pos[] = samplePos();
+			x[0] = pos[0];
+			x[1] = pos[1];
+			batch.add(x, v, spwt);
+		}
+		Sampling.fillMaxwellian(batch.vel, first, count, v_th, v_drift, Starfish.getRandom());
+		num_mp = 0;
+	}
+
 	@Override
 	public void sampleFluid() {
 		throw new UnsupportedOperationException("Not yet implemented");
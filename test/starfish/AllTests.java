@@ -0,0 +1,32 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish;
+
+/**
+ * Runs all unit checks. Each check is a class with a main method that throws
+ * an AssertionError or an exception on failure.
+ *
+ * Usage: java -cp bin starfish.AllTests
+ */
+public class AllTests
+{
+    public static void main(String args[]) throws Exception
+    {
+	starfish.core.common.LinearListTest.main(args);
+	starfish.core.common.SamplingTest.main(args);
+	starfish.core.io.CheckpointTest.main(args);
+	starfish.core.io.CheckpointChainTest.main(args);
+	starfish.core.io.MappedTextReaderTest.main(args);
+	starfish.core.io.SeriesTest.main(args);
+	starfish.core.interactions.SigmaTabulatedTest.main(args);
+	starfish.core.materials.RestartTest.main(args);
+	starfish.core.io.ParticleSamplerTest.main(args);
+	/*after a simulation so that solve also runs on several threads*/
+	starfish.core.solver.TridiagonalSolverTest.main(args);
+	System.out.println("All tests passed");
+    }
+}
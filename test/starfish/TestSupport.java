@@ -0,0 +1,83 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import main.Main.Options;
+import starfish.core.common.Starfish;
+import starfish.core.io.LoggerModule;
+
+/** setup shared by the checks*/
+public class TestSupport
+{
+    /** short ambient source case with a single kinetic material, Ar, on three cores*/
+    public static final String AMBIENT_INPUT =
+	"<simulation>\n"+
+	"<log level=\"warning\" />\n"+
+	"<stats />\n"+
+	"<domain type=\"xy\">\n"+
+	"<mesh type=\"uniform\" name=\"mesh\">\n"+
+	"<origin>0,0</origin><spacing>0.02,0.02</spacing><nodes>21,11</nodes>\n"+
+	"<mesh-bc wall=\"bottom\" type=\"symmetry\"/><mesh-bc wall=\"top\" type=\"symmetry\"/>\n"+
+	"</mesh>\n"+
+	"</domain>\n"+
+	"<materials>\n"+
+	"<material name=\"Ar\" type=\"kinetic\"><molwt>39.94</molwt><charge>0</charge><spwt>5e13</spwt></material>\n"+
+	"<material name=\"SS\" type=\"solid\"><molwt>52.3</molwt><density>8000</density></material>\n"+
+	"</materials>\n"+
+	"<boundaries>\n"+
+	"<boundary name=\"left\" type=\"virtual\"><material>SS</material><path>M 0, 0.2 L 0 0</path><temp>273</temp></boundary>\n"+
+	"</boundaries>\n"+
+	"<sources>\n"+
+	"<boundary_source name=\"left\" type=\"ambient\"><enforce>density</enforce><material>Ar</material>"+
+	"<boundary>left</boundary><drift_velocity>0,0,0</drift_velocity><temperature>273</temperature>"+
+	"<density>1.4e20</density></boundary_source>\n"+
+	"</sources>\n"+
+	"<time><num_it>20</num_it><dt>1e-5</dt></time>\n"+
+	"<starfish max_cores=\"3\" />\n"+
+	"</simulation>\n";
+
+    /** sets up the logger, if not already done by a simulation, with the log
+     * file in a temporary directory removed on exit*/
+    public static synchronized void initLog() throws IOException
+    {
+	if (Starfish.logger_module!=null) return;
+
+	File dir = Files.createTempDirectory("sf_test").toFile();
+	dir.deleteOnExit();
+	new File(dir, "starfish.log").deleteOnExit();
+
+	Starfish.options = new Options();
+	Starfish.options.wd = dir.getPath()+File.separator;
+	Starfish.logger_module = new LoggerModule();
+	Starfish.logger_module.setLevel("warning");
+    }
+
+    /** runs the simulation given by input with dir as the working directory*/
+    public static void runSimulation(Path dir, String input) throws IOException
+    {
+	Files.write(dir.resolve("starfish.xml"), input.getBytes(StandardCharsets.UTF_8));
+	Options options = new Options();
+	options.wd = dir.toString()+File.separator;
+	new Starfish().start(options, null, null);
+    }
+
+    /** deletes dir and the files in it*/
+    public static void deleteDir(Path dir) throws IOException
+    {
+	try (Stream<Path> files = Files.list(dir)) {
+	    for (Path path:(Iterable<Path>)files::iterator)
+		Files.delete(path);
+	}
+	Files.delete(dir);
+    }
+}
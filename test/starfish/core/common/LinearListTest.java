@@ -0,0 +1,109 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.common;
+
+import java.util.Random;
+
+/**
+ * Compares LinearList and its Cursor with a direct linear scan of the sorted
+ * points for uniform, non-uniform, unordered, and repeated x values.
+ */
+public class LinearListTest
+{
+    public static void main(String args[])
+    {
+	Random rnd = new Random(1);
+
+	check(new LinearList().eval(1)==0, "empty list");
+	LinearList one = new LinearList(new double[] {2}, new double[] {5});
+	check(one.eval(-1)==5 && one.eval(2)==5 && one.eval(7)==5, "single point");
+	check(one.cursor().eval(3)==5, "single point cursor");
+
+	for (int trial=0;trial<200;trial++)
+	{
+	    int n = 2+rnd.nextInt(40);
+	    double x[] = new double[n];
+	    double y[] = new double[n];
+	    for (int i=0;i<n;i++)
+	    {
+		switch (trial%4)
+		{
+		    case 0: x[i] = -3+0.25*i; break;			//uniform
+		    case 1: x[i] = i==0?0:x[i-1]+rnd.nextDouble(); break;	//non-uniform
+		    case 2: x[i] = 10*rnd.nextDouble(); break;		//unordered
+		    default: x[i] = rnd.nextInt(n/2+1); break;		//repeated x
+		}
+		y[i] = rnd.nextGaussian();
+	    }
+	    LinearList list = new LinearList(x, y);
+	    sortPoints(x, y);
+	    check(list.size()==n && list.getX(0)==x[0] && list.getY(n-1)==y[n-1], "points not sorted");
+
+	    double x0 = x[0]-1, x1 = x[n-1]+1;
+	    LinearList.Cursor cursor = list.cursor();
+
+	    /*random order*/
+	    for (int k=0;k<200;k++)
+	    {
+		double v = k<n?x[k]:x0+(x1-x0)*rnd.nextDouble();
+		double ref = reference(x, y, v);
+		compare(list.eval(v), ref, v);
+		compare(cursor.eval(v), ref, v);
+	    }
+
+	    /*increasing sequence, as used for time dependent values*/
+	    cursor = list.cursor();
+	    for (int k=0;k<=500;k++)
+	    {
+		double v = x0+(x1-x0)*k/500.0;
+		compare(cursor.eval(v), reference(x, y, v), v);
+	    }
+	}
+
+	/*points added after an evaluation*/
+	LinearList list = new LinearList(new double[] {0, 1}, new double[] {0, 1});
+	check(list.eval(2)==1, "clamped above");
+	list.insert(2, 3);
+	check(list.eval(1.5)==2 && list.eval(2)==3, "point added after evaluation");
+
+	System.out.println("LinearListTest passed");
+    }
+
+    /*stable insertion sort by x*/
+    static void sortPoints(double x[], double y[])
+    {
+	for (int i=1;i<x.length;i++)
+	    for (int j=i;j>0 && x[j-1]>x[j];j--)
+	    {
+		double t = x[j]; x[j] = x[j-1]; x[j-1] = t;
+		t = y[j]; y[j] = y[j-1]; y[j-1] = t;
+	    }
+    }
+
+    /*linear scan of the sorted points, repeated x values give the left limit*/
+    static double reference(double x[], double y[], double v)
+    {
+	for (int i=0;i<x.length-1;i++)
+	{
+	    if (v>x[i+1]) continue;
+	    double dx = x[i+1]-x[i];
+	    double t = dx>0?Math.max((v-x[i])/dx, 0):0;
+	    return y[i]+t*(y[i+1]-y[i]);
+	}
+	return y[x.length-1];
+    }
+
+    static void compare(double value, double ref, double v)
+    {
+	check(Math.abs(value-ref)<=1e-12*(1+Math.abs(ref)), "value at "+v+" is "+value+", expected "+ref);
+    }
+
+    static void check(boolean cond, String message)
+    {
+	if (!cond) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.common;
+
+import java.util.Random;
+
+/**
+ * Compares sample moments and tail probabilities of the velocity samplers
+ * with their closed forms. Tolerances are five standard errors, so a correct
+ * sampler fails only by chance on a new seed.
+ */
+public class SamplingTest
+{
+    static final int N = 4000000;
+    static final double V_TH = 350;
+
+    public static void main(String args[])
+    {
+	Random rnd = new RandomStreams.Xoshiro256Random(7);
+	maxwellian(rnd);
+	speeds(rnd);
+	batch(rnd);
+	System.out.println("SamplingTest passed");
+    }
+
+    /*1D Maxwellian: normal with sigma^2=v_th^2/2*/
+    static void maxwellian(Random rnd)
+    {
+	double var = 0.5*V_TH*V_TH;
+	double sum = 0, sum2 = 0, sum4 = 0;
+	int tail3 = 0, tail4 = 0;
+	double sigma = Math.sqrt(var);
+	for (int k=0;k<N;k++)
+	{
+	    double v = Sampling.maxwellian1D(V_TH, rnd);
+	    sum += v;
+	    sum2 += v*v;
+	    sum4 += v*v*v*v;
+	    if (Math.abs(v)>3*sigma) tail3++;
+	    if (Math.abs(v)>4*sigma) tail4++;
+	}
+
+	double mean = sum/N;
+	double m2 = sum2/N;
+	double kurt = (sum4/N)/(m2*m2);
+	within("maxwellian1D mean", mean, 0, sigma/Math.sqrt(N));
+	within("maxwellian1D variance", m2, var, var*Math.sqrt(2.0/N));
+	within("maxwellian1D kurtosis", kurt, 3, Math.sqrt(24.0/N));
+
+	/*two sided tails, erfc(3/sqrt(2)) and erfc(4/sqrt(2)), the second is past
+	the last ziggurat layer and so exercises the tail sampler*/
+	proportion("P(|v|>3 sigma)", tail3, 2.6997960632601866e-03);
+	proportion("P(|v|>4 sigma)", tail4, 6.3342483666239957e-05);
+    }
+
+    /*speed distributions, in units of v_th:
+	flux speed   f~v^3 exp(-v^2), <v>=3 sqrt(pi)/4, <v^2>=2
+	speed        f~v^2 exp(-v^2), <v>=2/sqrt(pi), <v^2>=3/2
+	flux normal  f~v exp(-v^2),   <v>=sqrt(pi)/2, <v^2>=1*/
+    static void speeds(Random rnd)
+    {
+	double sqrt_pi = Math.sqrt(Math.PI);
+	double flux = 0, flux2 = 0, speed = 0, speed2 = 0, normal = 0, normal2 = 0;
+	for (int k=0;k<N;k++)
+	{
+	    double v = Sampling.fluxSpeed(V_TH, rnd)/V_TH;
+	    flux += v;
+	    flux2 += v*v;
+	    v = Sampling.maxwellianSpeed(V_TH, rnd)/V_TH;
+	    speed += v;
+	    speed2 += v*v;
+	    v = Sampling.halfMaxwellianFlux(V_TH, rnd)/V_TH;
+	    normal += v;
+	    normal2 += v*v;
+	}
+
+	double mean = 3*sqrt_pi/4;
+	within("fluxSpeed mean", flux/N, mean, Math.sqrt((2-mean*mean)/N));
+	within("fluxSpeed <v^2>", flux2/N, 2, Math.sqrt(6.0/N));	//<v^4>=6
+	mean = 2/sqrt_pi;
+	within("maxwellianSpeed mean", speed/N, mean, Math.sqrt((1.5-mean*mean)/N));
+	within("maxwellianSpeed <v^2>", speed2/N, 1.5, Math.sqrt(3.75-2.25)/Math.sqrt(N));   //<v^4>=15/4
+	mean = sqrt_pi/2;
+	within("halfMaxwellianFlux mean", normal/N, mean, Math.sqrt((1-mean*mean)/N));
+	within("halfMaxwellianFlux <v^2>", normal2/N, 1, Math.sqrt(1.0/N));		//<v^4>=2
+    }
+
+    /*batch sampling adds the drift to each component*/
+    static void batch(Random rnd)
+    {
+	int count = N/4;
+	double drift[] = {100, -200, 300};
+	double vel[] = new double[3*(count+1)];
+	Sampling.fillMaxwellian(vel, 1, count, V_TH, drift, rnd);
+	check(vel[0]==0 && vel[1]==0 && vel[2]==0, "fillMaxwellian wrote before the first vector");
+
+	double sigma = Math.sqrt(0.5)*V_TH;
+	for (int d=0;d<3;d++)
+	{
+	    double sum = 0, sum2 = 0;
+	    for (int k=1;k<=count;k++)
+	    {
+		double u = vel[3*k+d]-drift[d];
+		sum += u;
+		sum2 += u*u;
+	    }
+	    within("fillMaxwellian mean "+d, sum/count+drift[d], drift[d], sigma/Math.sqrt(count));
+	    within("fillMaxwellian variance "+d, sum2/count, sigma*sigma, sigma*sigma*Math.sqrt(2.0/count));
+	}
+    }
+
+    /*value within five standard errors of the expected one*/
+    static void within(String name, double value, double expected, double std_err)
+    {
+	check(Math.abs(value-expected)<=5*std_err,
+		String.format("%s is %.6g, expected %.6g +- %.3g", name, value, expected, 5*std_err));
+    }
+
+    /*count of N samples consistent with probability p*/
+    static void proportion(String name, int count, double p)
+    {
+	within(name, count/(double)N, p, Math.sqrt(p*(1-p)/N));
+    }
+
+    static void check(boolean cond, String message)
+    {
+	if (!cond) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.interactions;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import starfish.TestSupport;
+import starfish.core.interactions.SigmaTabulated.GridType;
+
+/**
+ * Compares SigmaTabulated lookups with the tabulated cross-section on both
+ * grid types and checks that maxSigmaG bounds the interpolated sigma*g.
+ */
+public class SigmaTabulatedTest
+{
+    static final double MASS = 6.6e-26;
+    static final double TOL = 1e-3;
+
+    /*smooth cross-section with a peak, similar to an ionization curve*/
+    static final Sigma PEAKED = new Sigma(new double[] {1e-19, 2e4}) {
+	@Override
+	public double eval(double g, double mass)
+	{
+	    double x = g/c[1];
+	    return c[0]*(1+4*x*Math.exp(-x));
+	}
+    };
+
+    /*step that no grid resolves to the tolerance*/
+    static final Sigma STEP = new Sigma(new double[] {1e-19, 1234.5}) {
+	@Override
+	public double eval(double g, double mass)
+	{
+	    return g<c[1]?c[0]:2*c[0];
+	}
+    };
+
+    public static void main(String args[]) throws IOException
+    {
+	TestSupport.initLog();
+	Random rnd = new Random(2);
+
+	for (GridType type:GridType.values())
+	{
+	    SigmaTabulated table = new SigmaTabulated(PEAKED, "peaked", MASS, type, 10, 3e5, TOL, 1<<16, true);
+	    accuracy(table, rnd);
+	    bound(table, rnd);
+
+	    /*nodes are exact*/
+	    for (int i=0;i<=table.num_cells;i+=7)
+	    {
+		double g = table.node(i);
+		check(table.eval(g, MASS)==PEAKED.eval(g, MASS), type+" node "+i+" differs");
+	    }
+
+	    /*outside the range and for another mass the exact value is used*/
+	    for (double g:new double[] {0.5*table.g_lo, table.g_hi, 2*table.g_hi})
+	    {
+		check(table.eval(g, MASS)==PEAKED.eval(g, MASS), type+" value outside the table at "+g);
+		check(table.evalSigmaG(g, MASS)==PEAKED.eval(g, MASS)*g, type+" sigma*g outside the table at "+g);
+	    }
+	    double g = 1234.5;
+	    check(table.eval(g, 2*MASS)==PEAKED.eval(g, 2*MASS), type+" value for another mass");
+	}
+
+	/*majorant only*/
+	SigmaTabulated table = new SigmaTabulated(PEAKED, "peaked", MASS, GridType.LOG, 10, 3e5, TOL, 1<<16, false);
+	for (int k=0;k<1000;k++)
+	{
+	    double g = 10+3e5*rnd.nextDouble();
+	    check(table.eval(g, MASS)==PEAKED.eval(g, MASS), "lookup used with lookup=false");
+	}
+	bound(table, rnd);
+
+	/*refinement of a discontinuity stops at the node limit*/
+	for (GridType type:GridType.values())
+	{
+	    SigmaTabulated step = new SigmaTabulated(STEP, "step", MASS, type, 10, 3e5, TOL, 3000, true);
+	    check(step.num_cells+1<=3000, type+" step table has "+(step.num_cells+1)+" nodes");
+	    check(step.num_cells*2+1>3000, type+" step table stopped before the node limit");
+	    check(step.eval(5000, MASS)==STEP.eval(5000, MASS), type+" step value away from the jump");
+	}
+
+	System.out.println("SigmaTabulatedTest passed");
+    }
+
+    /*interpolation error within the tolerance*/
+    static void accuracy(SigmaTabulated table, Random rnd)
+    {
+	for (int k=0;k<100000;k++)
+	{
+	    double g = 10*Math.pow(3e4, rnd.nextDouble());
+	    double exact = PEAKED.eval(g, MASS);
+	    double sig = table.eval(g, MASS);
+	    double sg = table.evalSigmaG(g, MASS);
+	    check(Math.abs(sig-exact)<=2*TOL*exact, table.grid_type+" sigma("+g+")="+sig+", expected "+exact);
+	    check(Math.abs(sg-exact*g)<=2*TOL*exact*g, table.grid_type+" sigma*g("+g+")="+sg+", expected "+exact*g);
+	}
+    }
+
+    /*maxSigmaG(g_max) is not below any sigma*g used for g<=g_max and grows with g_max*/
+    static void bound(SigmaTabulated table, Random rnd)
+    {
+	double g_max[] = new double[200];
+	for (int k=0;k<g_max.length;k++)
+	    g_max[k] = table.g_lo*Math.pow(4*table.g_hi/table.g_lo, rnd.nextDouble());
+	Arrays.sort(g_max);
+
+	double last = 0;
+	for (double gm:g_max)
+	{
+	    double bound = table.maxSigmaG(gm);
+	    check(bound>=last, table.grid_type+" maxSigmaG decreases at "+gm);
+	    last = bound;
+
+	    if (gm>=table.g_hi)
+	    {
+		check(bound>=table.getMaxSigmaG() && bound>=PEAKED.eval(gm, MASS)*gm,
+			table.grid_type+" maxSigmaG("+gm+") below the value at g_max");
+		continue;
+	    }
+
+	    for (int k=0;k<500;k++)
+	    {
+		double g = table.g_lo+(gm-table.g_lo)*rnd.nextDouble();
+		double sg = table.lookup?table.evalSigmaG(g, MASS):(1-2*TOL)*PEAKED.eval(g, MASS)*g;
+		check(sg<=bound, table.grid_type+" sigma*g("+g+")="+sg+" above maxSigmaG("+gm+")="+bound);
+	    }
+	}
+    }
+
+    static void check(boolean cond, String message)
+    {
+	if (!cond) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import starfish.core.io.CheckpointWriter.Codec;
+
+/**
+ * Builds an incremental checkpoint chain, a base and two delta files, and
+ * checks that each checkpoint resolves to the right data, that unchanged
+ * sections are not stored again, and that compaction merges the chain.
+ */
+public class CheckpointChainTest
+{
+    static final int N = 20000;
+
+    public static void main(String args[]) throws IOException
+    {
+	Path dir = Files.createTempDirectory("sf_chain");
+	try {
+	    run(dir);
+	} finally {
+	    try (Stream<Path> files = Files.list(dir)) {
+		for (Path path:(Iterable<Path>)files::iterator)
+		    Files.delete(path);
+	    }
+	    Files.delete(dir);
+	}
+	System.out.println("CheckpointChainTest passed");
+    }
+
+    static void run(Path dir) throws IOException
+    {
+	String base = dir.resolve("restart.bin").toString();
+	String d1 = CheckpointManifest.deltaName(base, 1);
+	String d2 = CheckpointManifest.deltaName(base, 2);
+	double a0[] = makeData(1), a2[] = makeData(2);
+	double b0[] = makeData(3), b1[] = makeData(4);
+
+	/*a changes in d2, b changes in d1*/
+	CheckpointManifest m0 = write(base, null, a0, b0);
+	CheckpointManifest m1 = write(d1, m0, a0, b1);
+	CheckpointManifest m2 = write(d2, m1, a2, b1);
+	check(m0.seq==0 && m1.seq==1 && m2.seq==2, "wrong sequence numbers");
+	check(m1.chain_id==m0.chain_id && m2.chain_id==m0.chain_id, "chain id changed");
+	check(m1.entries.get("a").seq==0 && m1.entries.get("b").seq==1, "wrong entries in d1");
+	check(m2.entries.get("a").seq==2 && m2.entries.get("b").seq==1, "wrong entries in d2");
+
+	/*deltas hold only the changed section*/
+	long full = Files.size(dir.resolve("restart.bin"));
+	check(Files.size(dir.resolve("restart.bin.d1"))<full*3/4, "unchanged section stored in d1");
+	check(Files.size(dir.resolve("restart.bin.d2"))<full*3/4, "unchanged section stored in d2");
+
+	verify(base, a0, b0);
+	verify(d1, a0, b1);
+	verify(d2, a2, b1);
+
+	/*an incomplete save and a file without a manifest are skipped*/
+	Files.write(dir.resolve("restart.bin.d4"), new byte[] {1, 2, 3});
+	try (CheckpointWriter out = new CheckpointWriter(CheckpointManifest.deltaName(base, 3), Codec.NONE, 1<<16)) {
+	    out.beginSection("a");
+	    out.putInt(0);
+	}
+	check(CheckpointReader.findLatest(base).equals(d2), "findLatest returned "+CheckpointReader.findLatest(base));
+	Files.delete(dir.resolve("restart.bin.d3"));
+	Files.delete(dir.resolve("restart.bin.d4"));
+
+	/*a missing link must be reported*/
+	Path moved = dir.resolve("moved");
+	Files.move(dir.resolve("restart.bin.d1"), moved);
+	boolean failed = false;
+	CheckpointReader broken = null;
+	try {
+	    broken = new CheckpointReader(d2, 1<<16);
+	} catch (IOException e) {
+	    failed = true;
+	} finally {
+	    if (broken!=null) broken.close();
+	}
+	check(failed, "checkpoint with a missing delta was accepted");
+	Files.move(moved, dir.resolve("restart.bin.d1"));
+
+	/*compacting to another file keeps the chain*/
+	String copy = dir.resolve("compact.bin").toString();
+	check(CheckpointCompactor.compact(base, copy).equals(d2), "compacted the wrong checkpoint");
+	verify(copy, a2, b1);
+	check(CheckpointManifest.listDeltas(base).size()==2, "deltas removed by compaction to another file");
+
+	/*compacting in place replaces the base and removes the deltas*/
+	CheckpointCompactor.compact(base, base);
+	verify(base, a2, b1);
+	check(CheckpointManifest.listDeltas(base).isEmpty(), "deltas left after compaction");
+	check(CheckpointReader.findLatest(base).equals(base), "findLatest after compaction");
+	try (CheckpointReader in = new CheckpointReader(base, 1<<16)) {
+	    check(in.getManifest().seq==0, "compacted file does not start a new chain");
+	}
+    }
+
+    static double[] makeData(int seed)
+    {
+	double data[] = new double[N];
+	for (int i=0;i<N;i++)
+	    data[i] = seed+Math.cos(seed*0.37*i);
+	return data;
+    }
+
+    static CheckpointManifest write(String file_name, CheckpointManifest previous, double a[], double b[]) throws IOException
+    {
+	CheckpointWriter out = new CheckpointWriter(file_name, Codec.NONE, 1<<16);
+	out.setIncremental(previous);
+	try {
+	    out.beginSection("a");
+	    out.putDoubles(a, 0, a.length);
+	    out.beginSection("b");
+	    out.putDoubles(b, 0, b.length);
+	    out.close();
+	} catch (IOException | RuntimeException e) {
+	    out.abort();
+	    throw e;
+	}
+	return out.getManifest();
+    }
+
+    static void verify(String file_name, double a[], double b[]) throws IOException
+    {
+	double data[] = new double[N];
+	try (CheckpointReader in = new CheckpointReader(file_name, 1<<16))
+	{
+	    in.openSection("b");
+	    in.getDoubles(data, 0, N);
+	    in.closeSection();
+	    check(Arrays.equals(data, b), "section b of "+file_name+" differs");
+
+	    in.openSection("a");
+	    in.getDoubles(data, 0, N);
+	    in.closeSection();
+	    check(Arrays.equals(data, a), "section a of "+file_name+" differs");
+	}
+    }
+
+    static void check(boolean cond, String message)
+    {
+	if (!cond) throw new AssertionError(message);
+    }
+}
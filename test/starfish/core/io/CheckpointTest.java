@@ -0,0 +1,172 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+import starfish.core.io.CheckpointWriter.Codec;
+
+/**
+ * Writes checkpoints with CheckpointWriter and reads them back, including
+ * files with a damaged section that must fail the checksum test.
+ */
+public class CheckpointTest
+{
+    static final int N = 100000;	    //larger than the staging buffer
+
+    public static void main(String args[]) throws IOException
+    {
+	Path dir = Files.createTempDirectory("sf_checkpoint");
+	try {
+	    for (Codec codec:Codec.values())
+	    {
+		roundTrip(dir.resolve("rt_"+codec), codec);
+		corruption(dir.resolve("bad_"+codec), codec);
+	    }
+	    truncation(dir.resolve("short"));
+	} finally {
+	    deleteAll(dir);
+	}
+	System.out.println("CheckpointTest passed");
+    }
+
+    /*values written and read back must match exactly, in any section order*/
+    static void roundTrip(Path path, Codec codec) throws IOException
+    {
+	double data[] = makeData();
+	write(path, codec, data);
+
+	try (CheckpointReader in = new CheckpointReader(path.toString(), 1<<16))
+	{
+	    check(in.hasSection("header") && in.hasSection("data"), "missing section");
+
+	    /*read out of order*/
+	    in.openSection("data");
+	    double copy[] = new double[N];
+	    in.getDoubles(copy, 0, N);
+	    for (int i=0;i<N;i++)
+		check(Double.compare(copy[i], data[i])==0, "data["+i+"] differs with "+codec);
+	    in.closeSection();
+
+	    in.openSection("header");
+	    check(in.getInt()==42, "int differs");
+	    check(in.getLong()==Long.MIN_VALUE+7, "long differs");
+	    check(Double.compare(in.getDouble(), -0.0)==0, "double differs");
+	    check(in.getString().equals("Starfish \u00e9"), "string differs");
+	    in.closeSection();
+
+	    /*independent section readers*/
+	    try (CheckpointReader.Section section = in.section("data")) {
+		check(section.length()==(long)N*Double.BYTES, "section length");
+		check(Double.compare(section.getDouble(), data[0])==0, "section data differs");
+	    }
+	}
+    }
+
+    /*a flipped byte in the stored data must be reported when the section is read*/
+    static void corruption(Path path, Codec codec) throws IOException
+    {
+	double data[] = makeData();
+	write(path, codec, data);
+
+	long size = Files.size(path);
+	long pos = size/2;	    //inside the data section
+	try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE))
+	{
+	    ByteBuffer bb = ByteBuffer.allocate(1);
+	    ch.read(bb, pos);
+	    bb.put(0, (byte)(bb.get(0)^0x10));
+	    bb.rewind();
+	    ch.write(bb, pos);
+	}
+
+	try (CheckpointReader in = new CheckpointReader(path.toString(), 1<<16))
+	{
+	    in.openSection("header");
+	    in.getInt();
+	    in.closeSection();	    //undamaged section still loads
+
+	    boolean failed = false;
+	    try {
+		in.openSection("data");
+		in.getDoubles(new double[N], 0, N);
+		in.closeSection();
+	    } catch (IOException e) {
+		failed = true;
+	    }
+	    check(failed, "corrupted "+codec+" section was accepted");
+	}
+    }
+
+    /*a cut off file must be rejected when it is opened*/
+    static void truncation(Path path) throws IOException
+    {
+	write(path, Codec.NONE, makeData());
+	try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+	    ch.truncate(ch.size()-Double.BYTES);
+	}
+
+	boolean failed = false;
+	CheckpointReader in = null;
+	try {
+	    in = new CheckpointReader(path.toString(), 1<<16);
+	} catch (IOException e) {
+	    failed = true;
+	} finally {
+	    if (in!=null) in.close();
+	}
+	check(failed, "truncated checkpoint was accepted");
+    }
+
+    static double[] makeData()
+    {
+	double data[] = new double[N];
+	for (int i=0;i<N;i++)
+	    data[i] = Math.sin(0.001*i)*Math.exp(i%50);
+	data[1] = Double.NaN;
+	data[2] = Double.NEGATIVE_INFINITY;
+	return data;
+    }
+
+    static void write(Path path, Codec codec, double data[]) throws IOException
+    {
+	CheckpointWriter out = new CheckpointWriter(path.toString(), codec, 1<<16);
+	try {
+	    out.beginSection("header", Codec.NONE);
+	    out.putInt(42);
+	    out.putLong(Long.MIN_VALUE+7);
+	    out.putDouble(-0.0);
+	    out.putString("Starfish \u00e9");
+	    out.beginSection("data");
+	    out.putDoubles(data, 0, data.length);
+	    out.close();
+	} catch (IOException | RuntimeException e) {
+	    out.abort();
+	    throw e;
+	}
+	check(!Files.exists(path.resolveSibling(path.getFileName()+".tmp")), "temporary file left behind");
+    }
+
+    static void check(boolean cond, String message)
+    {
+	if (!cond) throw new AssertionError(message);
+    }
+
+    static void deleteAll(Path dir) throws IOException
+    {
+	try (Stream<Path> files = Files.list(dir)) {
+	    for (Path path:(Iterable<Path>)files::iterator)
+		Files.delete(path);
+	}
+	Files.delete(dir);
+    }
+}
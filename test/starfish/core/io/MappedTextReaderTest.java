@@ -0,0 +1,120 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+import starfish.TestSupport;
+
+/**
+ * Writes numbers in a variety of formats and checks that MappedTextReader
+ * returns the same bits as Double.parseDouble, on both the fast path and the
+ * values passed to the library.
+ */
+public class MappedTextReaderTest
+{
+    public static void main(String args[]) throws IOException
+    {
+	Path dir = Files.createTempDirectory("sf_text");
+	try {
+	    ArrayList<String> tokens = makeTokens(new Random(3));
+	    roundTrip(dir.resolve("unix.dat"), tokens, "\n");
+	    roundTrip(dir.resolve("dos.dat"), tokens, "\r\n");
+	    lines(dir.resolve("lines.dat"));
+	} finally {
+	    TestSupport.deleteDir(dir);
+	}
+	System.out.println("MappedTextReaderTest passed");
+    }
+
+    static ArrayList<String> makeTokens(Random rnd)
+    {
+	ArrayList<String> tokens = new ArrayList<>();
+
+	/*fixed cases: signs, missing digits, exponents at the fast path limits*/
+	String fixed[] = {"0", "-0", "+0.0", "0.000", "1", "-1", "+1.5", ".5", "-.25", "5.",
+	    "123456789012345", "1234567890123456", "0.000000000000001234",
+	    "1e22", "1e23", "1e-22", "1e-23", "9.999999999999999e22", "-7E+05", "3.25e-0",
+	    "1.0D+00", "-2.5d-3", "6.02214076D23",
+	    "4.9e-324", "2.2250738585072014E-308", "2.2250738585072009e-308",
+	    "1.7976931348623157e308", "1e400", "-1e-400",
+	    "3.14159265358979323846264338327950288", "0.1000000000000000055511151231257827",
+	    "123456789012345678901234567890e-20", "NaN", "-Infinity"};
+	for (String s:fixed) tokens.add(s);
+
+	for (int k=0;k<20000;k++)
+	{
+	    double v;
+	    switch (k%4)
+	    {
+		case 0: v = Double.longBitsToDouble(rnd.nextLong()); break;			//any bits
+		case 1: v = Double.longBitsToDouble(rnd.nextLong()&0x000fffffffffffffL);	//subnormal
+		    break;
+		case 2: v = (rnd.nextDouble()-0.5)*Math.pow(10, rnd.nextInt(60)-30); break;
+		default: v = rnd.nextInt(2000000)-1000000;
+	    }
+	    if (Double.isNaN(v) || Double.isInfinite(v)) v = rnd.nextGaussian();
+
+	    switch (k%5)
+	    {
+		case 0: tokens.add(Double.toString(v)); break;
+		case 1: tokens.add(String.format(Locale.US, "%.6e", v)); break;
+		case 2: tokens.add(String.format(Locale.US, "%.17g", v).trim()); break;
+		case 3: tokens.add(String.format(Locale.US, "%.14E", v).replace('E', 'D')); break;
+		default: tokens.add(new BigDecimal(v).toString());			//long mantissa
+	    }
+	}
+	return tokens;
+    }
+
+    /*tokens separated by spaces, tabs, commas, and the given line break*/
+    static void roundTrip(Path path, ArrayList<String> tokens, String eol) throws IOException
+    {
+	String sep[] = {" ", "\t", ", ", "  ", eol};
+	StringBuilder sb = new StringBuilder();
+	for (int i=0;i<tokens.size();i++)
+	    sb.append(tokens.get(i)).append(sep[i%sep.length]);
+	Files.write(path, sb.toString().getBytes(StandardCharsets.US_ASCII));
+
+	try (MappedTextReader in = new MappedTextReader(path.toString()))
+	{
+	    for (String token:tokens)
+	    {
+		double expected = Double.parseDouble(token.replace('D', 'e').replace('d', 'e'));
+		double value = in.nextDouble();
+		check(Double.doubleToRawLongBits(value)==Double.doubleToRawLongBits(expected)
+			|| (Double.isNaN(value) && Double.isNaN(expected)),
+			"read "+value+" for "+token+", expected "+expected);
+	    }
+	    check(in.skipSeparators()<0, "data left after the last token");
+	}
+    }
+
+    /*line breaks are removed from lines, also with CRLF*/
+    static void lines(Path path) throws IOException
+    {
+	Files.write(path, "TITLE = \"x\"\r\nVARIABLES = a\n1.5\r\n".getBytes(StandardCharsets.US_ASCII));
+	try (MappedTextReader in = new MappedTextReader(path.toString()))
+	{
+	    check(in.readLine().equals("TITLE = \"x\""), "CRLF line");
+	    check(in.readLine().equals("VARIABLES = a"), "LF line");
+	    check(in.nextDouble()==1.5, "value after the header");
+	    check(in.skipSeparators()<0 && in.readLine()==null, "data after the last line");
+	}
+    }
+
+    static void check(boolean cond, String message)
+    {
+	if (!cond) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import starfish.TestSupport;
+import starfish.core.common.Starfish;
+import starfish.core.domain.Mesh;
+import starfish.core.materials.KineticMaterial;
+import starfish.core.materials.KineticMaterial.Particle;
+
+/**
+ * Samples the particles of a short simulation with ParticleSampler. Checks
+ * the sample size, that particles are selected at most once, the region and
+ * per cell limits, and the selection frequencies with and without weights.
+ */
+public class ParticleSamplerTest
+{
+    static KineticMaterial km;
+    static Mesh mesh;
+    static ArrayList<Particle> parts = new ArrayList<>();
+    static HashMap<Double,Particle> by_vel = new HashMap<>();	//particles by x velocity
+
+    public static void main(String args[]) throws IOException
+    {
+	Path dir = Files.createTempDirectory("sf_sampler");
+	try {
+	    TestSupport.runSimulation(dir, TestSupport.AMBIENT_INPUT);
+	} finally {
+	    TestSupport.deleteDir(dir);
+	}
+
+	km = Starfish.getKineticMaterial("Ar");
+	mesh = Starfish.getMeshList().get(0);
+	for (Iterator<Particle> iter = km.getIterator(mesh); iter.hasNext();)
+	{
+	    Particle part = iter.next();
+	    parts.add(part);
+	    check(by_vel.put(part.vel[0], part)==null, "particles can't be told apart");
+	}
+	int np = parts.size();
+	check(np>1000, "too few particles: "+np);
+
+	/*everything if the sample is larger than the population*/
+	ParticleSampler sampler = new ParticleSampler(np+10, 0, false, false);
+	check(select(sampler).size()==np, "not all particles selected");
+
+	/*sample size and uniform frequencies*/
+	int k = np/10;
+	int hits[] = new int[2];
+	int trials = 400;
+	sampler = new ParticleSampler(k, 0, false, false);
+	for (int t=0;t<trials;t++)
+	{
+	    HashSet<Particle> sel = select(sampler);
+	    check(sel.size()==k, "selected "+sel.size()+" of "+k);
+	    for (Particle part:sel)
+		hits[part.pos[1]<0.1?0:1]++;
+	}
+	int lower = 0;
+	for (Particle part:parts)
+	    if (part.pos[1]<0.1) lower++;
+	expect(hits[0], (double)trials*k, (double)lower/np, "uniform");
+
+	/*weighted, a single draw picks a particle with probability mpw/sum(mpw)*/
+	double w_heavy = 0, w_sum = 0;
+	for (Particle part:parts)
+	{
+	    part.mpw = part.pos[1]<0.1?3:1;
+	    if (part.id%10==0) part.mpw = 0;
+	    if (part.mpw==3) w_heavy += part.mpw;
+	    w_sum += part.mpw;
+	}
+	sampler = new ParticleSampler(1, 0, true, false);
+	int heavy = 0;
+	trials = 2000;
+	for (int t=0;t<trials;t++)
+	{
+	    Particle part = select(sampler).iterator().next();
+	    check(part.mpw>0, "particle with zero weight selected");
+	    if (part.mpw==3) heavy++;
+	}
+	expect(heavy, trials, w_heavy/w_sum, "weighted");
+
+	/*weights are ignored unless requested*/
+	sampler = new ParticleSampler(k, 0, false, false);
+	boolean zero = false;
+	for (int t=0;t<50 && !zero;t++)
+	    for (Particle part:select(sampler))
+		zero |= part.mpw==0;
+	check(zero, "unweighted sample skipped particles with zero weight");
+
+	/*region*/
+	double x0[] = {0.05, 0.02}, x1[] = {0.01, 0.12};
+	int inside = 0;
+	for (Particle part:parts)
+	    if (part.mpw>0 && part.pos[0]>=0.01 && part.pos[0]<=0.05 && part.pos[1]>=0.02 && part.pos[1]<=0.12) inside++;
+	sampler = new ParticleSampler(inside/2, 0, true, false);
+	sampler.setRegion(x0, x1);
+	HashSet<Particle> sel = select(sampler);
+	check(sel.size()==inside/2, "region sample has "+sel.size()+" of "+inside/2);
+	for (Particle part:sel)
+	    check(part.pos[0]>=0.01 && part.pos[0]<=0.05 && part.pos[1]>=0.02 && part.pos[1]<=0.12, "particle outside the region");
+
+	/*per cell quota*/
+	int per_cell = 3;
+	int nc = (mesh.ni-1)*(mesh.nj-1);
+	int in_cell[] = new int[nc];
+	for (Particle part:parts)
+	    if (part.mpw>0) in_cell[cell(part)]++;
+	int expected = 0;
+	for (int c=0;c<nc;c++) expected += Math.min(in_cell[c], per_cell);
+
+	sampler = new ParticleSampler(0, per_cell, true, false);
+	sel = select(sampler);
+	check(sel.size()==expected, "per cell sample has "+sel.size()+" particles, expected "+expected);
+	int sel_cell[] = new int[nc];
+	for (Particle part:sel)
+	    check(++sel_cell[cell(part)]<=per_cell, "cell quota exceeded");
+
+	System.out.println("ParticleSamplerTest passed");
+    }
+
+    /*runs the sampler and maps the output back to particles*/
+    static HashSet<Particle> select(ParticleSampler sampler)
+    {
+	sampler.sample(km);
+	check(sampler.pos.length==3*sampler.size && sampler.radius.length==sampler.size, "columns not trimmed");
+
+	HashSet<Particle> sel = new HashSet<>();
+	for (int s=0;s<sampler.size;s++)
+	{
+	    Particle part = by_vel.get(sampler.vel[3*s]);
+	    check(part!=null, "unknown particle in slot "+s);
+	    check(sampler.pos[3*s]==part.pos[0] && sampler.pos[3*s+1]==part.pos[1], "wrong position in slot "+s);
+	    check(sel.add(part), "particle selected twice");
+	}
+	return sel;
+    }
+
+    static int cell(Particle part)
+    {
+	double lc[] = mesh.XtoL(part.pos);
+	int i = Math.min((int)lc[0], mesh.ni-2);
+	int j = Math.min((int)lc[1], mesh.nj-2);
+	return i*(mesh.nj-1)+j;
+    }
+
+    /*count of n draws with probability p within 5 standard deviations*/
+    static void expect(int count, double n, double p, String what)
+    {
+	double sigma = Math.sqrt(n*p*(1-p));
+	check(Math.abs(count-n*p)<=5*sigma, what+" frequency "+count/n+", expected "+p);
+    }
+
+    static void check(boolean cond, String message)
+    {
+	if (!cond) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.io;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import starfish.TestSupport;
+import starfish.core.common.Starfish;
+import starfish.core.domain.Mesh;
+
+/**
+ * Writes several frames of a two mesh domain with SeriesWriter and reads them
+ * back with SeriesReader, in planar and axisymmetric domains and in both
+ * precisions. Files cut inside the last frame or missing the footer must
+ * return the complete frames only.
+ */
+public class SeriesTest
+{
+    static final int FRAMES = 3;
+    static final String SCALARS[] = {"phi", "rho", "bfi"};
+    static final String CELL_DATA[] = {"rho"};
+    static final String VECTOR[] = {"efi", "efj"};
+
+    public static void main(String args[]) throws Exception
+    {
+	for (String domain:new String[] {"xy", "rz"})
+	{
+	    Path dir = Files.createTempDirectory("sf_series");
+	    try {
+		TestSupport.runSimulation(dir, input(domain));
+		check(Starfish.getMeshList().size()==2, domain+" domain does not have two meshes");
+
+		for (String precision:new String[] {"double", "float"})
+		{
+		    String file_name = "series_"+precision+".bin";
+		    ArrayList<double[][][]> frames = write(file_name, precision);
+		    read(dir.resolve(file_name), frames, precision.equals("float"), FRAMES);
+		    truncated(dir, dir.resolve(file_name), frames, precision.equals("float"));
+		}
+		revolved(dir);
+	    } finally {
+		TestSupport.deleteDir(dir);
+	    }
+	}
+	System.out.println("SeriesTest passed");
+    }
+
+    /*two adjacent meshes of different size, no particles*/
+    static String input(String domain)
+    {
+	return "<simulation>\n"+
+	"<log level=\"warning\" />\n"+
+	"<stats />\n"+
+	"<domain type=\""+domain+"\">\n"+
+	"<mesh type=\"uniform\" name=\"left\">\n"+
+	"<origin>0,0</origin><spacing>0.02,0.02</spacing><nodes>11,6</nodes>\n"+
+	"</mesh>\n"+
+	"<mesh type=\"uniform\" name=\"right\">\n"+
+	"<origin>0.2,0</origin><spacing>0.01,0.02</spacing><nodes>7,6</nodes>\n"+
+	"</mesh>\n"+
+	"</domain>\n"+
+	"<materials>\n"+
+	"<material name=\"Ar\" type=\"kinetic\"><molwt>39.94</molwt><charge>0</charge><spwt>1e10</spwt></material>\n"+
+	"</materials>\n"+
+	"<time><num_it>1</num_it><dt>1e-5</dt></time>\n"+
+	"</simulation>\n";
+    }
+
+    static Element element(String xml) throws Exception
+    {
+	return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+		.parse(new InputSource(new StringReader(xml))).getDocumentElement();
+    }
+
+    /*writes FRAMES frames with distinct values, returns the values as
+    [mesh][variable][i+j*ni] for each frame, in the order of the writer variables*/
+    static ArrayList<double[][][]> write(String file_name, String precision) throws Exception
+    {
+	ArrayList<String[]> vectors = new ArrayList<>();
+	vectors.add(VECTOR);
+	SeriesWriter writer = new SeriesWriter(element(
+		"<output type=\"2D\" file_name=\""+file_name+"\" format=\"series\" precision=\""+precision+"\"/>"));
+	writer.init2D(SCALARS, vectors, CELL_DATA, null);
+	check(writer.var_names.size()==6, "writer stores "+writer.var_names.size()+" variables");
+
+	ArrayList<Mesh> mesh_list = Starfish.getMeshList();
+	ArrayList<double[][][]> frames = new ArrayList<>();
+	for (int f=0;f<FRAMES;f++)
+	{
+	    double frame[][][] = new double[mesh_list.size()][writer.var_names.size()][];
+	    for (int m=0;m<mesh_list.size();m++)
+	    {
+		Mesh mesh = mesh_list.get(m);
+		for (int v=0;v<writer.var_names.size();v++)
+		{
+		    /*node and cell data of the same name share the field*/
+		    String var = writer.var_names.get(v);
+		    double data[][] = Starfish.getField(mesh, var).getData();
+		    for (int i=0;i<mesh.ni;i++)
+			for (int j=0;j<mesh.nj;j++)
+			    data[i][j] = f*1e4+m*1e3+var.length()*100+i+j/3.0;
+
+		    int ni = mesh.ni, nj = mesh.nj;
+		    if (writer.var_kinds.get(v)==SeriesWriter.CELL) {ni--;nj--;}
+		    frame[m][v] = new double[ni*nj];
+		    for (int j=0;j<nj;j++)
+			for (int i=0;i<ni;i++)
+			    frame[m][v][j*ni+i] = data[i][j];
+		}
+	    }
+	    writer.write2D(true);
+	    frames.add(frame);
+	}
+	writer.close();
+	return frames;
+    }
+
+    /*header and the first num_frames frames must match what was written*/
+    static void read(Path path, ArrayList<double[][][]> frames, boolean single, int num_frames) throws IOException
+    {
+	ArrayList<Mesh> mesh_list = Starfish.getMeshList();
+	try (SeriesReader in = new SeriesReader(path.toString()))
+	{
+	    check(in.getValueBytes()==(single?Float.BYTES:Double.BYTES), "value size "+in.getValueBytes());
+	    check(in.getNumFrames()==num_frames, path.getFileName()+" has "+in.getNumFrames()+" frames, expected "+num_frames);
+	    check(in.getMeshes().size()==mesh_list.size(), "wrong number of meshes");
+
+	    /*geometry*/
+	    for (int m=0;m<mesh_list.size();m++)
+	    {
+		Mesh mesh = mesh_list.get(m);
+		SeriesReader.MeshInfo info = in.getMeshes().get(m);
+		check(info.name.equals(mesh.getName()) && info.ni==mesh.ni && info.nj==mesh.nj, "mesh "+m+" header");
+		ByteBuffer pos = in.getPositions(m);
+		ByteBuffer types = in.getTypes(m);
+		for (int j=0;j<mesh.nj;j++)
+		    for (int i=0;i<mesh.ni;i++)
+		    {
+			double x[] = mesh.pos(i, j);
+			check(pos.getDouble()==x[0] && pos.getDouble()==x[1] && pos.getDouble()==0,
+				"position of node "+i+","+j+" on mesh "+m);
+			check(types.getInt()==mesh.getNode(i, j).type.value(), "type of node "+i+","+j+" on mesh "+m);
+		    }
+	    }
+
+	    /*variables, node data is found first and vector components refer to the pair*/
+	    int rho = in.findVariable("rho");
+	    check(rho>=0 && in.getKind(rho)==SeriesWriter.NODE, "rho node data not found first");
+	    check(in.getVectors().size()==1, "vector pair missing");
+	    int pair[] = in.getVectors().get(0);
+	    check(in.getVariables().get(pair[0]).equals(VECTOR[0]) && in.getVariables().get(pair[1]).equals(VECTOR[1]),
+		    "vector pair refers to the wrong variables");
+
+	    for (int f=0;f<num_frames;f++)
+	    {
+		check(in.getIt(f)==Starfish.getIt(), "time step of frame "+f);
+		double frame[][][] = frames.get(f);
+		for (int m=0;m<frame.length;m++)
+		    for (int v=0;v<frame[m].length;v++)
+		    {
+			double data[] = in.getData(f, m, v);
+			check(data.length==frame[m][v].length, "size of variable "+v+" on mesh "+m);
+			for (int k=0;k<data.length;k++)
+			{
+			    double expected = single?(float)frame[m][v][k]:frame[m][v][k];
+			    check(data[k]==expected, "frame "+f+" mesh "+m+" variable "+in.getVariables().get(v)+
+				    " value "+k+" is "+data[k]+", expected "+expected);
+			}
+		    }
+	    }
+	}
+    }
+
+    /*an interrupted run leaves no footer and possibly a partial frame*/
+    static void truncated(Path dir, Path path, ArrayList<double[][][]> frames, boolean single) throws IOException
+    {
+	long size = Files.size(path);
+	long footer_start;
+	try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+	    ByteBuffer bb = ByteBuffer.allocate(Long.BYTES).order(SeriesWriter.BYTE_ORDER);
+	    ch.read(bb, size-Long.BYTES-Integer.BYTES);
+	    footer_start = bb.getLong(0);
+	}
+
+	/*complete frames without the footer*/
+	Path copy = dir.resolve("no_footer.bin");
+	Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING);
+	try (FileChannel ch = FileChannel.open(copy, StandardOpenOption.WRITE)) {
+	    ch.truncate(footer_start);
+	}
+	read(copy, frames, single, FRAMES);
+
+	/*last frame cut in the middle*/
+	try (FileChannel ch = FileChannel.open(copy, StandardOpenOption.WRITE)) {
+	    ch.truncate(footer_start-100);
+	}
+	read(copy, frames, single, FRAMES-1);
+	Files.delete(copy);
+    }
+
+    /*the series format holds 2D data only, revolved 3D output must not create a file*/
+    static void revolved(Path dir) throws Exception
+    {
+	SeriesWriter writer = new SeriesWriter(element(
+		"<output type=\"3D\" file_name=\"revolved.bin\" format=\"series\"/>"));
+	writer.init3D(SCALARS, new ArrayList<>(), new String[0], element("<output resolution=\"8\"/>"));
+	writer.writeData(true);
+	writer.close();
+	check(!Files.exists(dir.resolve("revolved.bin")), "3D output written to a series file");
+    }
+
+    static void check(boolean cond, String message)
+    {
+	if (!cond) throw new AssertionError(message);
+    }
+}
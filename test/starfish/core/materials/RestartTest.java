@@ -0,0 +1,100 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.materials;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import starfish.TestSupport;
+import starfish.core.common.Starfish;
+import starfish.core.io.CheckpointReader;
+import starfish.core.io.CheckpointWriter;
+import starfish.core.materials.KineticMaterial.MeshData;
+import starfish.core.materials.KineticMaterial.Particle;
+
+/**
+ * Runs a short simulation, saves the particles of a kinetic material, and
+ * loads them back. Every particle must come back with the same id, position,
+ * and velocity, and new ids must continue past the restored ones.
+ */
+public class RestartTest
+{
+    public static void main(String args[]) throws IOException
+    {
+	Path dir = Files.createTempDirectory("sf_restart");
+	try {
+	    run(dir);
+	} finally {
+	    TestSupport.deleteDir(dir);
+	}
+	System.out.println("RestartTest passed");
+    }
+
+    static void run(Path dir) throws IOException
+    {
+	TestSupport.runSimulation(dir, TestSupport.AMBIENT_INPUT);
+
+	KineticMaterial km = Starfish.getKineticMaterial("Ar");
+	MeshData md = km.getMeshData(Starfish.getMeshList().get(0));
+	check(md.getNp()>0, "no particles were created");
+
+	/*particles as saved, by id*/
+	HashMap<Integer,Particle> saved = new HashMap<>();
+	int max_id = -1;
+	for (Iterator<Particle> iter = km.getIterator(md.mesh); iter.hasNext();)
+	{
+	    Particle part = iter.next();
+	    check(saved.put(part.id, part)==null, "duplicate id "+part.id);
+	    max_id = Math.max(max_id, part.id);
+	}
+
+	String file_name = dir.resolve("restart.bin").toString();
+	try (CheckpointWriter out = new CheckpointWriter(file_name, CheckpointWriter.Codec.NONE, 1<<16)) {
+	    km.saveRestartData(out);
+	}
+
+	/*start from an empty material*/
+	for (KineticMaterial.ParticleBlock block:md.particle_block)
+	    block.particle_list.clear();
+	km.part_id_counter = 0;
+
+	try (CheckpointReader in = new CheckpointReader(file_name, 1<<16)) {
+	    km.loadRestartData(in);
+	}
+
+	check(md.getNp()==saved.size(), "restored "+md.getNp()+" of "+saved.size()+" particles");
+	int min_block = Integer.MAX_VALUE, max_block = 0;
+	for (KineticMaterial.ParticleBlock block:md.particle_block)
+	{
+	    min_block = Math.min(min_block, block.particle_list.size());
+	    max_block = Math.max(max_block, block.particle_list.size());
+	}
+	check(max_block-min_block<=1, "unbalanced particle blocks");
+
+	for (Iterator<Particle> iter = km.getIterator(md.mesh); iter.hasNext();)
+	{
+	    Particle part = iter.next();
+	    Particle orig = saved.remove(part.id);
+	    check(orig!=null, "unknown or repeated id "+part.id);
+	    for (int d=0;d<3;d++)
+	    {
+		check(part.pos[d]==orig.pos[d], "position of particle "+part.id+" changed");
+		check(part.vel[d]==orig.vel[d], "velocity of particle "+part.id+" changed");
+	    }
+	    check(part.lc[0]==orig.lc[0] && part.lc[1]==orig.lc[1], "logical position of particle "+part.id+" changed");
+	    check(part.mpw==orig.mpw && part.dt==orig.dt && part.born_it==orig.born_it, "particle "+part.id+" changed");
+	}
+	check(km.part_id_counter==max_id+1, "new ids do not continue past the restored ones");
+    }
+
+    static void check(boolean cond, String message)
+    {
+	if (!cond) throw new AssertionError(message);
+    }
+}
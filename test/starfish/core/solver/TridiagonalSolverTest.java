@@ -0,0 +1,104 @@
+/*
+ * (c) 2012-2019 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ */
+package starfish.core.solver;
+
+import java.util.Random;
+
+/**
+ * Solves random diagonally dominant systems along the i and j lines of a
+ * flattened mesh and compares the result with a scalar Thomas solve of each
+ * line. Line counts that are not a multiple of the block size are included.
+ * solve uses the worker pool if a simulation has set more than one processor.
+ */
+public class TridiagonalSolverTest
+{
+    public static void main(String args[])
+    {
+	Random rnd = new Random(3);
+	int sizes[][] = {{1,1}, {2,1}, {1,5}, {7,3}, {16,16}, {33,17}, {81,41}, {150,130}};
+
+	for (int size[]:sizes)
+	{
+	    int ni = size[0], nj = size[1];
+	    int nu = ni*nj;
+	    double a[] = new double[nu], b[] = new double[nu], c[] = new double[nu], d[] = new double[nu];
+	    for (int u=0;u<nu;u++)
+	    {
+		a[u] = rnd.nextDouble()-0.5;
+		c[u] = rnd.nextDouble()-0.5;
+		b[u] = (rnd.nextBoolean()?1:-1)*(1.1+rnd.nextDouble());
+		d[u] = 10*rnd.nextGaussian();
+	    }
+
+	    /*i lines, then j lines*/
+	    check(a, b, c, d, nj, ni, ni, 1);
+	    check(a, b, c, d, ni, nj, 1, ni);
+	}
+	System.out.println("TridiagonalSolverTest passed");
+    }
+
+    static void check(double a[], double b[], double c[], double d[], int num_lines, int len, int line_offset, int stride)
+    {
+	double x[] = new double[d.length];
+	double work[] = new double[d.length];
+	double rhs[] = d.clone();
+	TridiagonalSolver.solve(a, b, c, rhs, x, work, num_lines, len, line_offset, stride);
+
+	double x_blocks[] = new double[d.length];
+	rhs = d.clone();
+	TridiagonalSolver.solveLines(a, b, c, rhs, x_blocks, work, 0, num_lines, len, line_offset, stride);
+
+	double la[] = new double[len], lb[] = new double[len], lc[] = new double[len], ld[] = new double[len];
+	for (int l=0;l<num_lines;l++)
+	{
+	    for (int k=0;k<len;k++)
+	    {
+		int u = l*line_offset+k*stride;
+		la[k] = a[u]; lb[k] = b[u]; lc[k] = c[u]; ld[k] = d[u];
+	    }
+	    double ref[] = thomas(la, lb, lc, ld);
+
+	    for (int k=0;k<len;k++)
+	    {
+		int u = l*line_offset+k*stride;
+		check(Math.abs(x[u]-ref[k])<=1e-12*(1+Math.abs(ref[k])),
+			"line "+l+" element "+k+" is "+x[u]+", expected "+ref[k]);
+		check(x_blocks[u]==x[u], "line "+l+" depends on the number of threads");
+
+		/*residual of the original system*/
+		double r = lb[k]*x[u]-ld[k];
+		if (k>0) r += la[k]*x[u-stride];
+		if (k<len-1) r += lc[k]*x[u+stride];
+		check(Math.abs(r)<=1e-11*(1+Math.abs(ld[k])), "residual "+r+" on line "+l);
+	    }
+	}
+    }
+
+    /*scalar Thomas algorithm*/
+    static double[] thomas(double a[], double b[], double c[], double d[])
+    {
+	int n = b.length;
+	double cp[] = new double[n], dp[] = new double[n], x[] = new double[n];
+	cp[0] = c[0]/b[0];
+	dp[0] = d[0]/b[0];
+	for (int k=1;k<n;k++)
+	{
+	    double m = b[k]-a[k]*cp[k-1];
+	    cp[k] = c[k]/m;
+	    dp[k] = (d[k]-a[k]*dp[k-1])/m;
+	}
+	x[n-1] = dp[n-1];
+	for (int k=n-2;k>=0;k--)
+	    x[k] = dp[k]-cp[k]*x[k+1];
+	return x;
+    }
+
+    static void check(boolean cond, String message)
+    {
+	if (!cond) throw new AssertionError(message);
+    }
+}